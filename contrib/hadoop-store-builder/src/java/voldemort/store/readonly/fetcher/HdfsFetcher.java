@@ -17,11 +17,11 @@
 package voldemort.store.readonly.fetcher;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
@@ -29,35 +29,34 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
 
-import voldemort.store.readonly.FileFetcher;
-import voldemort.utils.IoThrottler;
 import voldemort.utils.Props;
 import voldemort.utils.Time;
 import voldemort.utils.Utils;
 
 /**
- * A fetcher that fetches the store files from HDFS
+ * A fetcher that fetches the store files from HDFS, several files at a time
  * 
  * @author jay
  * 
  */
-public class HdfsFetcher implements FileFetcher {
+public class HdfsFetcher extends ParallelFetcher {
 
     private static final Logger logger = Logger.getLogger(HdfsFetcher.class);
     private static final String DEFAULT_TEMP_DIR = new File(System.getProperty("java.io.tmpdir"),
                                                             "hdfs-fetcher").getAbsolutePath();
     private static final int BUFFER_SIZE = 64 * 1024;
-    private static final int REPORTING_INTERVAL_BYTES = 100 * 1024 * 1024;
 
-    private File tempDir;
-    private final Long maxBytesPerSecond;
+    private final Configuration config;
 
     public HdfsFetcher(Props props) {
         this(props.containsKey("fetcher.max.bytes.per.sec") ? props.getBytes("fetcher.max.bytes.per.sec")
                                                            : null,
-             new File(props.getString("hdfs.fetcher.tmp.dir", DEFAULT_TEMP_DIR)));
-        logger.info("Created hdfs fetcher with temp dir = " + tempDir.getAbsolutePath()
-                    + " and throttle rate " + maxBytesPerSecond);
+             new File(props.getString("hdfs.fetcher.tmp.dir", DEFAULT_TEMP_DIR)),
+             props.getInt("fetcher.threads", 4),
+             props.getInt("fetcher.max.attempts", 3));
+        logger.info("Created hdfs fetcher with temp dir = " + getTempDir().getAbsolutePath()
+                    + " and throttle rate "
+                    + props.getString("fetcher.max.bytes.per.sec", "unlimited"));
     }
 
     public HdfsFetcher() {
@@ -65,109 +64,64 @@ public class HdfsFetcher implements FileFetcher {
     }
 
     public HdfsFetcher(Long maxBytesPerSecond, File tempDir) {
-        if(tempDir == null)
-            this.tempDir = new File(DEFAULT_TEMP_DIR);
-        else
-            this.tempDir = Utils.notNull(new File(tempDir, "hdfs-fetcher"));
-        this.maxBytesPerSecond = maxBytesPerSecond;
-        this.tempDir.mkdirs();
+        this(maxBytesPerSecond, tempDir, 4, 3);
     }
 
-    public File fetch(String fileUrl) throws IOException {
-        Path path = new Path(fileUrl);
-        Configuration config = new Configuration();
-        config.setInt("io.file.buffer.size", 64 * 1024);
-        FileSystem fs = path.getFileSystem(config);
-        IoThrottler throttler = null;
-        if(maxBytesPerSecond != null)
-            throttler = new IoThrottler(maxBytesPerSecond);
-
-        // copy file
-        CopyStats stats = new CopyStats();
-        File destination = new File(this.tempDir, path.getName());
-        fetch(fs, path, destination, throttler, stats);
-        return destination;
+    public HdfsFetcher(Long maxBytesPerSecond, File tempDir, int numThreads, int maxAttempts) {
+        super(tempDir == null ? new File(DEFAULT_TEMP_DIR)
+                             : Utils.notNull(new File(tempDir, "hdfs-fetcher")),
+              numThreads,
+              maxAttempts,
+              maxBytesPerSecond);
+        this.config = new Configuration();
+        this.config.setInt("io.file.buffer.size", BUFFER_SIZE);
     }
 
-    private void fetch(FileSystem fs, Path source, File dest, IoThrottler throttler, CopyStats stats)
-            throws IOException {
-        if(fs.isFile(source)) {
-            copyFile(fs, source, dest, throttler, stats);
-        } else {
-            dest.mkdirs();
-            FileStatus[] statuses = fs.listStatus(source);
-            if(statuses != null) {
-                for(FileStatus status: statuses) {
-                    if(!status.getPath().getName().startsWith(".")) {
-                        fetch(fs,
-                              status.getPath(),
-                              new File(dest, status.getPath().getName()),
-                              throttler,
-                              stats);
-                    }
-                }
-            }
-        }
+    private FileSystem getFileSystem(Path path) throws IOException {
+        return path.getFileSystem(config);
     }
 
-    private void copyFile(FileSystem fs,
-                          Path source,
-                          File dest,
-                          IoThrottler throttler,
-                          CopyStats stats) throws IOException {
-        logger.info("Starting copy of " + source + " to " + dest);
-        FSDataInputStream input = null;
-        OutputStream output = null;
-        try {
-            input = fs.open(source);
-            output = new FileOutputStream(dest);
-            byte[] buffer = new byte[BUFFER_SIZE];
-            while(true) {
-                int read = input.read(buffer);
-                if(read < 0)
-                    break;
-                output.write(buffer, 0, read);
-                if(throttler != null)
-                    throttler.maybeThrottle(read);
-                stats.recordBytes(read);
-                if(stats.getBytesSinceLastReport() > REPORTING_INTERVAL_BYTES) {
-                    logger.info(stats.getBytesCopied() / (1024 * 1024) + " MB copied");
-                    stats.resetBytesSinceLastReport();
-                }
-            }
-            logger.info("Completed copy of " + source + " to " + dest);
-        } finally {
-            IOUtils.closeQuietly(output);
-            IOUtils.closeQuietly(input);
-        }
+    @Override
+    protected boolean isDirectory(String url) throws IOException {
+        Path path = new Path(url);
+        return !getFileSystem(path).isFile(path);
     }
 
-    private static class CopyStats {
-
-        private long bytesSinceLastReport;
-        private long bytesCopied;
-
-        public CopyStats() {
-            this.bytesCopied = 0;
-            this.bytesSinceLastReport = 0;
-        }
+    @Override
+    protected boolean exists(String url) throws IOException {
+        Path path = new Path(url);
+        return getFileSystem(path).isFile(path);
+    }
 
-        public void recordBytes(long bytes) {
-            this.bytesCopied += bytes;
-            this.bytesSinceLastReport += bytes;
-        }
+    @Override
+    protected List<String> listFiles(String dirUrl) throws IOException {
+        Path path = new Path(dirUrl);
+        List<String> names = new ArrayList<String>();
+        FileStatus[] statuses = getFileSystem(path).listStatus(path);
+        if(statuses != null)
+            for(FileStatus status: statuses)
+                if(!status.isDir() && !status.getPath().getName().startsWith("."))
+                    names.add(status.getPath().getName());
+        return names;
+    }
 
-        public void resetBytesSinceLastReport() {
-            this.bytesSinceLastReport = 0;
-        }
+    @Override
+    protected String getChild(String dirUrl, String name) {
+        return new Path(dirUrl, name).toString();
+    }
 
-        public long getBytesSinceLastReport() {
-            return bytesSinceLastReport;
-        }
+    @Override
+    protected String getName(String url) {
+        return new Path(url).getName();
+    }
 
-        public long getBytesCopied() {
-            return bytesCopied;
-        }
+    @Override
+    protected InputStream open(String url, long offset) throws IOException {
+        Path path = new Path(url);
+        FSDataInputStream input = getFileSystem(path).open(path);
+        if(offset > 0)
+            input.seek(offset);
+        return input;
     }
 
     /*
@@ -20,9 +20,13 @@ import java.io.StringReader;
 import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.management.MBeanServer;
@@ -36,31 +40,48 @@ import voldemort.cluster.Node;
 import voldemort.serialization.Serializer;
 import voldemort.serialization.SerializerFactory;
 import voldemort.serialization.StringSerializer;
+import voldemort.store.DelegatingStore;
+import voldemort.store.InvalidMetadataException;
 import voldemort.store.Store;
 import voldemort.store.StoreDefinition;
+import voldemort.store.cache.NearCacheStore;
+import voldemort.store.compress.CompressingStore;
+import voldemort.store.compress.CompressionStrategy;
+import voldemort.store.compress.CompressionStrategyFactory;
 import voldemort.store.logging.LoggingStore;
 import voldemort.store.metadata.MetadataStore;
 import voldemort.store.routed.RoutedStore;
 import voldemort.store.serialized.SerializingStore;
+import voldemort.store.stats.RequestTracer;
 import voldemort.store.stats.StatTrackingStore;
+import voldemort.store.stats.TracingStore;
 import voldemort.store.versioned.InconsistencyResolvingStore;
 import voldemort.utils.ByteArray;
+import voldemort.utils.DaemonThreadFactory;
 import voldemort.utils.JmxUtils;
 import voldemort.utils.SystemTime;
 import voldemort.versioning.ChainedResolver;
 import voldemort.versioning.InconsistencyResolver;
 import voldemort.versioning.TimeBasedInconsistencyResolver;
 import voldemort.versioning.VectorClockInconsistencyResolver;
+import voldemort.versioning.Version;
 import voldemort.versioning.Versioned;
 import voldemort.xml.ClusterMapper;
 import voldemort.xml.StoreDefinitionsMapper;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 /**
  * A base class for various {@link voldemort.client.StoreClientFactory
  * StoreClientFactory} implementations
  * 
+ * The cluster and store metadata is fetched once per factory and shared by
+ * all the stores it creates. Subclasses call {@link #startBootstrap()} once
+ * they are able to create stores, which fetches the metadata in the
+ * background and then refreshes it periodically; changes to the cluster are
+ * applied to the routing of the stores already created.
+ * 
  * @author jay
  * 
  */
@@ -71,6 +92,7 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
 
     private static final ClusterMapper clusterMapper = new ClusterMapper();
     private static final StoreDefinitionsMapper storeMapper = new StoreDefinitionsMapper();
+    private static final CompressionStrategyFactory compressionStrategyFactory = new CompressionStrategyFactory();
     private static final Logger logger = Logger.getLogger(AbstractStoreClientFactory.class);
 
     private final URI[] bootstrapUrls;
@@ -80,6 +102,15 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
     private final SerializerFactory serializerFactory;
     private final boolean isJmxEnabled;
     private final MBeanServer mbeanServer;
+    private final RequestTracer requestTracer;
+    private final int nearCacheSize;
+    private final long nearCacheTtlMs;
+    private final long metadataRefreshIntervalMs;
+    private final int clientZoneId;
+    private final ScheduledExecutorService metadataRefresher;
+    private final Map<RoutedStore, Boolean> routedStores;
+    private volatile Metadata metadata;
+    private volatile int metadataGeneration;
 
     public AbstractStoreClientFactory(ClientConfig config) {
         this.threadPool = new ClientThreadPool(config.getMaxThreads(),
@@ -95,6 +126,54 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
         else
             this.mbeanServer = null;
         registerJmx(JmxUtils.createObjectName(threadPool.getClass()), threadPool);
+        this.requestTracer = new RequestTracer(config.getRequestTraceSampleInterval(),
+                                               config.getMaxRequestTraces());
+        registerJmx(JmxUtils.createObjectName(RequestTracer.class), requestTracer);
+        this.nearCacheSize = config.getNearCacheSize();
+        this.nearCacheTtlMs = config.getNearCacheTtl(TimeUnit.MILLISECONDS);
+        this.metadataRefreshIntervalMs = config.getMetadataRefreshInterval(TimeUnit.MILLISECONDS);
+        this.clientZoneId = config.getClientZoneId();
+        this.metadataRefresher = new ScheduledThreadPoolExecutor(1,
+                                                                 new DaemonThreadFactory("voldemort-metadata-refresh"));
+        this.routedStores = Collections.synchronizedMap(new WeakHashMap<RoutedStore, Boolean>());
+        this.metadata = null;
+        this.metadataGeneration = 0;
+    }
+
+    /**
+     * Start fetching the metadata in the background, and schedule the
+     * periodic refresh of it. Until this is called the metadata is fetched on
+     * the first request for a store, and refreshed only when a server reports
+     * it as invalid.
+     */
+    protected void startBootstrap() {
+        final int generation = metadataGeneration;
+        metadataRefresher.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    refreshMetadata(generation);
+                } catch(Exception e) {
+                    logger.warn("Background bootstrap failed: " + e.getMessage());
+                }
+            }
+        });
+        if(metadataRefreshIntervalMs > 0) {
+            metadataRefresher.scheduleWithFixedDelay(new Runnable() {
+
+                public void run() {
+                    try {
+                        refreshMetadata(metadataGeneration);
+                    } catch(Exception e) {
+                        logger.warn("Metadata refresh failed: " + e.getMessage());
+                    }
+                }
+            }, metadataRefreshIntervalMs, metadataRefreshIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void close() {
+        metadataRefresher.shutdownNow();
     }
 
     public <K, V> StoreClient<K, V> getStoreClient(String storeName) {
@@ -110,38 +189,35 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
     @SuppressWarnings("unchecked")
     public <K, V> Store<K, V> getRawStore(String storeName,
                                           InconsistencyResolver<Versioned<V>> resolver) {
-        // Get cluster and store metadata
-        String clusterXml = bootstrapMetadata(MetadataStore.CLUSTER_KEY, bootstrapUrls);
-        Cluster cluster = clusterMapper.readCluster(new StringReader(clusterXml));
-        String storesXml = bootstrapMetadata(MetadataStore.STORES_KEY, bootstrapUrls);
-        List<StoreDefinition> storeDefs = storeMapper.readStoreList(new StringReader(storesXml));
-        StoreDefinition storeDef = null;
-        for(StoreDefinition d: storeDefs)
-            if(d.getName().equals(storeName))
-                storeDef = d;
+        // Get cluster and store metadata, fetching it again if the store is
+        // not known yet since it may have been created since the last fetch
+        int generation = metadataGeneration;
+        Metadata current = getMetadata();
+        StoreDefinition storeDef = current.storeDefs.get(storeName);
+        if(storeDef == null) {
+            refreshMetadata(generation);
+            current = getMetadata();
+            storeDef = current.storeDefs.get(storeName);
+        }
         if(storeDef == null)
             throw new BootstrapFailureException("Unknown store '" + storeName + "'.");
 
-        // construct mapping
-        Map<Integer, Store<ByteArray, byte[]>> clientMapping = Maps.newHashMap();
-        for(Node node: cluster.getNodes()) {
-            Store<ByteArray, byte[]> store = getStore(storeDef.getName(),
-                                                      node.getHost(),
-                                                      getPort(node),
-                                                      RequestFormatType.VOLDEMORT);
-            store = new LoggingStore(store);
-            clientMapping.put(node.getId(), store);
-        }
-
-        Store<ByteArray, byte[]> store = new RoutedStore(storeName,
-                                                         clientMapping,
-                                                         cluster,
-                                                         storeDef,
-                                                         true,
-                                                         threadPool,
-                                                         routingTimeoutMs,
-                                                         nodeBannageMs,
-                                                         SystemTime.INSTANCE);
+        RoutedStore routedStore = new RoutedStore(storeName,
+                                                  getNodeStores(storeName, current.cluster),
+                                                  current.cluster,
+                                                  storeDef,
+                                                  true,
+                                                  threadPool,
+                                                  routingTimeoutMs,
+                                                  nodeBannageMs,
+                                                  clientZoneId,
+                                                  SystemTime.INSTANCE);
+        routedStores.put(routedStore, Boolean.TRUE);
+        // the cluster may have changed while the store was being created
+        if(metadata.cluster != current.cluster)
+            routedStore.updateCluster(metadata.cluster,
+                                      getNodeStores(storeName, metadata.cluster));
+        Store<ByteArray, byte[]> store = routedStore;
 
         if(isJmxEnabled) {
             store = new StatTrackingStore(store);
@@ -149,6 +225,21 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
                                                   store.getName()), store);
         }
 
+        // above the stats, so they count only requests sent to the servers
+        if(nearCacheSize > 0) {
+            store = new NearCacheStore(store, nearCacheSize, nearCacheTtlMs, SystemTime.INSTANCE);
+            registerJmx(JmxUtils.createObjectName(JmxUtils.getPackageName(store.getClass()),
+                                                  store.getName()), store);
+        }
+
+        if(storeDef.getValueSerializer().hasCompression()) {
+            CompressionStrategy strategy = compressionStrategyFactory.get(storeDef.getValueSerializer()
+                                                                                  .getCompression());
+            store = new CompressingStore<ByteArray>(store, strategy);
+            registerJmx(JmxUtils.createObjectName(JmxUtils.getPackageName(store.getClass()),
+                                                  store.getName()), store);
+        }
+
         Serializer<K> keySerializer = (Serializer<K>) serializerFactory.getSerializer(storeDef.getKeySerializer());
         Serializer<V> valueSerializer = (Serializer<V>) serializerFactory.getSerializer(storeDef.getValueSerializer());
         Store<K, V> serializedStore = new SerializingStore<K, V>(store,
@@ -162,10 +253,120 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
         serializedStore = new InconsistencyResolvingStore<K, V>(serializedStore,
                                                                 new ChainedResolver<Versioned<V>>(new VectorClockInconsistencyResolver(),
                                                                                                   secondaryResolver));
+        // outermost, so a trace covers the whole request
+        serializedStore = new TracingStore<K, V>(serializedStore, requestTracer);
         return serializedStore;
     }
 
-    private String bootstrapMetadata(String key, URI[] urls) {
+    private Map<Integer, Store<ByteArray, byte[]>> getNodeStores(String storeName,
+                                                                 Cluster cluster) {
+        Map<Integer, Store<ByteArray, byte[]>> nodeStores = Maps.newHashMap();
+        for(Node node: cluster.getNodes()) {
+            Store<ByteArray, byte[]> store = getStore(storeName,
+                                                      node.getHost(),
+                                                      getPort(node),
+                                                      RequestFormatType.VOLDEMORT);
+            store = new LoggingStore<ByteArray, byte[]>(store);
+            store = new MetadataCheckingStore(store);
+            nodeStores.put(node.getId(), store);
+        }
+        return nodeStores;
+    }
+
+    /**
+     * Get the cached metadata, waiting for the bootstrap if it has not
+     * finished yet
+     */
+    private Metadata getMetadata() {
+        Metadata current = metadata;
+        if(current == null) {
+            // blocks until a running bootstrap is done
+            refreshMetadata(0);
+            current = metadata;
+        }
+        return current;
+    }
+
+    /**
+     * @return The number of times the metadata has been fetched, which a
+     *         caller reads before using it so that it can ask for it to be
+     *         fetched again only if nobody else has since
+     */
+    int getMetadataGeneration() {
+        return metadataGeneration;
+    }
+
+    /**
+     * Fetch the metadata from the bootstrap servers, unless it has been
+     * fetched again since the given generation was read. Only the parts whose
+     * content changed are parsed again.
+     * 
+     * @param seenGeneration The metadata generation read by the caller before
+     *        it found the metadata to be out of date
+     */
+    synchronized void refreshMetadata(int seenGeneration) {
+        if(metadataGeneration != seenGeneration)
+            return;
+        Metadata current = metadata;
+        Versioned<String> clusterXml = bootstrapMetadata(MetadataStore.CLUSTER_KEY, bootstrapUrls);
+        Versioned<String> storesXml = bootstrapMetadata(MetadataStore.STORES_KEY, bootstrapUrls);
+        boolean clusterChanged = current == null || !isSame(current.clusterXml, clusterXml);
+        boolean storesChanged = current == null || !isSame(current.storesXml, storesXml);
+        if(clusterChanged || storesChanged) {
+            Cluster cluster = clusterChanged ? clusterMapper.readCluster(new StringReader(clusterXml.getValue()))
+                                            : current.cluster;
+            Map<String, StoreDefinition> storeDefs = current == null ? null : current.storeDefs;
+            if(storesChanged) {
+                storeDefs = Maps.newHashMap();
+                for(StoreDefinition def: storeMapper.readStoreList(new StringReader(storesXml.getValue())))
+                    storeDefs.put(def.getName(), def);
+            }
+            metadata = new Metadata(clusterXml, storesXml, cluster, storeDefs);
+            if(clusterChanged && current != null) {
+                logger.info("Cluster metadata changed, updating the routing of existing stores.");
+                updateRoutedStores(cluster);
+            }
+        }
+        metadataGeneration++;
+    }
+
+    /*
+     * Metadata read from plain files always has the same empty version, so
+     * only the content tells whether it changed
+     */
+    private boolean isSame(Versioned<String> cached, Versioned<String> fetched) {
+        return cached.getValue().equals(fetched.getValue());
+    }
+
+    private void updateRoutedStores(Cluster cluster) {
+        List<RoutedStore> stores;
+        synchronized(routedStores) {
+            stores = Lists.newArrayList(routedStores.keySet());
+        }
+        for(RoutedStore store: stores)
+            store.updateCluster(cluster, getNodeStores(store.getName(), cluster));
+    }
+
+    /**
+     * Fetch the metadata again in the background when a server reports the
+     * metadata of this client to be out of date
+     */
+    private void onInvalidMetadata(final int seenGeneration) {
+        if(metadataGeneration != seenGeneration || metadataRefresher.isShutdown())
+            return;
+        metadataRefresher.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    refreshMetadata(seenGeneration);
+                } catch(Exception e) {
+                    logger.warn("Metadata refresh failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private Versioned<String> bootstrapMetadata(String key, URI[] urls) {
         for(URI url: urls) {
             try {
                 Store<ByteArray, byte[]> remoteStore = getStore(MetadataStore.METADATA_STORE_NAME,
@@ -177,7 +378,7 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
                                                                                    new StringSerializer("UTF-8"));
                 List<Versioned<String>> found = store.get(key);
                 if(found.size() == 1)
-                    return found.get(0).getValue();
+                    return found.get(0);
             } catch(Exception e) {
                 logger.warn("Failed to bootstrap from " + url);
                 logger.debug(e);
@@ -249,4 +450,80 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
         }
     }
 
+    /**
+     * An immutable snapshot of the cluster and store metadata
+     */
+    private static final class Metadata {
+
+        final Versioned<String> clusterXml;
+        final Versioned<String> storesXml;
+        final Cluster cluster;
+        final Map<String, StoreDefinition> storeDefs;
+
+        Metadata(Versioned<String> clusterXml,
+                 Versioned<String> storesXml,
+                 Cluster cluster,
+                 Map<String, StoreDefinition> storeDefs) {
+            this.clusterXml = clusterXml;
+            this.storesXml = storesXml;
+            this.cluster = cluster;
+            this.storeDefs = storeDefs;
+        }
+    }
+
+    /**
+     * Triggers a refresh of the metadata when a node rejects a request because
+     * the metadata used to route it is out of date
+     */
+    private final class MetadataCheckingStore extends DelegatingStore<ByteArray, byte[]> {
+
+        public MetadataCheckingStore(Store<ByteArray, byte[]> innerStore) {
+            super(innerStore);
+        }
+
+        @Override
+        public List<Versioned<byte[]>> get(ByteArray key) {
+            int generation = metadataGeneration;
+            try {
+                return super.get(key);
+            } catch(InvalidMetadataException e) {
+                onInvalidMetadata(generation);
+                throw e;
+            }
+        }
+
+        @Override
+        public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys) {
+            int generation = metadataGeneration;
+            try {
+                return super.getAll(keys);
+            } catch(InvalidMetadataException e) {
+                onInvalidMetadata(generation);
+                throw e;
+            }
+        }
+
+        @Override
+        public void put(ByteArray key, Versioned<byte[]> value) {
+            int generation = metadataGeneration;
+            try {
+                super.put(key, value);
+            } catch(InvalidMetadataException e) {
+                onInvalidMetadata(generation);
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean delete(ByteArray key, Version version) {
+            int generation = metadataGeneration;
+            try {
+                return super.delete(key, version);
+            } catch(InvalidMetadataException e) {
+                onInvalidMetadata(generation);
+                throw e;
+            }
+        }
+    }
+
 }
@@ -23,6 +23,7 @@ import java.util.concurrent.TimeUnit;
 import voldemort.client.protocol.RequestFormatType;
 import voldemort.serialization.DefaultSerializerFactory;
 import voldemort.serialization.SerializerFactory;
+import voldemort.store.routed.RoutedStore;
 import voldemort.utils.Utils;
 
 /**
@@ -48,6 +49,13 @@ public class ClientConfig {
     private volatile RequestFormatType requestFormatType = RequestFormatType.VOLDEMORT;
     private volatile RoutingTier routingTier = RoutingTier.CLIENT;
     private volatile boolean enableJmx = true;
+    private volatile int requestTraceSampleInterval = 0;
+    private volatile int maxRequestTraces = 1000;
+    private volatile int nearCacheSize = 0;
+    private volatile long nearCacheTtlMs = 1000;
+    private volatile long metadataRefreshIntervalMs = 60000;
+    private volatile int clientZoneId = RoutedStore.NO_PREFERRED_ZONE;
+    private volatile boolean sendRequestTimeouts = false;
 
     public int getMaxConnectionsPerNode() {
         return maxConnectionsPerNode;
@@ -293,4 +301,121 @@ public class ClientConfig {
         this.enableJmx = enableJmx;
         return this;
     }
+
+    public int getRequestTraceSampleInterval() {
+        return requestTraceSampleInterval;
+    }
+
+    /**
+     * Trace one in this many requests, recording how long each layer of the
+     * client and server took. Traces are kept in memory and can be read
+     * through JMX.
+     * 
+     * @param requestTraceSampleInterval The sample interval, or 0 to disable
+     *        tracing
+     */
+    public ClientConfig setRequestTraceSampleInterval(int requestTraceSampleInterval) {
+        this.requestTraceSampleInterval = requestTraceSampleInterval;
+        return this;
+    }
+
+    public int getMaxRequestTraces() {
+        return maxRequestTraces;
+    }
+
+    /**
+     * Set the number of recent request traces to keep
+     * 
+     * @param maxRequestTraces The number of traces
+     */
+    public ClientConfig setMaxRequestTraces(int maxRequestTraces) {
+        this.maxRequestTraces = maxRequestTraces;
+        return this;
+    }
+
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    /**
+     * Cache up to this many recently read keys of each store in the client.
+     * Cached values may be up to the near cache TTL out of date with respect
+     * to writes from other clients, but never older than a write made through
+     * this client.
+     * 
+     * @param nearCacheSize The number of keys per store, or 0 to disable the
+     *        cache
+     */
+    public ClientConfig setNearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+        return this;
+    }
+
+    public long getNearCacheTtl(TimeUnit unit) {
+        return unit.convert(nearCacheTtlMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set how long a value read from the servers is served from the near
+     * cache
+     * 
+     * @param nearCacheTtl The time to live of a cached value
+     * @param unit The time unit of the time to live
+     */
+    public ClientConfig setNearCacheTtl(long nearCacheTtl, TimeUnit unit) {
+        this.nearCacheTtlMs = unit.toMillis(nearCacheTtl);
+        return this;
+    }
+
+    public long getMetadataRefreshInterval(TimeUnit unit) {
+        return unit.convert(metadataRefreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set how often the cluster and store metadata is fetched again from the
+     * bootstrap servers in the background. Changes to the cluster are applied
+     * to the routing of existing store clients.
+     * 
+     * @param metadataRefreshInterval The refresh interval, or 0 to only
+     *        refresh when a server reports metadata as invalid
+     * @param unit The time unit of the refresh interval
+     */
+    public ClientConfig setMetadataRefreshInterval(long metadataRefreshInterval, TimeUnit unit) {
+        this.metadataRefreshIntervalMs = unit.toMillis(metadataRefreshInterval);
+        return this;
+    }
+
+    public int getClientZoneId() {
+        return clientZoneId;
+    }
+
+    /**
+     * Set the zone this client runs in. Reads go to replicas in this zone
+     * before replicas in other zones.
+     * 
+     * @param clientZoneId The zone id of the client, or
+     *        {@link RoutedStore#NO_PREFERRED_ZONE} to read in preference list
+     *        order
+     */
+    public ClientConfig setClientZoneId(int clientZoneId) {
+        this.clientZoneId = clientZoneId;
+        return this;
+    }
+
+    public boolean isSendRequestTimeouts() {
+        return sendRequestTimeouts;
+    }
+
+    /**
+     * Send the socket timeout with each request of the native protocol, so
+     * the server can drop requests the client has stopped waiting for. Only
+     * enable this once every server understands the timeout prefix, older
+     * servers will fail to read the requests.
+     * 
+     * @param sendRequestTimeouts If true send the timeout with each request
+     */
+    public ClientConfig setSendRequestTimeouts(boolean sendRequestTimeouts) {
+        this.sendRequestTimeouts = sendRequestTimeouts;
+        return this;
+    }
 }
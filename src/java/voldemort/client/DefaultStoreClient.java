@@ -16,6 +16,8 @@
 
 package voldemort.client;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -25,8 +27,10 @@ import voldemort.cluster.Node;
 import voldemort.routing.RoutingStrategy;
 import voldemort.serialization.Serializer;
 import voldemort.store.InvalidMetadataException;
+import voldemort.store.SpatialStore;
 import voldemort.store.Store;
 import voldemort.store.StoreCapabilityType;
+import voldemort.utils.Pair;
 import voldemort.utils.Utils;
 import voldemort.versioning.InconsistencyResolver;
 import voldemort.versioning.InconsistentDataException;
@@ -35,6 +39,8 @@ import voldemort.versioning.VectorClock;
 import voldemort.versioning.Version;
 import voldemort.versioning.Versioned;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 /**
@@ -74,6 +80,23 @@ public class DefaultStoreClient<K, V> implements StoreClient<K, V> {
         this.store = storeFactory.getRawStore(storeName, resolver);
     }
 
+    /*
+     * Rebuild the store after a node rejected a request as routed by out of
+     * date metadata, fetching the metadata again first unless that has been
+     * done since the request was sent
+     */
+    private void reinit(int seenGeneration) {
+        if(storeFactory instanceof AbstractStoreClientFactory)
+            ((AbstractStoreClientFactory) storeFactory).refreshMetadata(seenGeneration);
+        reinit();
+    }
+
+    private int getMetadataGeneration() {
+        if(storeFactory instanceof AbstractStoreClientFactory)
+            return ((AbstractStoreClientFactory) storeFactory).getMetadataGeneration();
+        return 0;
+    }
+
     public boolean delete(K key) {
         Versioned<V> versioned = get(key);
         if(versioned == null)
@@ -83,10 +106,11 @@ public class DefaultStoreClient<K, V> implements StoreClient<K, V> {
 
     public boolean delete(K key, Version version) {
         for(int attempts = 0; attempts < this.metadataRefreshAttempts; attempts++) {
+            int generation = getMetadataGeneration();
             try {
                 return store.delete(key, version);
             } catch(InvalidMetadataException e) {
-                reinit();
+                reinit(generation);
             }
         }
         throw new InvalidMetadataException(this.metadataRefreshAttempts
@@ -111,11 +135,12 @@ public class DefaultStoreClient<K, V> implements StoreClient<K, V> {
 
     public Versioned<V> get(K key, Versioned<V> defaultValue) {
         for(int attempts = 0; attempts < this.metadataRefreshAttempts; attempts++) {
+            int generation = getMetadataGeneration();
             try {
                 List<Versioned<V>> items = store.get(key);
                 return getItemOrThrow(key, defaultValue, items);
             } catch(InvalidMetadataException e) {
-                reinit();
+                reinit(generation);
             }
         }
         throw new InvalidMetadataException(this.metadataRefreshAttempts
@@ -142,11 +167,12 @@ public class DefaultStoreClient<K, V> implements StoreClient<K, V> {
             if(attempts >= this.metadataRefreshAttempts)
                 throw new InvalidMetadataException(this.metadataRefreshAttempts
                                                    + " metadata refresh attempts failed.");
+            int generation = getMetadataGeneration();
             try {
                 items = store.getAll(keys);
                 break;
             } catch(InvalidMetadataException e) {
-                reinit();
+                reinit(generation);
             }
         }
         Map<K, Versioned<V>> result = Maps.newHashMapWithExpectedSize(items.size());
@@ -177,11 +203,12 @@ public class DefaultStoreClient<K, V> implements StoreClient<K, V> {
 
     public void put(K key, Versioned<V> versioned) throws ObsoleteVersionException {
         for(int attempts = 0; attempts < this.metadataRefreshAttempts; attempts++) {
+            int generation = getMetadataGeneration();
             try {
                 store.put(key, versioned);
                 return;
             } catch(InvalidMetadataException e) {
-                reinit();
+                reinit(generation);
             }
         }
         throw new InvalidMetadataException(this.metadataRefreshAttempts
@@ -221,4 +248,84 @@ public class DefaultStoreClient<K, V> implements StoreClient<K, V> {
         return strategy.routeRequest(keySerializer.toBytes(key));
     }
 
+    public Iterator<Pair<K, Versioned<V>>> getRange(double[] min, double[] max, int pageSize) {
+        if(pageSize <= 0)
+            throw new IllegalArgumentException("Page size must be positive.");
+        return new RangeIterator(min, max, pageSize);
+    }
+
+    public List<Pair<K, Versioned<V>>> getNearest(double[] point, int count, double maxDistance) {
+        for(int attempts = 0; attempts < this.metadataRefreshAttempts; attempts++) {
+            int generation = getMetadataGeneration();
+            try {
+                return getItemsOrThrow(getSpatialStore().getNearest(point, count, maxDistance));
+            } catch(InvalidMetadataException e) {
+                reinit(generation);
+            }
+        }
+        throw new InvalidMetadataException(this.metadataRefreshAttempts
+                                           + " metadata refresh attempts failed.");
+    }
+
+    @SuppressWarnings("unchecked")
+    private SpatialStore<K, V> getSpatialStore() {
+        return (SpatialStore<K, V>) store.getCapability(StoreCapabilityType.SPATIAL_QUERIES);
+    }
+
+    private List<Pair<K, Versioned<V>>> getItemsOrThrow(List<Pair<K, List<Versioned<V>>>> found) {
+        List<Pair<K, Versioned<V>>> results = Lists.newArrayListWithCapacity(found.size());
+        for(Pair<K, List<Versioned<V>>> pair: found)
+            results.add(Pair.create(pair.getFirst(),
+                                    getItemOrThrow(pair.getFirst(), null, pair.getSecond())));
+        return results;
+    }
+
+    /**
+     * Fetches the next page of a range query once the last one is used up,
+     * starting after the last key seen
+     */
+    private class RangeIterator extends AbstractIterator<Pair<K, Versioned<V>>> {
+
+        private final double[] min;
+        private final double[] max;
+        private final int pageSize;
+        private Iterator<Pair<K, Versioned<V>>> page;
+        private boolean lastPage;
+        private K lastKey;
+
+        public RangeIterator(double[] min, double[] max, int pageSize) {
+            this.min = min;
+            this.max = max;
+            this.pageSize = pageSize;
+            this.page = Collections.<Pair<K, Versioned<V>>> emptyList().iterator();
+        }
+
+        @Override
+        protected Pair<K, Versioned<V>> computeNext() {
+            while(!page.hasNext()) {
+                if(lastPage)
+                    return endOfData();
+                List<Pair<K, Versioned<V>>> items = fetchPage();
+                lastPage = items.size() < pageSize;
+                if(!items.isEmpty())
+                    lastKey = items.get(items.size() - 1).getFirst();
+                page = items.iterator();
+            }
+            return page.next();
+        }
+
+        private List<Pair<K, Versioned<V>>> fetchPage() {
+            for(int attempts = 0; attempts < metadataRefreshAttempts; attempts++) {
+                int generation = getMetadataGeneration();
+                try {
+                    return getItemsOrThrow(getSpatialStore().getRange(min, max, lastKey, pageSize));
+                } catch(InvalidMetadataException e) {
+                    reinit(generation);
+                }
+            }
+            throw new InvalidMetadataException(metadataRefreshAttempts
+                                               + " metadata refresh attempts failed.");
+        }
+    }
+
 }
@@ -77,6 +77,7 @@ public class HttpStoreClientFactory extends AbstractStoreClientFactory {
                                                config.getMaxConnectionsPerNode());
         this.reroute = config.getRoutingTier().equals(RoutingTier.SERVER);
         this.requestFormatFactory = new RequestFormatFactory();
+        startBootstrap();
     }
 
     @Override
@@ -107,8 +108,10 @@ public class HttpStoreClientFactory extends AbstractStoreClientFactory {
                                                + url.getScheme() + "'.");
     }
 
+    @Override
     public void close() {
-    // should timeout connections on its own
+        super.close();
+        // connections should timeout on their own
     }
 
 }
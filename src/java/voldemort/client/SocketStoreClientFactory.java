@@ -43,16 +43,19 @@ public class SocketStoreClientFactory extends AbstractStoreClientFactory {
 
     private final SocketPool socketPool;
     private final RoutingTier routingTier;
+    private final boolean sendRequestTimeouts;
 
     public SocketStoreClientFactory(ClientConfig config) {
         super(config);
         this.routingTier = config.getRoutingTier();
+        this.sendRequestTimeouts = config.isSendRequestTimeouts();
         this.socketPool = new SocketPool(config.getMaxConnectionsPerNode(),
                                          config.getMaxTotalConnections(),
                                          config.getConnectionTimeout(TimeUnit.MILLISECONDS),
                                          config.getSocketTimeout(TimeUnit.MILLISECONDS),
                                          config.getSocketBufferSize());
         registerJmx(JmxUtils.createObjectName(SocketPool.class), socketPool);
+        startBootstrap();
     }
 
     @Override
@@ -65,7 +68,8 @@ public class SocketStoreClientFactory extends AbstractStoreClientFactory {
                                port,
                                socketPool,
                                type,
-                               RoutingTier.SERVER.equals(routingTier));
+                               RoutingTier.SERVER.equals(routingTier),
+                               sendRequestTimeouts);
     }
 
     @Override
@@ -83,7 +87,9 @@ public class SocketStoreClientFactory extends AbstractStoreClientFactory {
                                                + url.getScheme() + "'.");
     }
 
+    @Override
     public void close() {
+        super.close();
         this.socketPool.close();
         this.getThreadPool().shutdown();
     }
@@ -16,11 +16,13 @@
 
 package voldemort.client;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import voldemort.annotations.concurrency.Threadsafe;
 import voldemort.cluster.Node;
+import voldemort.utils.Pair;
 import voldemort.versioning.ObsoleteVersionException;
 import voldemort.versioning.Version;
 import voldemort.versioning.Versioned;
@@ -169,4 +171,28 @@ public interface StoreClient<K, V> {
      * @return a list of Nodes which should hold this key
      */
     public List<Node> getResponsibleNodes(K key);
+
+    /**
+     * Iterate over the keys inside a box, for stores whose keys are points
+     * (see {@link voldemort.store.SpatialStore}). Keys come in the order of
+     * their coordinates and are fetched a page at a time as the iterator
+     * advances.
+     * 
+     * @param min The lower corner of the box, inclusive
+     * @param max The upper corner of the box, inclusive
+     * @param pageSize The number of keys to fetch per request
+     * @return An iterator over the keys and their versioned values
+     */
+    public Iterator<Pair<K, Versioned<V>>> getRange(double[] min, double[] max, int pageSize);
+
+    /**
+     * Get the keys closest to a point, for stores whose keys are points (see
+     * {@link voldemort.store.SpatialStore}).
+     * 
+     * @param point The point to search around
+     * @param count The maximum number of keys to return
+     * @param maxDistance Only return keys within this euclidean distance
+     * @return The keys and their versioned values, nearest first
+     */
+    public List<Pair<K, Versioned<V>>> getNearest(double[] point, int count, double maxDistance);
 }
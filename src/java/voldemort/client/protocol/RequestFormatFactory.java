@@ -30,9 +30,19 @@ import voldemort.client.protocol.vold.VoldemortNativeClientRequestFormat;
 public class RequestFormatFactory {
 
     public RequestFormat getRequestFormat(RequestFormatType type) {
+        return getRequestFormat(type, 0);
+    }
+
+    /**
+     * @param type The wire format
+     * @param requestTimeoutMs How long the client waits for a response, sent
+     *        with each request where the format allows so the server can drop
+     *        requests nobody is waiting for; 0 if forever
+     */
+    public RequestFormat getRequestFormat(RequestFormatType type, int requestTimeoutMs) {
         switch(type) {
             case VOLDEMORT:
-                return new VoldemortNativeClientRequestFormat();
+                return new VoldemortNativeClientRequestFormat(requestTimeoutMs);
             case PROTOCOL_BUFFERS:
                 return new ProtoBuffClientRequestFormat();
             default:
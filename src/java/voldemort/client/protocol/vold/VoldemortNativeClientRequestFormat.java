@@ -28,8 +28,10 @@ import voldemort.client.protocol.RequestFormat;
 import voldemort.serialization.VoldemortOpCode;
 import voldemort.store.ErrorCodeMapper;
 import voldemort.store.StoreUtils;
+import voldemort.store.stats.RequestTrace;
 import voldemort.utils.ByteArray;
 import voldemort.utils.ByteUtils;
+import voldemort.utils.Pair;
 import voldemort.versioning.VectorClock;
 import voldemort.versioning.Versioned;
 
@@ -43,9 +45,19 @@ import voldemort.versioning.Versioned;
 public class VoldemortNativeClientRequestFormat implements RequestFormat {
 
     public final ErrorCodeMapper mapper;
+    private final int requestTimeoutMs;
 
     public VoldemortNativeClientRequestFormat() {
+        this(0);
+    }
+
+    /**
+     * @param requestTimeoutMs How long the client waits for each response, 0
+     *        if forever
+     */
+    public VoldemortNativeClientRequestFormat(int requestTimeoutMs) {
         this.mapper = new ErrorCodeMapper();
+        this.requestTimeoutMs = requestTimeoutMs;
     }
 
     public void writeDeleteRequest(DataOutputStream outputStream,
@@ -54,14 +66,13 @@ public class VoldemortNativeClientRequestFormat implements RequestFormat {
                                    VectorClock version,
                                    boolean shouldReroute) throws IOException {
         StoreUtils.assertValidKey(key);
+        writeRequestPrefix(outputStream);
         outputStream.writeByte(VoldemortOpCode.DELETE_OP_CODE);
         outputStream.writeUTF(storeName);
         outputStream.writeBoolean(shouldReroute);
         outputStream.writeInt(key.length());
         outputStream.write(key.get());
-        VectorClock clock = version;
-        outputStream.writeShort(clock.sizeInBytes());
-        outputStream.write(clock.toBytes());
+        version.writeSizedTo(outputStream);
     }
 
     public boolean readDeleteResponse(DataInputStream inputStream) throws IOException {
@@ -74,6 +85,7 @@ public class VoldemortNativeClientRequestFormat implements RequestFormat {
                                 ByteArray key,
                                 boolean shouldReroute) throws IOException {
         StoreUtils.assertValidKey(key);
+        writeRequestPrefix(outputStream);
         outputStream.writeByte(VoldemortOpCode.GET_OP_CODE);
         outputStream.writeUTF(storeName);
         outputStream.writeBoolean(shouldReroute);
@@ -91,12 +103,10 @@ public class VoldemortNativeClientRequestFormat implements RequestFormat {
         List<Versioned<byte[]>> results = new ArrayList<Versioned<byte[]>>(resultSize);
         for(int i = 0; i < resultSize; i++) {
             int valueSize = inputStream.readInt();
-            byte[] bytes = new byte[valueSize];
+            VectorClock clock = VectorClock.read(inputStream);
+            byte[] bytes = new byte[valueSize - clock.sizeInBytes()];
             ByteUtils.read(inputStream, bytes);
-            VectorClock clock = new VectorClock(bytes);
-            results.add(new Versioned<byte[]>(ByteUtils.copy(bytes,
-                                                             clock.sizeInBytes(),
-                                                             bytes.length), clock));
+            results.add(new Versioned<byte[]>(bytes, clock));
         }
         return results;
     }
@@ -106,6 +116,7 @@ public class VoldemortNativeClientRequestFormat implements RequestFormat {
                                    Iterable<ByteArray> keys,
                                    boolean shouldReroute) throws IOException {
         StoreUtils.assertValidKeys(keys);
+        writeRequestPrefix(output);
         output.writeByte(VoldemortOpCode.GET_ALL_OP_CODE);
         output.writeUTF(storeName);
         output.writeBoolean(shouldReroute);
@@ -141,13 +152,14 @@ public class VoldemortNativeClientRequestFormat implements RequestFormat {
                                 VectorClock version,
                                 boolean shouldReroute) throws IOException {
         StoreUtils.assertValidKey(key);
+        writeRequestPrefix(outputStream);
         outputStream.writeByte(VoldemortOpCode.PUT_OP_CODE);
         outputStream.writeUTF(storeName);
         outputStream.writeBoolean(shouldReroute);
         outputStream.writeInt(key.length());
         outputStream.write(key.get());
         outputStream.writeInt(value.length + version.sizeInBytes());
-        outputStream.write(version.toBytes());
+        version.writeTo(outputStream);
         outputStream.write(value);
     }
 
@@ -155,6 +167,96 @@ public class VoldemortNativeClientRequestFormat implements RequestFormat {
         checkException(inputStream);
     }
 
+    /**
+     * Request a page of the keys inside a box, see
+     * {@link voldemort.store.SpatialStore#getRange}. The spatial requests are
+     * only part of this protocol, not of {@link RequestFormat}.
+     */
+    public void writeGetRangeRequest(DataOutputStream outputStream,
+                                     String storeName,
+                                     double[] min,
+                                     double[] max,
+                                     ByteArray after,
+                                     int limit,
+                                     boolean shouldReroute) throws IOException {
+        if(min.length != max.length)
+            throw new IllegalArgumentException("The corners of the box have different dimensions.");
+        writeRequestPrefix(outputStream);
+        outputStream.writeByte(VoldemortOpCode.GET_RANGE_OP_CODE);
+        outputStream.writeUTF(storeName);
+        outputStream.writeBoolean(shouldReroute);
+        outputStream.writeInt(min.length);
+        writePoint(outputStream, min);
+        writePoint(outputStream, max);
+        outputStream.writeBoolean(after != null);
+        if(after != null) {
+            outputStream.writeInt(after.length());
+            outputStream.write(after.get());
+        }
+        outputStream.writeInt(limit);
+    }
+
+    /**
+     * Request the keys closest to a point, see
+     * {@link voldemort.store.SpatialStore#getNearest}.
+     */
+    public void writeGetNearestRequest(DataOutputStream outputStream,
+                                       String storeName,
+                                       double[] point,
+                                       int count,
+                                       double maxDistance,
+                                       boolean shouldReroute) throws IOException {
+        writeRequestPrefix(outputStream);
+        outputStream.writeByte(VoldemortOpCode.GET_NEAREST_OP_CODE);
+        outputStream.writeUTF(storeName);
+        outputStream.writeBoolean(shouldReroute);
+        outputStream.writeInt(point.length);
+        writePoint(outputStream, point);
+        outputStream.writeInt(count);
+        outputStream.writeDouble(maxDistance);
+    }
+
+    /**
+     * Read the response to a range or nearest request, in the order the server
+     * sent it
+     */
+    public List<Pair<ByteArray, List<Versioned<byte[]>>>> readSpatialResponse(DataInputStream stream)
+            throws IOException {
+        checkException(stream);
+        int numResults = stream.readInt();
+        List<Pair<ByteArray, List<Versioned<byte[]>>>> results = new ArrayList<Pair<ByteArray, List<Versioned<byte[]>>>>(numResults);
+        for(int i = 0; i < numResults; i++) {
+            int keySize = stream.readInt();
+            byte[] key = new byte[keySize];
+            stream.readFully(key);
+            results.add(Pair.create(new ByteArray(key), readResults(stream)));
+        }
+        return results;
+    }
+
+    private void writePoint(DataOutputStream outputStream, double[] point) throws IOException {
+        for(double d: point)
+            outputStream.writeDouble(d);
+    }
+
+    /*
+     * If the request is being traced, prefix it with the trace id so the
+     * server traces its side of the request under the same id. If there is a
+     * timeout, prefix it too so the server does not start requests the client
+     * has given up on.
+     */
+    private void writeRequestPrefix(DataOutputStream outputStream) throws IOException {
+        RequestTrace trace = RequestTrace.current();
+        if(trace != null) {
+            outputStream.writeByte(VoldemortOpCode.TRACE_OP_CODE);
+            outputStream.writeLong(trace.getId());
+        }
+        if(requestTimeoutMs > 0) {
+            outputStream.writeByte(VoldemortOpCode.TIMEOUT_OP_CODE);
+            outputStream.writeInt(requestTimeoutMs);
+        }
+    }
+
     /*
      * If there is an exception, throw it
      */
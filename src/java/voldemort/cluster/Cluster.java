@@ -138,6 +138,9 @@ public class Cluster implements Serializable {
         for(Node nodeA: this.getNodes()) {
             Node nodeB = secondCluster.getNodeById(nodeA.getId());
 
+            if(nodeA.getZoneId() != nodeB.getZoneId() || nodeA.getRackId() != nodeB.getRackId())
+                return false;
+
             if(nodeA.getNumberOfPartitions() != nodeB.getNumberOfPartitions()) {
                 return false;
             }
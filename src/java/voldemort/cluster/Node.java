@@ -29,6 +29,11 @@ import com.google.common.collect.ImmutableList;
 /**
  * A node in the voldemort cluster
  * 
+ * Each node belongs to a zone (for example a data center) and to a rack within
+ * that zone, which topology aware routing uses to place replicas on separate
+ * hardware. Both default to {@link #DEFAULT_ZONE_ID} and
+ * {@link #DEFAULT_RACK_ID}.
+ * 
  * @author jay
  * 
  */
@@ -36,12 +41,18 @@ import com.google.common.collect.ImmutableList;
 public class Node implements Serializable {
 
     private static final long serialVersionUID = 1;
+
+    public static final int DEFAULT_ZONE_ID = 0;
+    public static final int DEFAULT_RACK_ID = 0;
+
     private final int id;
     private final String host;
     private final int httpPort;
     private final int socketPort;
     private final List<Integer> partitions;
     private final int adminSocketPort;
+    private final int zoneId;
+    private final int rackId;
     private final NodeStatus status;
 
     public Node(int id,
@@ -60,11 +71,52 @@ public class Node implements Serializable {
                 int adminSocketPort,
                 List<Integer> partitions,
                 NodeStatus status) {
+        this(id,
+             host,
+             httpPort,
+             socketPort,
+             adminSocketPort,
+             DEFAULT_ZONE_ID,
+             DEFAULT_RACK_ID,
+             partitions,
+             status);
+    }
+
+    public Node(int id,
+                String host,
+                int httpPort,
+                int socketPort,
+                int adminSocketPort,
+                int zoneId,
+                int rackId,
+                List<Integer> partitions) {
+        this(id,
+             host,
+             httpPort,
+             socketPort,
+             adminSocketPort,
+             zoneId,
+             rackId,
+             partitions,
+             new NodeStatus());
+    }
+
+    public Node(int id,
+                String host,
+                int httpPort,
+                int socketPort,
+                int adminSocketPort,
+                int zoneId,
+                int rackId,
+                List<Integer> partitions,
+                NodeStatus status) {
         this.id = id;
         this.host = Utils.notNull(host);
         this.httpPort = httpPort;
         this.socketPort = socketPort;
         this.adminSocketPort = adminSocketPort;
+        this.zoneId = zoneId;
+        this.rackId = rackId;
         this.status = status;
         this.partitions = ImmutableList.copyOf(partitions);
     }
@@ -89,6 +141,14 @@ public class Node implements Serializable {
         return id;
     }
 
+    public int getZoneId() {
+        return zoneId;
+    }
+
+    public int getRackId() {
+        return rackId;
+    }
+
     public NodeStatus getStatus() {
         return status;
     }
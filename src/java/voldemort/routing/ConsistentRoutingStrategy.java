@@ -18,6 +18,7 @@ package voldemort.routing;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -40,6 +41,9 @@ import com.google.common.collect.Sets;
  * 
  * A preference list of nodes to route to is created by taking the partition
  * into which the key hashes, and then taking the next N nodes on the ring.
+ * The preference list of every partition is computed up front, so routing a
+ * key is a hash and an array lookup; the returned lists are shared and
+ * unmodifiable.
  * 
  * @author jay
  * 
@@ -48,6 +52,8 @@ public class ConsistentRoutingStrategy implements RoutingStrategy {
 
     private final int numReplicas;
     private final Node[] partitionToNode;
+    private final List<Node>[] partitionToPreferenceList;
+    private final List<Integer>[] partitionToPartitionList;
     private final HashFunction hash;
 
     public ConsistentRoutingStrategy(Collection<Node> nodes, int numReplicas) {
@@ -73,11 +79,39 @@ public class ConsistentRoutingStrategy implements RoutingStrategy {
                 throw new IllegalArgumentException("Invalid configuration, missing partition " + i);
             this.partitionToNode[i] = m.get(i);
         }
+
+        this.partitionToPreferenceList = newListArray(partitionToNode.length);
+        this.partitionToPartitionList = newListArray(partitionToNode.length);
+        for(int i = 0; i < partitionToNode.length; i++) {
+            this.partitionToPreferenceList[i] = Collections.unmodifiableList(createPreferenceList(i));
+            this.partitionToPartitionList[i] = Collections.unmodifiableList(createPartitionList(i));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T>[] newListArray(int size) {
+        return (List<T>[]) new List<?>[size];
+    }
+
+    private int getMasterPartition(byte[] key) {
+        return Math.abs(hash.hash(key)) % this.partitionToNode.length;
     }
 
     public List<Node> routeRequest(byte[] key) {
+        return partitionToPreferenceList[getMasterPartition(key)];
+    }
+
+    /**
+     * Create the preference list of keys whose master is the given partition.
+     * This is called from the constructor, so overriding implementations must
+     * not depend on state of their own.
+     * 
+     * @param masterPartition The partition a key hashes to
+     * @return The nodes to route the key to, in order of preference
+     */
+    protected List<Node> createPreferenceList(int masterPartition) {
         List<Node> preferenceList = new ArrayList<Node>(numReplicas);
-        int index = Math.abs(hash.hash(key)) % this.partitionToNode.length;
+        int index = masterPartition;
         for(int i = 0; i < partitionToNode.length; i++) {
             // add this one if we haven't already
             if(!preferenceList.contains(partitionToNode[index]))
@@ -105,6 +139,14 @@ public class ConsistentRoutingStrategy implements RoutingStrategy {
         return partitionToNode[partition];
     }
 
+    int getNumPartitions() {
+        return partitionToNode.length;
+    }
+
+    int getNumReplicas() {
+        return numReplicas;
+    }
+
     Set<Integer> getPartitionsByNode(Node n) {
         Set<Integer> tags = new HashSet<Integer>();
         for(int i = 0; i < partitionToNode.length; i++)
@@ -114,8 +156,20 @@ public class ConsistentRoutingStrategy implements RoutingStrategy {
     }
 
     public List<Integer> getPartitionList(byte[] key) {
+        return partitionToPartitionList[getMasterPartition(key)];
+    }
+
+    /**
+     * Create the partition list of keys whose master is the given partition.
+     * Like {@link #createPreferenceList(int)} this is called from the
+     * constructor.
+     * 
+     * @param masterPartition The partition a key hashes to
+     * @return The partitions the key is stored under
+     */
+    protected List<Integer> createPartitionList(int masterPartition) {
         List<Integer> preferenceList = new ArrayList<Integer>(numReplicas);
-        int index = Math.abs(hash.hash(key)) % this.partitionToNode.length;
+        int index = masterPartition;
         for(int i = 0; i < partitionToNode.length; i++) {
             // add this one if we haven't already
             if(!preferenceList.contains(index))
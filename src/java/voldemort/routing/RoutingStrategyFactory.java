@@ -23,6 +23,8 @@ public class RoutingStrategyFactory {
         if(RoutingStrategyType.CONSISTENT_STRATEGY.equals(storeDef.getRoutingStrategyType())) {
             return new ConsistentRoutingStrategy(cluster.getNodes(),
                                                  storeDef.getReplicationFactor());
+        } else if(RoutingStrategyType.ZONE_STRATEGY.equals(storeDef.getRoutingStrategyType())) {
+            return new ZoneRoutingStrategy(cluster.getNodes(), storeDef.getReplicationFactor());
         } else if(RoutingStrategyType.TO_ALL_STRATEGY.equals(storeDef.getRoutingStrategyType())) {
             return new RouteToAllStrategy(cluster.getNodes());
         } else {
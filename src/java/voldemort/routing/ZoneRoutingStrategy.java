@@ -0,0 +1,100 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.routing;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import voldemort.cluster.Node;
+import voldemort.utils.FnvHashFunction;
+import voldemort.utils.HashFunction;
+import voldemort.utils.Pair;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * A consistent routing strategy that is aware of the zone and rack of each
+ * node.
+ * 
+ * The ring is walked from the partition the key hashes to, as in
+ * {@link ConsistentRoutingStrategy}, but replicas are chosen in three passes:
+ * first nodes in zones that hold no replica yet, then nodes in racks that
+ * hold no replica yet, then any node not yet chosen. With enough zones every
+ * replica is in a different zone; otherwise replicas are spread over as many
+ * racks as possible. The master is always the first node on the ring.
+ * 
+ * @author jay
+ * 
+ */
+public class ZoneRoutingStrategy extends ConsistentRoutingStrategy {
+
+    public ZoneRoutingStrategy(Collection<Node> nodes, int numReplicas) {
+        this(new FnvHashFunction(), nodes, numReplicas);
+    }
+
+    public ZoneRoutingStrategy(HashFunction hash, Collection<Node> nodes, int numReplicas) {
+        super(hash, nodes, numReplicas);
+    }
+
+    @Override
+    protected List<Node> createPreferenceList(int masterPartition) {
+        List<Node> preferenceList = Lists.newArrayListWithCapacity(getNumReplicas());
+        for(int partition: createPartitionList(masterPartition))
+            preferenceList.add(getNodeByPartition(partition));
+        return preferenceList;
+    }
+
+    /**
+     * The partition list contains, for each replica, the partition at which
+     * its node was chosen on the ring
+     */
+    @Override
+    protected List<Integer> createPartitionList(int masterPartition) {
+        // the first partition of each distinct node, in ring order
+        List<Integer> candidates = Lists.newArrayList();
+        Set<Node> seen = Sets.newHashSet();
+        for(int i = 0; i < getNumPartitions(); i++) {
+            int partition = (masterPartition + i) % getNumPartitions();
+            if(seen.add(getNodeByPartition(partition)))
+                candidates.add(partition);
+        }
+
+        List<Integer> partitions = Lists.newArrayListWithCapacity(getNumReplicas());
+        Set<Integer> usedZones = Sets.newHashSet();
+        Set<Pair<Integer, Integer>> usedRacks = Sets.newHashSet();
+        for(int pass = 0; pass < 3; pass++) {
+            for(int partition: candidates) {
+                if(partitions.size() >= getNumReplicas())
+                    return partitions;
+                Node node = getNodeByPartition(partition);
+                Pair<Integer, Integer> rack = Pair.create(node.getZoneId(), node.getRackId());
+                if(partitions.contains(partition) || (pass == 0 && usedZones.contains(node.getZoneId()))
+                   || (pass == 1 && usedRacks.contains(rack)))
+                    continue;
+                partitions.add(partition);
+                usedZones.add(node.getZoneId());
+                usedRacks.add(rack);
+            }
+        }
+
+        // we don't have enough, but that may be okay
+        return partitions;
+    }
+
+}
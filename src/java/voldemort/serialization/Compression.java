@@ -0,0 +1,74 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.serialization;
+
+import voldemort.utils.Utils;
+
+import com.google.common.base.Objects;
+
+/**
+ * The compression settings of a serializer: the type of compression and any
+ * type-specific options (for example a preset dictionary).
+ * 
+ * @author jay
+ * 
+ */
+public class Compression {
+
+    private final String type;
+    private final String options;
+
+    public Compression(String type, String options) {
+        this.type = Utils.notNull(type);
+        this.options = options;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getOptions() {
+        return options;
+    }
+
+    public boolean hasOptions() {
+        return options != null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(obj == this)
+            return true;
+        if(obj == null)
+            return false;
+        if(!(obj.getClass() == Compression.class))
+            return false;
+        Compression c = (Compression) obj;
+        return Objects.equal(getType(), c.getType()) && Objects.equal(getOptions(), c.getOptions());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(type, options);
+    }
+
+    @Override
+    public String toString() {
+        return "Compression(type = " + type + ")";
+    }
+
+}
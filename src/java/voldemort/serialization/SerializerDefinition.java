@@ -36,6 +36,7 @@ public class SerializerDefinition {
     private final Integer currentSchemaVersion;
     private final boolean hasVersion;
     private final Map<Integer, String> schemaInfoByVersion;
+    private final Compression compression;
 
     public SerializerDefinition(String name) {
         super();
@@ -43,6 +44,7 @@ public class SerializerDefinition {
         this.currentSchemaVersion = -1;
         this.schemaInfoByVersion = new HashMap<Integer, String>();
         this.hasVersion = true;
+        this.compression = null;
     }
 
     public SerializerDefinition(String name, String schemaInfo) {
@@ -52,11 +54,20 @@ public class SerializerDefinition {
         this.schemaInfoByVersion = new HashMap<Integer, String>();
         this.schemaInfoByVersion.put(0, schemaInfo);
         this.hasVersion = true;
+        this.compression = null;
     }
 
     public SerializerDefinition(String name, Map<Integer, String> schemaInfos, boolean hasVersion) {
+        this(name, schemaInfos, hasVersion, null);
+    }
+
+    public SerializerDefinition(String name,
+                                Map<Integer, String> schemaInfos,
+                                boolean hasVersion,
+                                Compression compression) {
         super();
         this.name = Utils.notNull(name);
+        this.compression = compression;
         this.schemaInfoByVersion = new HashMap<Integer, String>();
         this.hasVersion = hasVersion;
         if(!hasVersion) {
@@ -115,6 +126,14 @@ public class SerializerDefinition {
         return this.hasVersion;
     }
 
+    public boolean hasCompression() {
+        return this.compression != null;
+    }
+
+    public Compression getCompression() {
+        return this.compression;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj == this)
@@ -126,12 +145,13 @@ public class SerializerDefinition {
         SerializerDefinition s = (SerializerDefinition) obj;
         return Objects.equal(getName(), s.getName())
                && Objects.equal(this.schemaInfoByVersion, s.schemaInfoByVersion)
-               && this.hasVersion == s.hasVersion();
+               && this.hasVersion == s.hasVersion()
+               && Objects.equal(getCompression(), s.getCompression());
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(new Object[] { name, this.schemaInfoByVersion });
+        return Arrays.hashCode(new Object[] { name, this.schemaInfoByVersion, this.compression });
     }
 
 }
@@ -27,4 +27,10 @@ public class VoldemortOpCode {
     public static final byte UPDATE_METADATA_OP_CODE = 6;
     public static final byte SERVER_STATE_CHANGE_OP_CODE = 8;
     public static final byte REDIRECT_GET_OP_CODE = 9;
+    /* prefixes a traced request with its trace id */
+    public static final byte TRACE_OP_CODE = 10;
+    /* prefixes a request with the milliseconds the client will wait for it */
+    public static final byte TIMEOUT_OP_CODE = 11;
+    public static final byte GET_RANGE_OP_CODE = 12;
+    public static final byte GET_NEAREST_OP_CODE = 13;
 }
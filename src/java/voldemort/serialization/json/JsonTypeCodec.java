@@ -0,0 +1,529 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.serialization.json;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import voldemort.annotations.concurrency.Immutable;
+import voldemort.serialization.SerializationException;
+import voldemort.utils.ByteUtils;
+
+/**
+ * A codec for a single node of a {@link JsonTypeDefinition}. A type definition
+ * is compiled once into a tree of codecs, after which reading and writing
+ * simply follows the tree without looking at the type definition again.
+ *
+ * The bytes produced are exactly those of the original interpreting
+ * serializer.
+ *
+ * @author jay
+ *
+ */
+@Immutable
+abstract class JsonTypeCodec {
+
+    private final Object type;
+
+    protected JsonTypeCodec(Object type) {
+        this.type = type;
+    }
+
+    /**
+     * Compile the given type (as returned by
+     * {@link JsonTypeDefinition#getType()}) into a codec
+     *
+     * @param type The type to compile
+     * @return The codec for that type
+     */
+    @SuppressWarnings("unchecked")
+    public static JsonTypeCodec compile(Object type) {
+        if(type instanceof Map) {
+            return new MapCodec((Map<String, Object>) type);
+        } else if(type instanceof List) {
+            List<?> l = (List<?>) type;
+            if(l.size() != 1)
+                throw new SerializationException("Invalid type: expected single value type in list: "
+                                                 + type);
+            return new ListCodec(l, compile(l.get(0)));
+        } else if(type instanceof JsonTypes) {
+            switch((JsonTypes) type) {
+                case BOOLEAN:
+                    return BOOLEAN;
+                case STRING:
+                    return STRING;
+                case INT8:
+                    return INT8;
+                case INT16:
+                    return INT16;
+                case INT32:
+                    return INT32;
+                case INT64:
+                    return INT64;
+                case FLOAT32:
+                    return FLOAT32;
+                case FLOAT64:
+                    return FLOAT64;
+                case BYTES:
+                    return BYTES;
+                case DATE:
+                    return DATE;
+                default:
+                    throw new SerializationException("Unknown type: " + type);
+            }
+        } else {
+            throw new SerializationException("Unknown type of class "
+                                             + (type == null ? null : type.getClass()));
+        }
+    }
+
+    public Object getType() {
+        return type;
+    }
+
+    /**
+     * Write the given object, wrapping any type mismatch in a
+     * SerializationException
+     */
+    public final void write(DataOutputStream output, Object object) throws IOException {
+        try {
+            writeValue(output, object);
+        } catch(ClassCastException e) {
+            // simpler than doing every test
+            throw new SerializationException("Expected type " + type
+                                             + " but got object of incompatible type "
+                                             + object.getClass().getName() + ".", e);
+        }
+    }
+
+    protected abstract void writeValue(DataOutputStream output, Object object) throws IOException;
+
+    public abstract Object read(DataInputStream input) throws IOException;
+
+    private static final JsonTypeCodec BOOLEAN = new JsonTypeCodec(JsonTypes.BOOLEAN) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null)
+                output.writeByte(-1);
+            else if(((Boolean) object).booleanValue())
+                output.writeByte(1);
+            else
+                output.write(0);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            byte b = input.readByte();
+            if(b < 0)
+                return null;
+            else if(b == 0)
+                return Boolean.FALSE;
+            else
+                return Boolean.TRUE;
+        }
+    };
+
+    private static final JsonTypeCodec STRING = new JsonTypeCodec(JsonTypes.STRING) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            writeBytes(output, object == null ? null : ((String) object).getBytes("UTF-8"));
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            byte[] bytes = readBytes(input);
+            if(bytes == null)
+                return null;
+            else
+                return new String(bytes, "UTF-8");
+        }
+    };
+
+    private static final JsonTypeCodec BYTES = new JsonTypeCodec(JsonTypes.BYTES) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            writeBytes(output, (byte[]) object);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            return readBytes(input);
+        }
+    };
+
+    private static final JsonTypeCodec INT8 = new JsonTypeCodec(JsonTypes.INT8) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeByte(Byte.MIN_VALUE);
+                return;
+            }
+            byte b = ((Byte) object).byteValue();
+            if(b == Byte.MIN_VALUE)
+                throw new SerializationException("Underflow: attempt to store " + Byte.MIN_VALUE
+                                                 + " in int8, but minimum value is "
+                                                 + (Byte.MIN_VALUE - 1) + ".");
+            output.writeByte(b);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            byte b = input.readByte();
+            if(b == Byte.MIN_VALUE)
+                return null;
+            else
+                return b;
+        }
+    };
+
+    private static final JsonTypeCodec INT16 = new JsonTypeCodec(JsonTypes.INT16) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeShort(Short.MIN_VALUE);
+                return;
+            }
+            short s;
+            Class<?> c = object.getClass();
+            if(c == Short.class)
+                s = ((Short) object).shortValue();
+            else if(c == Byte.class)
+                s = ((Byte) object).shortValue();
+            else
+                throw coercionFailure(c, JsonTypes.INT16);
+            if(s == Short.MIN_VALUE)
+                throw new SerializationException("Underflow: attempt to store " + Short.MIN_VALUE
+                                                 + " in int16, but minimum value is "
+                                                 + (Short.MIN_VALUE - 1) + ".");
+            output.writeShort(s);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            short s = input.readShort();
+            if(s == Short.MIN_VALUE)
+                return null;
+            else
+                return s;
+        }
+    };
+
+    private static final JsonTypeCodec INT32 = new JsonTypeCodec(JsonTypes.INT32) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeInt(Integer.MIN_VALUE);
+                return;
+            }
+            int i;
+            Class<?> c = object.getClass();
+            if(c == Integer.class)
+                i = ((Integer) object).intValue();
+            else if(c == Byte.class || c == Short.class)
+                i = ((Number) object).intValue();
+            else
+                throw coercionFailure(c, JsonTypes.INT32);
+            if(i == Integer.MIN_VALUE)
+                throw new SerializationException("Underflow: attempt to store " + Integer.MIN_VALUE
+                                                 + " in int32, but minimum value is "
+                                                 + (Integer.MIN_VALUE - 1) + ".");
+            output.writeInt(i);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            int i = input.readInt();
+            if(i == Integer.MIN_VALUE)
+                return null;
+            else
+                return i;
+        }
+    };
+
+    private static final JsonTypeCodec INT64 = new JsonTypeCodec(JsonTypes.INT64) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeLong(Long.MIN_VALUE);
+                return;
+            }
+            long l;
+            Class<?> c = object.getClass();
+            if(c == Long.class)
+                l = ((Long) object).longValue();
+            else if(c == Byte.class || c == Short.class || c == Integer.class)
+                l = ((Number) object).longValue();
+            else
+                throw coercionFailure(c, JsonTypes.INT64);
+            if(l == Long.MIN_VALUE)
+                throw new SerializationException("Underflow: attempt to store " + Long.MIN_VALUE
+                                                 + " in int64, but minimum value is "
+                                                 + (Long.MIN_VALUE - 1) + ".");
+            output.writeLong(l);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            long l = input.readLong();
+            if(l == Long.MIN_VALUE)
+                return null;
+            else
+                return l;
+        }
+    };
+
+    private static final JsonTypeCodec FLOAT32 = new JsonTypeCodec(JsonTypes.FLOAT32) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeFloat(Float.MIN_VALUE);
+                return;
+            }
+            float f;
+            Class<?> c = object.getClass();
+            if(c == Float.class)
+                f = ((Float) object).floatValue();
+            else if(c == Byte.class || c == Short.class || c == Integer.class)
+                f = ((Number) object).floatValue();
+            else
+                throw coercionFailure(c, JsonTypes.FLOAT32);
+            if(f == Float.MIN_VALUE)
+                throw new SerializationException("Underflow: attempt to store " + Float.MIN_VALUE
+                                                 + " in float32, but that value is reserved for null.");
+            output.writeFloat(f);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            float f = input.readFloat();
+            if(f == Float.MIN_VALUE)
+                return null;
+            else
+                return f;
+        }
+    };
+
+    private static final JsonTypeCodec FLOAT64 = new JsonTypeCodec(JsonTypes.FLOAT64) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeDouble(Double.MIN_VALUE);
+                return;
+            }
+            double d;
+            Class<?> c = object.getClass();
+            if(c == Double.class)
+                d = ((Double) object).doubleValue();
+            else if(c == Byte.class || c == Short.class || c == Integer.class
+                    || c == Float.class)
+                d = ((Number) object).doubleValue();
+            else
+                throw coercionFailure(c, JsonTypes.FLOAT32);
+            if(d == Double.MIN_VALUE)
+                throw new SerializationException("Underflow: attempt to store " + Double.MIN_VALUE
+                                                 + " in float64, but that value is reserved for null.");
+            output.writeDouble(d);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            double d = input.readDouble();
+            if(d == Double.MIN_VALUE)
+                return null;
+            else
+                return d;
+        }
+    };
+
+    private static final JsonTypeCodec DATE = new JsonTypeCodec(JsonTypes.DATE) {
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeLong(Long.MIN_VALUE);
+                return;
+            }
+            long time;
+            if(object instanceof Date)
+                time = ((Date) object).getTime();
+            else if(object instanceof Number)
+                time = ((Number) object).longValue();
+            else
+                throw new SerializationException("Object of type " + object.getClass()
+                                                 + " can not be coerced to type " + JsonTypes.DATE);
+            if(time == Long.MIN_VALUE)
+                throw new SerializationException("Underflow: attempt to store "
+                                                 + new Date(Long.MIN_VALUE)
+                                                 + " in date, but that value is reserved for null.");
+            output.writeLong(time);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            long l = input.readLong();
+            if(l == Long.MIN_VALUE)
+                return null;
+            else
+                return new Date(l);
+        }
+    };
+
+    private static SerializationException coercionFailure(Class<?> c, JsonTypes type) {
+        return new SerializationException("Object of type " + c.getName()
+                                          + " cannot be coerced to type " + type
+                                          + " as the schema specifies.");
+    }
+
+    private static byte[] readBytes(DataInputStream stream) throws IOException {
+        int size = stream.readShort();
+        if(size < 0)
+            return null;
+        byte[] bytes = new byte[size];
+        ByteUtils.read(stream, bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] b) throws IOException {
+        if(b == null) {
+            output.writeShort(-1);
+        } else if(b.length < Short.MAX_VALUE) {
+            output.writeShort(b.length);
+            output.write(b);
+        } else {
+            throw new SerializationException("Array has length " + b.length
+                                             + " which is too large to serialize.");
+        }
+    }
+
+    /**
+     * A codec for an object type; the property names and codecs are flattened
+     * into parallel arrays in the (sorted) order of the type definition
+     */
+    private static final class MapCodec extends JsonTypeCodec {
+
+        private final String[] names;
+        private final JsonTypeCodec[] codecs;
+
+        public MapCodec(Map<String, Object> type) {
+            super(type);
+            this.names = new String[type.size()];
+            this.codecs = new JsonTypeCodec[type.size()];
+            int i = 0;
+            for(Map.Entry<String, Object> entry: type.entrySet()) {
+                names[i] = entry.getKey();
+                codecs[i] = compile(entry.getValue());
+                i++;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeByte(-1);
+                return;
+            }
+            if(!(object instanceof Map))
+                throw new SerializationException("Expected Map, but got " + object.getClass()
+                                                 + ": " + object);
+            Map<String, Object> m = (Map<String, Object>) object;
+            output.writeByte(1);
+            if(m.size() != names.length)
+                throw new SerializationException("Invalid map for serialization, expected: "
+                                                 + getType() + " but got " + m);
+            for(int i = 0; i < names.length; i++) {
+                Object value = m.get(names[i]);
+                if(value == null && !m.containsKey(names[i]))
+                    throw new SerializationException("Missing property: " + names[i] + " in "
+                                                     + getType());
+                try {
+                    codecs[i].write(output, value);
+                } catch(SerializationException e) {
+                    throw new SerializationException("Fail to write property: " + names[i], e);
+                }
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            if(input.readByte() == -1)
+                return null;
+            Map<String, Object> m = new HashMap<String, Object>(names.length);
+            for(int i = 0; i < names.length; i++)
+                m.put(names[i], codecs[i].read(input));
+            return m;
+        }
+    }
+
+    /**
+     * A codec for a list type with a precompiled entry codec
+     */
+    private static final class ListCodec extends JsonTypeCodec {
+
+        private final JsonTypeCodec entryCodec;
+
+        public ListCodec(List<?> type, JsonTypeCodec entryCodec) {
+            super(type);
+            this.entryCodec = entryCodec;
+        }
+
+        @Override
+        protected void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeShort(-1);
+                return;
+            }
+            if(!(object instanceof List))
+                throw new SerializationException("Expected List but got " + object.getClass()
+                                                 + ": " + object);
+            List<?> objects = (List<?>) object;
+            if(objects.size() >= Short.MAX_VALUE)
+                throw new SerializationException("List has length " + objects.size()
+                                                 + " which is too large to serialize.");
+            output.writeShort(objects.size());
+            for(Object o: objects)
+                entryCodec.write(output, o);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            int size = input.readShort();
+            if(size < 0)
+                return null;
+            List<Object> items = new ArrayList<Object>(size);
+            for(int i = 0; i < size; i++)
+                items.add(entryCodec.read(input));
+            return items;
+        }
+    }
+
+}
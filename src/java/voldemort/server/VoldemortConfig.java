@@ -24,6 +24,7 @@ import java.util.Properties;
 
 import voldemort.client.protocol.RequestFormatType;
 import voldemort.store.bdb.BdbStorageConfiguration;
+import voldemort.store.kdtree.KDTreeStorageConfiguration;
 import voldemort.store.memory.CacheStorageConfiguration;
 import voldemort.store.memory.InMemoryStorageConfiguration;
 import voldemort.store.mysql.MysqlStorageConfiguration;
@@ -77,6 +78,13 @@ public class VoldemortConfig implements Serializable {
     private long readOnlyFileWaitTimeoutMs;
     private int readOnlyBackups;
     private String readOnlyStorageDir;
+    private long readOnlyWarmupBytes;
+    private boolean readOnlyPinIndexes;
+
+    private String kdtreeDataDirectory;
+    private int kdtreeDimensions;
+    private boolean kdtreeSyncWrites;
+    private long kdtreeCheckpointBytes;
 
     private int coreThreads;
     private int maxThreads;
@@ -109,6 +117,18 @@ public class VoldemortConfig implements Serializable {
     private boolean enableStatTracking;
     private boolean enableServerRouting;
 
+    private int requestTraceSampleInterval;
+    private int maxRequestTraces;
+
+    private long slowOperationThresholdMs;
+    private int maxSlowOperationLogsPerSecond;
+    private boolean enableHotKeyTracking;
+    private int hotKeyTrackingCapacity;
+    private int hotKeyTrackingSampleInterval;
+
+    private int maxConcurrentRequestsPerStore;
+    private long maxRequestQueueTimeMs;
+
     private List<String> storageConfigurations;
 
     private Props allProps;
@@ -159,6 +179,16 @@ public class VoldemortConfig implements Serializable {
         this.readOnlyStorageDir = props.getString("readonly.data.directory", this.dataDirectory
                                                                              + File.separator
                                                                              + "read-only");
+        this.readOnlyWarmupBytes = props.getLong("readonly.warmup.bytes", 0L);
+        this.readOnlyPinIndexes = props.getBoolean("readonly.pin.indexes", false);
+
+        this.kdtreeDataDirectory = props.getString("kdtree.data.directory", this.dataDirectory
+                                                                            + File.separator
+                                                                            + "kdtree");
+        this.kdtreeDimensions = props.getInt("kdtree.dimensions", 2);
+        this.kdtreeSyncWrites = props.getBoolean("kdtree.sync.writes", false);
+        this.kdtreeCheckpointBytes = props.getBytes("kdtree.checkpoint.interval.bytes",
+                                                    64 * 1024 * 1024);
 
         this.slopStoreType = props.getString("slop.store.engine", BdbStorageConfiguration.TYPE_NAME);
 
@@ -200,6 +230,19 @@ public class VoldemortConfig implements Serializable {
         this.enableStatTracking = props.getBoolean("enable.stat.tracking", true);
         this.enableServerRouting = props.getBoolean("enable.server.routing", true);
 
+        this.requestTraceSampleInterval = props.getInt("request.trace.sample.interval", 0);
+        this.maxRequestTraces = props.getInt("request.trace.max.traces", 1000);
+
+        this.slowOperationThresholdMs = props.getLong("slow.operation.threshold.ms", 250);
+        this.maxSlowOperationLogsPerSecond = props.getInt("slow.operation.max.logs.per.sec", 10);
+        this.enableHotKeyTracking = props.getBoolean("enable.hot.key.tracking", false);
+        this.hotKeyTrackingCapacity = props.getInt("hot.key.tracking.capacity", 100);
+        this.hotKeyTrackingSampleInterval = props.getInt("hot.key.tracking.sample.interval", 10);
+
+        this.maxConcurrentRequestsPerStore = props.getInt("admission.max.concurrent.requests.per.store",
+                                                          0);
+        this.maxRequestQueueTimeMs = props.getLong("admission.max.queue.ms", 20);
+
         this.pusherPollMs = props.getInt("pusher.poll.ms", 2 * 60 * 1000);
 
         this.schedulerThreads = props.getInt("scheduler.threads", 3);
@@ -211,7 +254,8 @@ public class VoldemortConfig implements Serializable {
                                                                     MysqlStorageConfiguration.class.getName(),
                                                                     InMemoryStorageConfiguration.class.getName(),
                                                                     CacheStorageConfiguration.class.getName(),
-                                                                    ReadOnlyStorageConfiguration.class.getName()));
+                                                                    ReadOnlyStorageConfiguration.class.getName(),
+                                                                    KDTreeStorageConfiguration.class.getName()));
 
         // save props for access from plugins
         this.allProps = props;
@@ -645,6 +689,100 @@ public class VoldemortConfig implements Serializable {
         this.enableStatTracking = enableStatTracking;
     }
 
+    /**
+     * One in this many requests that do not carry a client trace is traced,
+     * none if 0
+     */
+    public int getRequestTraceSampleInterval() {
+        return this.requestTraceSampleInterval;
+    }
+
+    public void setRequestTraceSampleInterval(int requestTraceSampleInterval) {
+        this.requestTraceSampleInterval = requestTraceSampleInterval;
+    }
+
+    public int getMaxRequestTraces() {
+        return this.maxRequestTraces;
+    }
+
+    public void setMaxRequestTraces(int maxRequestTraces) {
+        this.maxRequestTraces = maxRequestTraces;
+    }
+
+    /**
+     * Store operations taking at least this long are logged, none if 0
+     */
+    public long getSlowOperationThresholdMs() {
+        return this.slowOperationThresholdMs;
+    }
+
+    public void setSlowOperationThresholdMs(long slowOperationThresholdMs) {
+        this.slowOperationThresholdMs = slowOperationThresholdMs;
+    }
+
+    public int getMaxSlowOperationLogsPerSecond() {
+        return this.maxSlowOperationLogsPerSecond;
+    }
+
+    public void setMaxSlowOperationLogsPerSecond(int maxSlowOperationLogsPerSecond) {
+        this.maxSlowOperationLogsPerSecond = maxSlowOperationLogsPerSecond;
+    }
+
+    public boolean isHotKeyTrackingEnabled() {
+        return this.enableHotKeyTracking;
+    }
+
+    public void setEnableHotKeyTracking(boolean enableHotKeyTracking) {
+        this.enableHotKeyTracking = enableHotKeyTracking;
+    }
+
+    /**
+     * The number of keys per store for which request counts are kept
+     */
+    public int getHotKeyTrackingCapacity() {
+        return this.hotKeyTrackingCapacity;
+    }
+
+    public void setHotKeyTrackingCapacity(int hotKeyTrackingCapacity) {
+        this.hotKeyTrackingCapacity = hotKeyTrackingCapacity;
+    }
+
+    /**
+     * One in this many requests is counted by the hot key tracking
+     */
+    public int getHotKeyTrackingSampleInterval() {
+        return this.hotKeyTrackingSampleInterval;
+    }
+
+    public void setHotKeyTrackingSampleInterval(int hotKeyTrackingSampleInterval) {
+        this.hotKeyTrackingSampleInterval = hotKeyTrackingSampleInterval;
+    }
+
+    /**
+     * The most requests that may run on one store at once, no limit if 0,
+     * which is the default. Requests routed from this server and local
+     * requests are limited separately. Setting it to about 3/4 of the server
+     * threads leaves a quarter of them to the other stores.
+     */
+    public int getMaxConcurrentRequestsPerStore() {
+        return this.maxConcurrentRequestsPerStore;
+    }
+
+    public void setMaxConcurrentRequestsPerStore(int maxConcurrentRequestsPerStore) {
+        this.maxConcurrentRequestsPerStore = maxConcurrentRequestsPerStore;
+    }
+
+    /**
+     * The longest a request waits for its store before it is rejected
+     */
+    public long getMaxRequestQueueTimeMs() {
+        return this.maxRequestQueueTimeMs;
+    }
+
+    public void setMaxRequestQueueTimeMs(long maxRequestQueueTimeMs) {
+        this.maxRequestQueueTimeMs = maxRequestQueueTimeMs;
+    }
+
     public long getBdbCheckpointBytes() {
         return this.bdbCheckpointBytes;
     }
@@ -701,6 +839,58 @@ public class VoldemortConfig implements Serializable {
         this.readOnlyBackups = readOnlyBackups;
     }
 
+    public long getReadOnlyWarmupBytes() {
+        return readOnlyWarmupBytes;
+    }
+
+    public void setReadOnlyWarmupBytes(long readOnlyWarmupBytes) {
+        this.readOnlyWarmupBytes = readOnlyWarmupBytes;
+    }
+
+    public boolean isReadOnlyPinIndexes() {
+        return readOnlyPinIndexes;
+    }
+
+    public void setReadOnlyPinIndexes(boolean readOnlyPinIndexes) {
+        this.readOnlyPinIndexes = readOnlyPinIndexes;
+    }
+
+    public String getKDTreeDataDirectory() {
+        return kdtreeDataDirectory;
+    }
+
+    public void setKDTreeDataDirectory(String kdtreeDataDirectory) {
+        this.kdtreeDataDirectory = kdtreeDataDirectory;
+    }
+
+    public int getKDTreeDimensions() {
+        return kdtreeDimensions;
+    }
+
+    /**
+     * The number of dimensions of kdtree store keys, unless the property
+     * kdtree.&lt;store name&gt;.dimensions is set for the store
+     */
+    public void setKDTreeDimensions(int kdtreeDimensions) {
+        this.kdtreeDimensions = kdtreeDimensions;
+    }
+
+    public boolean isKDTreeSyncWritesEnabled() {
+        return kdtreeSyncWrites;
+    }
+
+    public void setKDTreeSyncWrites(boolean kdtreeSyncWrites) {
+        this.kdtreeSyncWrites = kdtreeSyncWrites;
+    }
+
+    public long getKDTreeCheckpointBytes() {
+        return kdtreeCheckpointBytes;
+    }
+
+    public void setKDTreeCheckpointBytes(long kdtreeCheckpointBytes) {
+        this.kdtreeCheckpointBytes = kdtreeCheckpointBytes;
+    }
+
     public boolean isBdbWriteTransactionsEnabled() {
         return bdbWriteTransactions;
     }
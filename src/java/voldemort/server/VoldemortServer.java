@@ -30,11 +30,13 @@ import voldemort.cluster.Cluster;
 import voldemort.cluster.Node;
 import voldemort.server.http.HttpService;
 import voldemort.server.jmx.JmxService;
+import voldemort.server.protocol.AdmissionController;
 import voldemort.server.protocol.RequestHandlerFactory;
 import voldemort.server.scheduler.SchedulerService;
 import voldemort.server.socket.SocketService;
 import voldemort.server.storage.StorageService;
 import voldemort.store.metadata.MetadataStore;
+import voldemort.store.stats.RequestTracer;
 import voldemort.utils.ByteArray;
 import voldemort.utils.ByteUtils;
 import voldemort.utils.SystemTime;
@@ -62,6 +64,8 @@ public class VoldemortServer extends AbstractService {
     private final List<VoldemortService> services;
     private final StoreRepository storeRepository;
     private final VoldemortConfig voldemortConfig;
+    private final RequestTracer requestTracer;
+    private final AdmissionController admissionController;
     private VoldemortMetadata metadata;
 
     public VoldemortServer(VoldemortConfig config) {
@@ -71,6 +75,10 @@ public class VoldemortServer extends AbstractService {
         this.metadata = new VoldemortMetadata(this.voldemortConfig.getMetadataDirectory(),
                                               voldemortConfig.getNodeId());
         this.identityNode = metadata.getCurrentCluster().getNodeById(voldemortConfig.getNodeId());
+        this.requestTracer = new RequestTracer(config.getRequestTraceSampleInterval(),
+                                               config.getMaxRequestTraces());
+        this.admissionController = new AdmissionController(config.getMaxConcurrentRequestsPerStore(),
+                                                           config.getMaxRequestQueueTimeMs());
         this.services = createServices();
     }
 
@@ -88,13 +96,19 @@ public class VoldemortServer extends AbstractService {
         this.metadata = new VoldemortMetadata(this.voldemortConfig.getMetadataDirectory(),
                                               this.voldemortConfig.getNodeId());
         metadata.setCurrentCluster(cluster);
+        this.requestTracer = new RequestTracer(config.getRequestTraceSampleInterval(),
+                                               config.getMaxRequestTraces());
+        this.admissionController = new AdmissionController(config.getMaxConcurrentRequestsPerStore(),
+                                                           config.getMaxRequestQueueTimeMs());
         this.services = createServices();
     }
 
     private List<VoldemortService> createServices() {
         RequestHandlerFactory requestHandlerFactory = new RequestHandlerFactory(this.storeRepository,
                                                                                 this.metadata,
-                                                                                voldemortConfig);
+                                                                                voldemortConfig,
+                                                                                requestTracer,
+                                                                                admissionController);
 
         /* Services are given in the order they must be started */
         List<VoldemortService> services = new ArrayList<VoldemortService>();
@@ -216,6 +230,14 @@ public class VoldemortServer extends AbstractService {
         return this.voldemortConfig;
     }
 
+    public RequestTracer getRequestTracer() {
+        return requestTracer;
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
     public StoreRepository getStoreRepository() {
         return this.storeRepository;
     }
@@ -196,6 +196,26 @@ public class StatusServlet extends HttpServlet {
 
                     sb.append("\"avg_time_ms\": ");
                     sb.append(stats.get(t).getDisplayAverageTimeInMs());
+                    sb.append(", ");
+
+                    sb.append("\"q50_time_ms\": ");
+                    sb.append(stats.get(t).getDisplayQuantileTimeInMs(0.5));
+                    sb.append(", ");
+
+                    sb.append("\"q95_time_ms\": ");
+                    sb.append(stats.get(t).getDisplayQuantileTimeInMs(0.95));
+                    sb.append(", ");
+
+                    sb.append("\"q99_time_ms\": ");
+                    sb.append(stats.get(t).getDisplayQuantileTimeInMs(0.99));
+                    sb.append(", ");
+
+                    sb.append("\"q999_time_ms\": ");
+                    sb.append(stats.get(t).getDisplayQuantileTimeInMs(0.999));
+                    sb.append(", ");
+
+                    sb.append("\"max_time_ms\": ");
+                    sb.append(stats.get(t).getDisplayMaxTimeInMs());
                     sb.append(" }");
                 }
 
@@ -35,7 +35,9 @@ import voldemort.server.ServiceType;
 import voldemort.server.StoreRepository;
 import voldemort.server.VoldemortServer;
 import voldemort.server.VoldemortService;
+import voldemort.server.protocol.AdmissionController;
 import voldemort.store.Store;
+import voldemort.store.stats.RequestTracer;
 import voldemort.utils.ByteArray;
 import voldemort.utils.JmxUtils;
 
@@ -74,6 +76,9 @@ public class JmxService extends AbstractService {
     protected void startInner() {
         registerBean(server, JmxUtils.createObjectName(VoldemortServer.class));
         registerBean(cluster, JmxUtils.createObjectName(Cluster.class));
+        registerBean(server.getRequestTracer(), JmxUtils.createObjectName(RequestTracer.class));
+        registerBean(server.getAdmissionController(),
+                     JmxUtils.createObjectName(AdmissionController.class));
         for(VoldemortService service: services) {
             logger.debug("Registering mbean for service '" + service.getType().getDisplayName()
                          + "'.");
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.server.protocol;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxManaged;
+import voldemort.store.DelegatingStore;
+import voldemort.store.SpatialStore;
+import voldemort.store.Store;
+import voldemort.store.StoreCapabilityType;
+import voldemort.store.StoreOverloadedException;
+import voldemort.utils.ByteArray;
+import voldemort.utils.Pair;
+import voldemort.versioning.Version;
+import voldemort.versioning.Versioned;
+
+/**
+ * Decides whether a request may run. Each store may run at most
+ * {@code maxConcurrentRequestsPerStore} requests at once, so one busy store
+ * cannot take all the server threads. Requests this server routes to other
+ * nodes have their own permits: they hold them for the whole fan-out, and
+ * sharing permits with local requests would let the routed requests of two
+ * nodes fill each other up and starve the local requests of both. A request
+ * that finds its store full
+ * waits for a slot for at most {@code maxQueueTimeMs}, or until its client
+ * stops waiting for it, whichever comes first. Requests that cannot start in
+ * time are rejected with a {@link StoreOverloadedException} so the client can
+ * go to another replica rather than wait for an answer it will not use.
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+@JmxManaged(description = "Limits the requests running on each store.")
+public class AdmissionController {
+
+    /**
+     * The deadline of a request whose client gave no timeout
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final int maxConcurrentRequestsPerStore;
+    private final long maxQueueTimeMs;
+    private final ConcurrentMap<String, Semaphore> localPermits;
+    private final ConcurrentMap<String, Semaphore> routedPermits;
+    private final AtomicLong rejectedBusy;
+    private final AtomicLong rejectedExpired;
+
+    /**
+     * @param maxConcurrentRequestsPerStore The most requests that may run on
+     *        one store at once, no limit if 0
+     * @param maxQueueTimeMs The longest a request will wait for its store
+     */
+    public AdmissionController(int maxConcurrentRequestsPerStore, long maxQueueTimeMs) {
+        this.maxConcurrentRequestsPerStore = maxConcurrentRequestsPerStore;
+        this.maxQueueTimeMs = maxQueueTimeMs;
+        this.localPermits = new ConcurrentHashMap<String, Semaphore>();
+        this.routedPermits = new ConcurrentHashMap<String, Semaphore>();
+        this.rejectedBusy = new AtomicLong(0);
+        this.rejectedExpired = new AtomicLong(0);
+    }
+
+    /**
+     * Wrap the store so each operation on it is admitted first
+     * 
+     * @param store The store the request runs on
+     * @param isRouted Whether the request is routed to other nodes from here
+     * @param deadlineNs The {@link System#nanoTime()} after which the client
+     *        no longer waits for the request, or {@link #NO_DEADLINE}
+     * @return The store to run the request on
+     */
+    public Store<ByteArray, byte[]> admit(Store<ByteArray, byte[]> store,
+                                          boolean isRouted,
+                                          long deadlineNs) {
+        if(store == null || (maxConcurrentRequestsPerStore <= 0 && deadlineNs == NO_DEADLINE))
+            return store;
+        return new AdmittedStore(store, isRouted, deadlineNs);
+    }
+
+    /**
+     * Wait for a slot to run a request on the given store
+     * 
+     * @return true if a slot was taken that must be given back with
+     *         {@link #release(String, boolean)}
+     * @throws StoreOverloadedException If the request cannot start in time
+     */
+    public boolean acquire(String storeName, boolean isRouted, long deadlineNs)
+            throws StoreOverloadedException {
+        long waitNs = TimeUnit.MILLISECONDS.toNanos(maxQueueTimeMs);
+        if(deadlineNs != NO_DEADLINE) {
+            long remainingNs = deadlineNs - System.nanoTime();
+            if(remainingNs <= 0) {
+                rejectedExpired.incrementAndGet();
+                throw new StoreOverloadedException("Request on store '" + storeName
+                                                   + "' timed out before it could start.");
+            }
+            waitNs = Math.min(waitNs, remainingNs);
+        }
+        if(maxConcurrentRequestsPerStore <= 0)
+            return false;
+
+        Semaphore semaphore = getPermits(storeName, isRouted);
+        if(semaphore.tryAcquire())
+            return true;
+        try {
+            if(semaphore.tryAcquire(waitNs, TimeUnit.NANOSECONDS))
+                return true;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejectedBusy.incrementAndGet();
+        throw new StoreOverloadedException("Store '" + storeName + "' is running "
+                                           + maxConcurrentRequestsPerStore
+                                           + (isRouted ? " routed" : "")
+                                           + " requests, try another node.");
+    }
+
+    public void release(String storeName, boolean isRouted) {
+        getPermits(storeName, isRouted).release();
+    }
+
+    private Semaphore getPermits(String storeName, boolean isRouted) {
+        ConcurrentMap<String, Semaphore> permits = isRouted ? routedPermits : localPermits;
+        Semaphore semaphore = permits.get(storeName);
+        if(semaphore == null) {
+            semaphore = new Semaphore(maxConcurrentRequestsPerStore);
+            Semaphore existing = permits.putIfAbsent(storeName, semaphore);
+            if(existing != null)
+                semaphore = existing;
+        }
+        return semaphore;
+    }
+
+    @JmxGetter(name = "maxConcurrentRequestsPerStore", description = "The most requests that may run on one store at once.")
+    public int getMaxConcurrentRequestsPerStore() {
+        return maxConcurrentRequestsPerStore;
+    }
+
+    @JmxGetter(name = "maxQueueTimeMs", description = "The longest a request waits for its store before it is rejected.")
+    public long getMaxQueueTimeMs() {
+        return maxQueueTimeMs;
+    }
+
+    @JmxGetter(name = "rejectedBusy", description = "The number of requests rejected because their store was full.")
+    public long getNumberRejectedBusy() {
+        return rejectedBusy.get();
+    }
+
+    @JmxGetter(name = "rejectedExpired", description = "The number of requests rejected because their client had stopped waiting.")
+    public long getNumberRejectedExpired() {
+        return rejectedExpired.get();
+    }
+
+    @JmxGetter(name = "runningRequests", description = "The local and routed requests running on each store.")
+    public String getRunningRequests() {
+        StringBuilder builder = new StringBuilder();
+        for(Map.Entry<String, Semaphore> entry: localPermits.entrySet())
+            builder.append(entry.getKey())
+                   .append('=')
+                   .append(maxConcurrentRequestsPerStore - entry.getValue().availablePermits())
+                   .append('\n');
+        for(Map.Entry<String, Semaphore> entry: routedPermits.entrySet())
+            builder.append(entry.getKey())
+                   .append(" (routed)=")
+                   .append(maxConcurrentRequestsPerStore - entry.getValue().availablePermits())
+                   .append('\n');
+        return builder.toString();
+    }
+
+    /*
+     * A store whose operations must be admitted before they run
+     */
+    private class AdmittedStore extends DelegatingStore<ByteArray, byte[]> {
+
+        private final boolean isRouted;
+        private final long deadlineNs;
+
+        public AdmittedStore(Store<ByteArray, byte[]> innerStore,
+                             boolean isRouted,
+                             long deadlineNs) {
+            super(innerStore);
+            this.isRouted = isRouted;
+            this.deadlineNs = deadlineNs;
+        }
+
+        @Override
+        public boolean delete(ByteArray key, Version version) throws VoldemortException {
+            boolean acquired = acquire(getName(), isRouted, deadlineNs);
+            try {
+                return super.delete(key, version);
+            } finally {
+                if(acquired)
+                    release(getName(), isRouted);
+            }
+        }
+
+        @Override
+        public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
+            boolean acquired = acquire(getName(), isRouted, deadlineNs);
+            try {
+                return super.get(key);
+            } finally {
+                if(acquired)
+                    release(getName(), isRouted);
+            }
+        }
+
+        @Override
+        public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
+                throws VoldemortException {
+            boolean acquired = acquire(getName(), isRouted, deadlineNs);
+            try {
+                return super.getAll(keys);
+            } finally {
+                if(acquired)
+                    release(getName(), isRouted);
+            }
+        }
+
+        @Override
+        public void put(ByteArray key, Versioned<byte[]> value) throws VoldemortException {
+            boolean acquired = acquire(getName(), isRouted, deadlineNs);
+            try {
+                super.put(key, value);
+            } finally {
+                if(acquired)
+                    release(getName(), isRouted);
+            }
+        }
+
+        /*
+         * Spatial queries can scan much of a store, so they are admitted like
+         * any other operation
+         */
+        @Override
+        public Object getCapability(StoreCapabilityType capability) {
+            if(capability != StoreCapabilityType.SPATIAL_QUERIES)
+                return super.getCapability(capability);
+            @SuppressWarnings("unchecked")
+            final SpatialStore<ByteArray, byte[]> inner = (SpatialStore<ByteArray, byte[]>) super.getCapability(capability);
+            return new SpatialStore<ByteArray, byte[]>() {
+
+                public List<Pair<ByteArray, List<Versioned<byte[]>>>> getRange(double[] min,
+                                                                               double[] max,
+                                                                               ByteArray after,
+                                                                               int limit) {
+                    boolean acquired = acquire(getName(), isRouted, deadlineNs);
+                    try {
+                        return inner.getRange(min, max, after, limit);
+                    } finally {
+                        if(acquired)
+                            release(getName(), isRouted);
+                    }
+                }
+
+                public List<Pair<ByteArray, List<Versioned<byte[]>>>> getNearest(double[] point,
+                                                                                 int count,
+                                                                                 double maxDistance) {
+                    boolean acquired = acquire(getName(), isRouted, deadlineNs);
+                    try {
+                        return inner.getNearest(point, count, maxDistance);
+                    } finally {
+                        if(acquired)
+                            release(getName(), isRouted);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -9,6 +9,7 @@ import voldemort.server.protocol.pb.ProtoBuffRequestHandler;
 import voldemort.server.protocol.vold.VoldemortNativeRequestHandler;
 import voldemort.server.socket.AdminServiceRequestHandler;
 import voldemort.store.ErrorCodeMapper;
+import voldemort.store.stats.RequestTracer;
 
 /**
  * A factory that gets the appropriate request handler for a given
@@ -22,21 +23,45 @@ public class RequestHandlerFactory {
     private final StoreRepository repository;
     private final VoldemortMetadata metadata;
     private final VoldemortConfig voldemortConfig;
+    private final RequestTracer requestTracer;
+    private final AdmissionController admissionController;
 
     public RequestHandlerFactory(StoreRepository repository,
                                  VoldemortMetadata metadata,
                                  VoldemortConfig voldemortConfig) {
+        this(repository, metadata, voldemortConfig, new RequestTracer(0, 1));
+    }
+
+    public RequestHandlerFactory(StoreRepository repository,
+                                 VoldemortMetadata metadata,
+                                 VoldemortConfig voldemortConfig,
+                                 RequestTracer requestTracer) {
+        this(repository, metadata, voldemortConfig, requestTracer, new AdmissionController(0, 0));
+    }
+
+    public RequestHandlerFactory(StoreRepository repository,
+                                 VoldemortMetadata metadata,
+                                 VoldemortConfig voldemortConfig,
+                                 RequestTracer requestTracer,
+                                 AdmissionController admissionController) {
         this.repository = repository;
         this.metadata = metadata;
         this.voldemortConfig = voldemortConfig;
+        this.requestTracer = requestTracer;
+        this.admissionController = admissionController;
     }
 
     public RequestHandler getRequestHandler(RequestFormatType type) {
         switch(type) {
             case VOLDEMORT:
-                return new VoldemortNativeRequestHandler(new ErrorCodeMapper(), repository);
+                return new VoldemortNativeRequestHandler(new ErrorCodeMapper(),
+                                                         repository,
+                                                         requestTracer,
+                                                         admissionController);
             case PROTOCOL_BUFFERS:
-                return new ProtoBuffRequestHandler(new ErrorCodeMapper(), repository);
+                return new ProtoBuffRequestHandler(new ErrorCodeMapper(),
+                                                   repository,
+                                                   admissionController);
             case ADMIN_HANDLER:
                 return new AdminServiceRequestHandler(new ErrorCodeMapper(),
                                                       repository,
@@ -3,20 +3,22 @@ package voldemort.server.protocol.pb;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import voldemort.VoldemortException;
 import voldemort.client.protocol.pb.ProtoUtils;
 import voldemort.client.protocol.pb.VProto;
 import voldemort.server.StoreRepository;
 import voldemort.server.protocol.AbstractRequestHandler;
+import voldemort.server.protocol.AdmissionController;
 import voldemort.store.ErrorCodeMapper;
 import voldemort.store.Store;
 import voldemort.utils.ByteArray;
 import voldemort.versioning.Versioned;
 
+import com.google.common.collect.Sets;
 import com.google.protobuf.ByteString;
 
 /**
@@ -27,8 +29,17 @@ import com.google.protobuf.ByteString;
  */
 public class ProtoBuffRequestHandler extends AbstractRequestHandler {
 
+    private final AdmissionController admissionController;
+
     public ProtoBuffRequestHandler(ErrorCodeMapper errorMapper, StoreRepository storeRepository) {
+        this(errorMapper, storeRepository, new AdmissionController(0, 0));
+    }
+
+    public ProtoBuffRequestHandler(ErrorCodeMapper errorMapper,
+                                   StoreRepository storeRepository,
+                                   AdmissionController admissionController) {
         super(errorMapper, storeRepository);
+        this.admissionController = admissionController;
     }
 
     public void handleRequest(DataInputStream inputStream, DataOutputStream outputStream)
@@ -36,7 +47,9 @@ public class ProtoBuffRequestHandler extends AbstractRequestHandler {
         VProto.VoldemortRequest request = VProto.VoldemortRequest.parseFrom(inputStream);
         boolean shouldRoute = request.getShouldRoute();
         String storeName = request.getStore();
-        Store<ByteArray, byte[]> store = getStore(storeName, shouldRoute);
+        Store<ByteArray, byte[]> store = admissionController.admit(getStore(storeName, shouldRoute),
+                                                                   shouldRoute,
+                                                                   AdmissionController.NO_DEADLINE);
         switch(request.getType()) {
             case GET:
                 handleGet(request.getGet(), store, outputStream);
@@ -72,7 +85,8 @@ public class ProtoBuffRequestHandler extends AbstractRequestHandler {
                               DataOutputStream outputStream) throws IOException {
         VProto.GetAllResponse.Builder response = VProto.GetAllResponse.newBuilder();
         try {
-            List<ByteArray> keys = new ArrayList<ByteArray>(request.getKeysCount());
+            // duplicate keys are looked up once
+            Set<ByteArray> keys = Sets.newHashSetWithExpectedSize(request.getKeysCount());
             for(ByteString string: request.getKeysList())
                 keys.add(ProtoUtils.decodeBytes(string));
             Map<ByteArray, List<Versioned<byte[]>>> values = store.getAll(keys);
@@ -3,61 +3,189 @@ package voldemort.server.protocol.vold;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import voldemort.VoldemortException;
+import voldemort.annotations.concurrency.NotThreadsafe;
 import voldemort.serialization.VoldemortOpCode;
 import voldemort.server.StoreRepository;
 import voldemort.server.protocol.AbstractRequestHandler;
+import voldemort.server.protocol.AdmissionController;
 import voldemort.server.protocol.RequestHandler;
 import voldemort.store.ErrorCodeMapper;
+import voldemort.store.NoSuchCapabilityException;
+import voldemort.store.SpatialStore;
 import voldemort.store.Store;
+import voldemort.store.StoreCapabilityType;
+import voldemort.store.stats.RequestTrace;
+import voldemort.store.stats.RequestTracer;
+import voldemort.store.stats.Tracked;
 import voldemort.utils.ByteArray;
 import voldemort.utils.ByteUtils;
+import voldemort.utils.Pair;
+import voldemort.utils.Time;
 import voldemort.versioning.VectorClock;
 import voldemort.versioning.Versioned;
 
+import com.google.common.collect.Sets;
+
 public class VoldemortNativeRequestHandler extends AbstractRequestHandler implements RequestHandler {
 
+    private final RequestTracer tracer;
+    private final AdmissionController admissionController;
+    private final ThreadLocal<KeyBuffers> keyBuffers = new ThreadLocal<KeyBuffers>() {
+
+        @Override
+        protected KeyBuffers initialValue() {
+            return new KeyBuffers();
+        }
+    };
+
     public VoldemortNativeRequestHandler(ErrorCodeMapper errorMapper, StoreRepository repository) {
+        this(errorMapper, repository, new RequestTracer(0, 1));
+    }
+
+    public VoldemortNativeRequestHandler(ErrorCodeMapper errorMapper,
+                                         StoreRepository repository,
+                                         RequestTracer tracer) {
+        this(errorMapper, repository, tracer, new AdmissionController(0, 0));
+    }
+
+    public VoldemortNativeRequestHandler(ErrorCodeMapper errorMapper,
+                                         StoreRepository repository,
+                                         RequestTracer tracer,
+                                         AdmissionController admissionController) {
         super(errorMapper, repository);
+        this.tracer = tracer;
+        this.admissionController = admissionController;
     }
 
     public void handleRequest(DataInputStream inputStream, DataOutputStream outputStream)
             throws IOException {
         byte opCode = inputStream.readByte();
+        long traceId = 0;
+        int timeoutMs = 0;
+        while(opCode == VoldemortOpCode.TRACE_OP_CODE || opCode == VoldemortOpCode.TIMEOUT_OP_CODE) {
+            if(opCode == VoldemortOpCode.TRACE_OP_CODE)
+                traceId = inputStream.readLong();
+            else
+                timeoutMs = inputStream.readInt();
+            opCode = inputStream.readByte();
+        }
         String storeName = inputStream.readUTF();
         boolean isRouted = inputStream.readBoolean();
-        Store<ByteArray, byte[]> store = getStore(storeName, isRouted);
+        long deadlineNs = timeoutMs > 0 ? System.nanoTime() + timeoutMs * Time.NS_PER_MS
+                                       : AdmissionController.NO_DEADLINE;
+
+        RequestTrace trace = traceId != 0 ? tracer.joinTrace(traceId, storeName, getOperation(opCode))
+                                         : tracer.startTrace(storeName, getOperation(opCode));
+        if(trace == null) {
+            handleRequest(inputStream, outputStream, opCode, storeName, isRouted, deadlineNs);
+            return;
+        }
+        RequestTrace previous = RequestTrace.attach(trace);
+        try {
+            trace.addStage("request header read");
+            handleRequest(inputStream, outputStream, opCode, storeName, isRouted, deadlineNs);
+            trace.addStage("response written");
+        } finally {
+            RequestTrace.restore(previous);
+            tracer.finishTrace(trace);
+        }
+    }
+
+    private String getOperation(byte opCode) {
+        switch(opCode) {
+            case VoldemortOpCode.GET_OP_CODE:
+                return Tracked.GET.toString();
+            case VoldemortOpCode.GET_ALL_OP_CODE:
+                return Tracked.GET_ALL.toString();
+            case VoldemortOpCode.PUT_OP_CODE:
+                return Tracked.PUT.toString();
+            case VoldemortOpCode.DELETE_OP_CODE:
+                return Tracked.DELETE.toString();
+            case VoldemortOpCode.GET_RANGE_OP_CODE:
+                return "getRange";
+            case VoldemortOpCode.GET_NEAREST_OP_CODE:
+                return "getNearest";
+            default:
+                return "unknown";
+        }
+    }
+
+    private void handleRequest(DataInputStream inputStream,
+                               DataOutputStream outputStream,
+                               byte opCode,
+                               String storeName,
+                               boolean isRouted,
+                               long deadlineNs) throws IOException {
+        Store<ByteArray, byte[]> store = admissionController.admit(getStore(storeName, isRouted),
+                                                                   isRouted,
+                                                                   deadlineNs);
+        /*
+         * The local stores hold on to the keys of a get, get all or delete
+         * only until they return, so those key arrays can be used again by
+         * the next request on this thread. Routed stores may still be using
+         * them in the background after returning.
+         */
+        KeyBuffers keys = isRouted ? null : keyBuffers.get();
+        try {
+            handleRequest(inputStream, outputStream, opCode, storeName, store, keys);
+        } finally {
+            if(keys != null)
+                keys.reset();
+        }
+        outputStream.flush();
+    }
+
+    private void handleRequest(DataInputStream inputStream,
+                               DataOutputStream outputStream,
+                               byte opCode,
+                               String storeName,
+                               Store<ByteArray, byte[]> store,
+                               KeyBuffers keys) throws IOException {
         if(store == null) {
             writeException(outputStream, new VoldemortException("No store named '" + storeName
                                                                 + "'."));
         } else {
             switch(opCode) {
                 case VoldemortOpCode.GET_OP_CODE:
-                    handleGet(inputStream, outputStream, store);
+                    handleGet(inputStream, outputStream, store, keys);
                     break;
                 case VoldemortOpCode.GET_ALL_OP_CODE:
-                    handleGetAll(inputStream, outputStream, store);
+                    handleGetAll(inputStream, outputStream, store, keys);
                     break;
                 case VoldemortOpCode.PUT_OP_CODE:
                     handlePut(inputStream, outputStream, store);
                     break;
                 case VoldemortOpCode.DELETE_OP_CODE:
-                    handleDelete(inputStream, outputStream, store);
+                    handleDelete(inputStream, outputStream, store, keys);
+                    break;
+                case VoldemortOpCode.GET_RANGE_OP_CODE:
+                    handleGetRange(inputStream, outputStream, store);
+                    break;
+                case VoldemortOpCode.GET_NEAREST_OP_CODE:
+                    handleGetNearest(inputStream, outputStream, store);
                     break;
                 default:
                     throw new IOException("Unknown op code: " + opCode);
             }
         }
-        outputStream.flush();
     }
 
     private ByteArray readKey(DataInputStream inputStream) throws IOException {
+        return readKey(inputStream, null);
+    }
+
+    /*
+     * Read a key into an array from the given buffers, if any, which is only
+     * valid until they are reset
+     */
+    private ByteArray readKey(DataInputStream inputStream, KeyBuffers keys) throws IOException {
         int keySize = inputStream.readInt();
-        byte[] key = new byte[keySize];
+        byte[] key = keys == null ? new byte[keySize] : keys.take(keySize);
         inputStream.readFully(key);
         return new ByteArray(key);
     }
@@ -66,18 +194,19 @@ public class VoldemortNativeRequestHandler extends AbstractRequestHandler implem
             throws IOException {
         outputStream.writeInt(values.size());
         for(Versioned<byte[]> v: values) {
-            byte[] clock = ((VectorClock) v.getVersion()).toBytes();
+            VectorClock clock = (VectorClock) v.getVersion();
             byte[] value = v.getValue();
-            outputStream.writeInt(clock.length + value.length);
-            outputStream.write(clock);
+            outputStream.writeInt(clock.sizeInBytes() + value.length);
+            clock.writeTo(outputStream);
             outputStream.write(value);
         }
     }
 
     private void handleGet(DataInputStream inputStream,
                            DataOutputStream outputStream,
-                           Store<ByteArray, byte[]> store) throws IOException {
-        ByteArray key = readKey(inputStream);
+                           Store<ByteArray, byte[]> store,
+                           KeyBuffers keys) throws IOException {
+        ByteArray key = readKey(inputStream, keys);
         List<Versioned<byte[]>> results = null;
         try {
             results = store.get(key);
@@ -92,12 +221,13 @@ public class VoldemortNativeRequestHandler extends AbstractRequestHandler implem
 
     private void handleGetAll(DataInputStream inputStream,
                               DataOutputStream outputStream,
-                              Store<ByteArray, byte[]> store) throws IOException {
-        // read keys
+                              Store<ByteArray, byte[]> store,
+                              KeyBuffers buffers) throws IOException {
+        // read keys, dropping duplicates so each is looked up once
         int numKeys = inputStream.readInt();
-        List<ByteArray> keys = new ArrayList<ByteArray>(numKeys);
+        Set<ByteArray> keys = Sets.newHashSetWithExpectedSize(numKeys);
         for(int i = 0; i < numKeys; i++)
-            keys.add(readKey(inputStream));
+            keys.add(readKey(inputStream, buffers));
 
         // execute the operation
         Map<ByteArray, List<Versioned<byte[]>>> results = null;
@@ -125,10 +255,9 @@ public class VoldemortNativeRequestHandler extends AbstractRequestHandler implem
                            Store<ByteArray, byte[]> store) throws IOException {
         ByteArray key = readKey(inputStream);
         int valueSize = inputStream.readInt();
-        byte[] bytes = new byte[valueSize];
-        ByteUtils.read(inputStream, bytes);
-        VectorClock clock = new VectorClock(bytes);
-        byte[] value = ByteUtils.copy(bytes, clock.sizeInBytes(), bytes.length);
+        VectorClock clock = VectorClock.read(inputStream);
+        byte[] value = new byte[valueSize - clock.sizeInBytes()];
+        ByteUtils.read(inputStream, value);
         try {
             store.put(key, new Versioned<byte[]>(value, clock));
             outputStream.writeShort(0);
@@ -139,12 +268,10 @@ public class VoldemortNativeRequestHandler extends AbstractRequestHandler implem
 
     private void handleDelete(DataInputStream inputStream,
                               DataOutputStream outputStream,
-                              Store<ByteArray, byte[]> store) throws IOException {
-        ByteArray key = readKey(inputStream);
-        int versionSize = inputStream.readShort();
-        byte[] versionBytes = new byte[versionSize];
-        ByteUtils.read(inputStream, versionBytes);
-        VectorClock version = new VectorClock(versionBytes);
+                              Store<ByteArray, byte[]> store,
+                              KeyBuffers keys) throws IOException {
+        ByteArray key = readKey(inputStream, keys);
+        VectorClock version = VectorClock.readSized(inputStream);
         try {
             boolean succeeded = store.delete(key, version);
             outputStream.writeShort(0);
@@ -154,10 +281,128 @@ public class VoldemortNativeRequestHandler extends AbstractRequestHandler implem
         }
     }
 
+    private void handleGetRange(DataInputStream inputStream,
+                                DataOutputStream outputStream,
+                                Store<ByteArray, byte[]> store) throws IOException {
+        int dimensions = inputStream.readInt();
+        double[] min = readPoint(inputStream, dimensions);
+        double[] max = readPoint(inputStream, dimensions);
+        ByteArray after = inputStream.readBoolean() ? readKey(inputStream) : null;
+        int limit = inputStream.readInt();
+        List<Pair<ByteArray, List<Versioned<byte[]>>>> results = null;
+        try {
+            results = getSpatialStore(store).getRange(min, max, after, limit);
+            outputStream.writeShort(0);
+        } catch(NoSuchCapabilityException e) {
+            // has no error code of its own
+            writeException(outputStream, new VoldemortException(e.getMessage()));
+            return;
+        } catch(VoldemortException e) {
+            writeException(outputStream, e);
+            return;
+        } catch(IllegalArgumentException e) {
+            writeException(outputStream, new VoldemortException(e.getMessage()));
+            return;
+        }
+        writeSpatialResults(outputStream, results);
+    }
+
+    private void handleGetNearest(DataInputStream inputStream,
+                                  DataOutputStream outputStream,
+                                  Store<ByteArray, byte[]> store) throws IOException {
+        int dimensions = inputStream.readInt();
+        double[] point = readPoint(inputStream, dimensions);
+        int count = inputStream.readInt();
+        double maxDistance = inputStream.readDouble();
+        List<Pair<ByteArray, List<Versioned<byte[]>>>> results = null;
+        try {
+            results = getSpatialStore(store).getNearest(point, count, maxDistance);
+            outputStream.writeShort(0);
+        } catch(NoSuchCapabilityException e) {
+            // has no error code of its own
+            writeException(outputStream, new VoldemortException(e.getMessage()));
+            return;
+        } catch(VoldemortException e) {
+            writeException(outputStream, e);
+            return;
+        } catch(IllegalArgumentException e) {
+            writeException(outputStream, new VoldemortException(e.getMessage()));
+            return;
+        }
+        writeSpatialResults(outputStream, results);
+    }
+
+    @SuppressWarnings("unchecked")
+    private SpatialStore<ByteArray, byte[]> getSpatialStore(Store<ByteArray, byte[]> store) {
+        return (SpatialStore<ByteArray, byte[]>) store.getCapability(StoreCapabilityType.SPATIAL_QUERIES);
+    }
+
+    private double[] readPoint(DataInputStream inputStream, int dimensions) throws IOException {
+        double[] point = new double[dimensions];
+        for(int i = 0; i < dimensions; i++)
+            point[i] = inputStream.readDouble();
+        return point;
+    }
+
+    private void writeSpatialResults(DataOutputStream outputStream,
+                                     List<Pair<ByteArray, List<Versioned<byte[]>>>> results)
+            throws IOException {
+        outputStream.writeInt(results.size());
+        for(Pair<ByteArray, List<Versioned<byte[]>>> result: results) {
+            outputStream.writeInt(result.getFirst().length());
+            outputStream.write(result.getFirst().get());
+            writeResults(outputStream, result.getSecond());
+        }
+    }
+
     private void writeException(DataOutputStream stream, VoldemortException e) throws IOException {
         short code = getErrorMapper().getCode(e);
         stream.writeShort(code);
         stream.writeUTF(e.getMessage());
     }
 
+    /*
+     * Key arrays kept by a thread from one request to the next. Keys must be
+     * arrays of exactly their length, so small keys are kept in a list per
+     * length; a request takes arrays from the lists in turn and reset() makes
+     * them all available again. Larger keys, and keys beyond the number kept
+     * for their length, are simply allocated.
+     */
+    @NotThreadsafe
+    private static class KeyBuffers {
+
+        private static final int MAX_KEY_SIZE = 256;
+        private static final int MAX_KEYS_PER_SIZE = 16;
+
+        private final byte[][][] arrays = new byte[MAX_KEY_SIZE + 1][][];
+        private final int[] taken = new int[MAX_KEY_SIZE + 1];
+        private final int[] takenSizes = new int[MAX_KEY_SIZE + 1];
+        private int numTakenSizes = 0;
+
+        public byte[] take(int size) {
+            if(size < 0 || size > MAX_KEY_SIZE)
+                return new byte[size];
+            int index = taken[size];
+            if(index >= MAX_KEYS_PER_SIZE)
+                return new byte[size];
+            if(index == 0)
+                takenSizes[numTakenSizes++] = size;
+            taken[size] = index + 1;
+            byte[][] list = arrays[size];
+            if(list == null) {
+                list = new byte[MAX_KEYS_PER_SIZE][];
+                arrays[size] = list;
+            }
+            if(list[index] == null)
+                list[index] = new byte[size];
+            return list[index];
+        }
+
+        public void reset() {
+            for(int i = 0; i < numTakenSizes; i++)
+                taken[takenSizes[i]] = 0;
+            numTakenSizes = 0;
+        }
+    }
+
 }
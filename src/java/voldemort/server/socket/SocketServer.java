@@ -36,6 +36,7 @@ import voldemort.VoldemortException;
 import voldemort.annotations.jmx.JmxGetter;
 import voldemort.annotations.jmx.JmxManaged;
 import voldemort.server.protocol.RequestHandler;
+import voldemort.utils.BufferPool;
 
 /**
  * A simple socket-based server for serving voldemort requests
@@ -58,6 +59,7 @@ public class SocketServer extends Thread {
     private final int maxThreads;
     private final String serverName;
     private final StatusManager statusManager;
+    private final BufferPool bufferPool;
 
     private ServerSocket serverSocket = null;
 
@@ -81,6 +83,8 @@ public class SocketServer extends Thread {
                                                  threadFactory,
                                                  rejectedExecutionHandler);
         this.statusManager = new StatusManager(this.threadPool);
+        // each session holds an input and an output buffer
+        this.bufferPool = new BufferPool(1024, 64 * 1024, 2 * maxThreads, 2);
     }
 
     private final ThreadFactory threadFactory = new ThreadFactory() {
@@ -120,7 +124,7 @@ public class SocketServer extends Thread {
             while(!isInterrupted() && !serverSocket.isClosed()) {
                 final Socket socket = serverSocket.accept();
                 configureSocket(socket);
-                this.threadPool.execute(new SocketServerSession(socket, requestHandler));
+                this.threadPool.execute(new SocketServerSession(socket, requestHandler, bufferPool));
             }
         } catch(BindException e) {
             logger.error("Could not bind to port " + port + ".");
@@ -209,4 +213,8 @@ public class SocketServer extends Thread {
         return statusManager;
     }
 
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
 }
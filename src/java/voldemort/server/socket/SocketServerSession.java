@@ -1,7 +1,6 @@
 package voldemort.server.socket;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -9,15 +8,22 @@ import java.io.IOException;
 import java.net.Socket;
 
 import voldemort.server.protocol.RequestHandler;
+import voldemort.utils.BufferPool;
+import voldemort.utils.PooledBufferedInputStream;
+import voldemort.utils.PooledBufferedOutputStream;
 
 public class SocketServerSession implements Runnable {
 
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
     private final Socket socket;
     private final RequestHandler requestHandler;
+    private final BufferPool bufferPool;
 
-    public SocketServerSession(Socket socket, RequestHandler requestHandler) {
+    public SocketServerSession(Socket socket, RequestHandler requestHandler, BufferPool bufferPool) {
         this.socket = socket;
         this.requestHandler = requestHandler;
+        this.bufferPool = bufferPool;
     }
 
     public Socket getSocket() {
@@ -29,12 +35,16 @@ public class SocketServerSession implements Runnable {
     }
 
     public void run() {
+        DataInputStream inputStream = null;
+        DataOutputStream outputStream = null;
         try {
             SocketServer.logger.info("Client " + socket.getRemoteSocketAddress() + " connected.");
-            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream(),
-                                                                                      64000));
-            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
-                                                                                          64000));
+            inputStream = new DataInputStream(new PooledBufferedInputStream(socket.getInputStream(),
+                                                                            bufferPool,
+                                                                            STREAM_BUFFER_SIZE));
+            outputStream = new DataOutputStream(new PooledBufferedOutputStream(socket.getOutputStream(),
+                                                                               bufferPool,
+                                                                               STREAM_BUFFER_SIZE));
             while(!isInterrupted()) {
                 requestHandler.handleRequest(inputStream, outputStream);
                 outputStream.flush();
@@ -44,6 +54,9 @@ public class SocketServerSession implements Runnable {
         } catch(IOException e) {
             SocketServer.logger.error(e);
         } finally {
+            // closing the streams gives their buffers back to the pool
+            closeQuietly(inputStream);
+            closeQuietly(outputStream);
             try {
                 socket.close();
             } catch(Exception e) {
@@ -51,4 +64,14 @@ public class SocketServerSession implements Runnable {
             }
         }
     }
-}
\ No newline at end of file
+
+    private void closeQuietly(Closeable stream) {
+        if(stream == null)
+            return;
+        try {
+            stream.close();
+        } catch(IOException e) {
+            SocketServer.logger.debug("Error while closing stream", e);
+        }
+    }
+}
@@ -65,6 +65,16 @@ public class SocketService extends AbstractService implements VoldemortService {
         return server.getPort();
     }
 
+    @JmxGetter(name = "bufferPoolHitRate", description = "The fraction of connection buffers served from the buffer pool.")
+    public double getBufferPoolHitRate() {
+        return server.getBufferPool().getHitRate();
+    }
+
+    @JmxGetter(name = "bufferPoolMisses", description = "The number of connection buffers allocated because the buffer pool had none free.")
+    public long getBufferPoolMisses() {
+        return server.getBufferPool().getNumberOfMisses();
+    }
+
     public StatusManager getStatusManager() {
         return server.getStatusManager();
     }
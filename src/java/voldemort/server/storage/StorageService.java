@@ -50,7 +50,9 @@ import voldemort.store.StorageConfiguration;
 import voldemort.store.StorageEngine;
 import voldemort.store.Store;
 import voldemort.store.StoreDefinition;
+import voldemort.store.hotkeys.HotKeyTrackingStore;
 import voldemort.store.logging.LoggingStore;
+import voldemort.store.logging.SlowOperationLoggingStore;
 import voldemort.store.metadata.MetadataStore;
 import voldemort.store.routed.RoutedStore;
 import voldemort.store.serialized.SerializingStorageEngine;
@@ -180,20 +182,38 @@ public class StorageService extends AbstractService {
             store = new LoggingStore<ByteArray, byte[]>(store,
                                                         cluster.getName(),
                                                         SystemTime.INSTANCE);
+        if(voldemortConfig.getSlowOperationThresholdMs() > 0) {
+            store = new SlowOperationLoggingStore(store,
+                                                  voldemortConfig.getNodeId(),
+                                                  voldemortConfig.getSlowOperationThresholdMs(),
+                                                  voldemortConfig.getMaxSlowOperationLogsPerSecond(),
+                                                  SystemTime.INSTANCE);
+            registerStoreMbean(store);
+        }
+        if(voldemortConfig.isHotKeyTrackingEnabled()) {
+            store = new HotKeyTrackingStore(store,
+                                            voldemortConfig.getHotKeyTrackingCapacity(),
+                                            voldemortConfig.getHotKeyTrackingSampleInterval());
+            registerStoreMbean(store);
+        }
         if(voldemortConfig.isStatTrackingEnabled()) {
             store = new StatTrackingStore<ByteArray, byte[]>(store);
+            registerStoreMbean(store);
+        }
+        storeRepository.addLocalStore(store);
+    }
 
-            if (voldemortConfig.isJmxEnabled()) {
+    private void registerStoreMbean(Store<ByteArray, byte[]> store) {
+        if(!voldemortConfig.isJmxEnabled())
+            return;
 
-                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
-                ObjectName name = JmxUtils.createObjectName(JmxUtils.getPackageName(store.getClass()), store.getName());
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = JmxUtils.createObjectName(JmxUtils.getPackageName(store.getClass()),
+                                                    store.getName());
 
-                if(mbeanServer.isRegistered(name))
-                    JmxUtils.unregisterMbean(mbeanServer, name);
-                JmxUtils.registerMbean(mbeanServer, JmxUtils.createModelMBean(store), name);
-            }
-        }
-        storeRepository.addLocalStore(store);
+        if(mbeanServer.isRegistered(name))
+            JmxUtils.unregisterMbean(mbeanServer, name);
+        JmxUtils.registerMbean(mbeanServer, JmxUtils.createModelMBean(store), name);
     }
 
     public void registerNodeStores(StoreDefinition def, Cluster cluster, int localNode) {
@@ -222,6 +242,7 @@ public class StorageService extends AbstractService {
                                                   this.clientThreadPool,
                                                   voldemortConfig.getRoutingTimeoutMs(),
                                                   voldemortConfig.getClientNodeBannageMs(),
+                                                  cluster.getNodeById(localNode).getZoneId(),
                                                   SystemTime.INSTANCE);
         this.storeRepository.addRoutedStore(routedStore);
     }
@@ -47,6 +47,7 @@ public class ErrorCodeMapper {
         codeToException.put((short) 8, InconsistentDataException.class);
         codeToException.put((short) 9, InvalidMetadataException.class);
         codeToException.put((short) 10, PersistenceFailureException.class);
+        codeToException.put((short) 11, StoreOverloadedException.class);
 
         exceptionToCode = new HashMap<Class<? extends VoldemortException>, Short>();
         for(Map.Entry<Short, Class<? extends VoldemortException>> entry: codeToException.entrySet())
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store;
+
+import java.util.List;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.utils.Pair;
+import voldemort.versioning.Versioned;
+
+/**
+ * Queries over stores whose keys are points, encoded as one double per
+ * dimension (see {@link voldemort.store.kdtree.KDUtil}). Stores that can answer
+ * them return an implementation for {@link StoreCapabilityType#SPATIAL_QUERIES}
+ * ; stores that transform keys or values wrap the implementation of their
+ * inner store.
+ * 
+ * @author jay
+ * 
+ * @param <K> The type of the key
+ * @param <V> The type of the value
+ */
+@Threadsafe
+public interface SpatialStore<K, V> {
+
+    /**
+     * Get a page of the keys inside a box. Keys are ordered by their
+     * coordinates, first dimension first, so the next page is fetched by
+     * passing the last key of this one as after.
+     * 
+     * @param min The lower corner of the box, inclusive
+     * @param max The upper corner of the box, inclusive
+     * @param after Only return keys after this one, or null to start at the
+     *        first key
+     * @param limit The maximum number of keys to return
+     * @return The keys found with all their versions, in key order
+     */
+    public List<Pair<K, List<Versioned<V>>>> getRange(double[] min,
+                                                      double[] max,
+                                                      K after,
+                                                      int limit) throws VoldemortException;
+
+    /**
+     * Get the keys closest to a point.
+     * 
+     * @param point The point to search around
+     * @param count The maximum number of keys to return
+     * @param maxDistance Only return keys within this euclidean distance
+     * @return The keys found with all their versions, nearest first; keys at
+     *         the same distance are in key order
+     */
+    public List<Pair<K, List<Versioned<V>>>> getNearest(double[] point,
+                                                        int count,
+                                                        double maxDistance)
+            throws VoldemortException;
+
+}
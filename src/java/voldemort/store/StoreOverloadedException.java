@@ -0,0 +1,48 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store;
+
+import voldemort.VoldemortException;
+
+/**
+ * Indicates that a server turned a request away without running it because
+ * the store was too busy or the request could no longer finish in time, or
+ * that the client had no free connection to send it on. The server is
+ * healthy, so the request can be sent to another replica at once.
+ * 
+ * @author jay
+ * 
+ */
+public class StoreOverloadedException extends VoldemortException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StoreOverloadedException(String s) {
+        super(s);
+    }
+
+    public StoreOverloadedException(String s, Throwable t) {
+        super(s, t);
+    }
+
+    @Override
+    public short getId() {
+        return 11;
+    }
+
+}
@@ -20,9 +20,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -32,8 +35,11 @@ import voldemort.serialization.Serializer;
 import voldemort.serialization.SerializerDefinition;
 import voldemort.serialization.SerializerFactory;
 import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
+import voldemort.utils.Pair;
 import voldemort.versioning.Versioned;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 /**
@@ -46,6 +52,16 @@ public class StoreUtils {
 
     private static Logger logger = Logger.getLogger(StoreUtils.class);
 
+    /**
+     * Orders keys as unsigned bytes, which is the order BDB stores them in
+     */
+    private static final Comparator<ByteArray> KEY_ORDER = new Comparator<ByteArray>() {
+
+        public int compare(ByteArray k1, ByteArray k2) {
+            return ByteUtils.compare(k1.get(), k2.get());
+        }
+    };
+
     public static void assertValidKeys(Iterable<?> keys) {
         if(keys == null)
             throw new IllegalArgumentException("Keys cannot be null.");
@@ -75,7 +91,7 @@ public class StoreUtils {
     public static <K, V> Map<K, List<Versioned<V>>> getAll(Store<K, V> storageEngine,
                                                            Iterable<K> keys) {
         Map<K, List<Versioned<V>>> result = newEmptyHashMap(keys);
-        for(K key: keys) {
+        for(K key: distinctKeys(keys)) {
             List<Versioned<V>> value = storageEngine.get(key);
             if(!value.isEmpty())
                 result.put(key, value);
@@ -83,6 +99,31 @@ public class StoreUtils {
         return result;
     }
 
+    /**
+     * Returns the keys with duplicates removed, in the order they were first
+     * given. A set is returned as is.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Collection<K> distinctKeys(Iterable<K> keys) {
+        if(keys instanceof Set<?>)
+            return (Set<K>) keys;
+        Set<K> distinct = new LinkedHashSet<K>();
+        for(K key: keys)
+            distinct.add(key);
+        return distinct;
+    }
+
+    /**
+     * Returns the keys with duplicates removed, sorted in the unsigned byte
+     * order that BDB stores keys in, so a batch of lookups walks the index in
+     * one direction.
+     */
+    public static List<ByteArray> sortedDistinctKeys(Iterable<ByteArray> keys) {
+        List<ByteArray> sorted = Lists.newArrayList(distinctKeys(keys));
+        Collections.sort(sorted, KEY_ORDER);
+        return sorted;
+    }
+
     /**
      * Returns an empty map with expected size matching the iterable size if
      * it's of type Collection. Otherwise, an empty map with the default size is
@@ -127,6 +168,82 @@ public class StoreUtils {
         throw new InvalidMetadataException("client routing strategy not in sync with store routing strategy!");
     }
 
+    /**
+     * Compare two keys of a {@link SpatialStore} in the order of the points
+     * they encode, first dimension first
+     */
+    public static int comparePointKeys(byte[] a, byte[] b) {
+        int dimensions = Math.min(a.length, b.length) / 8;
+        for(int i = 0; i < dimensions; i++) {
+            int cmp = Double.compare(getCoordinate(a, i), getCoordinate(b, i));
+            if(cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * The squared euclidean distance between the point a key of a
+     * {@link SpatialStore} encodes and another point
+     */
+    public static double squaredDistance(byte[] key, double[] point) {
+        double distance = 0d;
+        for(int i = 0; i < point.length; i++) {
+            double delta = getCoordinate(key, i) - point[i];
+            distance += delta * delta;
+        }
+        return distance;
+    }
+
+    private static double getCoordinate(byte[] key, int dimension) {
+        return Double.longBitsToDouble(ByteUtils.readLong(key, dimension * 8));
+    }
+
+    /**
+     * Merge pages of range query results from several stores into the first
+     * limit results of all of them, in key order
+     * 
+     * @param results The results of all the stores
+     * @param limit The maximum number of results to keep
+     * @return The first results, sorted
+     */
+    public static <V> List<Pair<ByteArray, V>> firstInPointOrder(List<Pair<ByteArray, V>> results,
+                                                               int limit) {
+        Collections.sort(results, new Comparator<Pair<ByteArray, V>>() {
+
+            public int compare(Pair<ByteArray, V> a, Pair<ByteArray, V> b) {
+                return comparePointKeys(a.getFirst().get(), b.getFirst().get());
+            }
+        });
+        return results.subList(0, Math.min(Math.max(limit, 0), results.size()));
+    }
+
+    /**
+     * Merge nearest neighbour query results from several stores into the
+     * count results closest to the point, nearest first and ties broken by
+     * key order
+     * 
+     * @param results The results of all the stores
+     * @param point The point searched around
+     * @param count The maximum number of results to keep
+     * @return The nearest results, sorted
+     */
+    public static <V> List<Pair<ByteArray, V>> nearestTo(List<Pair<ByteArray, V>> results,
+                                                       final double[] point,
+                                                       int count) {
+        Collections.sort(results, new Comparator<Pair<ByteArray, V>>() {
+
+            public int compare(Pair<ByteArray, V> a, Pair<ByteArray, V> b) {
+                int cmp = Double.compare(squaredDistance(a.getFirst().get(), point),
+                                         squaredDistance(b.getFirst().get(), point));
+                if(cmp != 0)
+                    return cmp;
+                return comparePointKeys(a.getFirst().get(), b.getFirst().get());
+            }
+        });
+        return results.subList(0, Math.min(Math.max(count, 0), results.size()));
+    }
+
     /**
      * This is a temporary measure until we have a type-safe solution for
      * retrieving serializers from a SerializerFactory. It avoids warnings all
@@ -35,6 +35,7 @@ import voldemort.store.StorageEngine;
 import voldemort.store.Store;
 import voldemort.store.StoreCapabilityType;
 import voldemort.store.StoreUtils;
+import voldemort.store.stats.RequestTrace;
 import voldemort.utils.ByteArray;
 import voldemort.utils.ByteUtils;
 import voldemort.utils.ClosableIterator;
@@ -154,7 +155,9 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
         Cursor cursor = null;
         try {
             cursor = bdbDatabase.openCursor(null, null);
-            return get(cursor, key, lockMode);
+            List<Versioned<byte[]>> values = get(cursor, key, lockMode);
+            RequestTrace.mark("bdb read");
+            return values;
         } catch(DatabaseException e) {
             throw new PersistenceFailureException(e);
         } finally {
@@ -169,11 +172,14 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
         Cursor cursor = null;
         try {
             cursor = bdbDatabase.openCursor(null, null);
-            for(ByteArray key: keys) {
+            // look keys up in storage order so consecutive searches share
+            // the btree nodes already in cache
+            for(ByteArray key: StoreUtils.sortedDistinctKeys(keys)) {
                 List<Versioned<byte[]>> values = get(cursor, key, LockMode.READ_UNCOMMITTED);
                 if(!values.isEmpty())
                     result.put(key, values);
             }
+            RequestTrace.mark("bdb read");
         } catch(DatabaseException e) {
             throw new PersistenceFailureException(e);
         } finally {
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanOperationInfo;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxManaged;
+import voldemort.annotations.jmx.JmxOperation;
+import voldemort.store.DelegatingStore;
+import voldemort.store.Store;
+import voldemort.store.StoreUtils;
+import voldemort.utils.ByteArray;
+import voldemort.utils.Time;
+import voldemort.versioning.Occured;
+import voldemort.versioning.VectorClock;
+import voldemort.versioning.Version;
+import voldemort.versioning.Versioned;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A bounded client side cache of recently read values.
+ * 
+ * A cached value is served for {@code ttlMs} after it was read from the
+ * servers, so a read may miss updates made by other clients for that long.
+ * Updates made through this store are never missed: a put replaces the
+ * versions it supersedes in the cache, and until the servers return the
+ * written version or a later one, reads add it to what the servers return.
+ * A delete drops the key from the cache.
+ * 
+ * When the cache is full an arbitrary key is dropped to make room; keys are
+ * hashed, so this is close to random replacement.
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+@JmxManaged(description = "A client side cache of recently read values.")
+public class NearCacheStore extends DelegatingStore<ByteArray, byte[]> {
+
+    private final int capacity;
+    private final long ttlMs;
+    private final Time time;
+    private final ConcurrentMap<ByteArray, Entry> cache;
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong refreshes = new AtomicLong(0);
+    private final AtomicLong staleRefreshes = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * @param innerStore The store to cache
+     * @param capacity The most keys to cache
+     * @param ttlMs How long a value read from the servers is served
+     * @param time The time implementation used to expire values
+     */
+    public NearCacheStore(Store<ByteArray, byte[]> innerStore, int capacity, long ttlMs, Time time) {
+        super(innerStore);
+        if(capacity < 1)
+            throw new IllegalArgumentException("Cache capacity must be positive.");
+        this.capacity = capacity;
+        this.ttlMs = ttlMs;
+        this.time = time;
+        this.cache = new ConcurrentHashMap<ByteArray, Entry>(capacity);
+    }
+
+    @Override
+    public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        Entry entry = cache.get(key);
+        if(entry != null && time.getMilliseconds() < entry.expiresMs) {
+            hits.incrementAndGet();
+            return copy(entry.values);
+        }
+        misses.incrementAndGet();
+        return copy(update(key, entry, super.get(key)));
+    }
+
+    @Override
+    public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
+            throws VoldemortException {
+        StoreUtils.assertValidKeys(keys);
+        Map<ByteArray, List<Versioned<byte[]>>> results = Maps.newHashMap();
+        Map<ByteArray, Entry> missed = Maps.newHashMap();
+        long now = time.getMilliseconds();
+        for(ByteArray key: keys) {
+            Entry entry = cache.get(key);
+            if(entry != null && now < entry.expiresMs) {
+                hits.incrementAndGet();
+                if(!entry.values.isEmpty())
+                    results.put(key, copy(entry.values));
+            } else if(!missed.containsKey(key)) {
+                misses.incrementAndGet();
+                missed.put(key, entry);
+            }
+        }
+        if(missed.isEmpty())
+            return results;
+
+        Map<ByteArray, List<Versioned<byte[]>>> fetched = super.getAll(missed.keySet());
+        for(Map.Entry<ByteArray, Entry> miss: missed.entrySet()) {
+            List<Versioned<byte[]>> found = fetched.get(miss.getKey());
+            if(found == null)
+                found = Collections.emptyList();
+            List<Versioned<byte[]>> values = update(miss.getKey(), miss.getValue(), found);
+            if(!values.isEmpty())
+                results.put(miss.getKey(), copy(values));
+        }
+        return results;
+    }
+
+    @Override
+    public void put(ByteArray key, Versioned<byte[]> value) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        try {
+            super.put(key, value);
+        } catch(VoldemortException e) {
+            // the put may have reached some servers, read again next time
+            cache.remove(key);
+            throw e;
+        }
+        // the version now holds the clock the servers stored
+        Versioned<byte[]> written = new Versioned<byte[]>(value.getValue(),
+                                                          ((VectorClock) value.getVersion()).clone());
+        while(true) {
+            Entry entry = cache.get(key);
+            List<Versioned<byte[]>> values = new ArrayList<Versioned<byte[]>>();
+            long expiresMs = time.getMilliseconds() + ttlMs;
+            if(entry != null) {
+                for(Versioned<byte[]> v: entry.values)
+                    if(!isBefore(v.getVersion(), written.getVersion()))
+                        values.add(v);
+                expiresMs = entry.expiresMs;
+            }
+            values.add(written);
+            Entry updated = new Entry(values, expiresMs, written);
+            if(entry == null ? putIfAbsent(key, updated) : cache.replace(key, entry, updated))
+                return;
+        }
+    }
+
+    @Override
+    public boolean delete(ByteArray key, Version version) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        try {
+            return super.delete(key, version);
+        } finally {
+            cache.remove(key);
+        }
+    }
+
+    /*
+     * Cache what was read from the servers, keeping any version written
+     * through this store that the servers have not caught up with yet
+     */
+    private List<Versioned<byte[]>> update(ByteArray key, Entry previous, List<Versioned<byte[]>> fetched) {
+        long now = time.getMilliseconds();
+        Versioned<byte[]> written = null;
+        List<Versioned<byte[]>> values = fetched;
+        if(previous != null) {
+            refreshes.incrementAndGet();
+            if(isSuperseded(previous.values, fetched))
+                staleRefreshes.incrementAndGet();
+            if(previous.written != null && !isCovered(previous.written, fetched)) {
+                written = previous.written;
+                values = new ArrayList<Versioned<byte[]>>(fetched.size() + 1);
+                for(Versioned<byte[]> v: fetched)
+                    if(!isBefore(v.getVersion(), written.getVersion()))
+                        values.add(v);
+                values.add(written);
+            }
+        }
+        Entry updated = new Entry(values, now + ttlMs, written);
+        // if a put changed the entry meanwhile leave its entry in place
+        if(previous == null)
+            putIfAbsent(key, updated);
+        else
+            cache.replace(key, previous, updated);
+        return values;
+    }
+
+    /*
+     * Callers get their own clocks, a put increments the clock it is given
+     */
+    private List<Versioned<byte[]>> copy(List<Versioned<byte[]>> values) {
+        List<Versioned<byte[]>> copies = new ArrayList<Versioned<byte[]>>(values.size());
+        for(Versioned<byte[]> v: values)
+            copies.add(new Versioned<byte[]>(v.getValue(), ((VectorClock) v.getVersion()).clone()));
+        return copies;
+    }
+
+    private boolean putIfAbsent(ByteArray key, Entry entry) {
+        if(cache.size() >= capacity)
+            evict();
+        return cache.putIfAbsent(key, entry) == null;
+    }
+
+    private void evict() {
+        Iterator<ByteArray> keys = cache.keySet().iterator();
+        while(cache.size() >= capacity && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /*
+     * Strictly before, an equal clock compares as before too
+     */
+    private static boolean isBefore(Version v1, Version v2) {
+        return v1.compare(v2) == Occured.BEFORE && v2.compare(v1) != Occured.BEFORE;
+    }
+
+    /*
+     * True if one of the versions is the given one or a later one
+     */
+    private static boolean isCovered(Versioned<byte[]> written, List<Versioned<byte[]>> versions) {
+        for(Versioned<byte[]> v: versions)
+            if(written.getVersion().compare(v.getVersion()) == Occured.BEFORE)
+                return true;
+        return false;
+    }
+
+    /*
+     * True if a version that was cached has been replaced on the servers
+     */
+    private static boolean isSuperseded(List<Versioned<byte[]>> cached,
+                                        List<Versioned<byte[]>> fetched) {
+        for(Versioned<byte[]> c: cached)
+            for(Versioned<byte[]> f: fetched)
+                if(isBefore(c.getVersion(), f.getVersion()))
+                    return true;
+        return false;
+    }
+
+    @JmxGetter(name = "hits", description = "The number of reads served from the cache.")
+    public long getNumberOfHits() {
+        return hits.get();
+    }
+
+    @JmxGetter(name = "misses", description = "The number of reads sent to the servers.")
+    public long getNumberOfMisses() {
+        return misses.get();
+    }
+
+    @JmxGetter(name = "hitRate", description = "The fraction of reads served from the cache.")
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : h / (double) total;
+    }
+
+    @JmxGetter(name = "staleRate", description = "The fraction of expired values that had been replaced on the servers while cached.")
+    public double getStaleRate() {
+        long r = refreshes.get();
+        return r == 0 ? 0.0 : staleRefreshes.get() / (double) r;
+    }
+
+    @JmxGetter(name = "staleRefreshes", description = "The number of expired values that had been replaced on the servers while cached.")
+    public long getNumberOfStaleRefreshes() {
+        return staleRefreshes.get();
+    }
+
+    @JmxGetter(name = "evictions", description = "The number of keys dropped to make room.")
+    public long getNumberOfEvictions() {
+        return evictions.get();
+    }
+
+    @JmxGetter(name = "size", description = "The number of keys cached.")
+    public int getSize() {
+        return cache.size();
+    }
+
+    @JmxGetter(name = "ttlMs", description = "How long a value read from the servers is served.")
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    @JmxOperation(description = "Drop all cached values.", impact = MBeanOperationInfo.ACTION)
+    public void clear() {
+        cache.clear();
+    }
+
+    private static final class Entry {
+
+        final List<Versioned<byte[]>> values;
+        final long expiresMs;
+        // a version written through this store the servers may not have yet
+        final Versioned<byte[]> written;
+
+        Entry(List<Versioned<byte[]>> values, long expiresMs, Versioned<byte[]> written) {
+            this.values = values;
+            this.expiresMs = expiresMs;
+            this.written = written;
+        }
+    }
+}
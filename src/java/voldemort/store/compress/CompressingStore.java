@@ -0,0 +1,200 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.compress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanOperationInfo;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxOperation;
+import voldemort.store.DelegatingStore;
+import voldemort.store.SpatialStore;
+import voldemort.store.Store;
+import voldemort.store.StoreCapabilityType;
+import voldemort.store.StoreUtils;
+import voldemort.utils.Pair;
+import voldemort.utils.Time;
+import voldemort.utils.Utils;
+import voldemort.versioning.Versioned;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A store that compresses values on the way in and uncompresses them on the
+ * way out using a pluggable {@link CompressionStrategy}. The bytes saved and
+ * the time spent in the codec are tracked.
+ * 
+ * @author jay
+ * 
+ */
+public class CompressingStore<K> extends DelegatingStore<K, byte[]> {
+
+    private final CompressionStrategy strategy;
+
+    private final AtomicLong compressions = new AtomicLong(0);
+    private final AtomicLong uncompressedBytes = new AtomicLong(0);
+    private final AtomicLong compressedBytes = new AtomicLong(0);
+    private final AtomicLong compressionNs = new AtomicLong(0);
+    private final AtomicLong decompressions = new AtomicLong(0);
+    private final AtomicLong decompressionNs = new AtomicLong(0);
+
+    public CompressingStore(Store<K, byte[]> innerStore, CompressionStrategy strategy) {
+        super(innerStore);
+        this.strategy = Utils.notNull(strategy);
+    }
+
+    @Override
+    public List<Versioned<byte[]>> get(K key) throws VoldemortException {
+        return inflateValues(super.get(key));
+    }
+
+    @Override
+    public Map<K, List<Versioned<byte[]>>> getAll(Iterable<K> keys) throws VoldemortException {
+        Map<K, List<Versioned<byte[]>>> found = super.getAll(keys);
+        Map<K, List<Versioned<byte[]>>> results = Maps.newHashMapWithExpectedSize(found.size());
+        for(Map.Entry<K, List<Versioned<byte[]>>> entry: found.entrySet())
+            results.put(entry.getKey(), inflateValues(entry.getValue()));
+        return results;
+    }
+
+    @Override
+    public void put(K key, Versioned<byte[]> value) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        long start = System.nanoTime();
+        byte[] compressed;
+        try {
+            compressed = strategy.deflate(value.getValue());
+        } catch(IOException e) {
+            throw new VoldemortException(e);
+        }
+        compressionNs.addAndGet(System.nanoTime() - start);
+        compressions.incrementAndGet();
+        uncompressedBytes.addAndGet(value.getValue().length);
+        compressedBytes.addAndGet(compressed.length);
+        super.put(key, new Versioned<byte[]>(compressed, value.getVersion()));
+    }
+
+    @Override
+    public void close() throws VoldemortException {
+        try {
+            super.close();
+        } finally {
+            strategy.close();
+        }
+    }
+
+    @Override
+    public Object getCapability(StoreCapabilityType capability) {
+        if(capability != StoreCapabilityType.SPATIAL_QUERIES)
+            return super.getCapability(capability);
+        @SuppressWarnings("unchecked")
+        final SpatialStore<K, byte[]> inner = (SpatialStore<K, byte[]>) super.getCapability(capability);
+        return new SpatialStore<K, byte[]>() {
+
+            public List<Pair<K, List<Versioned<byte[]>>>> getRange(double[] min,
+                                                                   double[] max,
+                                                                   K after,
+                                                                   int limit) {
+                return inflateResults(inner.getRange(min, max, after, limit));
+            }
+
+            public List<Pair<K, List<Versioned<byte[]>>>> getNearest(double[] point,
+                                                                     int count,
+                                                                     double maxDistance) {
+                return inflateResults(inner.getNearest(point, count, maxDistance));
+            }
+        };
+    }
+
+    private List<Pair<K, List<Versioned<byte[]>>>> inflateResults(List<Pair<K, List<Versioned<byte[]>>>> found) {
+        List<Pair<K, List<Versioned<byte[]>>>> results = new ArrayList<Pair<K, List<Versioned<byte[]>>>>(found.size());
+        for(Pair<K, List<Versioned<byte[]>>> pair: found)
+            results.add(Pair.create(pair.getFirst(), inflateValues(pair.getSecond())));
+        return results;
+    }
+
+    private List<Versioned<byte[]>> inflateValues(List<Versioned<byte[]>> values) {
+        List<Versioned<byte[]>> results = new ArrayList<Versioned<byte[]>>(values.size());
+        long start = System.nanoTime();
+        try {
+            for(Versioned<byte[]> item: values)
+                results.add(new Versioned<byte[]>(strategy.inflate(item.getValue()),
+                                                  item.getVersion()));
+        } catch(IOException e) {
+            throw new VoldemortException(e);
+        }
+        decompressionNs.addAndGet(System.nanoTime() - start);
+        decompressions.addAndGet(values.size());
+        return results;
+    }
+
+    public CompressionStrategy getCompressionStrategy() {
+        return strategy;
+    }
+
+    @JmxGetter(name = "compressionType", description = "The type of compression used.")
+    public String getCompressionType() {
+        return strategy.getType();
+    }
+
+    @JmxGetter(name = "numberOfCompressions", description = "The number of values compressed since the last reset.")
+    public long getNumberOfCompressions() {
+        return compressions.get();
+    }
+
+    @JmxGetter(name = "numberOfDecompressions", description = "The number of values uncompressed since the last reset.")
+    public long getNumberOfDecompressions() {
+        return decompressions.get();
+    }
+
+    @JmxGetter(name = "compressionRatio", description = "The compressed size of written values as a fraction of their uncompressed size.")
+    public double getCompressionRatio() {
+        long uncompressed = uncompressedBytes.get();
+        if(uncompressed == 0)
+            return 1.0;
+        return compressedBytes.get() / (double) uncompressed;
+    }
+
+    @JmxGetter(name = "averageCompressionTimeInUs", description = "The avg. time in us to compress a value.")
+    public double getAverageCompressionTimeInUs() {
+        long count = compressions.get();
+        return count == 0 ? 0.0 : compressionNs.get() / (double) count / Time.NS_PER_US;
+    }
+
+    @JmxGetter(name = "averageDecompressionTimeInUs", description = "The avg. time in us to uncompress a value.")
+    public double getAverageDecompressionTimeInUs() {
+        long count = decompressions.get();
+        return count == 0 ? 0.0 : decompressionNs.get() / (double) count / Time.NS_PER_US;
+    }
+
+    @JmxOperation(description = "Reset statistics.", impact = MBeanOperationInfo.ACTION)
+    public void resetStatistics() {
+        compressions.set(0);
+        uncompressedBytes.set(0);
+        compressedBytes.set(0);
+        compressionNs.set(0);
+        decompressions.set(0);
+        decompressionNs.set(0);
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.compress;
+
+import java.io.IOException;
+
+import voldemort.annotations.concurrency.Threadsafe;
+
+/**
+ * An implementation of a compression algorithm for values
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+public interface CompressionStrategy {
+
+    /**
+     * The name of the compression type, as used in the store definition
+     */
+    public String getType();
+
+    /**
+     * Compress the given bytes
+     * 
+     * @param data The uncompressed bytes
+     * @return The compressed bytes
+     */
+    public byte[] deflate(byte[] data) throws IOException;
+
+    /**
+     * Uncompress the given bytes
+     * 
+     * @param data The compressed bytes
+     * @return The uncompressed bytes
+     */
+    public byte[] inflate(byte[] data) throws IOException;
+
+    /**
+     * Release any native resources held by the strategy
+     */
+    public void close();
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.compress;
+
+import org.apache.commons.codec.binary.Base64;
+
+import voldemort.serialization.Compression;
+import voldemort.utils.ByteUtils;
+
+/**
+ * Maps the compression settings of a store definition to a
+ * {@link CompressionStrategy}.
+ * 
+ * For the "deflate" type the options, if given, are the base64 encoded preset
+ * dictionary.
+ * 
+ * @author jay
+ * 
+ */
+public class CompressionStrategyFactory {
+
+    public CompressionStrategy get(Compression compression) {
+        String type = compression.getType();
+        if(type.equals(GzipCompressionStrategy.TYPE)) {
+            return new GzipCompressionStrategy();
+        } else if(type.equals(DeflateCompressionStrategy.TYPE)) {
+            byte[] dictionary = null;
+            if(compression.hasOptions())
+                dictionary = Base64.decodeBase64(ByteUtils.getBytes(compression.getOptions()
+                                                                               .trim(), "UTF-8"));
+            return new DeflateCompressionStrategy(dictionary);
+        } else {
+            throw new IllegalArgumentException("No known compression type: " + type);
+        }
+    }
+
+    /**
+     * Create the settings for a deflate compressed store with the given
+     * dictionary
+     * 
+     * @param dictionary The preset dictionary, or null for none
+     * @return The compression settings
+     */
+    public static Compression deflate(byte[] dictionary) {
+        String options = null;
+        if(dictionary != null && dictionary.length > 0)
+            options = ByteUtils.getString(Base64.encodeBase64(dictionary), "UTF-8");
+        return new Compression(DeflateCompressionStrategy.TYPE, options);
+    }
+
+}
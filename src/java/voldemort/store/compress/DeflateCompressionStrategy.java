@@ -0,0 +1,251 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.compress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
+
+/**
+ * Compresses values with raw deflate (an LZ77 family codec) at its fastest
+ * level, optionally primed with a preset dictionary shared by all values of
+ * the store.
+ * 
+ * Small values compress poorly on their own since there is little repetition
+ * inside a single value, but values of the same store tend to repeat each
+ * other (field names in JSON, common prefixes, etc). A dictionary built from
+ * sample values with {@link #trainDictionary(Iterable, int)} lets even tiny
+ * values reference that shared content.
+ * 
+ * Deflaters and Inflaters hold native zlib memory, so they are kept in a small
+ * pool shared by all threads rather than per thread, and are ended explicitly
+ * when they do not fit in the pool or when the strategy is closed. Each pooled
+ * codec keeps a scratch buffer of at most {@link #MAX_KEPT_BUFFER_SIZE} bytes;
+ * larger values use a one-off buffer.
+ * 
+ * @author jay
+ * 
+ */
+public class DeflateCompressionStrategy implements CompressionStrategy {
+
+    public static final String TYPE = "deflate";
+
+    /* The length of the substrings counted when training a dictionary */
+    private static final int SHINGLE_SIZE = 8;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /* The largest scratch buffer a pooled codec keeps between values */
+    public static final int MAX_KEPT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_POOLED_CONTEXTS = 16;
+
+    private final byte[] dictionary;
+    private final int level;
+    private final BlockingQueue<Context> contexts = new ArrayBlockingQueue<Context>(MAX_POOLED_CONTEXTS);
+    private volatile boolean closed = false;
+
+    public DeflateCompressionStrategy() {
+        this(null);
+    }
+
+    public DeflateCompressionStrategy(byte[] dictionary) {
+        this(dictionary, Deflater.BEST_SPEED);
+    }
+
+    public DeflateCompressionStrategy(byte[] dictionary, int level) {
+        if(dictionary != null && dictionary.length == 0)
+            dictionary = null;
+        this.dictionary = dictionary;
+        this.level = level;
+    }
+
+    public String getType() {
+        return TYPE;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    public byte[] deflate(byte[] data) throws IOException {
+        Context context = checkout();
+        try {
+            Deflater deflater = context.deflater;
+            deflater.reset();
+            if(dictionary != null)
+                deflater.setDictionary(dictionary);
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = context.buffer;
+            int length = 0;
+            while(!deflater.finished()) {
+                if(length == buffer.length)
+                    buffer = grow(buffer);
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            context.keep(buffer);
+            return ByteUtils.copy(buffer, 0, length);
+        } finally {
+            checkin(context);
+        }
+    }
+
+    public byte[] inflate(byte[] data) throws IOException {
+        Context context = checkout();
+        try {
+            Inflater inflater = context.inflater;
+            inflater.reset();
+            if(dictionary != null)
+                inflater.setDictionary(dictionary);
+            inflater.setInput(data);
+            byte[] buffer = context.buffer;
+            int length = 0;
+            while(!inflater.finished()) {
+                if(length == buffer.length)
+                    buffer = grow(buffer);
+                int inflated = inflater.inflate(buffer, length, buffer.length - length);
+                if(inflated == 0 && !inflater.finished()
+                   && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Compressed value is truncated or was compressed with a different dictionary.");
+                length += inflated;
+            }
+            context.keep(buffer);
+            return ByteUtils.copy(buffer, 0, length);
+        } catch(DataFormatException e) {
+            throw new IOException("Invalid compressed value: " + e.getMessage());
+        } finally {
+            checkin(context);
+        }
+    }
+
+    /**
+     * End all pooled codecs. Codecs in use are ended when they are returned.
+     */
+    public void close() {
+        closed = true;
+        for(Context context = contexts.poll(); context != null; context = contexts.poll())
+            context.end();
+    }
+
+    private Context checkout() {
+        Context context = contexts.poll();
+        return context == null ? new Context(level) : context;
+    }
+
+    private void checkin(Context context) {
+        if(closed || !contexts.offer(context))
+            context.end();
+        else if(closed && contexts.remove(context))
+            context.end();
+    }
+
+    private static byte[] grow(byte[] buffer) {
+        byte[] bigger = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, bigger, 0, buffer.length);
+        return bigger;
+    }
+
+    /**
+     * Build a preset dictionary from sample values. The dictionary is made up
+     * of the substrings that occur in the most samples, with the most common
+     * last since deflate encodes nearer matches more cheaply.
+     * 
+     * @param samples Typical values for the store
+     * @param maxSize The maximum size of the dictionary in bytes (deflate uses
+     *        at most the last 32k)
+     * @return The dictionary, which may be empty if the samples share nothing
+     */
+    public static byte[] trainDictionary(Iterable<byte[]> samples, int maxSize) {
+        final Map<ByteArray, Integer> counts = new HashMap<ByteArray, Integer>();
+        for(byte[] sample: samples) {
+            Set<ByteArray> seen = new HashSet<ByteArray>();
+            for(int i = 0; i + SHINGLE_SIZE <= sample.length; i++) {
+                ByteArray shingle = new ByteArray(ByteUtils.copy(sample, i, i + SHINGLE_SIZE));
+                if(seen.add(shingle)) {
+                    Integer count = counts.get(shingle);
+                    counts.put(shingle, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        List<ByteArray> common = new ArrayList<ByteArray>();
+        for(Map.Entry<ByteArray, Integer> entry: counts.entrySet())
+            if(entry.getValue() > 1)
+                common.add(entry.getKey());
+        Collections.sort(common, new Comparator<ByteArray>() {
+
+            public int compare(ByteArray a, ByteArray b) {
+                int diff = counts.get(b) - counts.get(a);
+                return diff != 0 ? diff : ByteUtils.compare(a.get(), b.get());
+            }
+        });
+
+        int size = Math.min(maxSize / SHINGLE_SIZE, common.size()) * SHINGLE_SIZE;
+        byte[] dictionary = new byte[size];
+        int offset = size;
+        for(ByteArray shingle: common) {
+            if(offset < SHINGLE_SIZE)
+                break;
+            offset -= SHINGLE_SIZE;
+            System.arraycopy(shingle.get(), 0, dictionary, offset, SHINGLE_SIZE);
+        }
+        return dictionary;
+    }
+
+    /**
+     * A pooled codec and its scratch buffer
+     */
+    private static final class Context {
+
+        private final Deflater deflater;
+        private final Inflater inflater;
+        private byte[] buffer;
+
+        public Context(int level) {
+            this.deflater = new Deflater(level, true);
+            this.inflater = new Inflater(true);
+            this.buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+
+        /* Keep a grown buffer for the next value unless it is too large */
+        public void keep(byte[] grown) {
+            if(grown.length <= MAX_KEPT_BUFFER_SIZE)
+                buffer = grown;
+        }
+
+        public void end() {
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Compresses values with gzip. This is the same format used by
+ * {@link voldemort.store.gzip.GzipStore}.
+ * 
+ * @author jay
+ * 
+ */
+public class GzipCompressionStrategy implements CompressionStrategy {
+
+    public static final String TYPE = "gzip";
+
+    public String getType() {
+        return TYPE;
+    }
+
+    public byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 32);
+        GZIPOutputStream output = new GZIPOutputStream(bytes);
+        output.write(data);
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    public byte[] inflate(byte[] data) throws IOException {
+        return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+
+    public void close() {}
+
+}
@@ -104,8 +104,9 @@ public class FilesystemStorageEngine implements StorageEngine<String, String> {
             throws VoldemortException {
         StoreUtils.assertValidKeys(keys);
         Map<String, List<Versioned<String>>> result = StoreUtils.newEmptyHashMap(keys);
-        for(String key: keys) {
-            List<Versioned<String>> values = get(key, this.directory.listFiles());
+        File[] files = this.directory.listFiles();
+        for(String key: StoreUtils.distinctKeys(keys)) {
+            List<Versioned<String>> values = get(key, files);
             if(!values.isEmpty())
                 result.put(key, values);
         }
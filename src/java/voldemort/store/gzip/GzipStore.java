@@ -17,10 +17,12 @@
 package voldemort.store.gzip;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.IOUtils;
 
@@ -59,9 +61,11 @@ public class GzipStore<K> extends DelegatingStore<K, byte[]> implements Store<K,
     @Override
     public void put(K key, Versioned<byte[]> value) throws VoldemortException {
         try {
-            getInnerStore().put(key,
-                                new Versioned<byte[]>(IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(value.getValue()))),
-                                                      value.getVersion()));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream output = new GZIPOutputStream(bytes);
+            output.write(value.getValue());
+            output.close();
+            getInnerStore().put(key, new Versioned<byte[]>(bytes.toByteArray(), value.getVersion()));
         } catch(IOException e) {
             throw new VoldemortException(e);
         }
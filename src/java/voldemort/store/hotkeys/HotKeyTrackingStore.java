@@ -0,0 +1,268 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.hotkeys;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.management.MBeanOperationInfo;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxManaged;
+import voldemort.annotations.jmx.JmxOperation;
+import voldemort.store.DelegatingStore;
+import voldemort.store.Store;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
+import voldemort.versioning.Version;
+import voldemort.versioning.Versioned;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A store wrapper that samples requests to find the most frequently accessed
+ * keys and the keys with the largest values.
+ * 
+ * One in every {@code sampleInterval} requests is counted. Key frequencies are
+ * estimated with a {@link SpaceSavingSketch}, so the counts are those of the
+ * sample and approximate; the ranking is what matters.
+ * 
+ * @author jay
+ * 
+ */
+@JmxManaged(description = "Tracks the most frequently used keys and the largest values of a store.")
+public class HotKeyTrackingStore extends DelegatingStore<ByteArray, byte[]> {
+
+    private static final int NUM_REPORTED = 20;
+    private static final int MAX_DISPLAYED_KEY_BYTES = 32;
+
+    private final int sampleInterval;
+    private final SpaceSavingSketch<ByteArray> hotKeys;
+    private final LargestValues largestValues;
+
+    /*
+     * Racy on purpose: a lost update only shifts which request is sampled
+     */
+    private int requests;
+
+    /**
+     * @param innerStore The store to track
+     * @param capacity The number of keys to keep counts for
+     * @param sampleInterval Count one in this many requests
+     */
+    public HotKeyTrackingStore(Store<ByteArray, byte[]> innerStore, int capacity, int sampleInterval) {
+        super(innerStore);
+        if(sampleInterval < 1)
+            throw new IllegalArgumentException("Sample interval must be positive.");
+        this.sampleInterval = sampleInterval;
+        this.hotKeys = new SpaceSavingSketch<ByteArray>(capacity);
+        this.largestValues = new LargestValues(capacity);
+    }
+
+    private boolean isSampled() {
+        return ++requests % sampleInterval == 0;
+    }
+
+    @Override
+    public boolean delete(ByteArray key, Version version) throws VoldemortException {
+        if(isSampled())
+            hotKeys.offer(copyOf(key));
+        return super.delete(key, version);
+    }
+
+    @Override
+    public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
+        List<Versioned<byte[]>> values = super.get(key);
+        if(isSampled())
+            recordRead(key, values);
+        return values;
+    }
+
+    @Override
+    public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
+            throws VoldemortException {
+        Map<ByteArray, List<Versioned<byte[]>>> values = super.getAll(keys);
+        if(isSampled()) {
+            for(ByteArray key: keys) {
+                List<Versioned<byte[]>> found = values.get(key);
+                if(found == null)
+                    hotKeys.offer(copyOf(key));
+                else
+                    recordRead(key, found);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void put(ByteArray key, Versioned<byte[]> value) throws VoldemortException {
+        super.put(key, value);
+        if(isSampled()) {
+            ByteArray kept = copyOf(key);
+            hotKeys.offer(kept);
+            largestValues.offer(kept, value.getValue().length);
+        }
+    }
+
+    private void recordRead(ByteArray key, List<Versioned<byte[]>> values) {
+        ByteArray kept = copyOf(key);
+        hotKeys.offer(kept);
+        int size = 0;
+        for(Versioned<byte[]> value: values)
+            size = Math.max(size, value.getValue().length);
+        if(size > 0)
+            largestValues.offer(kept, size);
+    }
+
+    /*
+     * The server reuses the key arrays of reads and deletes once the request
+     * is done, so a key that may be kept must be copied
+     */
+    private ByteArray copyOf(ByteArray key) {
+        return new ByteArray(ByteUtils.copy(key.get(), 0, key.length()));
+    }
+
+    public List<SpaceSavingSketch.Counter<ByteArray>> getHotKeys(int n) {
+        return hotKeys.getTop(n);
+    }
+
+    public List<Map.Entry<ByteArray, Integer>> getLargestValues(int n) {
+        return largestValues.getTop(n);
+    }
+
+    @JmxGetter(name = "hotKeys", description = "The most frequently requested keys (in hex) with their sampled request counts.")
+    public String getHotKeysAsString() {
+        StringBuilder builder = new StringBuilder();
+        for(SpaceSavingSketch.Counter<ByteArray> counter: getHotKeys(NUM_REPORTED)) {
+            builder.append(format(counter.getItem())).append(' ').append(counter.getCount());
+            if(counter.getError() > 0)
+                builder.append(" (+/- ").append(counter.getError()).append(')');
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    @JmxGetter(name = "largestValues", description = "The keys (in hex) with the largest values seen, with the value size in bytes.")
+    public String getLargestValuesAsString() {
+        StringBuilder builder = new StringBuilder();
+        for(Map.Entry<ByteArray, Integer> entry: getLargestValues(NUM_REPORTED))
+            builder.append(format(entry.getKey()))
+                   .append(' ')
+                   .append(entry.getValue())
+                   .append('\n');
+        return builder.toString();
+    }
+
+    @JmxGetter(name = "sampleInterval", description = "One in this many requests is counted.")
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    @JmxOperation(description = "Forget the keys seen so far.", impact = MBeanOperationInfo.ACTION)
+    public void resetStatistics() {
+        hotKeys.clear();
+        largestValues.clear();
+    }
+
+    private String format(ByteArray key) {
+        byte[] bytes = key.get();
+        if(bytes.length <= MAX_DISPLAYED_KEY_BYTES)
+            return ByteUtils.toHexString(bytes);
+        return ByteUtils.toHexString(ByteUtils.copy(bytes, 0, MAX_DISPLAYED_KEY_BYTES)) + "...";
+    }
+
+    /*
+     * The keys with the largest values seen, up to a fixed number. The entries
+     * are kept sorted by size, largest first, so a value no larger than the smallest kept is
+     * turned away in constant time and any other change takes logarithmic
+     * time.
+     */
+    private static class LargestValues {
+
+        private final int capacity;
+        private final Map<ByteArray, SizeEntry> entries;
+        private final TreeSet<SizeEntry> bySize;
+        private long nextSequence = 0;
+
+        public LargestValues(int capacity) {
+            this.capacity = capacity;
+            this.entries = Maps.newHashMapWithExpectedSize(capacity);
+            this.bySize = new TreeSet<SizeEntry>();
+        }
+
+        public synchronized void offer(ByteArray key, int size) {
+            // a kept key's size is at least the smallest kept size
+            if(entries.size() >= capacity && size <= bySize.last().size)
+                return;
+            SizeEntry current = entries.get(key);
+            if(current != null) {
+                if(size <= current.size)
+                    return;
+                bySize.remove(current);
+            } else if(entries.size() >= capacity) {
+                SizeEntry smallest = bySize.last();
+                bySize.remove(smallest);
+                entries.remove(smallest.key);
+            }
+            SizeEntry entry = new SizeEntry(key, size, nextSequence++);
+            entries.put(key, entry);
+            bySize.add(entry);
+        }
+
+        public synchronized List<Map.Entry<ByteArray, Integer>> getTop(int n) {
+            List<Map.Entry<ByteArray, Integer>> top = Lists.newArrayList();
+            for(SizeEntry entry: bySize) {
+                if(top.size() >= n)
+                    break;
+                top.add(Maps.immutableEntry(entry.key, entry.size));
+            }
+            return top;
+        }
+
+        public synchronized void clear() {
+            entries.clear();
+            bySize.clear();
+        }
+    }
+
+    /*
+     * A key and its largest value size, ordered largest first and then by
+     * when it was recorded
+     */
+    private static class SizeEntry implements Comparable<SizeEntry> {
+
+        private final ByteArray key;
+        private final int size;
+        private final long sequence;
+
+        public SizeEntry(ByteArray key, int size, long sequence) {
+            this.key = key;
+            this.size = size;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(SizeEntry other) {
+            if(size != other.size)
+                return size > other.size ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.hotkeys;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import voldemort.annotations.concurrency.Threadsafe;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Finds the most frequent items in a stream using the Space-Saving algorithm
+ * of Metwally, Agrawal and El Abbadi.
+ * 
+ * At most {@code capacity} items are counted at once. When a new item arrives
+ * and the table is full, it takes over the counter of the least frequent item
+ * and inherits its count as the possible overestimate. Any item that occurs
+ * more than {@code total / capacity} times is guaranteed to be in the table,
+ * and each count is at most {@link Counter#getError()} too high.
+ * 
+ * The counters are kept in a stream summary: a list of buckets of counters
+ * with equal counts, in increasing order of count. The least frequent item is
+ * the first counter of the first bucket, and an increment by one moves a
+ * counter at most to the next bucket, so counting an item with unit weight
+ * takes constant time whatever the capacity.
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+public class SpaceSavingSketch<T> {
+
+    private final int capacity;
+    private final Map<T, Counter<T>> counters;
+    private Bucket<T> smallest;
+
+    public SpaceSavingSketch(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive.");
+        this.capacity = capacity;
+        this.counters = Maps.newHashMapWithExpectedSize(capacity);
+    }
+
+    public void offer(T item) {
+        offer(item, 1);
+    }
+
+    /**
+     * Count an item
+     * 
+     * @param item The item
+     * @param weight How many times to count it, which must be positive
+     */
+    public synchronized void offer(T item, long weight) {
+        if(weight < 1)
+            throw new IllegalArgumentException("Weight must be positive.");
+        Counter<T> counter = counters.get(item);
+        if(counter != null) {
+            Bucket<T> after = detach(counter);
+            counter.count += weight;
+            attach(counter, after);
+        } else if(counters.size() < capacity) {
+            counter = new Counter<T>(item, weight, 0);
+            counters.put(item, counter);
+            attach(counter, null);
+        } else {
+            Counter<T> min = smallest.first;
+            Bucket<T> after = detach(min);
+            counters.remove(min.item);
+            counter = new Counter<T>(item, min.count + weight, min.count);
+            counters.put(item, counter);
+            attach(counter, after);
+        }
+    }
+
+    /*
+     * Remove a counter from its bucket, dropping the bucket if it is left
+     * empty. Returns the last remaining bucket whose count is no larger than
+     * the counter's, or null if there is none.
+     */
+    private Bucket<T> detach(Counter<T> counter) {
+        Bucket<T> bucket = counter.bucket;
+        if(counter.previous == null)
+            bucket.first = counter.next;
+        else
+            counter.previous.next = counter.next;
+        if(counter.next != null)
+            counter.next.previous = counter.previous;
+        counter.bucket = null;
+        counter.previous = null;
+        counter.next = null;
+        if(bucket.first != null)
+            return bucket;
+
+        if(bucket.previous == null)
+            smallest = bucket.next;
+        else
+            bucket.previous.next = bucket.next;
+        if(bucket.next != null)
+            bucket.next.previous = bucket.previous;
+        return bucket.previous;
+    }
+
+    /*
+     * Add a counter to the bucket for its count, searching from just after
+     * the given bucket (from the smallest if null), whose count must be lower
+     */
+    private void attach(Counter<T> counter, Bucket<T> after) {
+        Bucket<T> previous = after;
+        Bucket<T> bucket = after == null ? smallest : after.next;
+        while(bucket != null && bucket.count < counter.count) {
+            previous = bucket;
+            bucket = bucket.next;
+        }
+        if(bucket == null || bucket.count != counter.count) {
+            Bucket<T> created = new Bucket<T>(counter.count);
+            created.previous = previous;
+            created.next = bucket;
+            if(previous == null)
+                smallest = created;
+            else
+                previous.next = created;
+            if(bucket != null)
+                bucket.previous = created;
+            bucket = created;
+        }
+        counter.bucket = bucket;
+        counter.next = bucket.first;
+        if(bucket.first != null)
+            bucket.first.previous = counter;
+        bucket.first = counter;
+    }
+
+    /**
+     * @param n The number of items to return
+     * @return The n items with the highest counts, highest first
+     */
+    public synchronized List<Counter<T>> getTop(int n) {
+        List<Counter<T>> top = Lists.newArrayListWithCapacity(counters.size());
+        for(Counter<T> c: counters.values())
+            top.add(new Counter<T>(c.item, c.count, c.error));
+        Collections.sort(top, new Comparator<Counter<T>>() {
+
+            public int compare(Counter<T> c1, Counter<T> c2) {
+                return c1.count < c2.count ? 1 : (c1.count > c2.count ? -1 : 0);
+            }
+        });
+        return top.subList(0, Math.min(n, top.size()));
+    }
+
+    public synchronized void clear() {
+        counters.clear();
+        smallest = null;
+    }
+
+    /*
+     * The counters with one count, linked to the buckets with the next lower
+     * and higher counts
+     */
+    private static class Bucket<T> {
+
+        private final long count;
+        private Counter<T> first;
+        private Bucket<T> previous;
+        private Bucket<T> next;
+
+        private Bucket(long count) {
+            this.count = count;
+        }
+    }
+
+    /**
+     * The estimated count of one item
+     */
+    public static class Counter<T> {
+
+        private final T item;
+        private long count;
+        private final long error;
+
+        /* The bucket of the counter and its neighbours in it */
+        private Bucket<T> bucket;
+        private Counter<T> previous;
+        private Counter<T> next;
+
+        private Counter(T item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * @return The estimated count, never lower than the true count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return How much higher than the true count the estimate may be
+         */
+        public long getError() {
+            return error;
+        }
+    }
+}
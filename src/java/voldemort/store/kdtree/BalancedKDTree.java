@@ -0,0 +1,788 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.kdtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import voldemort.annotations.concurrency.NotThreadsafe;
+
+/**
+ * A k-d tree that stays balanced whatever the order of insertion.
+ * 
+ * Points are kept in leaf buckets of up to bucketSize points, stored in flat
+ * arrays so that a bucket is scanned without chasing pointers. Inner nodes
+ * split on the median of the dimension with the largest spread. The tree is
+ * weight balanced: when an update leaves one side of a node with more than
+ * {@link #BALANCE} of its points, that subtree is rebuilt from its points,
+ * which keeps the depth logarithmic for sequential or clustered input. A
+ * subtree is only rebuilt again once a quarter of its points changed, so data
+ * that cannot be split evenly does not cause a rebuild on every update.
+ * 
+ * Coordinates are compared with {@link Double#compare(double, double)}, so
+ * two points are the same exactly when
+ * {@link Arrays#equals(double[], double[])} says so.
+ * 
+ * @author jay
+ * 
+ * @param <T> The type of the values
+ */
+@NotThreadsafe
+public class BalancedKDTree<T> {
+
+    public static final int DEFAULT_BUCKET_SIZE = 32;
+
+    /**
+     * The largest fraction of the points of a node one of its children may
+     * hold
+     */
+    public static final double BALANCE = 0.75;
+
+    private final int dimensions;
+    private final int bucketSize;
+    private Node root;
+
+    public BalancedKDTree(int dimensions) {
+        this(dimensions, DEFAULT_BUCKET_SIZE);
+    }
+
+    public BalancedKDTree(int dimensions, int bucketSize) {
+        if(dimensions < 1)
+            throw new IllegalArgumentException("At least one dimension is required.");
+        if(bucketSize < 2)
+            throw new IllegalArgumentException("Bucket size must be at least 2.");
+        this.dimensions = dimensions;
+        this.bucketSize = bucketSize;
+        this.root = new Leaf(dimensions, bucketSize);
+    }
+
+    /**
+     * Build a tree from the given points at once, which is faster than adding
+     * them one by one
+     * 
+     * @param points The points, all of the given number of dimensions and
+     *        distinct
+     * @param values The value of each point
+     */
+    public static <T> BalancedKDTree<T> bulkLoad(int dimensions,
+                                                 int bucketSize,
+                                                 List<double[]> points,
+                                                 List<T> values) {
+        if(points.size() != values.size())
+            throw new IllegalArgumentException("Every point needs a value.");
+        BalancedKDTree<T> tree = new BalancedKDTree<T>(dimensions, bucketSize);
+        Points all = new Points(dimensions, points.size());
+        for(int i = 0; i < points.size(); i++) {
+            tree.checkDimensions(points.get(i));
+            all.add(points.get(i), 0, values.get(i));
+        }
+        tree.root = tree.build(all);
+        return tree;
+    }
+
+    public int size() {
+        return root.size;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return The number of nodes on the longest path from the root to a leaf
+     */
+    public int getDepth() {
+        return depth(root);
+    }
+
+    private int depth(Node node) {
+        if(node instanceof Leaf)
+            return 1;
+        Inner inner = (Inner) node;
+        return 1 + Math.max(depth(inner.low), depth(inner.high));
+    }
+
+    /**
+     * Get the value stored at a point
+     * 
+     * @param point The point
+     * @return The value, or null if there is no value at the point
+     */
+    public T get(double[] point) {
+        checkDimensions(point);
+        Leaf leaf = findLeaf(point);
+        int index = leaf.indexOf(point);
+        return index < 0 ? null : leaf.<T> valueAt(index);
+    }
+
+    /**
+     * Store a value at a point
+     * 
+     * @param point The point, which is copied
+     * @param value The value
+     * @return The value previously stored at the point, or null if there was
+     *         none
+     */
+    public T put(double[] point, T value) {
+        checkDimensions(point);
+        Leaf leaf = findLeaf(point);
+        int index = leaf.indexOf(point);
+        if(index >= 0) {
+            T previous = leaf.<T> valueAt(index);
+            leaf.values[index] = value;
+            return previous;
+        }
+        root = insert(root, point, value);
+        return null;
+    }
+
+    /**
+     * Remove the value stored at a point
+     * 
+     * @param point The point
+     * @return The value removed, or null if there was no value at the point
+     */
+    public T remove(double[] point) {
+        checkDimensions(point);
+        Leaf leaf = findLeaf(point);
+        int index = leaf.indexOf(point);
+        if(index < 0)
+            return null;
+        T previous = leaf.<T> valueAt(index);
+        root = delete(root, point);
+        return previous;
+    }
+
+    /**
+     * Find the points closest to the given one
+     * 
+     * @param point The point to search around
+     * @param count The maximum number of points to return
+     * @param maxSquaredDistance Only return points within this squared
+     *        euclidean distance
+     * @return The closest points, nearest first; points at the same distance
+     *         are ordered by their coordinates
+     */
+    public List<Entry<T>> nearest(double[] point, int count, double maxSquaredDistance) {
+        checkDimensions(point);
+        if(count <= 0)
+            return Collections.emptyList();
+        NearestSearch search = new NearestSearch(point, count, maxSquaredDistance);
+        search.search(root);
+        return search.getResult();
+    }
+
+    /**
+     * Find the points within a box
+     * 
+     * @param min The lower corner of the box, inclusive
+     * @param max The upper corner of the box, inclusive
+     * @param limit The maximum number of points to return
+     * @return The points found, in no particular order
+     */
+    public List<Entry<T>> range(double[] min, double[] max, int limit) {
+        checkDimensions(min);
+        checkDimensions(max);
+        List<Entry<T>> result = new ArrayList<Entry<T>>();
+        if(limit > 0)
+            range(root, min, max, limit, result);
+        return result;
+    }
+
+    /**
+     * Find the first points within a box in the order of their coordinates,
+     * first dimension first, as when paging through the box. At most limit
+     * points are kept while searching, and once that many are found the
+     * subtrees whose points all come after the last one kept are skipped.
+     * 
+     * @param min The lower corner of the box, inclusive
+     * @param max The upper corner of the box, inclusive
+     * @param after Only points ordered after this one are returned, or null
+     *        for no such bound
+     * @param limit The maximum number of points to return
+     * @return The first points found, in order
+     */
+    public List<Entry<T>> rangeInOrder(double[] min, double[] max, double[] after, int limit) {
+        checkDimensions(min);
+        checkDimensions(max);
+        if(after != null)
+            checkDimensions(after);
+        if(limit <= 0)
+            return Collections.emptyList();
+        // the last point kept is at the head
+        PriorityQueue<Entry<T>> kept = new PriorityQueue<Entry<T>>(limit + 1,
+                                                                   Collections.reverseOrder(new PointOrder<T>()));
+        rangeInOrder(root, min, max, after, limit, Double.NEGATIVE_INFINITY, kept);
+        List<Entry<T>> result = new ArrayList<Entry<T>>(kept);
+        Collections.sort(result, new PointOrder<T>());
+        return result;
+    }
+
+    /**
+     * @return All the points of the tree, in no particular order
+     */
+    public List<Entry<T>> entries() {
+        List<Entry<T>> result = new ArrayList<Entry<T>>(size());
+        collect(root, result);
+        return result;
+    }
+
+    private void checkDimensions(double[] point) {
+        if(point.length != dimensions)
+            throw new IllegalArgumentException("Expected a point of " + dimensions
+                                               + " dimensions but got " + point.length + ".");
+    }
+
+    private Leaf findLeaf(double[] point) {
+        Node node = root;
+        while(node instanceof Inner)
+            node = ((Inner) node).child(point);
+        return (Leaf) node;
+    }
+
+    private Node insert(Node node, double[] point, T value) {
+        if(node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            leaf.add(point, 0, value);
+            if(leaf.size > bucketSize) {
+                Points points = new Points(dimensions, leaf.size);
+                collect(leaf, points);
+                return build(points);
+            }
+            return leaf;
+        }
+
+        Inner inner = (Inner) node;
+        inner.size++;
+        inner.changes++;
+        boolean low = inner.isLow(point);
+        Node child = low ? inner.low : inner.high;
+        if(child.size + 1 > BALANCE * inner.size && needsRebuild(inner)) {
+            Points points = new Points(dimensions, inner.size);
+            collect(inner, points);
+            points.add(point, 0, value);
+            return build(points);
+        }
+        if(low)
+            inner.low = insert(inner.low, point, value);
+        else
+            inner.high = insert(inner.high, point, value);
+        return inner;
+    }
+
+    private Node delete(Node node, double[] point) {
+        if(node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            leaf.remove(leaf.indexOf(point));
+            return leaf;
+        }
+
+        Inner inner = (Inner) node;
+        inner.size--;
+        inner.changes++;
+        boolean low = inner.isLow(point);
+        Node other = low ? inner.high : inner.low;
+        if(inner.size <= bucketSize
+           || (other.size > BALANCE * inner.size && needsRebuild(inner))) {
+            Points points = new Points(dimensions, inner.size + 1);
+            collect(inner, points);
+            points.remove(point);
+            return build(points);
+        }
+        if(low)
+            inner.low = delete(inner.low, point);
+        else
+            inner.high = delete(inner.high, point);
+        return inner;
+    }
+
+    private boolean needsRebuild(Inner inner) {
+        return 4 * inner.changes > inner.size;
+    }
+
+    /**
+     * Build a balanced subtree from the given points
+     */
+    private Node build(Points points) {
+        if(points.size <= bucketSize) {
+            Leaf leaf = new Leaf(dimensions, bucketSize);
+            for(int i = 0; i < points.size; i++)
+                leaf.add(points.coords, i * dimensions, points.values[i]);
+            return leaf;
+        }
+
+        for(final int dim: dimensionsBySpread(points)) {
+            Integer[] order = new Integer[points.size];
+            for(int i = 0; i < order.length; i++)
+                order[i] = i;
+            final double[] coords = points.coords;
+            Arrays.sort(order, new Comparator<Integer>() {
+
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(coords[a * dimensions + dim], coords[b * dimensions + dim]);
+                }
+            });
+
+            int split = findSplit(points, order, dim);
+            if(split < 0)
+                continue;
+
+            Points low = new Points(dimensions, split);
+            Points high = new Points(dimensions, points.size - split);
+            for(int i = 0; i < order.length; i++)
+                (i < split ? low : high).add(coords, order[i] * dimensions, points.values[order[i]]);
+            Inner inner = new Inner(dim, coords[order[split] * dimensions + dim]);
+            inner.low = build(low);
+            inner.high = build(high);
+            inner.size = points.size;
+            return inner;
+        }
+        throw new IllegalStateException("Cannot split duplicate points.");
+    }
+
+    /**
+     * Find the index of the first point of the high half, as close to the
+     * median as possible without splitting equal coordinates
+     */
+    private int findSplit(Points points, Integer[] order, int dim) {
+        int median = order.length / 2;
+        for(int i = median; i < order.length; i++)
+            if(Double.compare(points.coord(order[i - 1], dim), points.coord(order[i], dim)) < 0)
+                return i;
+        for(int i = median - 1; i > 0; i--)
+            if(Double.compare(points.coord(order[i - 1], dim), points.coord(order[i], dim)) < 0)
+                return i;
+        return -1;
+    }
+
+    private int[] dimensionsBySpread(Points points) {
+        final double[] spread = new double[dimensions];
+        for(int dim = 0; dim < dimensions; dim++) {
+            double min = points.coord(0, dim);
+            double max = min;
+            for(int i = 1; i < points.size; i++) {
+                double value = points.coord(i, dim);
+                if(Double.compare(value, min) < 0)
+                    min = value;
+                if(Double.compare(value, max) > 0)
+                    max = value;
+            }
+            spread[dim] = max - min;
+            if(Double.isNaN(spread[dim]))
+                spread[dim] = Double.POSITIVE_INFINITY;
+        }
+        Integer[] order = new Integer[dimensions];
+        for(int dim = 0; dim < dimensions; dim++)
+            order[dim] = dim;
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            public int compare(Integer a, Integer b) {
+                return Double.compare(spread[b], spread[a]);
+            }
+        });
+        int[] result = new int[dimensions];
+        for(int dim = 0; dim < dimensions; dim++)
+            result[dim] = order[dim];
+        return result;
+    }
+
+    private void collect(Node node, Points points) {
+        if(node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for(int i = 0; i < leaf.size; i++)
+                points.add(leaf.coords, i * dimensions, leaf.values[i]);
+        } else {
+            collect(((Inner) node).low, points);
+            collect(((Inner) node).high, points);
+        }
+    }
+
+    private void collect(Node node, List<Entry<T>> result) {
+        if(node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for(int i = 0; i < leaf.size; i++)
+                result.add(leaf.<T> entryAt(i));
+        } else {
+            collect(((Inner) node).low, result);
+            collect(((Inner) node).high, result);
+        }
+    }
+
+    private boolean range(Node node, double[] min, double[] max, int limit, List<Entry<T>> result) {
+        if(node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for(int i = 0; i < leaf.size; i++) {
+                if(leaf.isInside(i, min, max)) {
+                    result.add(leaf.<T> entryAt(i));
+                    if(result.size() >= limit)
+                        return false;
+                }
+            }
+            return true;
+        }
+        Inner inner = (Inner) node;
+        if(Double.compare(min[inner.dim], inner.split) < 0
+           && !range(inner.low, min, max, limit, result))
+            return false;
+        if(Double.compare(max[inner.dim], inner.split) >= 0
+           && !range(inner.high, min, max, limit, result))
+            return false;
+        return true;
+    }
+
+    /*
+     * Keep the first points of the node in the given heap, given that no
+     * point of the node has a first coordinate below lowest
+     */
+    private void rangeInOrder(Node node,
+                              double[] min,
+                              double[] max,
+                              double[] after,
+                              int limit,
+                              double lowest,
+                              PriorityQueue<Entry<T>> kept) {
+        if(kept.size() >= limit && Double.compare(lowest, kept.peek().getPoint()[0]) > 0)
+            return;
+        if(node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for(int i = 0; i < leaf.size; i++) {
+                if(!leaf.isInside(i, min, max) || (after != null && leaf.compare(i, after) <= 0))
+                    continue;
+                if(kept.size() < limit) {
+                    kept.add(leaf.<T> entryAt(i));
+                } else if(leaf.compare(i, kept.peek().getPoint()) < 0) {
+                    kept.poll();
+                    kept.add(leaf.<T> entryAt(i));
+                }
+            }
+            return;
+        }
+        // the low side first, since its points come first when split on the
+        // first dimension, unless they all come before after
+        Inner inner = (Inner) node;
+        if(Double.compare(min[inner.dim], inner.split) < 0
+           && (after == null || inner.dim != 0 || Double.compare(after[0], inner.split) < 0))
+            rangeInOrder(inner.low, min, max, after, limit, lowest, kept);
+        if(Double.compare(max[inner.dim], inner.split) >= 0) {
+            double highLowest = lowest;
+            if(inner.dim == 0 && Double.compare(inner.split, lowest) > 0)
+                highLowest = inner.split;
+            rangeInOrder(inner.high, min, max, after, limit, highLowest, kept);
+        }
+    }
+
+    /*
+     * Orders entries by their points, first dimension first
+     */
+    private static final class PointOrder<T> implements Comparator<Entry<T>> {
+
+        public int compare(Entry<T> a, Entry<T> b) {
+            return KDUtil.compare(a.getPoint(), b.getPoint());
+        }
+    }
+
+    /**
+     * A point and its value
+     */
+    public static final class Entry<T> {
+
+        private final double[] point;
+        private final T value;
+
+        Entry(double[] point, T value) {
+            this.point = point;
+            this.value = value;
+        }
+
+        public double[] getPoint() {
+            return point;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(point) + "=" + value;
+        }
+    }
+
+    private static abstract class Node {
+
+        int size;
+    }
+
+    private static final class Inner extends Node {
+
+        final int dim;
+        final double split;
+        Node low;
+        Node high;
+        int changes;
+
+        Inner(int dim, double split) {
+            this.dim = dim;
+            this.split = split;
+        }
+
+        boolean isLow(double[] point) {
+            return Double.compare(point[dim], split) < 0;
+        }
+
+        Node child(double[] point) {
+            return isLow(point) ? low : high;
+        }
+    }
+
+    /**
+     * A bucket of points, with the coordinates of all points in one array
+     */
+    private static final class Leaf extends Node {
+
+        final int dimensions;
+        double[] coords;
+        Object[] values;
+
+        Leaf(int dimensions, int capacity) {
+            this.dimensions = dimensions;
+            this.coords = new double[dimensions * capacity];
+            this.values = new Object[capacity];
+        }
+
+        int indexOf(double[] point) {
+            for(int i = 0; i < size; i++) {
+                int offset = i * dimensions;
+                int dim = 0;
+                while(dim < dimensions
+                      && Double.compare(coords[offset + dim], point[dim]) == 0)
+                    dim++;
+                if(dim == dimensions)
+                    return i;
+            }
+            return -1;
+        }
+
+        boolean isInside(int index, double[] min, double[] max) {
+            int offset = index * dimensions;
+            for(int dim = 0; dim < dimensions; dim++) {
+                double value = coords[offset + dim];
+                if(Double.compare(value, min[dim]) < 0 || Double.compare(value, max[dim]) > 0)
+                    return false;
+            }
+            return true;
+        }
+
+        /* Compare the point at the index to another, first dimension first */
+        int compare(int index, double[] point) {
+            int offset = index * dimensions;
+            for(int dim = 0; dim < dimensions; dim++) {
+                int cmp = Double.compare(coords[offset + dim], point[dim]);
+                if(cmp != 0)
+                    return cmp;
+            }
+            return 0;
+        }
+
+        void add(double[] source, int offset, Object value) {
+            if(size == values.length) {
+                double[] newCoords = new double[coords.length * 2];
+                System.arraycopy(coords, 0, newCoords, 0, coords.length);
+                coords = newCoords;
+                Object[] newValues = new Object[values.length * 2];
+                System.arraycopy(values, 0, newValues, 0, values.length);
+                values = newValues;
+            }
+            System.arraycopy(source, offset, coords, size * dimensions, dimensions);
+            values[size++] = value;
+        }
+
+        void remove(int index) {
+            size--;
+            System.arraycopy(coords, size * dimensions, coords, index * dimensions, dimensions);
+            values[index] = values[size];
+            values[size] = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T valueAt(int index) {
+            return (T) values[index];
+        }
+
+        <T> Entry<T> entryAt(int index) {
+            double[] point = new double[dimensions];
+            System.arraycopy(coords, index * dimensions, point, 0, dimensions);
+            return new Entry<T>(point, this.<T> valueAt(index));
+        }
+    }
+
+    /**
+     * The points of a subtree being rebuilt
+     */
+    private static final class Points {
+
+        final int dimensions;
+        final double[] coords;
+        final Object[] values;
+        int size;
+
+        Points(int dimensions, int capacity) {
+            this.dimensions = dimensions;
+            this.coords = new double[dimensions * capacity];
+            this.values = new Object[capacity];
+        }
+
+        double coord(int index, int dim) {
+            return coords[index * dimensions + dim];
+        }
+
+        void add(double[] source, int offset, Object value) {
+            System.arraycopy(source, offset, coords, size * dimensions, dimensions);
+            values[size++] = value;
+        }
+
+        void remove(double[] point) {
+            for(int i = 0; i < size; i++) {
+                int dim = 0;
+                while(dim < dimensions && Double.compare(coord(i, dim), point[dim]) == 0)
+                    dim++;
+                if(dim == dimensions) {
+                    size--;
+                    System.arraycopy(coords, size * dimensions, coords, i * dimensions, dimensions);
+                    values[i] = values[size];
+                    values[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A k nearest neighbour search, keeping the best points found so far in a
+     * max heap on their distance
+     */
+    private final class NearestSearch {
+
+        private final double[] point;
+        private final double maxSquaredDistance;
+        private final double[] heapDistance;
+        private final Leaf[] heapLeaf;
+        private final int[] heapIndex;
+        private int heapSize;
+
+        NearestSearch(double[] point, int count, double maxSquaredDistance) {
+            this.point = point;
+            this.maxSquaredDistance = maxSquaredDistance;
+            int capacity = Math.min(count, Math.max(size(), 1));
+            this.heapDistance = new double[capacity];
+            this.heapLeaf = new Leaf[capacity];
+            this.heapIndex = new int[capacity];
+        }
+
+        private double worst() {
+            return heapSize < heapDistance.length ? maxSquaredDistance : heapDistance[0];
+        }
+
+        void search(Node node) {
+            if(node instanceof Leaf) {
+                Leaf leaf = (Leaf) node;
+                for(int i = 0; i < leaf.size; i++) {
+                    int offset = i * dimensions;
+                    double distance = 0d;
+                    for(int dim = 0; dim < dimensions; dim++) {
+                        double delta = leaf.coords[offset + dim] - point[dim];
+                        distance += delta * delta;
+                    }
+                    if(distance <= maxSquaredDistance)
+                        offer(distance, leaf, i);
+                }
+                return;
+            }
+            Inner inner = (Inner) node;
+            boolean low = inner.isLow(point);
+            search(low ? inner.low : inner.high);
+            double delta = point[inner.dim] - inner.split;
+            if(delta * delta <= worst())
+                search(low ? inner.high : inner.low);
+        }
+
+        private void offer(double distance, Leaf leaf, int index) {
+            if(heapSize < heapDistance.length) {
+                int i = heapSize++;
+                while(i > 0 && heapDistance[(i - 1) / 2] < distance) {
+                    move((i - 1) / 2, i);
+                    i = (i - 1) / 2;
+                }
+                set(i, distance, leaf, index);
+            } else if(distance < heapDistance[0]) {
+                int i = 0;
+                while(true) {
+                    int child = 2 * i + 1;
+                    if(child >= heapSize)
+                        break;
+                    if(child + 1 < heapSize && heapDistance[child + 1] > heapDistance[child])
+                        child++;
+                    if(heapDistance[child] <= distance)
+                        break;
+                    move(child, i);
+                    i = child;
+                }
+                set(i, distance, leaf, index);
+            }
+        }
+
+        private void move(int from, int to) {
+            set(to, heapDistance[from], heapLeaf[from], heapIndex[from]);
+        }
+
+        private void set(int i, double distance, Leaf leaf, int index) {
+            heapDistance[i] = distance;
+            heapLeaf[i] = leaf;
+            heapIndex[i] = index;
+        }
+
+        List<Entry<T>> getResult() {
+            List<Entry<T>> result = new ArrayList<Entry<T>>(heapSize);
+            for(int i = 0; i < heapSize; i++)
+                result.add(heapLeaf[i].<T> entryAt(heapIndex[i]));
+            Collections.sort(result, new Comparator<Entry<T>>() {
+
+                public int compare(Entry<T> a, Entry<T> b) {
+                    int cmp = Double.compare(squaredDistance(a.getPoint()),
+                                             squaredDistance(b.getPoint()));
+                    for(int dim = 0; cmp == 0 && dim < dimensions; dim++)
+                        cmp = Double.compare(a.getPoint()[dim], b.getPoint()[dim]);
+                    return cmp;
+                }
+            });
+            return result;
+        }
+
+        private double squaredDistance(double[] other) {
+            double distance = 0d;
+            for(int dim = 0; dim < dimensions; dim++) {
+                double delta = other[dim] - point[dim];
+                distance += delta * delta;
+            }
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.kdtree;
+
+import voldemort.annotations.concurrency.NotThreadsafe;
+
+/**
+ * A reusable view of a key as a point, reading each coordinate straight from
+ * the key bytes (see {@link KDUtil}). Wrapping another key allocates nothing,
+ * so one view per thread serves every request.
+ * 
+ * @author jay
+ * 
+ */
+@NotThreadsafe
+public final class KDKey {
+
+    private final int dimensions;
+    private final double[] point;
+    private byte[] key;
+
+    /**
+     * @param dimensions The number of dimensions of the keys to view
+     */
+    public KDKey(int dimensions) {
+        this.dimensions = dimensions;
+        this.point = new double[dimensions];
+    }
+
+    /**
+     * View the given key
+     * 
+     * @param key The key, one big endian double per dimension
+     * @return This view
+     */
+    public KDKey wrap(byte[] key) {
+        if(key.length != dimensions * 8)
+            throw new IllegalArgumentException("Key of " + key.length + " bytes does not hold "
+                                               + dimensions + " dimensions.");
+        this.key = key;
+        return this;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Decode every coordinate into an array owned by this view. The array is
+     * overwritten by the next call, so it must not be kept.
+     * 
+     * @return The point of the key
+     */
+    public double[] toPoint() {
+        for(int i = 0; i < dimensions; i++)
+            point[i] = KDUtil.getDimension(key, i);
+        return point;
+    }
+}
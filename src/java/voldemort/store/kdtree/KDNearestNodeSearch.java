@@ -74,6 +74,12 @@ public class KDNearestNodeSearch {
 
     protected final Comparator<KDNode<?>> comparator;
 
+    /**
+     * The distance vectors handed to the children, one per depth of the
+     * recursion, reused for every node visited at that depth.
+     */
+    private double[][] deltas = new double[16][];
+
     /**
      * Create a new search object, bound to a root node and a destination
      * position, limited by a maximum distance and a maximum result count.
@@ -98,7 +104,7 @@ public class KDNearestNodeSearch {
      * @return The nearest results, sorted by distance.
      */
     public KDNode<?>[] search() {
-        search(node, pos.getDimensionArray());
+        search(node, pos.getDimensionArray(), 0);
         return result.toArray(new KDNode<?>[result.size()]);
     }
 
@@ -116,8 +122,9 @@ public class KDNearestNodeSearch {
      * 
      * @param ref
      * @param deltav
+     * @param depth The depth of ref below the root
      */
-    private void search(final KDNode<?> ref, final double deltav[]) {
+    private void search(final KDNode<?> ref, final double deltav[], final int depth) {
 
         final double nodedistance = pos.squaredDistance(ref.getKDVector());
 
@@ -146,7 +153,7 @@ public class KDNearestNodeSearch {
             int diff = delta ^ childpos;
 
             if(diff == 0) {
-                search(child, deltav);
+                search(child, deltav, depth + 1);
                 if(refdistance > distance) {
                     return;
                 }
@@ -154,7 +161,7 @@ public class KDNearestNodeSearch {
             }
 
             if(deltax == null) {
-                deltax = new double[deltav.length];
+                deltax = getDelta(depth, deltav.length);
             }
             System.arraycopy(deltav, 0, deltax, 0, deltav.length);
             for(int i = 0; diff > 0 && i < deltax.length; i++) {
@@ -164,13 +171,24 @@ public class KDNearestNodeSearch {
                     diff &= ~bit;
                 }
             }
-            search(child, deltax);
+            search(child, deltax, depth + 1);
             if(refdistance > distance) {
                 return;
             }
         }
     }
 
+    private double[] getDelta(int depth, int dimensions) {
+        if(depth >= deltas.length) {
+            double[][] grown = new double[deltas.length * 2][];
+            System.arraycopy(deltas, 0, grown, 0, deltas.length);
+            deltas = grown;
+        }
+        if(deltas[depth] == null)
+            deltas[depth] = new double[dimensions];
+        return deltas[depth];
+    }
+
     /**
      * Helper to count the nonzero bits of an integer.
      * 
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.kdtree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+
+import voldemort.annotations.concurrency.NotThreadsafe;
+import voldemort.store.PersistenceFailureException;
+import voldemort.store.StorageInitializationException;
+import voldemort.utils.ByteUtils;
+import voldemort.versioning.VectorClock;
+import voldemort.versioning.Versioned;
+
+/**
+ * The files that make a {@link KDTreeStorageEngine} durable: a snapshot of the
+ * whole tree and a write-ahead log of the changes made since.
+ * 
+ * Every change is logged as the complete list of versions the key has after
+ * it, an empty list once the key is gone, so replaying a record twice is
+ * harmless. Each log record is its length, its bytes and a CRC32 of them; a
+ * record torn by a crash fails the check and the log is cut back to the last
+ * good record.
+ * 
+ * A checkpoint first rotates the log: the current log is renamed to log.old
+ * and a new one is started. The snapshot is then written to a temporary file,
+ * possibly while writes go on, and renamed over the old one, after which
+ * log.old is deleted. A snapshot taken while writes go on holds each key as it
+ * was at some point after the rotation, which replaying the new log corrects;
+ * reopening reads the snapshot in one sequential pass, bulk loads the tree and
+ * replays log.old, if it is still there, and then the log.
+ * 
+ * Callers serialize appends and rotation, see {@link KDTreeStorageEngine}. A
+ * {@link SnapshotWriter} only touches the snapshot files and log.old, so it
+ * may be used by another thread meanwhile, one at a time.
+ * 
+ * @author jay
+ * 
+ */
+@NotThreadsafe
+class KDTreeLog {
+
+    private static final Logger logger = Logger.getLogger(KDTreeLog.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x4B445432; // "KDT2"
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final File snapshotFile;
+    private final File tempSnapshotFile;
+    private final File logFile;
+    private final File oldLogFile;
+    private final int dimensions;
+    private final boolean syncWrites;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private FileChannel log;
+
+    public KDTreeLog(File directory, int dimensions, boolean syncWrites) {
+        if(!directory.exists() && !directory.mkdirs())
+            throw new StorageInitializationException("Could not create directory " + directory);
+        this.snapshotFile = new File(directory, "snapshot");
+        this.tempSnapshotFile = new File(directory, "snapshot.tmp");
+        this.logFile = new File(directory, "log");
+        this.oldLogFile = new File(directory, "log.old");
+        this.dimensions = dimensions;
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * Load the snapshot and replay the log, then open the log for appending
+     * 
+     * @return The tree as of the last logged change
+     */
+    public BalancedKDTree<List<Versioned<byte[]>>> recover() {
+        // a snapshot that was never renamed into place is incomplete
+        if(tempSnapshotFile.exists() && !tempSnapshotFile.delete())
+            throw new StorageInitializationException("Could not delete " + tempSnapshotFile);
+        try {
+            BalancedKDTree<List<Versioned<byte[]>>> tree = readSnapshot();
+            // left by an unfinished checkpoint, and complete since it was
+            // only renamed once nothing more was appended
+            replayLog(oldLogFile, tree);
+            long validLength = replayLog(logFile, tree);
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            if(file.length() > validLength) {
+                logger.warn("Truncating " + (file.length() - validLength)
+                            + " bytes of incomplete records from " + logFile);
+                file.setLength(validLength);
+            }
+            this.log = file.getChannel();
+            this.log.position(validLength);
+            return tree;
+        } catch(IOException e) {
+            throw new StorageInitializationException("Could not recover kdtree store from "
+                                                     + snapshotFile.getParent(), e);
+        }
+    }
+
+    private BalancedKDTree<List<Versioned<byte[]>>> readSnapshot() throws IOException {
+        if(!snapshotFile.exists())
+            return new BalancedKDTree<List<Versioned<byte[]>>>(dimensions);
+        CRC32 checksum = new CRC32();
+        DataInputStream input = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(snapshotFile),
+                                                                                                   READ_BUFFER_SIZE),
+                                                                           checksum));
+        try {
+            if(input.readInt() != SNAPSHOT_MAGIC)
+                throw new StorageInitializationException(snapshotFile
+                                                         + " is not a kdtree snapshot.");
+            int snapshotDimensions = input.readInt();
+            if(snapshotDimensions != dimensions)
+                throw new StorageInitializationException(snapshotFile + " holds "
+                                                         + snapshotDimensions
+                                                         + " dimensions, expected " + dimensions
+                                                         + ".");
+            List<double[]> points = new ArrayList<double[]>();
+            List<List<Versioned<byte[]>>> values = new ArrayList<List<Versioned<byte[]>>>();
+            double[] point = new double[dimensions];
+            // each entry is preceded by true, the last by false
+            while(input.readBoolean()) {
+                List<Versioned<byte[]>> versions = readEntry(input, point);
+                points.add(point.clone());
+                values.add(versions);
+            }
+            long expected = checksum.getValue();
+            if(input.readLong() != expected)
+                throw new StorageInitializationException("Checksum mismatch in " + snapshotFile);
+            return BalancedKDTree.bulkLoad(dimensions,
+                                           BalancedKDTree.DEFAULT_BUCKET_SIZE,
+                                           points,
+                                           values);
+        } finally {
+            input.close();
+        }
+    }
+
+    /*
+     * Apply every intact record and return the length of the log they span
+     */
+    private long replayLog(File logFile, BalancedKDTree<List<Versioned<byte[]>>> tree)
+            throws IOException {
+        if(!logFile.exists())
+            return 0;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile),
+                                                                            READ_BUFFER_SIZE));
+        long validLength = 0;
+        int replayed = 0;
+        double[] point = new double[dimensions];
+        CRC32 checksum = new CRC32();
+        try {
+            while(true) {
+                byte[] record;
+                try {
+                    int length = input.readInt();
+                    if(length < 0 || length > logFile.length())
+                        break;
+                    record = new byte[length];
+                    input.readFully(record);
+                    checksum.reset();
+                    checksum.update(record, 0, record.length);
+                    if(input.readLong() != checksum.getValue())
+                        break;
+                } catch(EOFException e) {
+                    break;
+                }
+                List<Versioned<byte[]>> versions = readEntry(new DataInputStream(new ByteArrayInputStream(record)),
+                                                             point);
+                if(versions.isEmpty())
+                    tree.remove(point);
+                else
+                    tree.put(point.clone(), versions);
+                validLength += 4 + record.length + 8;
+                replayed++;
+            }
+        } finally {
+            input.close();
+        }
+        if(replayed > 0)
+            logger.info("Replayed " + replayed + " log records from " + logFile);
+        return validLength;
+    }
+
+    /**
+     * Log the versions a key has after a change, before the change is applied
+     * 
+     * @param point The key
+     * @param versions Its versions, empty if it was deleted
+     */
+    public void append(double[] point, List<Versioned<byte[]>> versions) {
+        try {
+            recordBuffer.reset();
+            DataOutputStream output = new DataOutputStream(recordBuffer);
+            writeEntry(output, point, versions);
+            output.flush();
+            byte[] record = recordBuffer.toByteArray();
+            CRC32 checksum = new CRC32();
+            checksum.update(record, 0, record.length);
+            ByteBuffer buffer = ByteBuffer.allocate(4 + record.length + 8);
+            buffer.putInt(record.length);
+            buffer.put(record);
+            buffer.putLong(checksum.getValue());
+            buffer.flip();
+            while(buffer.hasRemaining())
+                log.write(buffer);
+            if(syncWrites)
+                log.force(false);
+        } catch(IOException e) {
+            throw new PersistenceFailureException("Could not write to " + logFile, e);
+        }
+    }
+
+    /**
+     * @return The number of bytes logged since the last snapshot
+     */
+    public long getLogSize() {
+        try {
+            return log.position();
+        } catch(IOException e) {
+            throw new PersistenceFailureException(e);
+        }
+    }
+
+    /**
+     * @return Whether anything was logged since the last complete snapshot
+     */
+    public boolean hasUnsnapshottedChanges() {
+        return getLogSize() > 0 || oldLogFile.exists();
+    }
+
+    /**
+     * Start a new log for a checkpoint, keeping the current one as log.old
+     * until the snapshot is written. Nothing may be appended meanwhile.
+     * 
+     * @return false if log.old is still there from an unfinished checkpoint;
+     *         the log is then kept, since the next snapshot covers what both
+     *         hold only once log.old is replayed too
+     */
+    public boolean rotate() {
+        if(oldLogFile.exists())
+            return false;
+        try {
+            log.force(false);
+            log.close();
+            if(!logFile.renameTo(oldLogFile)) {
+                this.log = new RandomAccessFile(logFile, "rw").getChannel();
+                this.log.position(log.size());
+                throw new PersistenceFailureException("Could not rename " + logFile + " to "
+                                                      + oldLogFile);
+            }
+            this.log = new RandomAccessFile(logFile, "rw").getChannel();
+            return true;
+        } catch(IOException e) {
+            throw new PersistenceFailureException("Could not rotate " + logFile, e);
+        }
+    }
+
+    /**
+     * Start writing a snapshot to replace the current one
+     */
+    public SnapshotWriter openSnapshot() {
+        return new SnapshotWriter();
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, which only replaces the current
+     * snapshot once it is committed
+     */
+    @NotThreadsafe
+    public class SnapshotWriter {
+
+        private final FileOutputStream file;
+        private final DataOutputStream output;
+        private final CRC32 checksum;
+        private boolean closed = false;
+
+        private SnapshotWriter() {
+            try {
+                this.file = new FileOutputStream(tempSnapshotFile);
+                this.checksum = new CRC32();
+                this.output = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file,
+                                                                                                    READ_BUFFER_SIZE),
+                                                                           checksum));
+                output.writeInt(SNAPSHOT_MAGIC);
+                output.writeInt(dimensions);
+            } catch(IOException e) {
+                throw new PersistenceFailureException("Could not write snapshot "
+                                                      + tempSnapshotFile, e);
+            }
+        }
+
+        public void write(double[] point, List<Versioned<byte[]>> versions) {
+            try {
+                output.writeBoolean(true);
+                writeEntry(output, point, versions);
+            } catch(IOException e) {
+                throw new PersistenceFailureException("Could not write snapshot "
+                                                      + tempSnapshotFile, e);
+            }
+        }
+
+        /**
+         * Put the snapshot in place of the current one and delete log.old,
+         * which it makes redundant
+         */
+        public void commit() {
+            try {
+                output.writeBoolean(false);
+                output.writeLong(checksum.getValue());
+                output.flush();
+                file.getFD().sync();
+                output.close();
+                closed = true;
+                if(!tempSnapshotFile.renameTo(snapshotFile)) {
+                    // renaming over an existing file fails on some platforms
+                    if(!snapshotFile.delete() || !tempSnapshotFile.renameTo(snapshotFile))
+                        throw new PersistenceFailureException("Could not rename "
+                                                              + tempSnapshotFile + " to "
+                                                              + snapshotFile);
+                }
+                if(oldLogFile.exists() && !oldLogFile.delete())
+                    throw new PersistenceFailureException("Could not delete " + oldLogFile);
+            } catch(IOException e) {
+                throw new PersistenceFailureException("Could not write snapshot " + snapshotFile,
+                                                      e);
+            }
+        }
+
+        /**
+         * Drop the snapshot unless it was committed
+         */
+        public void close() {
+            if(closed)
+                return;
+            closed = true;
+            try {
+                output.close();
+            } catch(IOException e) {
+                logger.warn("Could not close " + tempSnapshotFile, e);
+            }
+            if(!tempSnapshotFile.delete())
+                logger.warn("Could not delete " + tempSnapshotFile);
+        }
+    }
+
+    public boolean isOpen() {
+        return log != null && log.isOpen();
+    }
+
+    public void close() {
+        try {
+            if(log != null)
+                log.close();
+        } catch(IOException e) {
+            throw new PersistenceFailureException("Could not close " + logFile, e);
+        }
+    }
+
+    private void writeEntry(DataOutputStream output,
+                            double[] point,
+                            List<Versioned<byte[]>> versions) throws IOException {
+        for(double d: point)
+            output.writeDouble(d);
+        output.writeInt(versions.size());
+        for(Versioned<byte[]> versioned: versions) {
+            VectorClock clock = (VectorClock) versioned.getVersion();
+            byte[] value = versioned.getValue();
+            output.writeInt(clock.sizeInBytes() + value.length);
+            clock.writeTo(output);
+            output.write(value);
+        }
+    }
+
+    /*
+     * Read an entry, leaving its key in point
+     */
+    private List<Versioned<byte[]>> readEntry(DataInputStream input, double[] point)
+            throws IOException {
+        for(int i = 0; i < dimensions; i++)
+            point[i] = input.readDouble();
+        int count = input.readInt();
+        List<Versioned<byte[]>> versions = new ArrayList<Versioned<byte[]>>(Math.max(count, 2));
+        for(int i = 0; i < count; i++) {
+            int size = input.readInt();
+            VectorClock clock = VectorClock.read(input);
+            byte[] value = new byte[size - clock.sizeInBytes()];
+            ByteUtils.read(input, value);
+            versions.add(new Versioned<byte[]>(value, clock));
+        }
+        return versions;
+    }
+}
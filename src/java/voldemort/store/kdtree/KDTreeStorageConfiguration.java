@@ -0,0 +1,68 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.kdtree;
+
+import java.io.File;
+
+import voldemort.server.VoldemortConfig;
+import voldemort.store.StorageConfiguration;
+import voldemort.store.StorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.utils.Props;
+
+/**
+ * Creates persistent {@link KDTreeStorageEngine}s, each in its own directory
+ * under kdtree.data.directory. Keys have kdtree.dimensions dimensions unless
+ * kdtree.&lt;store name&gt;.dimensions says otherwise.
+ * 
+ * @author jay
+ * 
+ */
+public class KDTreeStorageConfiguration implements StorageConfiguration {
+
+    public static final String TYPE_NAME = KDTreeStorageEngine.TYPE_NAME;
+
+    private final File storageDir;
+    private final int dimensions;
+    private final boolean syncWrites;
+    private final long checkpointBytes;
+    private final Props props;
+
+    public KDTreeStorageConfiguration(VoldemortConfig config) {
+        this.storageDir = new File(config.getKDTreeDataDirectory());
+        this.dimensions = config.getKDTreeDimensions();
+        this.syncWrites = config.isKDTreeSyncWritesEnabled();
+        this.checkpointBytes = config.getKDTreeCheckpointBytes();
+        this.props = config.getAllProps();
+    }
+
+    public StorageEngine<ByteArray, byte[]> getStore(String name) {
+        return new KDTreeStorageEngine(name,
+                                       props.getInt("kdtree." + name + ".dimensions", dimensions),
+                                       new File(storageDir, name),
+                                       syncWrites,
+                                       checkpointBytes);
+    }
+
+    public String getType() {
+        return TYPE_NAME;
+    }
+
+    public void close() {}
+
+}
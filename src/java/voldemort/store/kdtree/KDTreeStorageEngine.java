@@ -1,13 +1,22 @@
 package voldemort.store.kdtree;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
 
 import voldemort.VoldemortException;
 import voldemort.store.NoSuchCapabilityException;
+import voldemort.store.PersistenceFailureException;
+import voldemort.store.SpatialStore;
 import voldemort.store.StorageEngine;
 import voldemort.store.StoreCapabilityType;
 import voldemort.store.StoreUtils;
@@ -18,22 +27,26 @@ import voldemort.versioning.ObsoleteVersionException;
 import voldemort.versioning.Occured;
 import voldemort.versioning.Version;
 import voldemort.versioning.Versioned;
-import cern.colt.Arrays;
 
 /**
- * Inmemory store that will keep key/value pairs in KDTree.
+ * Store that will keep key/value pairs in a {@link BalancedKDTree} in memory,
+ * optionally made durable by a snapshot and write-ahead log on disk (see
+ * {@link KDTreeLog}). Keys are the big endian encoding of one double per
+ * dimension, see {@link KDUtil}. Reads share a lock; writes take it
+ * exclusively. Range and
+ * nearest neighbour queries are available as the
+ * {@link StoreCapabilityType#SPATIAL_QUERIES} capability.
  */
-public class KDTreeStorageEngine implements StorageEngine<ByteArray, byte[]> {
+public class KDTreeStorageEngine implements StorageEngine<ByteArray, byte[]>,
+        SpatialStore<ByteArray, byte[]> {
 
     // Wish/todo list:
     //
-    // 1. query interface
-    // get nearby(d1,d2,d3) limit 1000
-    // 2. integrate with rebalancing
+    // 1. integrate with rebalancing
     // keep log(n) lookup speed
-    // 3. range / order by queries
+    // 2. order by queries
     // "order by distance(field1, field2) asc, field3 desc limit 1000"
-    // 4. Non-numeric keys (find abac...def, up to 1k elements)
+    // 3. Non-numeric keys (find abac...def, up to 1k elements)
     // field1 in 'abac'..'ebad' limit 1000
 
     /**
@@ -41,10 +54,57 @@ public class KDTreeStorageEngine implements StorageEngine<ByteArray, byte[]> {
      */
     public static final String TYPE_NAME = "kdtree";
 
+    private static final Logger logger = Logger.getLogger(KDTreeStorageEngine.class);
+
+    /**
+     * The number of entries a snapshot reads from the tree at a time
+     */
+    private static final int SNAPSHOT_PAGE_SIZE = 1024;
+
+    /**
+     * The name of this store.
+     */
+    private final String name;
+
+    /**
+     * The number of dimensions of each key
+     */
+    private final int dimensions;
+
+    /**
+     * The index of the versions of each key. The version lists are replaced,
+     * never changed, once they are in the tree.
+     */
+    private final BalancedKDTree<List<Versioned<byte[]>>> tree;
+
+    /**
+     * The snapshot and write-ahead log, null if the store is not persistent
+     */
+    private final KDTreeLog log;
+
+    /**
+     * Take a snapshot once this many bytes have been logged
+     */
+    private final long checkpointBytes;
+
+    /**
+     * The checkpoint writing a snapshot in the background, if any; guarded by
+     * the log
+     */
+    private FutureTask<Object> checkpointTask;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
     /**
-     * The root of the kdtree
+     * A reusable view of the keys per thread
      */
-    private KDNode<List<Versioned<byte[]>>> root;
+    private final ThreadLocal<KDKey> keys = new ThreadLocal<KDKey>() {
+
+        @Override
+        protected KDKey initialValue() {
+            return new KDKey(dimensions);
+        }
+    };
 
     /**
      * Instantiate a new store, based on the number of dimensions and the name.
@@ -54,63 +114,222 @@ public class KDTreeStorageEngine implements StorageEngine<ByteArray, byte[]> {
      */
     public KDTreeStorageEngine(String name, int dimensions) {
         this.name = name;
-        root = new KDNode<List<Versioned<byte[]>>>(new double[dimensions]);
+        this.dimensions = dimensions;
+        this.tree = new BalancedKDTree<List<Versioned<byte[]>>>(dimensions);
+        this.log = null;
+        this.checkpointBytes = Long.MAX_VALUE;
     }
 
     /**
-     * The name of this store.
+     * Instantiate a persistent store, recovering whatever the directory holds.
+     * 
+     * @param name The name of the store
+     * @param dimensions The number of dimensions of each key
+     * @param directory Where the snapshot and log are kept
+     * @param syncWrites Whether to force each logged write to disk before
+     *        acknowledging it; otherwise writes survive a process crash but
+     *        not a machine crash
+     * @param checkpointBytes Replace the snapshot once this many bytes have
+     *        been logged
      */
-    private final String name;
+    public KDTreeStorageEngine(String name,
+                               int dimensions,
+                               File directory,
+                               boolean syncWrites,
+                               long checkpointBytes) {
+        this.name = name;
+        this.dimensions = dimensions;
+        this.log = new KDTreeLog(directory, dimensions, syncWrites);
+        this.tree = log.recover();
+        this.checkpointBytes = checkpointBytes;
+    }
 
     @Override
     public ClosableIterator<Pair<ByteArray, Versioned<byte[]>>> entries() {
-        return new KDTreeIterator(root);
+        List<Pair<ByteArray, Versioned<byte[]>>> entries = new ArrayList<Pair<ByteArray, Versioned<byte[]>>>();
+        lock.readLock().lock();
+        try {
+            for(BalancedKDTree.Entry<List<Versioned<byte[]>>> entry: tree.entries()) {
+                ByteArray key = new ByteArray(KDUtil.getBytesForKey(entry.getPoint()));
+                for(Versioned<byte[]> versioned: entry.getValue())
+                    entries.add(Pair.create(key, versioned));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new EntriesIterator(entries.iterator());
     }
 
     /**
-     * Close this store.
+     * Close this store, taking a snapshot first if anything was logged so the
+     * store reopens without replaying the log
      */
     @Override
     public void close() throws VoldemortException {
-    // Nothing to do
+        if(log == null || !log.isOpen())
+            return;
+        checkpoint();
+        log.close();
     }
 
-    @Override
-    public boolean delete(ByteArray key, Version version) throws VoldemortException {
-        StoreUtils.assertValidKey(key);
-        KDNode<List<Versioned<byte[]>>> result = root.getNode(KDUtil.getDimensionsForKey(key.get()));
-        if(result == null) {
-            return false;
-        }
-        synchronized(result) {
-            if(version == null) {
-                final boolean success = result.getData() != null;
-                result.remove();
-                return success;
-            }
+    /**
+     * Write a snapshot of the store and empty the log, waiting until it is
+     * done. Does nothing for a store that is not persistent.
+     */
+    public void checkpoint() {
+        if(log == null)
+            return;
+        // a checkpoint already running may have started before the last write
+        FutureTask<Object> running;
+        synchronized(log) {
+            running = checkpointTask;
+        }
+        if(running != null)
+            waitFor(running, false);
+        FutureTask<Object> task = startCheckpoint();
+        if(task != null)
+            waitFor(task, true);
+    }
 
-            List<Versioned<byte[]>> values = result.getData();
-            if(values == null) {
-                return false;
+    /**
+     * Wait for the checkpoint running in the background, if any
+     */
+    void awaitCheckpoint() {
+        if(log == null)
+            return;
+        FutureTask<Object> running;
+        synchronized(log) {
+            running = checkpointTask;
+        }
+        if(running != null)
+            waitFor(running, true);
+    }
+
+    private void waitFor(FutureTask<Object> task, boolean rethrow) {
+        try {
+            task.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VoldemortException("Interrupted while waiting for a checkpoint of " + name
+                                         + ".", e);
+        } catch(ExecutionException e) {
+            if(rethrow)
+                throw new PersistenceFailureException("Checkpoint of " + name + " failed.",
+                                                      e.getCause());
+        }
+    }
+
+    private void checkpointIfNeeded() {
+        if(log != null && log.getLogSize() > checkpointBytes)
+            startCheckpoint();
+    }
+
+    /*
+     * Rotate the log under the write lock and write the snapshot in the
+     * background. Returns the checkpoint running, or null if there was
+     * nothing to do.
+     */
+    private FutureTask<Object> startCheckpoint() {
+        synchronized(log) {
+            if(checkpointTask != null && !checkpointTask.isDone())
+                return checkpointTask;
+            lock.writeLock().lock();
+            try {
+                if(!log.isOpen() || !log.hasUnsnapshottedChanges())
+                    return null;
+                log.rotate();
+            } finally {
+                lock.writeLock().unlock();
             }
+            checkpointTask = new FutureTask<Object>(new Runnable() {
 
-            boolean deletedSomething = false;
-            synchronized(values) {
-                Iterator<Versioned<byte[]>> iterator = values.iterator();
-                while(iterator.hasNext()) {
-                    Versioned<byte[]> item = iterator.next();
-                    if(item.getVersion().compare(version) == Occured.BEFORE) {
-                        iterator.remove();
-                        deletedSomething = true;
+                public void run() {
+                    try {
+                        writeSnapshot();
+                    } catch(RuntimeException e) {
+                        logger.error("Checkpoint of " + name + " failed.", e);
+                        throw e;
                     }
                 }
-                if(values.size() == 0) {
-                    result.remove();
+            }, null);
+            Thread thread = new Thread(checkpointTask, "kdtree-checkpoint-" + name);
+            thread.setDaemon(true);
+            thread.start();
+            return checkpointTask;
+        }
+    }
+
+    /*
+     * Page through the tree in key order, holding the read lock for one page
+     * at a time. The version lists are never changed once in the tree, so
+     * they are written outside the lock.
+     */
+    private void writeSnapshot() {
+        double[] min = new double[dimensions];
+        double[] max = new double[dimensions];
+        // NaN orders after every other coordinate, including infinity
+        Arrays.fill(min, Double.NEGATIVE_INFINITY);
+        Arrays.fill(max, Double.NaN);
+        KDTreeLog.SnapshotWriter writer = log.openSnapshot();
+        try {
+            double[] after = null;
+            while(true) {
+                List<BalancedKDTree.Entry<List<Versioned<byte[]>>>> page;
+                lock.readLock().lock();
+                try {
+                    page = tree.rangeInOrder(min, max, after, SNAPSHOT_PAGE_SIZE);
+                } finally {
+                    lock.readLock().unlock();
                 }
+                for(BalancedKDTree.Entry<List<Versioned<byte[]>>> entry: page)
+                    writer.write(entry.getPoint(), entry.getValue());
+                if(page.size() < SNAPSHOT_PAGE_SIZE)
+                    break;
+                after = page.get(page.size() - 1).getPoint();
             }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /*
+     * Log the new versions of a key, then make them visible. Must be called
+     * with the write lock held.
+     */
+    private void update(double[] dim, List<Versioned<byte[]>> versions) {
+        if(log != null)
+            log.append(dim, versions);
+        if(versions.isEmpty())
+            tree.remove(dim);
+        else
+            tree.put(dim, versions);
+    }
+
+    @Override
+    public boolean delete(ByteArray key, Version version) throws VoldemortException {
+        final double dim[] = getDimensions(key);
+        boolean deletedSomething;
+        lock.writeLock().lock();
+        try {
+            List<Versioned<byte[]>> values = tree.get(dim);
+            if(values == null)
+                return false;
 
-            return deletedSomething;
+            List<Versioned<byte[]>> remaining = new ArrayList<Versioned<byte[]>>(values.size());
+            if(version != null) {
+                for(Versioned<byte[]> item: values)
+                    if(item.getVersion().compare(version) != Occured.BEFORE)
+                        remaining.add(item);
+            }
+            deletedSomething = remaining.size() < values.size();
+            if(deletedSomething)
+                update(dim, remaining);
+        } finally {
+            lock.writeLock().unlock();
         }
+        checkpointIfNeeded();
+        return deletedSomething;
     }
 
     /**
@@ -121,40 +340,74 @@ public class KDTreeStorageEngine implements StorageEngine<ByteArray, byte[]> {
      */
     @Override
     public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
-        StoreUtils.assertValidKey(key);
-        KDNode<List<Versioned<byte[]>>> result = root.getNode(KDUtil.getDimensionsForKey(key.get()));
-        if(result == null) {
-            // NOT FOUND
-            return new ArrayList<Versioned<byte[]>>(0);
-        }
-        List<Versioned<byte[]>> data = result.getData();
-        if(data == null) {
-            // Value deleted :S
-            return new ArrayList<Versioned<byte[]>>(0);
+        final double dim[] = getDimensions(key);
+        lock.readLock().lock();
+        try {
+            List<Versioned<byte[]>> data = tree.get(dim);
+            if(data == null)
+                return new ArrayList<Versioned<byte[]>>(0);
+            return new ArrayList<Versioned<byte[]>>(data);
+        } finally {
+            lock.readLock().unlock();
         }
-        // Got results :)
-        return data;
     }
 
     @Override
     public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
             throws VoldemortException {
         StoreUtils.assertValidKeys(keys);
-        Map<ByteArray, List<Versioned<byte[]>>> map = new HashMap<ByteArray, List<Versioned<byte[]>>>();
-        for(ByteArray key: keys) {
-            List<Versioned<byte[]>> value = get(key);
-            if(value != null && value.size() > 0) {
-                map.put(key, value);
-            }
-        }
-        return map;
+        return StoreUtils.getAll(this, keys);
     }
 
     @Override
     public Object getCapability(StoreCapabilityType capability) {
+        if(capability == StoreCapabilityType.SPATIAL_QUERIES)
+            return this;
         throw new NoSuchCapabilityException(capability, getName());
     }
 
+    public List<Pair<ByteArray, List<Versioned<byte[]>>>> getRange(double[] min,
+                                                                   double[] max,
+                                                                   ByteArray after,
+                                                                   int limit)
+            throws VoldemortException {
+        checkDimensions(min);
+        checkDimensions(max);
+        double[] afterPoint = after == null ? null : getDimensions(after);
+        lock.readLock().lock();
+        try {
+            return toResults(tree.rangeInOrder(min, max, afterPoint, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Pair<ByteArray, List<Versioned<byte[]>>>> getNearest(double[] point,
+                                                                     int count,
+                                                                     double maxDistance)
+            throws VoldemortException {
+        checkDimensions(point);
+        lock.readLock().lock();
+        try {
+            return toResults(tree.nearest(point, count, maxDistance * maxDistance));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Must be called with the read lock held
+     */
+    private List<Pair<ByteArray, List<Versioned<byte[]>>>> toResults(List<BalancedKDTree.Entry<List<Versioned<byte[]>>>> entries) {
+        List<Pair<ByteArray, List<Versioned<byte[]>>>> results = new ArrayList<Pair<ByteArray, List<Versioned<byte[]>>>>(entries.size());
+        for(BalancedKDTree.Entry<List<Versioned<byte[]>>> entry: entries) {
+            List<Versioned<byte[]>> versions = new ArrayList<Versioned<byte[]>>(entry.getValue());
+            results.add(Pair.create(new ByteArray(KDUtil.getBytesForKey(entry.getPoint())),
+                                    versions));
+        }
+        return results;
+    }
+
     @Override
     public String getName() {
         return name;
@@ -170,41 +423,89 @@ public class KDTreeStorageEngine implements StorageEngine<ByteArray, byte[]> {
      */
     @Override
     public void put(ByteArray key, Versioned<byte[]> value) throws VoldemortException {
-        StoreUtils.assertValidKey(key);
-        final double dim[] = KDUtil.getDimensionsForKey(key.get());
-        KDNode<List<Versioned<byte[]>>> result = root.getNode(dim);
-        if(result == null) {
-            synchronized(root) {
-                result = root.getNode(dim);
-                if(result == null) {
-                    result = new KDNode<List<Versioned<byte[]>>>(dim);
-                    result.setData(new ArrayList<Versioned<byte[]>>(2));
-                    root.add(result);
+        final double dim[] = getDimensions(key);
+        lock.writeLock().lock();
+        try {
+            List<Versioned<byte[]>> data = tree.get(dim);
+            List<Versioned<byte[]>> updated = new ArrayList<Versioned<byte[]>>(data == null ? 1
+                                                                                           : data.size() + 1);
+            if(data != null) {
+                final Version version = value.getVersion();
+                for(Versioned<byte[]> versioned: data) {
+                    Occured occured = version.compare(versioned.getVersion());
+                    if(occured == Occured.BEFORE)
+                        throw new ObsoleteVersionException("Obsolete version for key '"
+                                                           + Arrays.toString(dim) + "': "
+                                                           + value.getVersion());
+                    else if(occured != Occured.AFTER)
+                        updated.add(versioned);
                 }
             }
+            updated.add(value);
+            update(dim, updated);
+        } finally {
+            lock.writeLock().unlock();
         }
-        final List<Versioned<byte[]>> data = result.getData();
-        if(data == null) {
-            synchronized(result) {
-                result.setData(new ArrayList<Versioned<byte[]>>(2));
-            }
+        checkpointIfNeeded();
+    }
+
+    /*
+     * Decode a key into an array owned by the calling thread; the tree copies
+     * the points it keeps, so nothing is allocated per request
+     */
+    private double[] getDimensions(ByteArray key) {
+        StoreUtils.assertValidKey(key);
+        return keys.get().wrap(key.get()).toPoint();
+    }
+
+    private void checkDimensions(double[] point) {
+        if(point.length != dimensions)
+            throw new IllegalArgumentException("Point of " + point.length
+                                               + " dimensions given, expected " + dimensions
+                                               + ".");
+    }
+
+    /**
+     * Iterates over a snapshot of the entries; removing an entry deletes that
+     * version from the store
+     */
+    private class EntriesIterator implements ClosableIterator<Pair<ByteArray, Versioned<byte[]>>> {
+
+        private final Iterator<Pair<ByteArray, Versioned<byte[]>>> iterator;
+        private Pair<ByteArray, Versioned<byte[]>> last;
+
+        public EntriesIterator(Iterator<Pair<ByteArray, Versioned<byte[]>>> iterator) {
+            this.iterator = iterator;
+        }
+
+        public boolean hasNext() {
+            return iterator.hasNext();
         }
-        synchronized(data) {
-            final Version version = value.getVersion();
-            List<Versioned<byte[]>> itemsToRemove = new ArrayList<Versioned<byte[]>>(data.size());
-            for(Versioned<byte[]> versioned: data) {
-                Occured occured = version.compare(versioned.getVersion());
-                if(occured == Occured.BEFORE) {
-                    throw new ObsoleteVersionException("Obsolete version for key '"
-                                                       + Arrays.toString(dim) + "': "
-                                                       + value.getVersion());
-                } else if(occured == Occured.AFTER) {
-                    itemsToRemove.add(versioned);
+
+        public Pair<ByteArray, Versioned<byte[]>> next() {
+            last = iterator.next();
+            return last;
+        }
+
+        public void remove() {
+            if(last == null)
+                throw new IllegalStateException("next() has not been called.");
+            final double dim[] = getDimensions(last.getFirst());
+            lock.writeLock().lock();
+            try {
+                List<Versioned<byte[]>> data = tree.get(dim);
+                if(data != null && data.contains(last.getSecond())) {
+                    List<Versioned<byte[]>> remaining = new ArrayList<Versioned<byte[]>>(data);
+                    remaining.remove(last.getSecond());
+                    update(dim, remaining);
                 }
+            } finally {
+                lock.writeLock().unlock();
             }
-            data.removeAll(itemsToRemove);
-            data.add(value);
+            checkpointIfNeeded();
+            last = null;
         }
 
+        public void close() {}
     }
 }
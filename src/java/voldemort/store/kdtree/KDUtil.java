@@ -41,4 +41,33 @@ public class KDUtil {
         }
         return bytes;
     }
+
+    /**
+     * Decode one coordinate of a key without decoding the others.
+     * 
+     * @param key The key to read from.
+     * @param dimension The index of the coordinate.
+     * @return The coordinate.
+     */
+    public final static double getDimension(final byte[] key, final int dimension) {
+        long k = 0;
+        for(int i = dimension * 8; i < dimension * 8 + 8; i++)
+            k = (k << 8) + (0xFFl & key[i]);
+        return Double.longBitsToDouble(k);
+    }
+
+    /**
+     * Compare two points by their coordinates, first dimension first.
+     * 
+     * @return A negative number, zero or a positive number as a is before,
+     *         equal to or after b.
+     */
+    public final static int compare(final double[] a, final double[] b) {
+        for(int i = 0; i < a.length && i < b.length; i++) {
+            int cmp = Double.compare(a[i], b[i]);
+            if(cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.logging;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxManaged;
+import voldemort.annotations.jmx.JmxSetter;
+import voldemort.store.DelegatingStore;
+import voldemort.store.Store;
+import voldemort.utils.ByteArray;
+import voldemort.utils.Time;
+import voldemort.versioning.Version;
+import voldemort.versioning.Versioned;
+
+/**
+ * A store wrapper that logs every operation that takes longer than a
+ * threshold, together with the store, a hash of the key, the size of the
+ * values and the node. The key itself is not logged.
+ * 
+ * At most {@code maxLogsPerSecond} operations are logged each second, the rest
+ * are only counted so a slow disk cannot also flood the log.
+ * 
+ * @author jay
+ * 
+ */
+@JmxManaged(description = "Logs store operations slower than a threshold.")
+public class SlowOperationLoggingStore extends DelegatingStore<ByteArray, byte[]> {
+
+    private static final Logger logger = Logger.getLogger(SlowOperationLoggingStore.class);
+
+    private final int nodeId;
+    private final int maxLogsPerSecond;
+    private final Time time;
+    private volatile long thresholdMs;
+
+    private final AtomicLong slowOperations = new AtomicLong(0);
+    private final AtomicLong suppressed = new AtomicLong(0);
+    private long currentSecond = -1;
+    private int loggedThisSecond = 0;
+
+    /**
+     * @param innerStore The store to wrap
+     * @param nodeId The id of the local node, included in the log
+     * @param thresholdMs Operations taking at least this long are logged
+     * @param maxLogsPerSecond The most operations logged in any one second
+     * @param time The time implementation used to measure operations
+     */
+    public SlowOperationLoggingStore(Store<ByteArray, byte[]> innerStore,
+                                     int nodeId,
+                                     long thresholdMs,
+                                     int maxLogsPerSecond,
+                                     Time time) {
+        super(innerStore);
+        this.nodeId = nodeId;
+        this.thresholdMs = thresholdMs;
+        this.maxLogsPerSecond = maxLogsPerSecond;
+        this.time = time;
+    }
+
+    @Override
+    public boolean delete(ByteArray key, Version version) throws VoldemortException {
+        long start = time.getMilliseconds();
+        try {
+            return super.delete(key, version);
+        } finally {
+            checkElapsed("DELETE", start, key, 1, 0);
+        }
+    }
+
+    @Override
+    public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
+        long start = time.getMilliseconds();
+        List<Versioned<byte[]>> values = null;
+        try {
+            values = super.get(key);
+            return values;
+        } finally {
+            checkElapsed("GET", start, key, 1, sizeOf(values));
+        }
+    }
+
+    @Override
+    public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
+            throws VoldemortException {
+        long start = time.getMilliseconds();
+        Map<ByteArray, List<Versioned<byte[]>>> values = null;
+        try {
+            values = super.getAll(keys);
+            return values;
+        } finally {
+            if(thresholdMs > 0 && time.getMilliseconds() - start >= thresholdMs) {
+                int numKeys = 0;
+                for(Iterator<ByteArray> iter = keys.iterator(); iter.hasNext(); iter.next())
+                    numKeys++;
+                long size = 0;
+                if(values != null)
+                    for(List<Versioned<byte[]>> found: values.values())
+                        size += sizeOf(found);
+                checkElapsed("GET_ALL", start, null, numKeys, size);
+            }
+        }
+    }
+
+    @Override
+    public void put(ByteArray key, Versioned<byte[]> value) throws VoldemortException {
+        long start = time.getMilliseconds();
+        try {
+            super.put(key, value);
+        } finally {
+            checkElapsed("PUT", start, key, 1, value.getValue().length);
+        }
+    }
+
+    private long sizeOf(List<Versioned<byte[]>> values) {
+        long size = 0;
+        if(values != null)
+            for(Versioned<byte[]> value: values)
+                size += value.getValue().length;
+        return size;
+    }
+
+    private void checkElapsed(String operation,
+                              long start,
+                              ByteArray key,
+                              int numKeys,
+                              long valueBytes) {
+        long now = time.getMilliseconds();
+        long elapsedMs = now - start;
+        if(thresholdMs <= 0 || elapsedMs < thresholdMs)
+            return;
+        slowOperations.incrementAndGet();
+        if(!acquireLogPermit(now / Time.MS_PER_SECOND)) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        message.append("Slow ")
+               .append(operation)
+               .append(" on store '")
+               .append(getName())
+               .append("' at node ")
+               .append(nodeId)
+               .append(" took ")
+               .append(elapsedMs)
+               .append(" ms: ");
+        if(key != null)
+            message.append("key hash ").append(Integer.toHexString(key.hashCode()));
+        else
+            message.append(numKeys).append(" keys");
+        message.append(", ").append(valueBytes).append(" value bytes.");
+        logger.warn(message.toString());
+    }
+
+    private synchronized boolean acquireLogPermit(long second) {
+        if(second != currentSecond) {
+            currentSecond = second;
+            loggedThisSecond = 0;
+        }
+        if(loggedThisSecond >= maxLogsPerSecond)
+            return false;
+        loggedThisSecond++;
+        return true;
+    }
+
+    @JmxGetter(name = "slowOperations", description = "The number of operations slower than the threshold.")
+    public long getNumberOfSlowOperations() {
+        return slowOperations.get();
+    }
+
+    @JmxGetter(name = "suppressedLogMessages", description = "The number of slow operations not logged because of the rate limit.")
+    public long getNumberOfSuppressedMessages() {
+        return suppressed.get();
+    }
+
+    @JmxGetter(name = "slowOperationThresholdMs", description = "Operations taking at least this long are logged, 0 disables.")
+    public long getThresholdMs() {
+        return thresholdMs;
+    }
+
+    @JmxSetter(name = "slowOperationThresholdMs", description = "Operations taking at least this long are logged, 0 disables.")
+    public void setThresholdMs(long thresholdMs) {
+        this.thresholdMs = thresholdMs;
+    }
+}
@@ -55,6 +55,7 @@ public class MysqlStorageEngine implements StorageEngine<ByteArray, byte[]> {
     private static final Logger logger = Logger.getLogger(MysqlStorageEngine.class);
     private static int MYSQL_ERR_DUP_KEY = 1022;
     private static int MYSQL_ERR_DUP_ENTRY = 1062;
+    private static int MAX_KEYS_PER_SELECT = 100;
 
     private final String name;
     private final DataSource datasource;
@@ -185,33 +186,53 @@ public class MysqlStorageEngine implements StorageEngine<ByteArray, byte[]> {
     public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
             throws VoldemortException {
         StoreUtils.assertValidKeys(keys);
+        List<ByteArray> sortedKeys = StoreUtils.sortedDistinctKeys(keys);
+        Map<ByteArray, List<Versioned<byte[]>>> result = StoreUtils.newEmptyHashMap(sortedKeys);
         Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        String select = "select version_, value_ from " + name + " where key_ = ?";
         try {
             conn = datasource.getConnection();
-            stmt = conn.prepareStatement(select);
-            Map<ByteArray, List<Versioned<byte[]>>> result = StoreUtils.newEmptyHashMap(keys);
-            for(ByteArray key: keys) {
-                stmt.setBytes(1, key.get());
-                rs = stmt.executeQuery();
-                List<Versioned<byte[]>> found = Lists.newArrayList();
-                while(rs.next()) {
-                    byte[] version = rs.getBytes("version_");
-                    byte[] value = rs.getBytes("value_");
-                    found.add(new Versioned<byte[]>(value, new VectorClock(version)));
-                }
-                if(found.size() > 0)
-                    result.put(key, found);
+            // fetch the keys a batch at a time, in primary key order
+            for(int start = 0; start < sortedKeys.size(); start += MAX_KEYS_PER_SELECT) {
+                int end = Math.min(start + MAX_KEYS_PER_SELECT, sortedKeys.size());
+                getAll(conn, sortedKeys.subList(start, end), result);
             }
             return result;
         } catch(SQLException e) {
             throw new PersistenceFailureException("Fix me!", e);
+        } finally {
+            tryClose(conn);
+        }
+    }
+
+    private void getAll(Connection conn,
+                        List<ByteArray> keys,
+                        Map<ByteArray, List<Versioned<byte[]>>> result) throws SQLException {
+        StringBuilder select = new StringBuilder("select key_, version_, value_ from " + name
+                                                 + " where key_ in (?");
+        for(int i = 1; i < keys.size(); i++)
+            select.append(", ?");
+        select.append(")");
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement(select.toString());
+            for(int i = 0; i < keys.size(); i++)
+                stmt.setBytes(i + 1, keys.get(i).get());
+            rs = stmt.executeQuery();
+            while(rs.next()) {
+                ByteArray key = new ByteArray(rs.getBytes("key_"));
+                byte[] version = rs.getBytes("version_");
+                byte[] value = rs.getBytes("value_");
+                List<Versioned<byte[]>> found = result.get(key);
+                if(found == null) {
+                    found = Lists.newArrayList();
+                    result.put(key, found);
+                }
+                found.add(new Versioned<byte[]>(value, new VectorClock(version)));
+            }
         } finally {
             tryClose(rs);
             tryClose(stmt);
-            tryClose(conn);
         }
     }
 
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.concurrency.NotThreadsafe;
+
+/**
+ * An external sort of fixed size binary records, such as a key md5 and a value
+ * offset. Unlike the {@link ExternalSorter} no object is created per record:
+ * records are copied into one flat buffer, sorted there through an array of
+ * offsets, and spilled as compressed runs when the buffer is full. The runs
+ * are merged with a tournament tree, each run read through a large buffer.
+ * 
+ * Records are ordered by their bytes, compared as unsigned, so big endian
+ * fields sort by the first field first. The buffers are reused for every run.
+ * 
+ * @author jay
+ * 
+ */
+@NotThreadsafe
+public class BinaryRecordSorter {
+
+    private static final Logger logger = Logger.getLogger(BinaryRecordSorter.class);
+
+    private static final int MIN_READ_BUFFER_SIZE = 64 * 1024;
+
+    private final int recordSize;
+    private final int maxRecords;
+    private final File tempDir;
+    private final int bufferSize;
+    private final byte[] buffer;
+    private final int[] offsets;
+    private final List<File> runs = new ArrayList<File>();
+    private int numRecords = 0;
+    private boolean sorted = false;
+
+    /**
+     * Create a sorter using the system temp dir and a 10MB IO buffer
+     * 
+     * @param recordSize The size in bytes of every record
+     * @param maxRecords The number of records to sort in memory
+     */
+    public BinaryRecordSorter(int recordSize, int maxRecords) {
+        this(recordSize, maxRecords, System.getProperty("java.io.tmpdir"), 10 * 1024 * 1024);
+    }
+
+    /**
+     * @param recordSize The size in bytes of every record
+     * @param maxRecords The number of records to sort in memory
+     * @param tempDir The directory of the spilled runs
+     * @param bufferSize The IO buffer size, shared by all runs when merging
+     */
+    public BinaryRecordSorter(int recordSize, int maxRecords, String tempDir, int bufferSize) {
+        if(recordSize <= 0 || maxRecords <= 0)
+            throw new IllegalArgumentException("Record size and buffer size must be positive.");
+        if((long) recordSize * maxRecords > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Sort buffer of " + maxRecords + " records of "
+                                               + recordSize + " bytes is too large.");
+        this.recordSize = recordSize;
+        this.maxRecords = maxRecords;
+        this.tempDir = new File(tempDir);
+        this.bufferSize = bufferSize;
+        this.buffer = new byte[recordSize * maxRecords];
+        this.offsets = new int[maxRecords];
+    }
+
+    /**
+     * Add a record, copying it
+     * 
+     * @param bytes The array holding the record
+     * @param offset The offset of the record in the array
+     */
+    public void add(byte[] bytes, int offset) {
+        if(sorted)
+            throw new IllegalStateException("Records can't be added once sorted.");
+        if(numRecords == maxRecords)
+            spill();
+        System.arraycopy(bytes, offset, buffer, numRecords * recordSize, recordSize);
+        numRecords++;
+    }
+
+    /**
+     * Finish adding records and read them back in order. Only one reader may
+     * be opened; closing it deletes the runs.
+     * 
+     * @return The sorted records
+     */
+    public SortedRecords sorted() {
+        if(sorted)
+            throw new IllegalStateException("Records have already been sorted.");
+        sorted = true;
+        if(runs.isEmpty()) {
+            sortBuffer();
+            return new MemoryRecords(numRecords);
+        }
+        if(numRecords > 0)
+            spill();
+        return new MergedRecords();
+    }
+
+    private void sortBuffer() {
+        for(int i = 0; i < numRecords; i++)
+            offsets[i] = i * recordSize;
+        sort(0, numRecords - 1);
+    }
+
+    private void spill() {
+        long start = System.currentTimeMillis();
+        sortBuffer();
+        try {
+            File run = File.createTempFile("run-", ".dat", tempDir);
+            run.deleteOnExit();
+            runs.add(run);
+            DataOutputStream output = SpillFiles.openForWrite(run, MIN_READ_BUFFER_SIZE);
+            try {
+                for(int i = 0; i < numRecords; i++)
+                    output.write(buffer, offsets[i], recordSize);
+            } finally {
+                output.close();
+            }
+        } catch(IOException e) {
+            throw new VoldemortException("Failed to spill records to disk.", e);
+        }
+        logger.debug("Spilled run " + runs.size() + " of " + numRecords + " records in "
+                     + (System.currentTimeMillis() - start) + " ms.");
+        numRecords = 0;
+    }
+
+    private int compare(byte[] a, int aOffset, byte[] b, int bOffset) {
+        for(int i = 0; i < recordSize; i++) {
+            int cmp = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+            if(cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    private int compareAt(int i, int j) {
+        return compare(buffer, offsets[i], buffer, offsets[j]);
+    }
+
+    private void swap(int i, int j) {
+        int tmp = offsets[i];
+        offsets[i] = offsets[j];
+        offsets[j] = tmp;
+    }
+
+    /*
+     * Quicksort of the offsets between lo and hi inclusive, recursing into the
+     * smaller side only so the stack stays logarithmic
+     */
+    private void sort(int lo, int hi) {
+        while(hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            // median of three, which also guards the scans below
+            if(compareAt(mid, lo) < 0)
+                swap(mid, lo);
+            if(compareAt(hi, lo) < 0)
+                swap(hi, lo);
+            if(compareAt(hi, mid) < 0)
+                swap(hi, mid);
+            swap(mid, hi - 1);
+            int pivot = offsets[hi - 1];
+            int i = lo;
+            int j = hi - 1;
+            while(true) {
+                while(compare(buffer, offsets[++i], buffer, pivot) < 0) {}
+                while(compare(buffer, pivot, buffer, offsets[--j]) < 0) {}
+                if(i >= j)
+                    break;
+                swap(i, j);
+            }
+            swap(i, hi - 1);
+            if(i - lo < hi - i) {
+                sort(lo, i - 1);
+                lo = i + 1;
+            } else {
+                sort(i + 1, hi);
+                hi = i - 1;
+            }
+        }
+        for(int i = lo + 1; i <= hi; i++)
+            for(int j = i; j > lo && compareAt(j, j - 1) < 0; j--)
+                swap(j, j - 1);
+    }
+
+    /**
+     * The sorted records, read one at a time into a buffer of the caller
+     */
+    public abstract class SortedRecords {
+
+        /**
+         * Read the next record
+         * 
+         * @param record Where to copy the record, at least a record long
+         * @return false if there are no more records
+         */
+        public abstract boolean next(byte[] record);
+
+        /**
+         * Release the records, deleting any runs on disk
+         */
+        public abstract void close();
+    }
+
+    private class MemoryRecords extends SortedRecords {
+
+        private final int size;
+        private int position = 0;
+
+        public MemoryRecords(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public boolean next(byte[] record) {
+            if(position == size)
+                return false;
+            System.arraycopy(buffer, offsets[position++], record, 0, recordSize);
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private class MergedRecords extends SortedRecords {
+
+        private final DataInputStream[] inputs;
+        private final byte[] heads;
+        private final boolean[] exhausted;
+        private final LoserTree tree;
+
+        public MergedRecords() {
+            int numRuns = runs.size();
+            int readBufferSize = Math.max(bufferSize / numRuns, MIN_READ_BUFFER_SIZE);
+            this.inputs = new DataInputStream[numRuns];
+            this.heads = new byte[numRuns * recordSize];
+            this.exhausted = new boolean[numRuns];
+            this.tree = new LoserTree(numRuns) {
+
+                @Override
+                protected int compare(int a, int b) {
+                    return BinaryRecordSorter.this.compare(heads,
+                                                           a * recordSize,
+                                                           heads,
+                                                           b * recordSize);
+                }
+
+                @Override
+                protected boolean isExhausted(int run) {
+                    return exhausted[run];
+                }
+            };
+            logger.debug("Merging " + numRuns + " runs.");
+            try {
+                for(int run = 0; run < numRuns; run++) {
+                    inputs[run] = SpillFiles.openForRead(runs.get(run), readBufferSize);
+                    readHead(run);
+                }
+            } catch(IOException e) {
+                close();
+                throw new VoldemortException("Failed to open runs.", e);
+            }
+            tree.init();
+        }
+
+        private void readHead(int run) throws IOException {
+            try {
+                inputs[run].readFully(heads, run * recordSize, recordSize);
+            } catch(EOFException e) {
+                exhausted[run] = true;
+                inputs[run].close();
+            }
+        }
+
+        @Override
+        public boolean next(byte[] record) {
+            int run = tree.winner();
+            if(exhausted[run])
+                return false;
+            System.arraycopy(heads, run * recordSize, record, 0, recordSize);
+            try {
+                readHead(run);
+            } catch(IOException e) {
+                throw new VoldemortException("Failed to read run.", e);
+            }
+            tree.adjust(run);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            for(int run = 0; run < runs.size(); run++) {
+                try {
+                    if(inputs[run] != null)
+                        inputs[run].close();
+                } catch(IOException e) {
+                    logger.warn("Failed to close run.", e);
+                }
+                runs.get(run).delete();
+            }
+        }
+    }
+
+}
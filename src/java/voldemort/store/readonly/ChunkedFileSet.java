@@ -3,32 +3,84 @@ package voldemort.store.readonly;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
 
 import voldemort.VoldemortException;
 import voldemort.store.PersistenceFailureException;
 import voldemort.utils.Utils;
 
+/**
+ * The mapped index and data files of one version of a read-only store.
+ * 
+ * A set is reference counted: whoever opens it holds the first reference and
+ * gives it up with {@link #close()}, and each reader holds one while it uses
+ * the files. The files are unmapped once the last reference is released, so
+ * a set can be replaced while reads on it are still running.
+ * 
+ * Before a set takes traffic its index files can be warmed, either into the
+ * page cache or pinned as copies in memory that the page cache cannot evict.
+ * 
+ * The files of a delta version are opened over the set of their base
+ * version; keys not in the delta are looked up in the base. The delta owns
+ * its base and closes it once its own files are unmapped.
+ * 
+ * @author jay
+ * 
+ */
 public class ChunkedFileSet {
 
+    private static final Logger logger = Logger.getLogger(ChunkedFileSet.class);
+
     private final int numChunks;
     private final int numBuffersPerChunk;
     private final File baseDir;
     private final long bufferWaitTimeoutMs;
     private final List<Integer> indexFileSizes;
     private final List<Integer> dataFileSizes;
-    private final List<BlockingQueue<MappedByteBuffer>> indexFiles;
+    private final List<BlockingQueue<ByteBuffer>> indexFiles;
     private final List<BlockingQueue<MappedByteBuffer>> dataFiles;
+    private final Map<Integer, ByteBuffer> pinned;
+    private final ChunkedFileSet base;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
 
     public ChunkedFileSet(File directory, int numBuffersPerChunk, long bufferWaitTimeoutMs) {
+        this(directory, null, numBuffersPerChunk, bufferWaitTimeoutMs);
+    }
+
+    /**
+     * Open the files of a version
+     * 
+     * @param directory The directory of the index and data files
+     * @param base The files of the version these are a delta on, or null if
+     *        they are complete. Once open, the new set holds the caller's
+     *        reference to the base.
+     * @param numBuffersPerChunk The number of buffers to pool for each file
+     * @param bufferWaitTimeoutMs The maximum time to wait for a buffer
+     */
+    public ChunkedFileSet(File directory,
+                          ChunkedFileSet base,
+                          int numBuffersPerChunk,
+                          long bufferWaitTimeoutMs) {
         this.baseDir = directory;
+        this.base = base;
         if(!Utils.isReadableDir(directory))
             throw new VoldemortException(directory.getAbsolutePath()
                                          + " is not a readable directory.");
@@ -36,8 +88,9 @@ public class ChunkedFileSet {
         this.bufferWaitTimeoutMs = bufferWaitTimeoutMs;
         this.indexFileSizes = new ArrayList<Integer>();
         this.dataFileSizes = new ArrayList<Integer>();
-        this.indexFiles = new ArrayList<BlockingQueue<MappedByteBuffer>>();
+        this.indexFiles = new ArrayList<BlockingQueue<ByteBuffer>>();
         this.dataFiles = new ArrayList<BlockingQueue<MappedByteBuffer>>();
+        this.pinned = new HashMap<Integer, ByteBuffer>();
 
         // if the directory is empty create empty files
         if(baseDir.list() != null && baseDir.list().length == 0) {
@@ -64,7 +117,7 @@ public class ChunkedFileSet {
             validateFileSizes(indexLength, dataLength);
             indexFileSizes.add((int) indexLength);
             dataFileSizes.add((int) dataLength);
-            BlockingQueue<MappedByteBuffer> indexFds = new ArrayBlockingQueue<MappedByteBuffer>(numBuffersPerChunk);
+            BlockingQueue<ByteBuffer> indexFds = new ArrayBlockingQueue<ByteBuffer>(numBuffersPerChunk);
             BlockingQueue<MappedByteBuffer> dataFds = new ArrayBlockingQueue<MappedByteBuffer>(numBuffersPerChunk);
             for(int i = 0; i < numBuffersPerChunk; i++) {
                 indexFds.add(mapFile(index));
@@ -77,6 +130,12 @@ public class ChunkedFileSet {
         if(chunkId == 0)
             throw new VoldemortException("No data chunks found in directory " + baseDir.toString());
         this.numChunks = chunkId;
+        if(base != null && base.getNumChunks() != numChunks) {
+            unmapFiles();
+            throw new VoldemortException("Delta " + baseDir + " has " + numChunks
+                                         + " chunks but its base has " + base.getNumChunks()
+                                         + ".");
+        }
     }
 
     public void validateFileSizes(long indexLength, long dataLength) {
@@ -94,12 +153,169 @@ public class ChunkedFileSet {
                                          + dataLength + " bytes.");
     }
 
+    /**
+     * Take a reference to the files, which must be given back with
+     * {@link #release()}
+     * 
+     * @return false if the set has already been unmapped
+     */
+    public boolean acquire() {
+        while(true) {
+            int count = references.get();
+            if(count == 0)
+                return false;
+            if(references.compareAndSet(count, count + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Give back a reference, unmapping the files if it was the last one
+     */
+    public void release() {
+        if(references.decrementAndGet() == 0)
+            unmapAll();
+    }
+
+    /**
+     * Give back the reference of the opener. The files stay mapped until the
+     * readers still using them are done.
+     */
     public void close() {
-        for(int chunk = 0; chunk < this.numChunks; chunk++) {
-            for(int i = 0; i < this.numBuffersPerChunk; i++) {
-                checkoutIndexFile(chunk);
-                checkoutDataFile(chunk);
+        if(closed.compareAndSet(false, true))
+            release();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Bring the index files into memory before the set takes traffic, so the
+     * first lookups don't fault on every probe of the binary search. Chunks
+     * are warmed in order until the next one would go over the budget. This
+     * must be called before the set is shared with readers.
+     * 
+     * @param budgetBytes The most index bytes to bring into memory
+     * @param pin Copy the index files into memory of the process, where the
+     *        page cache can't evict them, rather than only reading them
+     *        through the page cache. If the direct memory of the process runs
+     *        out, the remaining chunks are only read through the page cache.
+     * @param progress Incremented by the size of each index file once warmed
+     * @return The number of index bytes warmed
+     */
+    public long warmIndexes(long budgetBytes, boolean pin, AtomicLong progress) {
+        long warmed = 0;
+        for(int chunk = 0; chunk < numChunks; chunk++) {
+            int size = indexFileSizes.get(chunk);
+            if(warmed + size > budgetBytes)
+                break;
+            BlockingQueue<ByteBuffer> buffers = indexFiles.get(chunk);
+            ByteBuffer copy = null;
+            if(pin) {
+                try {
+                    copy = ByteBuffer.allocateDirect(size);
+                } catch(OutOfMemoryError e) {
+                    logger.warn("Not enough direct memory to pin " + size + " bytes of index for "
+                                + baseDir + ", warming the rest through the page cache: "
+                                + e.getMessage());
+                    pin = false;
+                }
+            }
+            if(pin) {
+                try {
+                    readFile(new File(baseDir, chunk + ".index"), copy);
+                } catch(RuntimeException e) {
+                    unmap(copy);
+                    throw e;
+                }
+                pinned.put(chunk, copy);
+                for(ByteBuffer buffer = buffers.poll(); buffer != null; buffer = buffers.poll())
+                    unmap(buffer);
+                // readers get duplicates so each has its own position
+                for(int i = 0; i < numBuffersPerChunk; i++)
+                    buffers.add(copy.duplicate());
+            } else {
+                ((MappedByteBuffer) buffers.peek()).load();
             }
+            warmed += size;
+            progress.addAndGet(size);
+        }
+        logger.debug((pin ? "Pinned " : "Loaded ") + warmed + " bytes of index for " + baseDir
+                     + ".");
+        return warmed;
+    }
+
+    private void readFile(File file, ByteBuffer buffer) {
+        FileChannel channel = null;
+        try {
+            channel = new FileInputStream(file).getChannel();
+            while(buffer.hasRemaining())
+                if(channel.read(buffer) < 0)
+                    throw new VoldemortException("Unexpected end of " + file + ".");
+            buffer.rewind();
+        } catch(IOException e) {
+            throw new VoldemortException("Error reading " + file + ".", e);
+        } finally {
+            if(channel != null) {
+                try {
+                    channel.close();
+                } catch(IOException e) {
+                    logger.warn("Error closing " + file + ".", e);
+                }
+            }
+        }
+    }
+
+    private void unmapAll() {
+        unmapFiles();
+        if(base != null)
+            base.close();
+    }
+
+    private void unmapFiles() {
+        for(int chunk = 0; chunk < indexFiles.size(); chunk++) {
+            BlockingQueue<ByteBuffer> buffers = indexFiles.get(chunk);
+            // duplicates of pinned copies are freed with the copy below
+            for(ByteBuffer buffer = buffers.poll(); buffer != null; buffer = buffers.poll())
+                if(!pinned.containsKey(chunk))
+                    unmap(buffer);
+        }
+        for(BlockingQueue<MappedByteBuffer> mmaps: dataFiles) {
+            for(MappedByteBuffer mmap = mmaps.poll(); mmap != null; mmap = mmaps.poll())
+                unmap(mmap);
+        }
+        for(ByteBuffer copy: pinned.values())
+            unmap(copy);
+        pinned.clear();
+        logger.debug("Unmapped the files of " + baseDir + ".");
+    }
+
+    /*
+     * Release a mapping or a pinned copy now rather than whenever the buffer is
+     * collected, which can be long after the files were replaced. There is no
+     * public API for it, so fall back to the collector if the JVM does not
+     * allow it.
+     */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            try {
+                // java 9 and later
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch(NoSuchMethodException e) {
+                // java 8 and earlier
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if(cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch(Exception e) {
+            logger.debug("Could not unmap buffer, leaving it to the garbage collector.", e);
         }
     }
 
@@ -114,6 +330,14 @@ public class ChunkedFileSet {
         }
     }
 
+    /**
+     * @return The files of the version these are a delta on, or null if they
+     *         are complete
+     */
+    public ChunkedFileSet getBase() {
+        return base;
+    }
+
     public int getNumChunks() {
         return this.numChunks;
     }
@@ -122,11 +346,11 @@ public class ChunkedFileSet {
         return ReadOnlyUtils.chunk(key, numChunks);
     }
 
-    public MappedByteBuffer checkoutIndexFile(int chunk) {
+    public ByteBuffer checkoutIndexFile(int chunk) {
         return checkoutFile(indexFiles.get(chunk));
     }
 
-    public void checkinIndexFile(MappedByteBuffer mmap, int chunk) {
+    public void checkinIndexFile(ByteBuffer mmap, int chunk) {
         checkinFile(mmap, indexFiles.get(chunk));
     }
 
@@ -138,6 +362,13 @@ public class ChunkedFileSet {
         checkinFile(mmap, dataFiles.get(chunk));
     }
 
+    /**
+     * @return true if the index of the given chunk has been pinned in memory
+     */
+    public boolean isPinned(int chunk) {
+        return pinned.containsKey(chunk);
+    }
+
     public int getIndexFileSize(int chunk) {
         return this.indexFileSizes.get(chunk);
     }
@@ -146,7 +377,7 @@ public class ChunkedFileSet {
         return this.indexFileSizes.get(chunk);
     }
 
-    private void checkinFile(MappedByteBuffer map, BlockingQueue<MappedByteBuffer> mmaps) {
+    private <T extends ByteBuffer> void checkinFile(T map, BlockingQueue<T> mmaps) {
         try {
             mmaps.put(map);
         } catch(InterruptedException e) {
@@ -154,9 +385,9 @@ public class ChunkedFileSet {
         }
     }
 
-    private MappedByteBuffer checkoutFile(BlockingQueue<MappedByteBuffer> mmaps) {
+    private <T extends ByteBuffer> T checkoutFile(BlockingQueue<T> mmaps) {
         try {
-            MappedByteBuffer map = mmaps.poll(bufferWaitTimeoutMs, TimeUnit.MILLISECONDS);
+            T map = mmaps.poll(bufferWaitTimeoutMs, TimeUnit.MILLISECONDS);
             if(map == null)
                 throw new VoldemortException("Timeout after waiting for " + bufferWaitTimeoutMs
                                              + " ms to acquire file descriptor");
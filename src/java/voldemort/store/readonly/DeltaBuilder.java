@@ -0,0 +1,401 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+
+import voldemort.VoldemortException;
+import voldemort.utils.ByteUtils;
+import voldemort.utils.Utils;
+
+/**
+ * Builds the delta between two versions of a read-only store directory, and
+ * applies a delta to its base to get back a complete version.
+ * 
+ * A delta has the same chunks as its base, each holding only the keys whose
+ * value changed, was added or was deleted, so a push of a slowly changing
+ * store moves a fraction of the data. Both operations are a merge of the
+ * sorted index files of each chunk and never hold more than one value in
+ * memory.
+ * 
+ * @author jay
+ * 
+ */
+public class DeltaBuilder {
+
+    private static final Logger logger = Logger.getLogger(DeltaBuilder.class);
+
+    private static final int BUFFER_SIZE = 1000000;
+
+    /* The bytes of a data file read ahead of the value asked for */
+    private static final int READ_AHEAD_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        if(args.length != 3)
+            Utils.croak("USAGE: java " + DeltaBuilder.class.getName()
+                        + " base_node_dir new_node_dir delta_node_dir");
+        StoreVersion delta = diff(new File(args[0]), new File(args[1]), new File(args[2]));
+        System.out.println("Wrote delta " + delta + " to " + args[2]);
+    }
+
+    /**
+     * Write the changes from one complete version of a node's store directory
+     * to another into a delta directory
+     * 
+     * @param baseDir The version the delta applies to
+     * @param newDir The version the delta leads to
+     * @param deltaDir The directory to write the delta to
+     * @return The version of the delta
+     * @throws IOException If the files can't be read or written
+     */
+    public static StoreVersion diff(File baseDir, File newDir, File deltaDir) throws IOException {
+        StoreVersion baseVersion = readCompleteVersion(baseDir);
+        StoreVersion newVersion = readCompleteVersion(newDir);
+        int numChunks = countChunks(newDir);
+        checkSameChunks(baseDir, numChunks);
+
+        deltaDir.mkdirs();
+        FileManifest manifest = new FileManifest();
+        long changed = 0;
+        for(int chunk = 0; chunk < numChunks; chunk++) {
+            ChunkReader base = new ChunkReader(baseDir, chunk);
+            ChunkReader updated = new ChunkReader(newDir, chunk);
+            ChunkWriter output = new ChunkWriter(deltaDir, chunk);
+            try {
+                boolean hasBase = base.next();
+                boolean hasUpdated = updated.next();
+                while(hasBase || hasUpdated) {
+                    int cmp = compare(base, hasBase, updated, hasUpdated);
+                    if(cmp < 0) {
+                        // deleted
+                        output.write(base.getKeyMd5(), null);
+                        hasBase = base.next();
+                        changed++;
+                    } else if(cmp > 0) {
+                        // added
+                        output.write(updated.getKeyMd5(), updated.readValue());
+                        hasUpdated = updated.next();
+                        changed++;
+                    } else {
+                        byte[] value = updated.readValue();
+                        if(!Arrays.equals(value, base.readValue())) {
+                            output.write(updated.getKeyMd5(), value);
+                            changed++;
+                        }
+                        hasBase = base.next();
+                        hasUpdated = updated.next();
+                    }
+                }
+                output.close(manifest);
+            } finally {
+                base.close();
+                updated.close();
+                output.close();
+            }
+        }
+
+        StoreVersion delta = new StoreVersion(newVersion.getName(), baseVersion.getName());
+        writeVersion(delta, deltaDir, manifest);
+        logger.info("Delta from " + baseVersion + " to " + newVersion + " has " + changed
+                    + " changed keys.");
+        return delta;
+    }
+
+    /**
+     * Apply a delta to its base, writing the complete version it leads to
+     * 
+     * @param baseDir The complete version the delta was built against
+     * @param deltaDir The delta
+     * @param outputDir The directory to write the complete version to
+     * @return The version written
+     * @throws IOException If the files can't be read or written
+     */
+    public static StoreVersion merge(File baseDir, File deltaDir, File outputDir)
+            throws IOException {
+        StoreVersion baseVersion = readCompleteVersion(baseDir);
+        StoreVersion deltaVersion = StoreVersion.read(deltaDir);
+        if(deltaVersion == null || !deltaVersion.isDelta())
+            throw new VoldemortException(deltaDir + " does not hold a delta.");
+        if(!deltaVersion.getBase().equals(baseVersion.getName()))
+            throw new VoldemortException("Delta " + deltaVersion + " does not apply to version "
+                                         + baseVersion + ".");
+        int numChunks = countChunks(deltaDir);
+        checkSameChunks(baseDir, numChunks);
+
+        outputDir.mkdirs();
+        FileManifest manifest = new FileManifest();
+        for(int chunk = 0; chunk < numChunks; chunk++) {
+            ChunkReader base = new ChunkReader(baseDir, chunk);
+            ChunkReader delta = new ChunkReader(deltaDir, chunk);
+            ChunkWriter output = new ChunkWriter(outputDir, chunk);
+            try {
+                boolean hasBase = base.next();
+                boolean hasDelta = delta.next();
+                while(hasBase || hasDelta) {
+                    int cmp = compare(base, hasBase, delta, hasDelta);
+                    if(cmp < 0) {
+                        output.write(base.getKeyMd5(), base.readValue());
+                        hasBase = base.next();
+                    } else {
+                        // the delta wins, and drops the key if it was deleted
+                        byte[] value = delta.readValue();
+                        if(value != null)
+                            output.write(delta.getKeyMd5(), value);
+                        if(cmp == 0)
+                            hasBase = base.next();
+                        hasDelta = delta.next();
+                    }
+                }
+                output.close(manifest);
+            } finally {
+                base.close();
+                delta.close();
+                output.close();
+            }
+        }
+
+        StoreVersion merged = new StoreVersion(deltaVersion.getName());
+        writeVersion(merged, outputDir, manifest);
+        return merged;
+    }
+
+    /**
+     * Count the chunks of a store directory
+     */
+    public static int countChunks(File directory) {
+        int chunks = 0;
+        while(new File(directory, chunks + ".index").exists())
+            chunks++;
+        return chunks;
+    }
+
+    private static void checkSameChunks(File baseDir, int numChunks) {
+        int baseChunks = countChunks(baseDir);
+        if(baseChunks != numChunks)
+            throw new VoldemortException("A delta needs the same number of chunks as its base, but "
+                                         + baseDir + " has " + baseChunks + " and not "
+                                         + numChunks + ".");
+    }
+
+    private static StoreVersion readCompleteVersion(File directory) throws IOException {
+        StoreVersion version = StoreVersion.read(directory);
+        if(version == null)
+            throw new VoldemortException(directory + " has no version file.");
+        if(version.isDelta())
+            throw new VoldemortException(directory + " holds delta " + version
+                                         + ", not a complete version.");
+        return version;
+    }
+
+    private static void writeVersion(StoreVersion version, File directory, FileManifest manifest)
+            throws IOException {
+        version.write(directory, manifest);
+        manifest.write(directory);
+    }
+
+    /*
+     * Order the current entries of two readers, treating an exhausted reader
+     * as past the end
+     */
+    private static int compare(ChunkReader left,
+                               boolean hasLeft,
+                               ChunkReader right,
+                               boolean hasRight) {
+        if(!hasLeft)
+            return 1;
+        else if(!hasRight)
+            return -1;
+        else
+            return ByteUtils.compare(left.getKeyMd5(), right.getKeyMd5());
+    }
+
+    /**
+     * Reads the index of a chunk in order, and values on demand. Values are
+     * read with positional reads through a read-ahead window, so values laid
+     * out near each other in the data file cost one read between them.
+     */
+    private static class ChunkReader {
+
+        private final DataInputStream index;
+        private final FileInputStream dataStream;
+        private final FileChannel data;
+        private final ByteBuffer window = ByteBuffer.allocate(READ_AHEAD_SIZE);
+        private final byte[] sizeBytes = new byte[4];
+        private final byte[] keyMd5 = new byte[ReadOnlyStorageEngine.KEY_HASH_SIZE];
+        private long windowStart;
+        private int position;
+
+        public ChunkReader(File directory, int chunk) throws IOException {
+            File indexFile = new File(directory, chunk + ".index");
+            this.index = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile),
+                                                                     BUFFER_SIZE));
+            this.dataStream = new FileInputStream(new File(directory, chunk + ".data"));
+            this.data = dataStream.getChannel();
+            this.window.limit(0);
+        }
+
+        public boolean next() throws IOException {
+            try {
+                index.readFully(keyMd5);
+            } catch(EOFException e) {
+                return false;
+            }
+            position = index.readInt();
+            return true;
+        }
+
+        public byte[] getKeyMd5() {
+            return keyMd5;
+        }
+
+        /**
+         * @return The value of the current key, or null if it is deleted
+         */
+        public byte[] readValue() throws IOException {
+            read(position, sizeBytes, 0, sizeBytes.length);
+            int size = ByteUtils.readInt(sizeBytes, 0);
+            if(size == ReadOnlyStorageEngine.DELETED_VALUE_SIZE)
+                return null;
+            byte[] value = new byte[size];
+            read(position + sizeBytes.length, value, 0, size);
+            return value;
+        }
+
+        /*
+         * Copy bytes of the data file from the window, refilling it from the
+         * given offset when they are outside of it
+         */
+        private void read(long offset, byte[] dest, int destOffset, int length)
+                throws IOException {
+            while(length > 0) {
+                if(offset < windowStart || offset >= windowStart + window.limit()) {
+                    if(length >= window.capacity()) {
+                        readFully(ByteBuffer.wrap(dest, destOffset, length), offset);
+                        return;
+                    }
+                    fill(offset);
+                }
+                int start = (int) (offset - windowStart);
+                int copied = Math.min(length, window.limit() - start);
+                System.arraycopy(window.array(), start, dest, destOffset, copied);
+                offset += copied;
+                destOffset += copied;
+                length -= copied;
+            }
+        }
+
+        private void fill(long offset) throws IOException {
+            window.clear();
+            windowStart = offset;
+            while(window.hasRemaining()) {
+                if(data.read(window, offset + window.position()) < 0)
+                    break;
+            }
+            window.flip();
+            if(!window.hasRemaining())
+                throw new EOFException("Unexpected end of data file at offset " + offset + ".");
+        }
+
+        private void readFully(ByteBuffer buffer, long offset) throws IOException {
+            int start = buffer.position();
+            while(buffer.hasRemaining()) {
+                if(data.read(buffer, offset + buffer.position() - start) < 0)
+                    throw new EOFException("Unexpected end of data file at offset " + offset
+                                           + ".");
+            }
+        }
+
+        public void close() throws IOException {
+            index.close();
+            dataStream.close();
+        }
+    }
+
+    /**
+     * Writes the index and data files of a chunk in key order
+     */
+    private static class ChunkWriter {
+
+        private final File indexFile;
+        private final File dataFile;
+        private final CRC32 indexChecksum = new CRC32();
+        private final CRC32 dataChecksum = new CRC32();
+        private final DataOutputStream index;
+        private final DataOutputStream data;
+        private int position;
+
+        public ChunkWriter(File directory, int chunk) throws IOException {
+            this.indexFile = new File(directory, chunk + ".index");
+            this.dataFile = new File(directory, chunk + ".data");
+            this.index = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(indexFile),
+                                                                                               indexChecksum),
+                                                                       BUFFER_SIZE));
+            this.data = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(dataFile),
+                                                                                              dataChecksum),
+                                                                      BUFFER_SIZE));
+        }
+
+        /**
+         * Write a key, or mark it deleted if the value is null
+         */
+        public void write(byte[] keyMd5, byte[] value) throws IOException {
+            index.write(keyMd5);
+            index.writeInt(position);
+            if(value == null) {
+                data.writeInt(ReadOnlyStorageEngine.DELETED_VALUE_SIZE);
+                position += 4;
+            } else {
+                data.writeInt(value.length);
+                data.write(value);
+                position += 4 + value.length;
+            }
+            if(position < 0)
+                throw new VoldemortException("Chunk file " + dataFile + " exceeds "
+                                             + Integer.MAX_VALUE + " bytes.");
+        }
+
+        /**
+         * Finish the files and add them to the manifest
+         */
+        public void close(FileManifest manifest) throws IOException {
+            close();
+            manifest.add(indexFile.getName(), indexFile.length(), indexChecksum.getValue());
+            manifest.add(dataFile.getName(), dataFile.length(), dataChecksum.getValue());
+        }
+
+        public void close() throws IOException {
+            index.close();
+            data.close();
+        }
+    }
+}
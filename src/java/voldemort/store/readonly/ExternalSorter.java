@@ -16,14 +16,10 @@
 
 package voldemort.store.readonly;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -31,7 +27,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -50,7 +45,9 @@ import com.google.common.collect.AbstractIterator;
 
 /**
  * Do an external sort on data coming from an input iterator and produce a new
- * iterator over the values in sorted order
+ * iterator over the values in sorted order. Sorted chunks are spilled to
+ * compressed temp files and merged with a tournament tree. For fixed size
+ * binary records the {@link BinaryRecordSorter} avoids the per record objects.
  * 
  * @author jay
  * 
@@ -183,8 +180,7 @@ public class ExternalSorter<V> {
                         File tempFile = File.createTempFile("chunk-", ".dat", tempDir);
                         tempFile.deleteOnExit();
                         tempFiles.add(tempFile);
-                        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile),
-                                                                                                bufferSize));
+                        DataOutputStream output = SpillFiles.openForWrite(tempFile, bufferSize);
                         for(int i = 0; i < chunkSize; i++)
                             writeValue(output, buffer[i]);
                         output.close();
@@ -203,8 +199,10 @@ public class ExternalSorter<V> {
         try {
             executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
             // create iterator over sorted values
-            return new DefaultIterable<V>(new ExternalSorterIterator(tempFiles, bufferSize
-                                                                                / tempFiles.size()));
+            return new DefaultIterable<V>(new ExternalSorterIterator(tempFiles,
+                                                                     bufferSize
+                                                                             / Math.max(1,
+                                                                                        tempFiles.size())));
         } catch(InterruptedException e) {
             throw new RuntimeException(e);
         }
@@ -236,73 +234,61 @@ public class ExternalSorter<V> {
     private final class ExternalSorterIterator extends AbstractIterator<V> implements Iterator<V> {
 
         private final List<FileAndStream> inputs;
-        private final PriorityQueue<Item> minHeap;
+        private final List<V> heads;
+        private final LoserTree tree;
 
         public ExternalSorterIterator(List<File> files, int readBufferSize) {
             this.inputs = new ArrayList<FileAndStream>(files.size());
+            this.heads = new ArrayList<V>(files.size());
             for(File f: files) {
                 try {
-                    DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(f),
-                                                                                              readBufferSize));
+                    DataInputStream inputStream = SpillFiles.openForRead(f, readBufferSize);
                     this.inputs.add(new FileAndStream(f, inputStream));
                 } catch(IOException e) {
                     throw new VoldemortException(e);
                 }
+                this.heads.add(null);
             }
-            this.minHeap = new PriorityQueue<Item>(inputs.size());
-            for(int i = 0; i < inputs.size(); i++) {
-                FileAndStream fas = inputs.get(i);
-                try {
-                    V v = readValue(fas.getInputStream());
-                    minHeap.add(new Item(i, v));
-                } catch(EOFException e) {
-                    fas.closeAndDelete();
+            this.tree = new LoserTree(inputs.size()) {
+
+                @Override
+                protected int compare(int a, int b) {
+                    return comparator.compare(heads.get(a), heads.get(b));
                 }
-            }
-        }
 
-        @Override
-        protected V computeNext() {
-            if(minHeap.peek() == null)
-                return endOfData();
+                @Override
+                protected boolean isExhausted(int run) {
+                    return heads.get(run) == null;
+                }
+            };
+            for(int i = 0; i < inputs.size(); i++)
+                readHead(i);
+            tree.init();
+        }
 
-            Item curr = minHeap.poll();
-            // read replacement item
-            FileAndStream fas = inputs.get(curr.getIndex());
+        private void readHead(int index) {
+            FileAndStream fas = inputs.get(index);
             try {
-                V v = readValue(fas.getInputStream());
-                if(v != null)
-                    minHeap.add(new Item(curr.getIndex(), v));
+                heads.set(index, readValue(fas.getInputStream()));
             } catch(EOFException e) {
+                heads.set(index, null);
                 fas.closeAndDelete();
             }
-
-            return curr.getValue();
         }
 
-    }
-
-    private final class Item implements Comparable<Item> {
-
-        private final int index;
-        private final V v;
-
-        public Item(int index, V value) {
-            this.index = index;
-            this.v = value;
-        }
-
-        public int getIndex() {
-            return this.index;
-        }
-
-        public V getValue() {
-            return this.v;
+        @Override
+        protected V computeNext() {
+            if(inputs.isEmpty())
+                return endOfData();
+            int winner = tree.winner();
+            V v = heads.get(winner);
+            if(v == null)
+                return endOfData();
+            readHead(winner);
+            tree.adjust(winner);
+            return v;
         }
 
-        public int compareTo(Item item) {
-            return comparator.compare(v, item.getValue());
-        }
     }
 
     private static class FileAndStream {
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import voldemort.annotations.concurrency.Threadsafe;
+
+/**
+ * The length and CRC32 of each file of a read-only store directory, kept in
+ * the directory as {@link #FILE_NAME} so a fetcher can verify what it copied.
+ * The manifest is a text file of one "name length checksum" line per file,
+ * with the checksum in hex.
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+public class FileManifest {
+
+    /**
+     * The name of the manifest in a store directory; it is hidden so tools
+     * copying the store files do not take it for one
+     */
+    public static final String FILE_NAME = ".manifest";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SortedMap<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * Record a file
+     * 
+     * @param fileName The name of the file within the directory
+     * @param length The length of the file in bytes
+     * @param checksum The CRC32 of the file
+     */
+    public synchronized void add(String fileName, long length, long checksum) {
+        entries.put(fileName, new Entry(length, checksum));
+    }
+
+    /**
+     * @return The entry of the given file, or null if it is not in the
+     *         manifest
+     */
+    public synchronized Entry get(String fileName) {
+        return entries.get(fileName);
+    }
+
+    public synchronized Set<String> getFileNames() {
+        return Collections.unmodifiableSet(new TreeSet<String>(entries.keySet()));
+    }
+
+    /**
+     * Create the manifest of every file of a directory, except hidden ones
+     */
+    public static FileManifest create(File directory) throws IOException {
+        FileManifest manifest = new FileManifest();
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for(File file: files) {
+                if(file.isFile() && !file.getName().startsWith(".")) {
+                    CRC32 crc = new CRC32();
+                    long length = checksum(file, crc);
+                    manifest.add(file.getName(), length, crc.getValue());
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Feed the contents of a file to a checksum
+     * 
+     * @return The number of bytes read
+     */
+    public static long checksum(File file, Checksum checksum) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long length = 0;
+            while(true) {
+                int read = input.read(buffer);
+                if(read < 0)
+                    return length;
+                checksum.update(buffer, 0, read);
+                length += read;
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    public static FileManifest read(InputStream input) throws IOException {
+        FileManifest manifest = new FileManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+            line = line.trim();
+            if(line.length() == 0 || line.startsWith("#"))
+                continue;
+            String[] fields = line.split(" ");
+            if(fields.length != 3)
+                throw new IOException("Invalid manifest line: " + line);
+            try {
+                manifest.add(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2], 16));
+            } catch(NumberFormatException e) {
+                throw new IOException("Invalid manifest line: " + line);
+            }
+        }
+        return manifest;
+    }
+
+    public static FileManifest read(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            return read(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    public synchronized void write(OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+        writer.write("# name length crc32\n");
+        for(Map.Entry<String, Entry> entry: entries.entrySet())
+            writer.write(entry.getKey() + " " + entry.getValue().getLength() + " "
+                         + Long.toHexString(entry.getValue().getChecksum()) + "\n");
+        writer.flush();
+    }
+
+    /**
+     * Write the manifest into a store directory
+     */
+    public void write(File directory) throws IOException {
+        OutputStream output = new FileOutputStream(new File(directory, FILE_NAME));
+        try {
+            write(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * The expected length and checksum of a file
+     */
+    public static class Entry {
+
+        private final long length;
+        private final long checksum;
+
+        public Entry(long length, long checksum) {
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+
+}
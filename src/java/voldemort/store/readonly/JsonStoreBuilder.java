@@ -16,17 +16,36 @@
 
 package voldemort.store.readonly;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.security.MessageDigest;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import org.apache.log4j.Logger;
 
@@ -58,6 +77,18 @@ public class JsonStoreBuilder {
 
     private static final Logger logger = Logger.getLogger(JsonStoreBuilder.class);
 
+    /**
+     * The number of records handed to a worker thread at a time
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int PARTITION_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A node id followed by an index entry, the key md5 and the value position
+     */
+    private static final int INDEX_RECORD_SIZE = 4 + 16 + 4;
+
     private final JsonReader reader;
     private final Cluster cluster;
     private final StoreDefinition storeDefinition;
@@ -96,10 +127,10 @@ public class JsonStoreBuilder {
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
-        if(args.length != 8)
+        if(args.length != 8 && args.length != 10)
             Utils.croak("USAGE: java "
                         + JsonStoreBuilder.class.getName()
-                        + " cluster.xml store_definitions.xml store_name sort_obj_buffer_size input_data output_dir num_threads num_chunks");
+                        + " cluster.xml store_definitions.xml store_name sort_obj_buffer_size input_data output_dir num_threads num_chunks [base_output_dir delta_output_dir]");
         String clusterFile = args[0];
         String storeDefFile = args[1];
         String storeName = args[2];
@@ -128,79 +159,194 @@ public class JsonStoreBuilder {
 
             RoutingStrategy routingStrategy = new RoutingStrategyFactory(cluster).getRoutingStrategy(storeDef);
 
-            new JsonStoreBuilder(reader,
-                                 cluster,
-                                 storeDef,
-                                 routingStrategy,
-                                 outputDir,
-                                 sortBufferSize,
-                                 numThreads,
-                                 numChunks).build();
+            JsonStoreBuilder builder = new JsonStoreBuilder(reader,
+                                                            cluster,
+                                                            storeDef,
+                                                            routingStrategy,
+                                                            outputDir,
+                                                            sortBufferSize,
+                                                            numThreads,
+                                                            numChunks);
+            builder.build();
+            if(args.length == 10)
+                builder.buildDelta(new File(args[8]), new File(args[9]));
         } catch(FileNotFoundException e) {
             Utils.croak(e.getMessage());
         }
     }
 
+    /**
+     * Build the store. The input is parsed on the calling thread; serializing,
+     * hashing and routing happen on numThreads threads, which split the
+     * records by chunk into temporary files. The batches are appended in input
+     * order whichever thread finishes first, so the output, and the version
+     * named after its checksums, is the same for any number of threads. The
+     * chunks are then sorted and written out concurrently, numThreads at a
+     * time, each chunk only touching its own index and data files.
+     * 
+     * @throws IOException If the input can't be read or the output written
+     */
     @SuppressWarnings("unchecked")
     public void build() throws IOException {
-        // initialize nodes
-        int numNodes = cluster.getNumberOfNodes();
-        DataOutputStream[][] indexes = new DataOutputStream[numNodes][numChunks];
-        DataOutputStream[][] datas = new DataOutputStream[numNodes][numChunks];
-        int[][] positions = new int[numNodes][numChunks];
-        for(Node node: cluster.getNodes()) {
-            int nodeId = node.getId();
-            File nodeDir = new File(outputDir, "node-" + Integer.toString(nodeId));
-            nodeDir.mkdirs();
-            for(int chunk = 0; chunk < numChunks; chunk++) {
-                File indexFile = new File(nodeDir, chunk + ".index");
-                File dataFile = new File(nodeDir, chunk + ".data");
-                positions[nodeId][chunk] = 0;
-                indexes[nodeId][chunk] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile),
-                                                                                       1000000));
-                datas[nodeId][chunk] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile),
-                                                                                     1000000));
-            }
-        }
+        for(Node node: cluster.getNodes())
+            getNodeDir(node.getId()).mkdirs();
 
         SerializerFactory factory = new DefaultSerializerFactory();
-        Serializer keySerializer = factory.getSerializer(storeDefinition.getKeySerializer());
-        Serializer valueSerializer = factory.getSerializer(storeDefinition.getValueSerializer());
-
-        logger.info("Reading items...");
-        int count = 0;
-        ExternalSorter<KeyValuePair> sorter = new ExternalSorter<KeyValuePair>(new KeyValuePairSerializer(),
-                                                                               new KeyMd5Comparator(),
-                                                                               internalSortSize,
-                                                                               numThreads);
-        JsonObjectIterator iter = new JsonObjectIterator(reader, keySerializer, valueSerializer);
-        for(KeyValuePair pair: sorter.sorted(iter)) {
-            List<Node> nodes = this.routingStrategy.routeRequest(pair.getKey());
-            byte[] keyMd5 = pair.getKeyMd5();
-            for(int i = 0; i < this.storeDefinition.getReplicationFactor(); i++) {
-                int nodeId = nodes.get(i).getId();
-                int chunk = ReadOnlyUtils.chunk(keyMd5, numChunks);
-                int numBytes = pair.getValue().length;
-                datas[nodeId][chunk].writeInt(numBytes);
-                datas[nodeId][chunk].write(pair.getValue());
-                indexes[nodeId][chunk].write(keyMd5);
-                indexes[nodeId][chunk].writeInt(positions[nodeId][chunk]);
-                positions[nodeId][chunk] += numBytes + 4;
-                checkOverFlow(chunk, positions[nodeId][chunk]);
+        Serializer<Object> keySerializer = (Serializer<Object>) factory.getSerializer(storeDefinition.getKeySerializer());
+        Serializer<Object> valueSerializer = (Serializer<Object>) factory.getSerializer(storeDefinition.getValueSerializer());
+
+        File[] partitions = new File[numChunks];
+        try {
+            for(int chunk = 0; chunk < numChunks; chunk++) {
+                partitions[chunk] = File.createTempFile("partition-" + chunk + "-", ".dat");
+                partitions[chunk].deleteOnExit();
+            }
+            partition(keySerializer, valueSerializer, partitions);
+            FileManifest[] manifests = new FileManifest[cluster.getNumberOfNodes()];
+            for(Node node: cluster.getNodes())
+                manifests[node.getId()] = new FileManifest();
+            writeChunks(partitions, manifests);
+            for(Node node: cluster.getNodes()) {
+                // name each version by its files so a delta can refer to it
+                File nodeDir = getNodeDir(node.getId());
+                FileManifest manifest = manifests[node.getId()];
+                new StoreVersion(StoreVersion.nameFor(manifest)).write(nodeDir, manifest);
+                manifest.write(nodeDir);
             }
-            count++;
+        } finally {
+            for(File partition: partitions)
+                if(partition != null)
+                    partition.delete();
         }
+    }
 
-        logger.info(count + " items read.");
+    /**
+     * Write the delta of each node's store from the output of an earlier build
+     * of the same store, so a push only needs to move the changed keys. The
+     * store must have been built first.
+     * 
+     * @param baseOutputDir The output directory of the earlier build
+     * @param deltaOutputDir The directory to write the node deltas to
+     * @throws IOException If the files can't be read or written
+     */
+    public void buildDelta(File baseOutputDir, File deltaOutputDir) throws IOException {
+        for(Node node: cluster.getNodes()) {
+            String nodeDir = "node-" + Integer.toString(node.getId());
+            DeltaBuilder.diff(new File(baseOutputDir, nodeDir),
+                              getNodeDir(node.getId()),
+                              new File(deltaOutputDir, nodeDir));
+        }
+    }
 
-        // sort and write out
-        logger.info("Closing all store files.");
-        for(int node = 0; node < numNodes; node++) {
-            for(int chunk = 0; chunk < numChunks; chunk++) {
-                indexes[node][chunk].close();
-                datas[node][chunk].close();
+    /*
+     * Read the input, handing batches of records to the worker threads which
+     * append them to the partition file of their chunk
+     */
+    private void partition(Serializer<Object> keySerializer,
+                           Serializer<Object> valueSerializer,
+                           File[] partitions) throws IOException {
+        DataOutputStream[] outputs = new DataOutputStream[numChunks];
+        // at most numThreads batches wait, beyond that the reader helps out
+        ExecutorService executor = new ThreadPoolExecutor(numThreads,
+                                                          numThreads,
+                                                          1000L,
+                                                          TimeUnit.MILLISECONDS,
+                                                          new ArrayBlockingQueue<Runnable>(numThreads),
+                                                          new CallerRunsPolicy());
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        AtomicLong count = new AtomicLong(0);
+        AppendOrder order = new AppendOrder();
+        long batch = 0;
+        try {
+            for(int chunk = 0; chunk < numChunks; chunk++)
+                outputs[chunk] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partitions[chunk]),
+                                                                               PARTITION_BUFFER_SIZE));
+
+            logger.info("Reading items...");
+            List<Object> keys = new ArrayList<Object>(BATCH_SIZE);
+            List<Object> values = new ArrayList<Object>(BATCH_SIZE);
+            while(failure.get() == null) {
+                try {
+                    keys.add(reader.read());
+                } catch(EndOfFileException e) {
+                    break;
+                }
+                try {
+                    values.add(reader.read());
+                } catch(EndOfFileException e) {
+                    throw new VoldemortException("Invalid file: reached end of file with key but no matching value.",
+                                                 e);
+                }
+                if(keys.size() == BATCH_SIZE) {
+                    executor.execute(new PartitionTask(batch++,
+                                                       keys,
+                                                       values,
+                                                       keySerializer,
+                                                       valueSerializer,
+                                                       outputs,
+                                                       order,
+                                                       count,
+                                                       failure));
+                    keys = new ArrayList<Object>(BATCH_SIZE);
+                    values = new ArrayList<Object>(BATCH_SIZE);
+                }
             }
+            if(keys.size() > 0)
+                executor.execute(new PartitionTask(batch,
+                                                   keys,
+                                                   values,
+                                                   keySerializer,
+                                                   valueSerializer,
+                                                   outputs,
+                                                   order,
+                                                   count,
+                                                   failure));
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) {
+            throw new VoldemortException("Interrupted while reading items.", e);
+        } finally {
+            executor.shutdownNow();
+            for(DataOutputStream output: outputs)
+                if(output != null)
+                    output.close();
         }
+        if(failure.get() != null)
+            throw toVoldemortException(failure.get());
+        logger.info(count.get() + " items read.");
+    }
+
+    /*
+     * Sort each partition and write it out as the chunk's index and data file
+     * on every node, adding the files to the manifest of their node
+     */
+    private void writeChunks(File[] partitions, FileManifest[] manifests) {
+        logger.info("Sorting and writing " + numChunks + " chunks...");
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>(numChunks);
+            for(int chunk = 0; chunk < numChunks; chunk++)
+                results.add(executor.submit(new ChunkWriter(chunk, partitions[chunk], manifests)));
+            for(Future<Object> result: results)
+                result.get();
+        } catch(InterruptedException e) {
+            throw new VoldemortException("Interrupted while writing chunks.", e);
+        } catch(ExecutionException e) {
+            throw toVoldemortException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.info("All chunks written.");
+    }
+
+    private File getNodeDir(int nodeId) {
+        return new File(outputDir, "node-" + Integer.toString(nodeId));
+    }
+
+    private static VoldemortException toVoldemortException(Throwable t) {
+        if(t instanceof VoldemortException)
+            return (VoldemortException) t;
+        return new VoldemortException(t);
     }
 
     /* Check if the position has exceeded Integer.MAX_VALUE */
@@ -210,102 +356,289 @@ public class JsonStoreBuilder {
                                          + Integer.MAX_VALUE + " bytes.");
     }
 
-    private static class KeyValuePairSerializer implements Serializer<KeyValuePair> {
+    /**
+     * Serializes, hashes and routes a batch of input, then appends each record
+     * to its chunk's partition file
+     */
+    private class PartitionTask implements Runnable {
 
-        private final MessageDigest digest = ByteUtils.getDigest("MD5");
+        private final long batch;
+        private final List<Object> keys;
+        private final List<Object> values;
+        private final Serializer<Object> keySerializer;
+        private final Serializer<Object> valueSerializer;
+        private final DataOutputStream[] outputs;
+        private final AppendOrder order;
+        private final AtomicLong count;
+        private final AtomicReference<Throwable> failure;
+
+        public PartitionTask(long batch,
+                             List<Object> keys,
+                             List<Object> values,
+                             Serializer<Object> keySerializer,
+                             Serializer<Object> valueSerializer,
+                             DataOutputStream[] outputs,
+                             AppendOrder order,
+                             AtomicLong count,
+                             AtomicReference<Throwable> failure) {
+            this.batch = batch;
+            this.keys = keys;
+            this.values = values;
+            this.keySerializer = keySerializer;
+            this.valueSerializer = valueSerializer;
+            this.outputs = outputs;
+            this.order = order;
+            this.count = count;
+            this.failure = failure;
+        }
 
-        public byte[] toBytes(KeyValuePair pair) {
-            byte[] key = pair.getKey();
-            byte[] value = pair.getValue();
-            byte[] bytes = new byte[key.length + value.length + 8];
-            ByteUtils.writeInt(bytes, key.length, 0);
-            ByteUtils.writeInt(bytes, value.length, 4);
-            System.arraycopy(key, 0, bytes, 8, key.length);
-            System.arraycopy(value, 0, bytes, 8 + key.length, value.length);
-            return bytes;
+        public void run() {
+            try {
+                MessageDigest digest = ByteUtils.getDigest("MD5");
+                RecordSerializer serializer = new RecordSerializer();
+                int replicationFactor = storeDefinition.getReplicationFactor();
+                ByteArrayOutputStream[] buffers = new ByteArrayOutputStream[numChunks];
+                DataOutputStream[] streams = new DataOutputStream[numChunks];
+                for(int i = 0; i < keys.size(); i++) {
+                    byte[] keyBytes = keySerializer.toBytes(keys.get(i));
+                    byte[] keyMd5 = digest.digest(keyBytes);
+                    byte[] valueBytes = valueSerializer.toBytes(values.get(i));
+                    List<Node> nodes = routingStrategy.routeRequest(keyBytes);
+                    int[] nodeIds = new int[replicationFactor];
+                    for(int j = 0; j < replicationFactor; j++)
+                        nodeIds[j] = nodes.get(j).getId();
+
+                    int chunk = ReadOnlyUtils.chunk(keyMd5, numChunks);
+                    if(buffers[chunk] == null) {
+                        buffers[chunk] = new ByteArrayOutputStream();
+                        streams[chunk] = new DataOutputStream(buffers[chunk]);
+                    }
+                    byte[] bytes = serializer.toBytes(new Record(keyMd5, nodeIds, valueBytes));
+                    streams[chunk].writeInt(bytes.length);
+                    streams[chunk].write(bytes);
+                }
+                if(!order.awaitTurn(batch))
+                    return;
+                try {
+                    for(int chunk = 0; chunk < numChunks; chunk++)
+                        if(buffers[chunk] != null)
+                            buffers[chunk].writeTo(outputs[chunk]);
+                } finally {
+                    order.done();
+                }
+                count.addAndGet(keys.size());
+            } catch(Throwable t) {
+                failure.compareAndSet(null, t);
+                order.fail();
+            }
         }
+    }
 
-        public KeyValuePair toObject(byte[] bytes) {
-            int keySize = ByteUtils.readInt(bytes, 0);
-            int valueSize = ByteUtils.readInt(bytes, 4);
-            byte[] key = new byte[keySize];
-            byte[] value = new byte[valueSize];
-            System.arraycopy(bytes, 8, key, 0, keySize);
-            System.arraycopy(bytes, 8 + keySize, value, 0, valueSize);
-            byte[] md5 = digest.digest(key);
-            digest.reset();
-
-            return new KeyValuePair(key, md5, value);
+    /**
+     * Lets the batches append to the partition files one at a time in the
+     * order they were read
+     */
+    private static class AppendOrder {
+
+        private long next = 0;
+        private boolean failed = false;
+
+        /**
+         * Wait for the batches read before the given one to be appended
+         * 
+         * @return false if a batch failed, so there will be no turn
+         */
+        public synchronized boolean awaitTurn(long batch) throws InterruptedException {
+            while(next != batch && !failed)
+                wait();
+            return !failed;
         }
 
+        public synchronized void done() {
+            next++;
+            notifyAll();
+        }
+
+        public synchronized void fail() {
+            failed = true;
+            notifyAll();
+        }
     }
 
-    private static class JsonObjectIterator extends AbstractIterator<KeyValuePair> {
+    /**
+     * Sorts one partition by key md5 and writes it to the chunk's index and
+     * data files on each node
+     */
+    private class ChunkWriter implements Callable<Object> {
 
-        private final JsonReader reader;
-        private final Serializer<Object> keySerializer;
-        private final Serializer<Object> valueSerializer;
-        private final MessageDigest digest;
+        private final int chunk;
+        private final File partition;
+        private final FileManifest[] manifests;
 
-        public JsonObjectIterator(JsonReader reader,
-                                  Serializer<Object> keySerializer,
-                                  Serializer<Object> valueSerializer) {
-            this.reader = reader;
-            this.keySerializer = keySerializer;
-            this.valueSerializer = valueSerializer;
-            this.digest = ByteUtils.getDigest("MD5");
+        public ChunkWriter(int chunk, File partition, FileManifest[] manifests) {
+            this.chunk = chunk;
+            this.partition = partition;
+            this.manifests = manifests;
         }
 
-        @Override
-        protected KeyValuePair computeNext() {
+        public Object call() throws IOException {
+            int numNodes = cluster.getNumberOfNodes();
+            DataOutputStream[] indexes = new DataOutputStream[numNodes];
+            DataOutputStream[] datas = new DataOutputStream[numNodes];
+            CRC32[] indexChecksums = new CRC32[numNodes];
+            CRC32[] dataChecksums = new CRC32[numNodes];
+            int[] positions = new int[numNodes];
+            DataInputStream input = null;
             try {
-                Object key = reader.read();
-                Object value = null;
+                for(Node node: cluster.getNodes()) {
+                    int nodeId = node.getId();
+                    File nodeDir = getNodeDir(nodeId);
+                    File indexFile = new File(nodeDir, chunk + ".index");
+                    File dataFile = new File(nodeDir, chunk + ".data");
+                    indexChecksums[nodeId] = new CRC32();
+                    dataChecksums[nodeId] = new CRC32();
+                    indexes[nodeId] = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(indexFile),
+                                                                                                            indexChecksums[nodeId]),
+                                                                                    1000000));
+                    datas[nodeId] = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(dataFile),
+                                                                                                          dataChecksums[nodeId]),
+                                                                                  1000000));
+                }
+
+                // the data goes out in the order of the partition, the index
+                // entries of all nodes, prefixed by the node id, are sorted
+                input = new DataInputStream(new BufferedInputStream(new FileInputStream(partition),
+                                                                    PARTITION_BUFFER_SIZE));
+                BinaryRecordSorter sorter = new BinaryRecordSorter(INDEX_RECORD_SIZE,
+                                                                   Math.max(1, internalSortSize
+                                                                               / numThreads));
+                byte[] entry = new byte[INDEX_RECORD_SIZE];
+                Iterator<Record> records = new RecordIterator(input);
+                while(records.hasNext()) {
+                    Record record = records.next();
+                    byte[] value = record.getValue();
+                    System.arraycopy(record.getKeyMd5(), 0, entry, 4, 16);
+                    for(int nodeId: record.getNodeIds()) {
+                        datas[nodeId].writeInt(value.length);
+                        datas[nodeId].write(value);
+                        ByteUtils.writeInt(entry, nodeId, 0);
+                        ByteUtils.writeInt(entry, positions[nodeId], 20);
+                        sorter.add(entry, 0);
+                        positions[nodeId] += value.length + 4;
+                        checkOverFlow(chunk, positions[nodeId]);
+                    }
+                }
+
+                BinaryRecordSorter.SortedRecords sorted = sorter.sorted();
                 try {
-                    value = reader.read();
-                } catch(EndOfFileException e) {
-                    throw new VoldemortException("Invalid file: reached end of file with key but no matching value.",
-                                                 e);
+                    while(sorted.next(entry))
+                        indexes[ByteUtils.readInt(entry, 0)].write(entry, 4, 20);
+                } finally {
+                    sorted.close();
+                }
+                for(Node node: cluster.getNodes()) {
+                    int nodeId = node.getId();
+                    indexes[nodeId].close();
+                    datas[nodeId].close();
+                    File nodeDir = getNodeDir(nodeId);
+                    manifests[nodeId].add(chunk + ".index",
+                                          new File(nodeDir, chunk + ".index").length(),
+                                          indexChecksums[nodeId].getValue());
+                    manifests[nodeId].add(chunk + ".data",
+                                          new File(nodeDir, chunk + ".data").length(),
+                                          dataChecksums[nodeId].getValue());
+                }
+                logger.info("Chunk " + chunk + " written.");
+                return null;
+            } finally {
+                if(input != null)
+                    input.close();
+                for(int node = 0; node < numNodes; node++) {
+                    if(indexes[node] != null)
+                        indexes[node].close();
+                    if(datas[node] != null)
+                        datas[node].close();
                 }
-                byte[] keyBytes = keySerializer.toBytes(key);
-                byte[] keyMd5 = digest.digest(keyBytes);
-                digest.reset();
-                byte[] valueBytes = valueSerializer.toBytes(value);
+            }
+        }
+    }
+
+    /**
+     * Reads the length prefixed records of a partition file
+     */
+    private static class RecordIterator extends AbstractIterator<Record> {
 
-                return new KeyValuePair(keyBytes, keyMd5, valueBytes);
-            } catch(EndOfFileException e) {
+        private final DataInputStream input;
+        private final RecordSerializer serializer = new RecordSerializer();
+
+        public RecordIterator(DataInputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        protected Record computeNext() {
+            try {
+                int size = input.readInt();
+                byte[] bytes = new byte[size];
+                input.readFully(bytes);
+                return serializer.toObject(bytes);
+            } catch(EOFException e) {
                 return endOfData();
+            } catch(IOException e) {
+                throw new VoldemortException(e);
             }
         }
-
     }
 
-    public static class KeyMd5Comparator implements Comparator<KeyValuePair> {
+    private static class RecordSerializer implements Serializer<Record> {
+
+        public byte[] toBytes(Record record) {
+            int[] nodeIds = record.getNodeIds();
+            byte[] value = record.getValue();
+            byte[] bytes = new byte[16 + 4 + 4 * nodeIds.length + value.length];
+            System.arraycopy(record.getKeyMd5(), 0, bytes, 0, 16);
+            ByteUtils.writeInt(bytes, nodeIds.length, 16);
+            for(int i = 0; i < nodeIds.length; i++)
+                ByteUtils.writeInt(bytes, nodeIds[i], 20 + 4 * i);
+            System.arraycopy(value, 0, bytes, 20 + 4 * nodeIds.length, value.length);
+            return bytes;
+        }
 
-        public int compare(KeyValuePair kv1, KeyValuePair kv2) {
-            return ByteUtils.compare(kv1.getKeyMd5(), kv2.getKeyMd5());
+        public Record toObject(byte[] bytes) {
+            byte[] keyMd5 = new byte[16];
+            System.arraycopy(bytes, 0, keyMd5, 0, 16);
+            int[] nodeIds = new int[ByteUtils.readInt(bytes, 16)];
+            for(int i = 0; i < nodeIds.length; i++)
+                nodeIds[i] = ByteUtils.readInt(bytes, 20 + 4 * i);
+            int offset = 20 + 4 * nodeIds.length;
+            byte[] value = new byte[bytes.length - offset];
+            System.arraycopy(bytes, offset, value, 0, value.length);
+            return new Record(keyMd5, nodeIds, value);
         }
 
     }
 
-    private static class KeyValuePair {
+    /**
+     * A value with the md5 of its key and the nodes it goes to
+     */
+    private static class Record {
 
-        private final byte[] key;
         private final byte[] keyMd5;
+        private final int[] nodeIds;
         private final byte[] value;
 
-        public KeyValuePair(byte[] key, byte[] keyMd5, byte[] value) {
-            this.key = key;
+        public Record(byte[] keyMd5, int[] nodeIds, byte[] value) {
             this.keyMd5 = keyMd5;
+            this.nodeIds = nodeIds;
             this.value = value;
         }
 
-        public byte[] getKey() {
-            return key;
+        public byte[] getKeyMd5() {
+            return keyMd5;
         }
 
-        public byte[] getKeyMd5() {
-            return this.keyMd5;
+        public int[] getNodeIds() {
+            return nodeIds;
         }
 
         public byte[] getValue() {
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly;
+
+/**
+ * A tournament tree of losers for merging sorted runs. Each internal node
+ * remembers the run that lost the match played there, so replacing the head of
+ * the winning run takes one match per level against the stored losers rather
+ * than the two comparisons per level a binary heap needs.
+ * 
+ * Subclasses compare the current heads of two runs; a run whose head is gone
+ * is exhausted and loses to every other run.
+ * 
+ * @author jay
+ * 
+ */
+abstract class LoserTree {
+
+    private final int size;
+    private final int[] tree;
+
+    /**
+     * @param size The number of runs to merge
+     */
+    LoserTree(int size) {
+        this.size = size;
+        this.tree = new int[Math.max(size, 1)];
+    }
+
+    /**
+     * Play the initial tournament. Must be called once every run has its
+     * first head.
+     */
+    void init() {
+        // the virtual run "size" beats everyone, so each run stops at the
+        // first match it plays and the real winners replace it bottom up
+        for(int i = 0; i < tree.length; i++)
+            tree[i] = size;
+        for(int run = size - 1; run >= 0; run--)
+            adjust(run);
+    }
+
+    /**
+     * @return The run with the smallest head
+     */
+    int winner() {
+        return tree[0];
+    }
+
+    /**
+     * Replay the matches of a run whose head has changed
+     * 
+     * @param run The run, normally the last winner
+     */
+    void adjust(int run) {
+        int winner = run;
+        for(int node = (run + size) / 2; node > 0; node /= 2) {
+            if(beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    private boolean beats(int a, int b) {
+        if(a == size)
+            return true;
+        if(b == size)
+            return false;
+        if(isExhausted(a))
+            return false;
+        if(isExhausted(b))
+            return true;
+        int cmp = compare(a, b);
+        // equal heads go to the earlier run, which keeps the merge stable
+        return cmp < 0 || (cmp == 0 && a < b);
+    }
+
+    /**
+     * @return Whether the run has no head left
+     */
+    protected abstract boolean isExhausted(int run);
+
+    /**
+     * Compare the heads of two runs that are not exhausted
+     */
+    protected abstract int compare(int a, int b);
+
+}
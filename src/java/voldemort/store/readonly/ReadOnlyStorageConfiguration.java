@@ -38,6 +38,8 @@ public class ReadOnlyStorageConfiguration implements StorageConfiguration {
     private final int numFileHandles;
     private final int numBackups;
     private final long fileAccessWaitTimeoutMs;
+    private final long warmupBytes;
+    private final boolean pinIndexes;
     private final File storageDir;
     private final Set<ObjectName> registeredBeans;
     private final int nodeId;
@@ -47,6 +49,8 @@ public class ReadOnlyStorageConfiguration implements StorageConfiguration {
         this.storageDir = new File(config.getReadOnlyDataStorageDirectory());
         this.fileAccessWaitTimeoutMs = config.getReadOnlyFileWaitTimeoutMs();
         this.numBackups = config.getReadOnlyBackups();
+        this.warmupBytes = config.getReadOnlyWarmupBytes();
+        this.pinIndexes = config.isReadOnlyPinIndexes();
         this.registeredBeans = Collections.synchronizedSet(new HashSet<ObjectName>());
         this.nodeId = config.getNodeId();
     }
@@ -62,7 +66,9 @@ public class ReadOnlyStorageConfiguration implements StorageConfiguration {
                                                                 new File(storageDir, name),
                                                                 numBackups,
                                                                 numFileHandles,
-                                                                fileAccessWaitTimeoutMs);
+                                                                fileAccessWaitTimeoutMs,
+                                                                warmupBytes,
+                                                                pinIndexes);
         ObjectName objName = JmxUtils.createObjectName(JmxUtils.getPackageName(store.getClass()),
                                                        name + nodeId);
         JmxUtils.registerMbean(ManagementFactory.getPlatformMBeanServer(),
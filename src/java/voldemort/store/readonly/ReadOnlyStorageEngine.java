@@ -18,6 +18,7 @@ package voldemort.store.readonly;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -25,8 +26,9 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -37,6 +39,7 @@ import voldemort.store.NoSuchCapabilityException;
 import voldemort.store.StorageEngine;
 import voldemort.store.StoreCapabilityType;
 import voldemort.store.StoreUtils;
+import voldemort.store.stats.RequestTrace;
 import voldemort.utils.ByteArray;
 import voldemort.utils.ByteUtils;
 import voldemort.utils.ClosableIterator;
@@ -50,6 +53,11 @@ import com.google.common.collect.Lists;
 /**
  * A read-only store that fronts a big file
  * 
+ * A version swapped in may be a delta on the current one, holding only the
+ * keys that changed. It is read over its base, which is kept as the first
+ * backup, while it is merged with the base into a complete version in the
+ * background.
+ * 
  * @author jay
  * 
  */
@@ -61,6 +69,11 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
     public static final int POSITION_SIZE = 4;
     public static final int INDEX_ENTRY_SIZE = KEY_HASH_SIZE + POSITION_SIZE;
 
+    /**
+     * The size written in place of a value for a key that a delta deletes
+     */
+    public static final int DELETED_VALUE_SIZE = -1;
+
     /*
      * The overhead for each cache element is the key size + 4 byte array length
      * + 12 byte object overhead + 8 bytes for a 64-bit reference to the thing
@@ -72,9 +85,21 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
     private final int numFileHandles;
     private final long bufferWaitTimeoutMs;
     private final File storeDir;
-    private final ReadWriteLock fileModificationLock;
+    private final long warmupBytes;
+    private final boolean pinIndexes;
+    private final AtomicLong warmedBytes;
+    private volatile boolean warmingUp;
+    /*
+     * Serializes open(), close(), swapFiles() and rollback(); reads never take
+     * it
+     */
+    private final Object fileModificationLock;
     private volatile ChunkedFileSet fileSet;
     private volatile boolean isOpen;
+    /*
+     * Merges the current delta into its base; a swap or rollback waits for it
+     */
+    private volatile FutureTask<Object> compaction;
 
     /**
      * Create an instance of the store
@@ -96,17 +121,44 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
                                  int numBackups,
                                  int numFileHandles,
                                  long bufferWaitTimeoutMs) {
+        this(name, storeDir, numBackups, numFileHandles, bufferWaitTimeoutMs, 0L, false);
+    }
+
+    /**
+     * Create an instance of the store that warms the index files of each
+     * version before it takes traffic
+     * 
+     * @param name The name of the store
+     * @param storageDir The directory in which the .data and .index files
+     *        reside
+     * @param numBackups The number of backups of these files to retain
+     * @param numFileHandles The number of file descriptors to keep pooled for
+     *        each file
+     * @param bufferWaitTimeoutMs The maximum time to wait to acquire a file
+     *        handle
+     * @param warmupBytes The most index bytes to bring into memory when files
+     *        are opened or swapped in, 0 to not warm them
+     * @param pinIndexes Keep the warmed index files in memory of the process
+     *        where the page cache can't evict them
+     */
+    public ReadOnlyStorageEngine(String name,
+                                 File storeDir,
+                                 int numBackups,
+                                 int numFileHandles,
+                                 long bufferWaitTimeoutMs,
+                                 long warmupBytes,
+                                 boolean pinIndexes) {
         this.bufferWaitTimeoutMs = bufferWaitTimeoutMs;
+        this.warmupBytes = warmupBytes;
+        this.pinIndexes = pinIndexes;
+        this.warmedBytes = new AtomicLong(0);
+        this.warmingUp = false;
         this.numFileHandles = numFileHandles;
         this.storeDir = storeDir;
         this.numBackups = numBackups;
         this.name = Utils.notNull(name);
         this.fileSet = null;
-        /*
-         * A lock that blocks reads during swap(), open(), and close()
-         * operations
-         */
-        this.fileModificationLock = new ReentrantReadWriteLock();
+        this.fileModificationLock = new Object();
         this.isOpen = false;
         open();
     }
@@ -115,45 +167,124 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
      * Open the store
      */
     public void open() {
-        /* acquire modification lock */
-        fileModificationLock.writeLock().lock();
+        while(true) {
+            awaitCompaction();
+            synchronized(fileModificationLock) {
+                // a compaction started since the wait still reads the files
+                if(isCompacting())
+                    continue;
+                /* check that the store is currently closed */
+                if(isOpen)
+                    throw new IllegalStateException("Attempt to open already open store.");
+
+                File version0 = new File(storeDir, "version-0");
+                version0.mkdirs();
+                this.fileSet = openVersion(version0);
+                isOpen = true;
+                startCompaction();
+                return;
+            }
+        }
+    }
+
+    /*
+     * Open the version in the given directory, over its base in version-1 if
+     * it is a delta
+     */
+    private ChunkedFileSet openVersion(File directory) {
+        StoreVersion version = readVersion(directory);
+        if(version == null || !version.isDelta())
+            return warm(openFileSet(directory, null));
+        File baseDir = new File(storeDir, "version-1");
+        StoreVersion baseVersion = readVersion(baseDir);
+        if(baseVersion == null || !version.getBase().equals(baseVersion.getName()))
+            throw new VoldemortException("Delta " + version + " of store '" + getName()
+                                         + "' does not apply to " + baseDir + ".");
+        ChunkedFileSet base = openFileSet(baseDir, null);
+        ChunkedFileSet delta;
+        try {
+            delta = openFileSet(directory, base);
+        } catch(RuntimeException e) {
+            base.close();
+            throw e;
+        }
+        return warm(delta);
+    }
+
+    private StoreVersion readVersion(File directory) {
         try {
-            /* check that the store is currently closed */
-            if(isOpen)
-                throw new IllegalStateException("Attempt to open already open store.");
-
-            File version0 = new File(storeDir, "version-0");
-            version0.mkdirs();
-            this.fileSet = new ChunkedFileSet(version0,
-                                              this.numFileHandles,
-                                              this.bufferWaitTimeoutMs);
-            isOpen = true;
+            return StoreVersion.read(directory);
+        } catch(IOException e) {
+            throw new VoldemortException("Error reading the version of " + directory + ".", e);
+        }
+    }
+
+    private ChunkedFileSet openFileSet(File directory, ChunkedFileSet base) {
+        return new ChunkedFileSet(directory, base, this.numFileHandles, this.bufferWaitTimeoutMs);
+    }
+
+    /*
+     * Warm the given files and the base under them with a single budget, the
+     * delta first since every read probes it. The set isn't visible to
+     * readers until it is made current, so nothing waits on a cold page.
+     */
+    private ChunkedFileSet warm(ChunkedFileSet files) {
+        if(warmupBytes <= 0)
+            return files;
+        warmedBytes.set(0);
+        warmingUp = true;
+        long start = System.currentTimeMillis();
+        try {
+            long remaining = warmupBytes;
+            for(ChunkedFileSet set = files; set != null && remaining > 0; set = set.getBase())
+                remaining -= set.warmIndexes(remaining, pinIndexes, warmedBytes);
+        } catch(RuntimeException e) {
+            files.close();
+            throw e;
         } finally {
-            fileModificationLock.writeLock().unlock();
+            warmingUp = false;
         }
+        logger.info("Warmed " + warmedBytes.get() + " bytes of index for store '" + name
+                    + "' in " + (System.currentTimeMillis() - start) + " ms.");
+        return files;
     }
 
     /**
-     * Close the store.
+     * Close the store. Reads already running finish on the open files, which
+     * are unmapped after them.
      */
     public void close() throws VoldemortException {
         logger.debug("Close called for read-only store.");
-        this.fileModificationLock.writeLock().lock();
-        if(!isOpen)
-            throw new IllegalStateException("Attempt to close non-open store.");
-        try {
+        synchronized(fileModificationLock) {
+            if(!isOpen)
+                throw new IllegalStateException("Attempt to close non-open store.");
             this.isOpen = false;
-            fileSet.close();
-        } finally {
-            this.fileModificationLock.writeLock().unlock();
+            ChunkedFileSet old = fileSet;
+            fileSet = null;
+            old.close();
         }
     }
 
+    /*
+     * Make the given files current and let go of the old ones, which stay
+     * mapped until the reads running on them are done. Must be called with
+     * the modification lock held.
+     */
+    private void replaceFileSet(ChunkedFileSet newFileSet) {
+        ChunkedFileSet old = fileSet;
+        fileSet = newFileSet;
+        isOpen = true;
+        if(old != null)
+            old.close();
+    }
+
     /**
-     * Swap the current index and data files for a new pair
+     * Swap the current index and data files for a new pair. The new files are
+     * opened while reads continue on the current ones; the switch itself is a
+     * single pointer assignment.
      * 
-     * @param newIndexFile The path to the new index file
-     * @param newDataFile The path to the new data file
+     * @param newStoreDirectory The directory holding the new index and data
+     *        files
      */
     @JmxOperation(description = "swapFiles(newIndexFile, newDataFile) changes this store "
                                 + " to use the given index and data file.")
@@ -164,39 +295,42 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
             throw new VoldemortException("File " + newDataDir.getAbsolutePath()
                                          + " does not exist.");
 
-        logger.info("Acquiring write lock on '" + getName() + "':");
-        fileModificationLock.writeLock().lock();
-        boolean success = false;
-        try {
-            close();
-            logger.info("Renaming data and index files for '" + getName() + "':");
-            shiftBackupsRight();
-            // copy in new files
-            logger.info("Setting primary files for store '" + getName() + "' to "
-                        + newStoreDirectory);
-            success = newDataDir.renameTo(new File(storeDir, "version-0"));
-
-            // open the new store
-            if(success) {
+        while(true) {
+            awaitCompaction();
+            synchronized(fileModificationLock) {
+                // a compaction started since the wait still reads the files
+                if(isCompacting())
+                    continue;
+                StoreVersion newVersion = readVersion(newDataDir);
+                if(newVersion != null && newVersion.isDelta())
+                    checkDeltaBase(newVersion);
+                // the open files are mapped, so they can be renamed under the
+                // reads
+                logger.info("Renaming data and index files for '" + getName() + "':");
+                shiftBackupsRight();
+                logger.info("Setting primary files for store '" + getName() + "' to "
+                            + newStoreDirectory);
+                File version0 = new File(storeDir, "version-0");
+                ChunkedFileSet newFileSet = null;
                 try {
-                    open();
-                } catch(Exception e) {
-                    logger.error(e);
-                    success = false;
+                    if(!newDataDir.renameTo(version0))
+                        throw new VoldemortException("Renaming " + newDataDir + " to "
+                                                     + version0 + " failed.");
+                    newFileSet = openVersion(version0);
+                } catch(RuntimeException e) {
+                    logger.error("Swap failed on '" + getName()
+                                 + "', restoring the current files.", e);
+                    shiftBackupsLeft();
+                    throw e;
                 }
-            }
-        } finally {
-            try {
-                // we failed to do the swap, attempt a rollback
-                if(!success)
-                    rollback();
-            } finally {
-                fileModificationLock.writeLock().unlock();
-                logger.info("Swap operation completed on '" + getName() + "', releasing lock.");
+                replaceFileSet(newFileSet);
+                startCompaction();
+                logger.info("Swap operation completed on '" + getName() + "'.");
+                break;
             }
         }
-        // okay we have released the lock and the store is now open again, it is
-        // safe to do a potentially slow delete if we have one too many backups
+        // the new files are being read, it is safe to do a potentially slow
+        // delete if we have one too many backups
         File extraBackup = new File(storeDir, "version-" + (numBackups + 1));
         if(extraBackup.exists()) {
             logger.info("Deleting oldest backup file " + extraBackup);
@@ -208,18 +342,114 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
     @JmxOperation(description = "Rollback to the most recent backup of the current store.")
     public void rollback() {
         logger.info("Rolling back store '" + getName() + "' to version 1.");
-        fileModificationLock.writeLock().lock();
+        while(true) {
+            awaitCompaction();
+            synchronized(fileModificationLock) {
+                // a compaction started since the wait still reads the files
+                if(isCompacting())
+                    continue;
+                File backup = new File(storeDir, "version-1");
+                if(!backup.exists())
+                    throw new VoldemortException("Version 1 does not exists, nothing to roll back to.");
+                shiftBackupsLeft();
+                replaceFileSet(openVersion(new File(storeDir, "version-0")));
+                startCompaction();
+                logger.info("Rollback operation completed on '" + getName() + "'.");
+                return;
+            }
+        }
+    }
+
+    /*
+     * A delta can only be swapped in over the complete version it was built
+     * against, which is kept as the first backup until the delta is merged
+     */
+    private void checkDeltaBase(StoreVersion delta) {
+        if(numBackups < 1)
+            throw new VoldemortException("Store '" + getName() + "' keeps no backups, so there"
+                                         + " is no room for the base of delta " + delta + ".");
+        StoreVersion current = readVersion(new File(storeDir, "version-0"));
+        if(current == null || current.isDelta() || !delta.getBase().equals(current.getName()))
+            throw new VoldemortException("Delta " + delta + " does not apply to version "
+                                         + current + " of store '" + getName() + "'.");
+    }
+
+    /*
+     * If the current files are a delta, merge it with its base in the
+     * background and swap in the result. Must be called with the modification
+     * lock held.
+     */
+    private void startCompaction() {
+        final ChunkedFileSet delta = fileSet;
+        if(delta == null || delta.getBase() == null)
+            return;
+        FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+
+            public void run() {
+                try {
+                    compact(delta);
+                } catch(Exception e) {
+                    logger.error("Compaction of store '" + getName()
+                                 + "' failed, reads stay on the delta and its base.", e);
+                }
+            }
+        }, null);
+        compaction = task;
+        Thread thread = new Thread(task, "compaction-" + getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void compact(ChunkedFileSet delta) throws IOException {
+        File version0 = new File(storeDir, "version-0");
+        File compacted = new File(storeDir, "version-0.compacted");
+        File deltaDir = new File(storeDir, "version-0.delta");
+        if(compacted.exists())
+            Utils.rm(compacted);
+        long start = System.currentTimeMillis();
+        StoreVersion version = DeltaBuilder.merge(new File(storeDir, "version-1"),
+                                                  version0,
+                                                  compacted);
+        synchronized(fileModificationLock) {
+            if(fileSet != delta) {
+                // closed since, the merged files are not wanted
+                Utils.rm(compacted);
+                return;
+            }
+            if(!version0.renameTo(deltaDir))
+                throw new VoldemortException("Renaming " + version0 + " to " + deltaDir
+                                             + " failed.");
+            try {
+                if(!compacted.renameTo(version0))
+                    throw new VoldemortException("Renaming " + compacted + " to " + version0
+                                                 + " failed.");
+                replaceFileSet(warm(openFileSet(version0, null)));
+            } catch(RuntimeException e) {
+                Utils.rm(version0);
+                deltaDir.renameTo(version0);
+                throw e;
+            }
+        }
+        Utils.rm(deltaDir);
+        logger.info("Compacted store '" + getName() + "' to version " + version + " in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /*
+     * Wait for the merge of a delta, which reads the version directories, so
+     * they can be changed
+     */
+    private void awaitCompaction() {
+        FutureTask<Object> task = compaction;
+        if(task == null)
+            return;
         try {
-            if(isOpen)
-                close();
-            File backup = new File(storeDir, "version-1");
-            if(!backup.exists())
-                throw new VoldemortException("Version 1 does not exists, nothing to roll back to.");
-            shiftBackupsLeft();
-            open();
-        } finally {
-            fileModificationLock.writeLock().unlock();
-            logger.info("Rollback operation completed on '" + getName() + "', releasing lock.");
+            task.get();
+        } catch(InterruptedException e) {
+            throw new VoldemortException("Interrupted while waiting for the compaction of store '"
+                                         + getName() + "'.", e);
+        } catch(ExecutionException e) {
+            // the task logs its own failures
         }
     }
 
@@ -227,9 +457,6 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
      * Shift all store versions so that 1 becomes 0, 2 becomes 1, etc.
      */
     private void shiftBackupsLeft() {
-        if(isOpen)
-            throw new VoldemortException("Can't move backup files while store is open.");
-
         // Turn the current data into a .bak so we can take a look at it
         // manually if we want
         File primary = new File(storeDir, "version-0");
@@ -259,15 +486,10 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
      * Shift all store versions so that 0 becomes 1, 1 becomes 2, etc.
      */
     private void shiftBackupsRight() {
-        if(isOpen)
-            throw new VoldemortException("Can't move backup files while store is open.");
         shiftBackupsRight(0);
     }
 
     private void shiftBackupsRight(int beginShift) {
-        if(isOpen)
-            throw new VoldemortException("Can't move backup files while store is open.");
-
         File source = new File(storeDir, "version-" + Integer.toString(beginShift));
 
         // if the source file doesn't exist there is nothing to shift
@@ -288,16 +510,43 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
                                                 + getClass().getName());
     }
 
+    /*
+     * Take a reference to the current files; if they are swapped out before
+     * the reference is taken try again with the new ones
+     */
+    private ChunkedFileSet acquireFileSet() {
+        while(true) {
+            ChunkedFileSet current = fileSet;
+            if(current == null)
+                throw new VoldemortException("Store '" + getName() + "' is closed.");
+            if(current.acquire())
+                return current;
+        }
+    }
+
     public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
         StoreUtils.assertValidKey(key);
         byte[] keyMd5 = ByteUtils.md5(key.get());
-        int chunk = fileSet.getChunkForKey(keyMd5);
-        int location = getValueLocation(chunk, keyMd5);
-        if(location >= 0) {
-            byte[] value = readValue(chunk, location);
-            return Collections.singletonList(Versioned.value(value));
-        } else {
+        ChunkedFileSet files = acquireFileSet();
+        try {
+            int chunk = files.getChunkForKey(keyMd5);
+            ChunkedFileSet layer = files;
+            int location = getValueLocation(layer, chunk, keyMd5);
+            // keys a delta does not have are looked up in its base
+            while(location < 0 && layer.getBase() != null) {
+                layer = layer.getBase();
+                location = getValueLocation(layer, chunk, keyMd5);
+            }
+            RequestTrace.mark("read-only index searched");
+            if(location >= 0) {
+                byte[] value = readValue(layer, chunk, location);
+                RequestTrace.mark("read-only value read");
+                if(value != null)
+                    return Collections.singletonList(Versioned.value(value));
+            }
             return Collections.emptyList();
+        } finally {
+            files.release();
         }
     }
 
@@ -305,53 +554,70 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
             throws VoldemortException {
         StoreUtils.assertValidKeys(keys);
         Map<ByteArray, List<Versioned<byte[]>>> results = StoreUtils.newEmptyHashMap(keys);
+        ChunkedFileSet files = acquireFileSet();
         try {
-            fileModificationLock.readLock().lock();
             List<KeyValueLocation> keysAndValueLocations = Lists.newArrayList();
-            for(ByteArray key: keys) {
+            for(ByteArray key: StoreUtils.distinctKeys(keys)) {
                 byte[] keyMd5 = ByteUtils.md5(key.get());
-                int chunk = fileSet.getChunkForKey(keyMd5);
-                int valueLocation = getValueLocation(chunk, keyMd5);
+                int chunk = files.getChunkForKey(keyMd5);
+                ChunkedFileSet layer = files;
+                int valueLocation = getValueLocation(layer, chunk, keyMd5);
+                while(valueLocation < 0 && layer.getBase() != null) {
+                    layer = layer.getBase();
+                    valueLocation = getValueLocation(layer, chunk, keyMd5);
+                }
                 if(valueLocation >= 0)
-                    keysAndValueLocations.add(new KeyValueLocation(chunk, key, valueLocation));
+                    keysAndValueLocations.add(new KeyValueLocation(layer,
+                                                                   chunk,
+                                                                   key,
+                                                                   valueLocation));
             }
             Collections.sort(keysAndValueLocations);
+            RequestTrace.mark("read-only index searched");
 
             for(KeyValueLocation keyVal: keysAndValueLocations) {
-                byte[] value = readValue(keyVal.getChunk(), keyVal.getValueLocation());
-                results.put(keyVal.getKey(), Collections.singletonList(Versioned.value(value)));
+                byte[] value = readValue(keyVal.getFiles(),
+                                         keyVal.getChunk(),
+                                         keyVal.getValueLocation());
+                if(value != null)
+                    results.put(keyVal.getKey(), Collections.singletonList(Versioned.value(value)));
             }
+            RequestTrace.mark("read-only values read");
             return results;
         } finally {
-            fileModificationLock.readLock().unlock();
+            files.release();
         }
     }
 
-    private byte[] readValue(int chunk, int valueLocation) {
-        MappedByteBuffer data = fileSet.checkoutDataFile(chunk);
+    /*
+     * Read the value at the given location, or null if it marks a deleted key
+     */
+    private byte[] readValue(ChunkedFileSet files, int chunk, int valueLocation) {
+        MappedByteBuffer data = files.checkoutDataFile(chunk);
         try {
             data.position(valueLocation);
             int size = data.getInt();
+            if(size == DELETED_VALUE_SIZE)
+                return null;
             byte[] value = new byte[size];
             data.get(value);
             return value;
         } finally {
-            fileSet.checkinDataFile(data, chunk);
+            files.checkinDataFile(data, chunk);
         }
     }
 
     /**
      * Get the byte offset in the data file at which the given key is stored
      * 
-     * @param index The index file
-     * @param key The key to lookup
-     * @return The offset into the file.
-     * @throws IOException
-     * @throws InterruptedException
+     * @param files The files to search
+     * @param chunk The chunk of the key
+     * @param keyMd5 The md5 of the key to lookup
+     * @return The offset into the file, or -1 if the key is not there
      */
-    private int getValueLocation(int chunk, byte[] keyMd5) {
-        MappedByteBuffer index = fileSet.checkoutIndexFile(chunk);
-        int indexFileSize = fileSet.getIndexFileSize(chunk);
+    private int getValueLocation(ChunkedFileSet files, int chunk, byte[] keyMd5) {
+        ByteBuffer index = files.checkoutIndexFile(chunk);
+        int indexFileSize = files.getIndexFileSize(chunk);
         try {
             byte[] keyBuffer = new byte[KEY_HASH_SIZE];
             int low = 0;
@@ -374,14 +640,14 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
             }
             return -1;
         } finally {
-            fileSet.checkinIndexFile(index, chunk);
+            files.checkinIndexFile(index, chunk);
         }
     }
 
     /*
      * Read the key, potentially from the cache
      */
-    private byte[] readKey(MappedByteBuffer index, int indexByteOffset, byte[] foundKey) {
+    private byte[] readKey(ByteBuffer index, int indexByteOffset, byte[] foundKey) {
         readFrom(index, indexByteOffset, foundKey);
         return foundKey;
     }
@@ -390,7 +656,7 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
      * Seek to the given object and read into the buffer exactly buffer.length
      * bytes
      */
-    private static void readFrom(MappedByteBuffer file, int indexByteOffset, byte[] buffer) {
+    private static void readFrom(ByteBuffer file, int indexByteOffset, byte[] buffer) {
         file.position(indexByteOffset);
         file.get(buffer);
     }
@@ -414,23 +680,61 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
         return name;
     }
 
+    @JmxGetter(name = "warmupBudgetBytes", description = "The most index bytes brought into memory before new files take traffic.")
+    public long getWarmupBudgetBytes() {
+        return warmupBytes;
+    }
+
+    @JmxGetter(name = "warmedBytes", description = "The index bytes brought into memory by the current or last warm-up.")
+    public long getWarmedBytes() {
+        return warmedBytes.get();
+    }
+
+    @JmxGetter(name = "warmingUp", description = "Whether new files are being warmed up right now.")
+    public boolean isWarmingUp() {
+        return warmingUp;
+    }
+
+    @JmxGetter(name = "pinIndexes", description = "Whether warmed index files are pinned in memory.")
+    public boolean isPinIndexes() {
+        return pinIndexes;
+    }
+
+    @JmxGetter(name = "version", description = "The version of the current files.")
+    public String getVersion() {
+        StoreVersion version = readVersion(new File(storeDir, "version-0"));
+        return version == null ? null : version.toString();
+    }
+
+    @JmxGetter(name = "compacting", description = "Whether a delta is being merged with its base.")
+    public boolean isCompacting() {
+        FutureTask<Object> task = compaction;
+        return task != null && !task.isDone();
+    }
+
     public Object getCapability(StoreCapabilityType capability) {
         throw new NoSuchCapabilityException(capability, getName());
     }
 
     private final static class KeyValueLocation implements Comparable<KeyValueLocation> {
 
+        private final ChunkedFileSet files;
         private final int chunk;
         private final ByteArray key;
         private final int valueLocation;
 
-        private KeyValueLocation(int chunk, ByteArray key, int valueLocation) {
+        private KeyValueLocation(ChunkedFileSet files, int chunk, ByteArray key, int valueLocation) {
             super();
+            this.files = files;
             this.chunk = chunk;
             this.key = key;
             this.valueLocation = valueLocation;
         }
 
+        public ChunkedFileSet getFiles() {
+            return files;
+        }
+
         public int getChunk() {
             return chunk;
         }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streams for the temporary runs of the external sorters. Runs are compressed
+ * at the fastest level, which trades a little CPU for much less temp disk
+ * traffic on anything but random bytes.
+ * 
+ * @author jay
+ * 
+ */
+final class SpillFiles {
+
+    /**
+     * The buffer between the sorter and the compression, which works poorly on
+     * small writes
+     */
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private SpillFiles() {}
+
+    /**
+     * Open a run for writing
+     * 
+     * @param file The file of the run
+     * @param bufferSize The size of the buffer of compressed bytes
+     */
+    static DataOutputStream openForWrite(File file, int bufferSize) throws IOException {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        DeflaterOutputStream output = new DeflaterOutputStream(new FileOutputStream(file),
+                                                               deflater,
+                                                               bufferSize) {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+        return new DataOutputStream(new BufferedOutputStream(output, STREAM_BUFFER_SIZE));
+    }
+
+    /**
+     * Open a run for reading
+     * 
+     * @param file The file of the run
+     * @param bufferSize The size of the buffer of compressed bytes, which
+     *        is how much is read from disk at a time
+     */
+    static DataInputStream openForRead(File file, int bufferSize) throws IOException {
+        final Inflater inflater = new Inflater();
+        InflaterInputStream input = new InflaterInputStream(new FileInputStream(file),
+                                                            inflater,
+                                                            bufferSize) {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+        return new DataInputStream(new BufferedInputStream(input, STREAM_BUFFER_SIZE));
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import voldemort.utils.Utils;
+
+/**
+ * The name of a version of a read-only store, kept in the store directory as
+ * {@link #FILE_NAME}. A delta version also names the base version it was
+ * built against, and only holds the keys that changed since then, with
+ * deleted keys marked by a value of size
+ * {@link ReadOnlyStorageEngine#DELETED_VALUE_SIZE}.
+ * 
+ * @author jay
+ * 
+ */
+public class StoreVersion {
+
+    /**
+     * The name of the version file in a store directory; it is not hidden so
+     * it is in the manifest and is fetched with the store files
+     */
+    public static final String FILE_NAME = "version";
+
+    private final String name;
+    private final String base;
+
+    public StoreVersion(String name) {
+        this(name, null);
+    }
+
+    public StoreVersion(String name, String base) {
+        this.name = Utils.notNull(name);
+        this.base = base;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The name of the version this delta applies to, or null if this
+     *         is a complete version
+     */
+    public String getBase() {
+        return base;
+    }
+
+    public boolean isDelta() {
+        return base != null;
+    }
+
+    /**
+     * Name a version by the checksum of its manifest, so the same files
+     * always get the same name
+     */
+    public static String nameFor(FileManifest manifest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        manifest.write(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Read the version of a store directory
+     * 
+     * @return The version, or null if the directory has no version file
+     */
+    public static StoreVersion read(File directory) throws IOException {
+        File file = new File(directory, FILE_NAME);
+        if(!file.exists())
+            return null;
+        Properties props = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            props.load(input);
+        } finally {
+            input.close();
+        }
+        String name = props.getProperty("name");
+        if(name == null)
+            throw new IOException("No version name in " + file + ".");
+        return new StoreVersion(name, props.getProperty("base"));
+    }
+
+    /**
+     * Write this version into a store directory
+     * 
+     * @return The version file
+     */
+    public File write(File directory) throws IOException {
+        File file = new File(directory, FILE_NAME);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+        try {
+            writer.write("name=" + name + "\n");
+            if(base != null)
+                writer.write("base=" + base + "\n");
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Write this version into a store directory and add it to the manifest of
+     * the directory
+     * 
+     * @return The version file
+     */
+    public File write(File directory, FileManifest manifest) throws IOException {
+        File file = write(directory);
+        CRC32 crc = new CRC32();
+        long length = FileManifest.checksum(file, crc);
+        manifest.add(file.getName(), length, crc.getValue());
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return isDelta() ? name + " (delta on " + base + ")" : name;
+    }
+}
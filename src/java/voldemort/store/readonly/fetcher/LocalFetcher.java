@@ -0,0 +1,92 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly.fetcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import voldemort.utils.Props;
+
+/**
+ * A fetcher that copies store directories from the local file system or a
+ * mounted one, such as NFS
+ * 
+ * @author jay
+ * 
+ */
+public class LocalFetcher extends ParallelFetcher {
+
+    private static final String DEFAULT_TEMP_DIR = new File(System.getProperty("java.io.tmpdir"),
+                                                            "local-fetcher").getAbsolutePath();
+
+    public LocalFetcher(Props props) {
+        this(new File(props.getString("local.fetcher.tmp.dir", DEFAULT_TEMP_DIR)),
+             props.getInt("fetcher.threads", 4),
+             props.getInt("fetcher.max.attempts", 3),
+             props.containsKey("fetcher.max.bytes.per.sec") ? props.getBytes("fetcher.max.bytes.per.sec")
+                                                           : null);
+    }
+
+    public LocalFetcher(File tempDir, int numThreads, int maxAttempts, Long maxBytesPerSecond) {
+        super(tempDir, numThreads, maxAttempts, maxBytesPerSecond);
+    }
+
+    @Override
+    protected boolean isDirectory(String url) {
+        return new File(url).isDirectory();
+    }
+
+    @Override
+    protected boolean exists(String url) {
+        return new File(url).isFile();
+    }
+
+    @Override
+    protected List<String> listFiles(String dirUrl) throws IOException {
+        File[] files = new File(dirUrl).listFiles();
+        if(files == null)
+            throw new IOException("Can't list " + dirUrl + ".");
+        List<String> names = new ArrayList<String>(files.length);
+        for(File file: files)
+            if(file.isFile() && !file.getName().startsWith("."))
+                names.add(file.getName());
+        return names;
+    }
+
+    @Override
+    protected String getChild(String dirUrl, String name) {
+        return new File(dirUrl, name).getPath();
+    }
+
+    @Override
+    protected String getName(String url) {
+        return new File(url).getName();
+    }
+
+    @Override
+    protected InputStream open(String url, long offset) throws IOException {
+        FileInputStream input = new FileInputStream(url);
+        input.getChannel().position(offset);
+        return input;
+    }
+
+}
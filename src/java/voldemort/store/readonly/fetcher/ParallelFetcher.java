@@ -0,0 +1,298 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly.fetcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.store.readonly.FileFetcher;
+import voldemort.store.readonly.FileManifest;
+import voldemort.utils.DaemonThreadFactory;
+import voldemort.utils.IoThrottler;
+
+/**
+ * The base of fetchers that copy a store directory several files at a time.
+ * 
+ * If the directory has a {@link FileManifest} each copied file is checked
+ * against its length and checksum, and a file that was partly copied by an
+ * earlier attempt is resumed after checksumming the part already there. A
+ * failed copy is retried, resuming where it stopped, and a file that fails
+ * verification is copied again from the start. Without a manifest the files
+ * are copied whole and unverified.
+ * 
+ * Subclasses provide access to the source file system.
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+public abstract class ParallelFetcher implements FileFetcher {
+
+    private static final Logger logger = Logger.getLogger(ParallelFetcher.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int REPORTING_INTERVAL_BYTES = 100 * 1024 * 1024;
+
+    private final File tempDir;
+    private final int numThreads;
+    private final int maxAttempts;
+    private final Long maxBytesPerSecond;
+
+    /**
+     * @param tempDir Where the fetched directories are put
+     * @param numThreads The number of files copied at a time
+     * @param maxAttempts The number of times a file is tried before the fetch
+     *        fails
+     * @param maxBytesPerSecond The limit of all copies together, or null for
+     *        no limit
+     */
+    protected ParallelFetcher(File tempDir, int numThreads, int maxAttempts, Long maxBytesPerSecond) {
+        if(numThreads < 1 || maxAttempts < 1)
+            throw new IllegalArgumentException("The number of threads and of attempts must be positive.");
+        this.tempDir = tempDir;
+        this.numThreads = numThreads;
+        this.maxAttempts = maxAttempts;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.tempDir.mkdirs();
+    }
+
+    public File getTempDir() {
+        return tempDir;
+    }
+
+    /**
+     * @return Whether the url names a directory
+     */
+    protected abstract boolean isDirectory(String url) throws IOException;
+
+    /**
+     * @return Whether the url names an existing file
+     */
+    protected abstract boolean exists(String url) throws IOException;
+
+    /**
+     * @return The names of the plain files directly in the directory, not
+     *         counting hidden ones
+     */
+    protected abstract List<String> listFiles(String dirUrl) throws IOException;
+
+    /**
+     * @return The url of a file in the directory
+     */
+    protected abstract String getChild(String dirUrl, String name);
+
+    /**
+     * @return The last element of the url
+     */
+    protected abstract String getName(String url);
+
+    /**
+     * Open a file, skipping its first bytes
+     * 
+     * @param url The file
+     * @param offset The number of bytes to skip
+     */
+    protected abstract InputStream open(String url, long offset) throws IOException;
+
+    public File fetch(String url) throws IOException {
+        File destination = new File(tempDir, getName(url));
+        IoThrottler throttler = maxBytesPerSecond == null ? null
+                                                         : new IoThrottler(maxBytesPerSecond);
+        AtomicLong copied = new AtomicLong(0);
+        if(!isDirectory(url)) {
+            copy(url, destination, null, throttler, copied);
+            return destination;
+        }
+
+        FileManifest manifest = null;
+        List<String> names;
+        String manifestUrl = getChild(url, FileManifest.FILE_NAME);
+        if(exists(manifestUrl)) {
+            InputStream input = open(manifestUrl, 0);
+            try {
+                manifest = FileManifest.read(input);
+            } finally {
+                input.close();
+            }
+            names = new ArrayList<String>(manifest.getFileNames());
+        } else {
+            logger.warn("No manifest found in " + url + ", files will not be verified.");
+            names = listFiles(url);
+        }
+
+        destination.mkdirs();
+        // whatever an earlier fetch left behind must not end up in the store
+        File[] existing = destination.listFiles();
+        if(existing != null)
+            for(File file: existing)
+                if(!names.contains(file.getName()))
+                    file.delete();
+
+        logger.info("Fetching " + names.size() + " files from " + url + " to " + destination
+                    + " with " + numThreads + " threads.");
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+                                                                new DaemonThreadFactory("fetcher-"));
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>(names.size());
+            for(String name: names)
+                results.add(executor.submit(new CopyTask(getChild(url, name),
+                                                         new File(destination, name),
+                                                         manifest == null ? null
+                                                                         : manifest.get(name),
+                                                         throttler,
+                                                         copied)));
+            for(Future<Object> result: results)
+                result.get();
+        } catch(InterruptedException e) {
+            throw new IOException("Interrupted while fetching " + url + ".");
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            IOException ioe = new IOException("Fetch of " + url + " failed.");
+            ioe.initCause(e.getCause());
+            throw ioe;
+        } finally {
+            executor.shutdownNow();
+        }
+        if(manifest != null)
+            manifest.write(destination);
+        logger.info("Fetched " + copied.get() / (1024 * 1024) + " MB from " + url + " in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        return destination;
+    }
+
+    /*
+     * Copy one file, trying up to maxAttempts times
+     */
+    private void copy(String url,
+                      File destination,
+                      FileManifest.Entry expected,
+                      IoThrottler throttler,
+                      AtomicLong copied) throws IOException {
+        for(int attempt = 1;; attempt++) {
+            try {
+                attemptCopy(url, destination, expected, throttler, copied);
+                return;
+            } catch(IOException e) {
+                if(attempt >= maxAttempts)
+                    throw e;
+                logger.warn("Attempt " + attempt + " to copy " + url + " failed, retrying.", e);
+            }
+        }
+    }
+
+    private void attemptCopy(String url,
+                             File destination,
+                             FileManifest.Entry expected,
+                             IoThrottler throttler,
+                             AtomicLong copied) throws IOException {
+        CRC32 checksum = new CRC32();
+        long offset = 0;
+        if(expected == null || destination.length() > expected.getLength())
+            destination.delete();
+        else if(destination.exists())
+            offset = FileManifest.checksum(destination, checksum);
+
+        if(expected == null || offset < expected.getLength()) {
+            if(offset > 0)
+                logger.info("Resuming copy of " + url + " at byte " + offset + ".");
+            InputStream input = open(url, offset);
+            OutputStream output = null;
+            try {
+                output = new FileOutputStream(destination, offset > 0);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while(true) {
+                    int read = input.read(buffer);
+                    if(read < 0)
+                        break;
+                    output.write(buffer, 0, read);
+                    checksum.update(buffer, 0, read);
+                    if(throttler != null) {
+                        // the limit is for all copies together
+                        synchronized(throttler) {
+                            throttler.maybeThrottle(read);
+                        }
+                    }
+                    long total = copied.addAndGet(read);
+                    if(total / REPORTING_INTERVAL_BYTES != (total - read)
+                                                             / REPORTING_INTERVAL_BYTES)
+                        logger.info(total / (1024 * 1024) + " MB copied");
+                }
+            } finally {
+                if(output != null)
+                    output.close();
+                input.close();
+            }
+        }
+
+        if(expected != null) {
+            long length = destination.length();
+            if(length != expected.getLength() || checksum.getValue() != expected.getChecksum()) {
+                destination.delete();
+                throw new IOException("Verification of " + url + " failed: expected "
+                                      + expected.getLength() + " bytes with checksum "
+                                      + Long.toHexString(expected.getChecksum()) + " but got "
+                                      + length + " bytes with checksum "
+                                      + Long.toHexString(checksum.getValue()) + ".");
+            }
+        }
+    }
+
+    private class CopyTask implements Callable<Object> {
+
+        private final String url;
+        private final File destination;
+        private final FileManifest.Entry expected;
+        private final IoThrottler throttler;
+        private final AtomicLong copied;
+
+        public CopyTask(String url,
+                        File destination,
+                        FileManifest.Entry expected,
+                        IoThrottler throttler,
+                        AtomicLong copied) {
+            this.url = url;
+            this.destination = destination;
+            this.expected = expected;
+            this.throttler = throttler;
+            this.copied = copied;
+        }
+
+        public Object call() throws IOException {
+            copy(url, destination, expected, throttler, copied);
+            return null;
+        }
+    }
+
+}
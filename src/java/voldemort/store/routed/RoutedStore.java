@@ -24,6 +24,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
@@ -45,12 +46,17 @@ import voldemort.routing.RoutingStrategy;
 import voldemort.routing.RoutingStrategyFactory;
 import voldemort.store.InsufficientOperationalNodesException;
 import voldemort.store.NoSuchCapabilityException;
+import voldemort.store.SpatialStore;
 import voldemort.store.Store;
 import voldemort.store.StoreCapabilityType;
 import voldemort.store.StoreDefinition;
+import voldemort.store.StoreOverloadedException;
 import voldemort.store.StoreUtils;
 import voldemort.store.UnreachableStoreException;
+import voldemort.store.stats.RequestTrace;
+import voldemort.store.stats.TracingExecutorService;
 import voldemort.utils.ByteArray;
+import voldemort.utils.Pair;
 import voldemort.utils.SystemTime;
 import voldemort.utils.Time;
 import voldemort.utils.Utils;
@@ -70,6 +76,8 @@ import com.google.common.collect.Maps;
  */
 public class RoutedStore implements Store<ByteArray, byte[]> {
 
+    public static final int NO_PREFERRED_ZONE = -1;
+
     private static final long NODE_BANNAGE_MS = 10000L;
     private static final Logger logger = Logger.getLogger(RoutedStore.class.getName());
 
@@ -81,10 +89,11 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
     private final long timeoutMs;
     private final long nodeBannageMs;
     private final Time time;
-    private final Cluster cluster;
     private final StoreDefinition storeDef;
+    private final int preferredZoneId;
 
-    private final RoutingStrategy routingStrategy;
+    private volatile RoutingStrategy routingStrategy;
+    private volatile Cluster cluster;
 
     /**
      * Create a RoutedStoreClient
@@ -137,6 +146,40 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
                        long timeoutMs,
                        long nodeBannageMs,
                        Time time) {
+        this(name,
+             innerStores,
+             cluster,
+             storeDef,
+             repairReads,
+             threadPool,
+             timeoutMs,
+             nodeBannageMs,
+             NO_PREFERRED_ZONE,
+             time);
+    }
+
+    /**
+     * Create a RoutedStoreClient that reads from the replicas in the given
+     * zone before those in other zones
+     * 
+     * @param name The name of the store
+     * @param innerStores The mapping of node to client
+     * @param cluster The cluster to route to
+     * @param storeDef The definition of the store
+     * @param threadPool The threadpool to use
+     * @param preferredZoneId The zone to read from first, or
+     *        {@link #NO_PREFERRED_ZONE} to read in preference list order
+     */
+    public RoutedStore(String name,
+                       Map<Integer, Store<ByteArray, byte[]>> innerStores,
+                       Cluster cluster,
+                       StoreDefinition storeDef,
+                       boolean repairReads,
+                       ExecutorService threadPool,
+                       long timeoutMs,
+                       long nodeBannageMs,
+                       int preferredZoneId,
+                       Time time) {
         if(storeDef.getRequiredReads() < 1)
             throw new IllegalArgumentException("Cannot have a storeDef.getRequiredReads() number less than 1.");
         if(storeDef.getRequiredWrites() < 1)
@@ -153,15 +196,47 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
         this.name = name;
         this.innerStores = new ConcurrentHashMap<Integer, Store<ByteArray, byte[]>>(innerStores);
         this.repairReads = repairReads;
-        this.executor = threadPool;
+        this.executor = new TracingExecutorService(threadPool);
         this.readRepairer = new ReadRepairer<ByteArray, byte[]>();
         this.timeoutMs = timeoutMs;
         this.nodeBannageMs = nodeBannageMs;
         this.time = Utils.notNull(time);
-        this.cluster = cluster;
         this.storeDef = storeDef;
+        this.preferredZoneId = preferredZoneId;
 
-        this.routingStrategy = new RoutingStrategyFactory(this.cluster).getRoutingStrategy(storeDef);
+        this.routingStrategy = new RoutingStrategyFactory(cluster).getRoutingStrategy(storeDef);
+        this.cluster = cluster;
+    }
+
+    /**
+     * Route requests by the given cluster from now on. Requests already
+     * routed finish on the nodes they were sent to.
+     * 
+     * @param cluster The new cluster
+     * @param nodeStores The stores for the nodes of the new cluster; those for
+     *        nodes this store already has a store for at the same host and
+     *        ports are ignored
+     */
+    public synchronized void updateCluster(Cluster cluster,
+                                           Map<Integer, Store<ByteArray, byte[]>> nodeStores) {
+        // add the new and moved nodes before any request can be routed to them
+        Map<Integer, Node> previousNodes = Maps.newHashMap();
+        for(Node node: this.cluster.getNodes())
+            previousNodes.put(node.getId(), node);
+        for(Map.Entry<Integer, Store<ByteArray, byte[]>> entry: nodeStores.entrySet()) {
+            Node previous = previousNodes.get(entry.getKey());
+            if(!innerStores.containsKey(entry.getKey()) || previous == null
+               || !isSameAddress(previous, cluster.getNodeById(entry.getKey())))
+                innerStores.put(entry.getKey(), entry.getValue());
+        }
+        this.routingStrategy = new RoutingStrategyFactory(cluster).getRoutingStrategy(storeDef);
+        this.cluster = cluster;
+    }
+
+    private boolean isSameAddress(Node node, Node other) {
+        return node.getHost().equals(other.getHost()) && node.getHttpPort() == other.getHttpPort()
+               && node.getSocketPort() == other.getSocketPort()
+               && node.getAdminPort() == other.getAdminPort();
     }
 
     public boolean delete(final ByteArray key, final Version version) throws VoldemortException {
@@ -261,8 +336,8 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
         // failures during getAll
         Map<ByteArray, List<Node>> keyToExtraNodesMap = Maps.newHashMap();
 
-        for(ByteArray key: keys) {
-            List<Node> availableNodes = availableNodes(routingStrategy.routeRequest(key.get()));
+        for(ByteArray key: StoreUtils.distinctKeys(keys)) {
+            List<Node> availableNodes = preferZone(availableNodes(routingStrategy.routeRequest(key.get())));
 
             // quickly fail if there aren't enough nodes to meet the requirement
             checkRequiredReads(availableNodes);
@@ -428,7 +503,7 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
      */
     public List<Versioned<byte[]>> get(final ByteArray key) throws VoldemortException {
         StoreUtils.assertValidKey(key);
-        final List<Node> nodes = availableNodes(routingStrategy.routeRequest(key.get()));
+        final List<Node> nodes = preferZone(availableNodes(routingStrategy.routeRequest(key.get())));
 
         // quickly fail if there aren't enough nodes to meet the requirement
         checkRequiredReads(nodes);
@@ -444,50 +519,74 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
         // Do the preferred number of reads in parallel
         int attempts = Math.min(this.storeDef.getPreferredReads(), nodes.size());
         final CountDownLatch latch = new CountDownLatch(attempts);
-        int nodeIndex = 0;
-        for(; nodeIndex < attempts; nodeIndex++) {
-            final Node node = nodes.get(nodeIndex);
-            this.executor.execute(new Runnable() {
+        // The next node to read from if one of the reads fails
+        final AtomicInteger nextNode = new AtomicInteger(attempts);
 
-                public void run() {
-                    try {
-                        List<Versioned<byte[]>> fetched = innerStores.get(node.getId()).get(key);
-                        retrieved.addAll(fetched);
-                        if(repairReads) {
-                            for(Versioned<byte[]> f: fetched)
-                                nodeValues.add(new NodeValue<ByteArray, byte[]>(node.getId(),
-                                                                                key,
-                                                                                f));
-                        }
-                        successes.incrementAndGet();
-                        node.getStatus().setAvailable();
-                    } catch(UnreachableStoreException e) {
-                        failures.add(e);
-                        markUnavailable(node, e);
-                    } catch(Exception e) {
-                        logger.warn("Error in GET on node " + node.getId() + "(" + node.getHost()
-                                    + ")", e);
-                        failures.add(e);
-                    } finally {
-                        // signal that the operation is complete
-                        latch.countDown();
+        /*
+         * A read that, if its node is too busy to take it, moves on to the
+         * next node right away instead of leaving it to the serial reads
+         * after all the parallel reads have finished
+         */
+        class ParallelGet implements Runnable {
+
+            private final Node node;
+
+            public ParallelGet(Node node) {
+                this.node = node;
+            }
+
+            public void run() {
+                boolean finished = true;
+                try {
+                    List<Versioned<byte[]>> fetched = innerStores.get(node.getId()).get(key);
+                    retrieved.addAll(fetched);
+                    if(repairReads) {
+                        for(Versioned<byte[]> f: fetched)
+                            nodeValues.add(new NodeValue<ByteArray, byte[]>(node.getId(), key, f));
+                    }
+                    successes.incrementAndGet();
+                    node.getStatus().setAvailable();
+                } catch(UnreachableStoreException e) {
+                    failures.add(e);
+                    markUnavailable(node, e);
+                } catch(StoreOverloadedException e) {
+                    failures.add(e);
+                    int next = nextNode.getAndIncrement();
+                    if(next < nodes.size()) {
+                        executor.execute(new ParallelGet(nodes.get(next)));
+                        finished = false;
                     }
+                } catch(Exception e) {
+                    logger.warn("Error in GET on node " + node.getId() + "(" + node.getHost()
+                                + ")", e);
+                    failures.add(e);
+                } finally {
+                    // signal that the operation is complete
+                    if(finished)
+                        latch.countDown();
                 }
-            });
+            }
         }
 
+        for(int i = 0; i < attempts; i++)
+            this.executor.execute(new ParallelGet(nodes.get(i)));
+
         // Wait for those operations to complete or timeout
         try {
             boolean succeeded = latch.await(timeoutMs, TimeUnit.MILLISECONDS);
             if(!succeeded)
                 logger.warn("Get operation timed out after " + timeoutMs + " ms.");
+            RequestTrace.mark("parallel reads finished");
         } catch(InterruptedException e) {
             throw new InsufficientOperationalNodesException("Get operation interrupted!", e);
         }
 
         // Now if we had any failures we will be short a few reads. Do serial
         // reads to make up for these.
-        while(successes.get() < this.storeDef.getPreferredReads() && nodeIndex < nodes.size()) {
+        while(successes.get() < this.storeDef.getPreferredReads()) {
+            int nodeIndex = nextNode.getAndIncrement();
+            if(nodeIndex >= nodes.size())
+                break;
             Node node = nodes.get(nodeIndex);
             try {
                 List<Versioned<byte[]>> fetched = innerStores.get(node.getId()).get(key);
@@ -501,11 +600,12 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
             } catch(UnreachableStoreException e) {
                 failures.add(e);
                 markUnavailable(node, e);
+            } catch(StoreOverloadedException e) {
+                failures.add(e);
             } catch(Exception e) {
                 logger.warn("Error in GET on node " + node.getId() + "(" + node.getHost() + ")", e);
                 failures.add(e);
             }
-            nodeIndex++;
         }
 
         if(logger.isTraceEnabled())
@@ -715,6 +815,23 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
         return available;
     }
 
+    /**
+     * Move the nodes in the preferred zone to the front of the list, keeping
+     * the order within and outside the zone
+     */
+    private List<Node> preferZone(List<Node> nodes) {
+        if(preferredZoneId == NO_PREFERRED_ZONE)
+            return nodes;
+        List<Node> ordered = new ArrayList<Node>(nodes.size());
+        for(Node node: nodes)
+            if(node.getZoneId() == preferredZoneId)
+                ordered.add(node);
+        for(Node node: nodes)
+            if(node.getZoneId() != preferredZoneId)
+                ordered.add(node);
+        return ordered;
+    }
+
     public void close() {
         this.executor.shutdown();
         try {
@@ -748,11 +865,133 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
                 return this.readRepairer;
             case VERSION_INCREMENTING:
                 return true;
+            case SPATIAL_QUERIES:
+                return new RoutedSpatialStore();
             default:
                 throw new NoSuchCapabilityException(capability, getName());
         }
     }
 
+    /**
+     * Spatial queries can't be routed by key, so they are sent to every node
+     * and the answers merged. Replicas of a key are merged into one entry; up
+     * to replication factor - 1 nodes may fail, as their keys are then still
+     * held by some node that answered.
+     */
+    private final class RoutedSpatialStore implements SpatialStore<ByteArray, byte[]> {
+
+        public List<Pair<ByteArray, List<Versioned<byte[]>>>> getRange(final double[] min,
+                                                                       final double[] max,
+                                                                       final ByteArray after,
+                                                                       final int limit) {
+            SpatialQuery query = new SpatialQuery() {
+
+                public List<Pair<ByteArray, List<Versioned<byte[]>>>> query(SpatialStore<ByteArray, byte[]> store) {
+                    return store.getRange(min, max, after, limit);
+                }
+            };
+            // every node sent its first keys, so the first of all of them are
+            // the first keys of the whole store
+            return StoreUtils.firstInPointOrder(scatter("getRange", query), limit);
+        }
+
+        public List<Pair<ByteArray, List<Versioned<byte[]>>>> getNearest(final double[] point,
+                                                                         final int count,
+                                                                         final double maxDistance) {
+            SpatialQuery query = new SpatialQuery() {
+
+                public List<Pair<ByteArray, List<Versioned<byte[]>>>> query(SpatialStore<ByteArray, byte[]> store) {
+                    return store.getNearest(point, count, maxDistance);
+                }
+            };
+            return StoreUtils.nearestTo(scatter("getNearest", query), point, count);
+        }
+
+        private List<Pair<ByteArray, List<Versioned<byte[]>>>> scatter(String operation,
+                                                                       final SpatialQuery query) {
+            List<Node> nodes = new ArrayList<Node>(routingStrategy.getNodes());
+            List<Exception> failures = Lists.newArrayList();
+            List<Callable<List<Pair<ByteArray, List<Versioned<byte[]>>>>>> callables = Lists.newArrayList();
+            for(final Node node: nodes) {
+                if(!isAvailable(node)) {
+                    failures.add(new UnreachableStoreException("Node " + node.getId()
+                                                               + " is marked unavailable."));
+                    continue;
+                }
+                callables.add(new Callable<List<Pair<ByteArray, List<Versioned<byte[]>>>>>() {
+
+                    public List<Pair<ByteArray, List<Versioned<byte[]>>>> call() {
+                        try {
+                            @SuppressWarnings("unchecked")
+                            SpatialStore<ByteArray, byte[]> store = (SpatialStore<ByteArray, byte[]>) innerStores.get(node.getId())
+                                                                                                                 .getCapability(StoreCapabilityType.SPATIAL_QUERIES);
+                            List<Pair<ByteArray, List<Versioned<byte[]>>>> result = query.query(store);
+                            node.getStatus().setAvailable();
+                            return result;
+                        } catch(UnreachableStoreException e) {
+                            markUnavailable(node, e);
+                            throw e;
+                        }
+                    }
+                });
+            }
+
+            List<Future<List<Pair<ByteArray, List<Versioned<byte[]>>>>>> futures;
+            try {
+                futures = executor.invokeAll(callables, timeoutMs, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException e) {
+                throw new InsufficientOperationalNodesException(operation + " operation interrupted.",
+                                                                e);
+            }
+
+            Map<ByteArray, List<Versioned<byte[]>>> merged = Maps.newHashMap();
+            for(Future<List<Pair<ByteArray, List<Versioned<byte[]>>>>> future: futures) {
+                try {
+                    for(Pair<ByteArray, List<Versioned<byte[]>>> pair: future.get()) {
+                        List<Versioned<byte[]>> versions = merged.get(pair.getFirst());
+                        if(versions == null) {
+                            merged.put(pair.getFirst(), Lists.newArrayList(pair.getSecond()));
+                        } else {
+                            for(Versioned<byte[]> versioned: pair.getSecond())
+                                if(!versions.contains(versioned))
+                                    versions.add(versioned);
+                        }
+                    }
+                } catch(CancellationException e) {
+                    logger.warn(operation + " operation timed out after " + timeoutMs + " ms.");
+                    failures.add(e);
+                } catch(InterruptedException e) {
+                    throw new InsufficientOperationalNodesException(operation
+                                                                    + " operation interrupted.", e);
+                } catch(ExecutionException e) {
+                    if(e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    if(e.getCause() instanceof NoSuchCapabilityException)
+                        throw (NoSuchCapabilityException) e.getCause();
+                    logger.warn("Error in " + operation + " on a node", e.getCause());
+                    failures.add((Exception) e.getCause());
+                }
+            }
+
+            if(failures.size() >= storeDef.getReplicationFactor())
+                throw new InsufficientOperationalNodesException(operation + " failed on "
+                                                                + failures.size() + " of "
+                                                                + nodes.size()
+                                                                + " nodes, some keys are missing.",
+                                                                failures);
+
+            List<Pair<ByteArray, List<Versioned<byte[]>>>> found = new ArrayList<Pair<ByteArray, List<Versioned<byte[]>>>>(merged.size());
+            for(Map.Entry<ByteArray, List<Versioned<byte[]>>> entry: merged.entrySet())
+                found.add(Pair.create(entry.getKey(), entry.getValue()));
+            return found;
+        }
+    }
+
+    private interface SpatialQuery {
+
+        public List<Pair<ByteArray, List<Versioned<byte[]>>>> query(SpatialStore<ByteArray, byte[]> store);
+    }
+
     private final class GetAllCallable implements Callable<GetAllResult> {
 
         private final Node node;
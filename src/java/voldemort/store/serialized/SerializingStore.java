@@ -22,10 +22,12 @@ import java.util.Map;
 
 import voldemort.VoldemortException;
 import voldemort.serialization.Serializer;
+import voldemort.store.SpatialStore;
 import voldemort.store.Store;
 import voldemort.store.StoreCapabilityType;
 import voldemort.store.StoreUtils;
 import voldemort.utils.ByteArray;
+import voldemort.utils.Pair;
 import voldemort.utils.Utils;
 import voldemort.versioning.Version;
 import voldemort.versioning.Versioned;
@@ -123,9 +125,50 @@ public class SerializingStore<K, V> implements Store<K, V> {
                 return this.keySerializer;
             case VALUE_SERIALIZER:
                 return this.valueSerializer;
+            case SPATIAL_QUERIES:
+                @SuppressWarnings("unchecked")
+                SpatialStore<ByteArray, byte[]> inner = (SpatialStore<ByteArray, byte[]>) store.getCapability(capability);
+                return new SerializingSpatialStore(inner);
             default:
                 return store.getCapability(capability);
         }
     }
 
+    private List<Pair<K, List<Versioned<V>>>> toObjects(List<Pair<ByteArray, List<Versioned<byte[]>>>> found) {
+        List<Pair<K, List<Versioned<V>>>> results = Lists.newArrayListWithExpectedSize(found.size());
+        for(Pair<ByteArray, List<Versioned<byte[]>>> pair: found) {
+            List<Versioned<V>> values = Lists.newArrayListWithExpectedSize(pair.getSecond().size());
+            for(Versioned<byte[]> versioned: pair.getSecond())
+                values.add(new Versioned<V>(valueSerializer.toObject(versioned.getValue()),
+                                            versioned.getVersion()));
+            results.add(Pair.create(keySerializer.toObject(pair.getFirst().get()), values));
+        }
+        return results;
+    }
+
+    private class SerializingSpatialStore implements SpatialStore<K, V> {
+
+        private final SpatialStore<ByteArray, byte[]> inner;
+
+        public SerializingSpatialStore(SpatialStore<ByteArray, byte[]> inner) {
+            this.inner = inner;
+        }
+
+        public List<Pair<K, List<Versioned<V>>>> getRange(double[] min,
+                                                          double[] max,
+                                                          K after,
+                                                          int limit) {
+            return toObjects(inner.getRange(min,
+                                            max,
+                                            after == null ? null : keyToBytes(after),
+                                            limit));
+        }
+
+        public List<Pair<K, List<Versioned<V>>>> getNearest(double[] point,
+                                                            int count,
+                                                            double maxDistance) {
+            return toObjects(inner.getNearest(point, count, maxDistance));
+        }
+    }
+
 }
@@ -23,6 +23,10 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 
+import voldemort.utils.BufferPool;
+import voldemort.utils.PooledBufferedInputStream;
+import voldemort.utils.PooledBufferedOutputStream;
+
 /**
  * A wrapper class that wraps a socket with its DataInputStream and
  * DataOutputStream
@@ -50,6 +54,21 @@ public class SocketAndStreams {
                                                                           bufferSizeBytes));
     }
 
+    /**
+     * Wrap the socket with streams whose buffers are borrowed from the given
+     * pool; {@link #close()} returns them.
+     */
+    public SocketAndStreams(Socket socket, BufferPool bufferPool, int bufferSizeBytes)
+            throws IOException {
+        this.socket = socket;
+        this.inputStream = new DataInputStream(new PooledBufferedInputStream(socket.getInputStream(),
+                                                                             bufferPool,
+                                                                             bufferSizeBytes));
+        this.outputStream = new DataOutputStream(new PooledBufferedOutputStream(socket.getOutputStream(),
+                                                                                bufferPool,
+                                                                                bufferSizeBytes));
+    }
+
     public Socket getSocket() {
         return socket;
     }
@@ -62,4 +81,19 @@ public class SocketAndStreams {
         return outputStream;
     }
 
+    /**
+     * Close the streams, releasing any pooled buffers, and then the socket
+     */
+    public void close() throws IOException {
+        try {
+            inputStream.close();
+        } finally {
+            try {
+                outputStream.close();
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
 }
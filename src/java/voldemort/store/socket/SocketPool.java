@@ -16,57 +16,120 @@
 
 package voldemort.store.socket;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.commons.pool.KeyedObjectPool;
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.apache.log4j.Logger;
 
-import voldemort.VoldemortException;
+import voldemort.annotations.concurrency.Threadsafe;
 import voldemort.annotations.jmx.JmxGetter;
 import voldemort.annotations.jmx.JmxManaged;
+import voldemort.store.StoreOverloadedException;
 import voldemort.store.UnreachableStoreException;
+import voldemort.store.stats.LatencyHistogram;
+import voldemort.utils.DaemonThreadFactory;
 import voldemort.utils.Time;
 
 /**
- * A pool of sockets keyed off the socket destination. This wrapper just
- * translates exceptions and delegates to apache commons pool as well as
- * providing some JMX access.
+ * A pool of sockets keyed off the socket destination.
+ * 
+ * Each destination has its own pool: a lock-free queue of idle sockets and a
+ * semaphore bounding the sockets checked out at once. Checking a socket out
+ * or in only checks that it is still open, the fuller health check is done on
+ * idle sockets by a background thread. The same thread sizes each pool to its
+ * load: if checkouts had to wait or connect since the last check it opens
+ * sockets ahead of demand, and if some sockets sat idle the whole time it
+ * closes half of them.
+ * 
+ * A checkout that finds no idle socket and no room to open one blocks until a
+ * socket is checked in or closed, for at most the connection timeout. If it is
+ * the total limit that is reached, the checkout fails with a
+ * {@link StoreOverloadedException} since the destination itself is fine.
  * 
  * @author jay
  * 
  */
+@Threadsafe
 @JmxManaged(description = "Voldemort socket pool.")
 public class SocketPool {
 
     private static final Logger logger = Logger.getLogger(SocketPool.class);
-    private static int WAIT_MONITORING_INTERVAL = 10000;
 
-    private final AtomicInteger checkouts;
-    private final AtomicLong waitNs;
-    private final AtomicLong avgWaitNs;
-    private final KeyedObjectPool pool;
+    private static final long MAINTENANCE_INTERVAL_MS = 5000;
+    private static final int MAX_SOCKETS_OPENED_AHEAD = 4;
+
+    private final int maxConnectionsPerNode;
+    private final int maxTotalConnections;
+    private final int connectionTimeoutMs;
+    private final int socketTimeoutMs;
     private final SocketPoolableObjectFactory objFactory;
+    private final ConcurrentMap<SocketDestination, DestinationPool> pools;
+    private final AtomicInteger totalSockets;
+    private final ScheduledExecutorService maintenance;
+
+    private final LatencyHistogram waitTimes;
+    private final AtomicLong checkouts;
+    private final AtomicLong waitNs;
+    private volatile double avgWaitNs;
+    private long lastCheckouts;
+    private long lastWaitNs;
+    private volatile boolean isClosed;
+
+    // checkouts blocked on a full pool wait here for a socket to be freed
+    private final Lock freedLock;
+    private final Condition freed;
+    private final AtomicInteger numWaiting;
+
+    private enum Reservation {
+        RESERVED,
+        DESTINATION_FULL,
+        POOL_FULL
+    }
 
     public SocketPool(int maxConnectionsPerNode,
                       int maxTotalConnections,
                       int connectionTimeoutMs,
                       int soTimeoutMs,
                       int socketBufferSize) {
-        GenericKeyedObjectPool.Config config = new GenericKeyedObjectPool.Config();
-        config.maxActive = maxConnectionsPerNode;
-        config.maxTotal = maxTotalConnections;
-        config.maxIdle = maxTotalConnections;
-        config.maxWait = connectionTimeoutMs;
-        config.testOnBorrow = true;
-        config.testOnReturn = true;
-        config.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK;
-        this.objFactory = new SocketPoolableObjectFactory(soTimeoutMs, socketBufferSize);
-        this.pool = new GenericKeyedObjectPool(objFactory, config);
-        this.checkouts = new AtomicInteger(0);
+        this.maxConnectionsPerNode = maxConnectionsPerNode;
+        this.maxTotalConnections = maxTotalConnections;
+        this.connectionTimeoutMs = connectionTimeoutMs;
+        this.socketTimeoutMs = soTimeoutMs;
+        this.objFactory = new SocketPoolableObjectFactory(soTimeoutMs,
+                                                        socketBufferSize,
+                                                        2 * maxTotalConnections);
+        this.pools = new ConcurrentHashMap<SocketDestination, DestinationPool>();
+        this.totalSockets = new AtomicInteger(0);
+        this.waitTimes = new LatencyHistogram(60 * 1000, 6);
+        this.checkouts = new AtomicLong(0);
         this.waitNs = new AtomicLong(0);
-        this.avgWaitNs = new AtomicLong(0);
+        this.freedLock = new ReentrantLock();
+        this.freed = freedLock.newCondition();
+        this.numWaiting = new AtomicInteger(0);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("socket-pool-maintenance-"));
+        this.maintenance.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                maintain();
+            }
+        }, MAINTENANCE_INTERVAL_MS, MAINTENANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The time a socket waits for a response, 0 if forever
+     */
+    public int getSocketTimeoutMs() {
+        return socketTimeoutMs;
     }
 
     /**
@@ -76,30 +139,13 @@ public class SocketPool {
      * @return The socket
      */
     public SocketAndStreams checkout(SocketDestination destination) {
-        try {
-            // time checkout
-            long start = System.nanoTime();
-            SocketAndStreams sas = (SocketAndStreams) pool.borrowObject(destination);
-            updateStats(System.nanoTime() - start);
-
-            return sas;
-        } catch(Exception e) {
-            throw new UnreachableStoreException("Failure while checking out socket for "
-                                                + destination + ": ", e);
-        }
-    }
-
-    private void updateStats(long checkoutTimeNs) {
-        long wait = waitNs.getAndAdd(checkoutTimeNs);
-        int count = checkouts.getAndIncrement();
-
-        // reset reporting inverval if we have used up the current interval
-        if(count % WAIT_MONITORING_INTERVAL == WAIT_MONITORING_INTERVAL - 1) {
-            // harmless race condition:
-            waitNs.set(0);
-            checkouts.set(0);
-            avgWaitNs.set(wait / count);
-        }
+        long start = System.nanoTime();
+        SocketAndStreams sands = getPool(destination).checkout(start);
+        long waited = System.nanoTime() - start;
+        waitTimes.record(waited);
+        waitNs.addAndGet(waited);
+        checkouts.incrementAndGet();
+        return sands;
     }
 
     /**
@@ -109,28 +155,80 @@ public class SocketPool {
      * @param socket The socket to check back in
      */
     public void checkin(SocketDestination destination, SocketAndStreams socket) {
-        try {
-            pool.returnObject(destination, socket);
-        } catch(Exception e) {
-            try {
-                pool.invalidateObject(destination, socket);
-            } catch(Exception e2) {
-                logger.error("Error while destroying socket:", e2);
-            }
-            throw new UnreachableStoreException("Failure while checking out socket for "
-                                                + destination + ": ", e);
+        DestinationPool pool = pools.get(destination);
+        if(pool == null) {
+            // the pool has been closed
+            objFactory.destroyObject(destination, socket);
+            return;
         }
+        pool.checkin(socket);
     }
 
     /**
      * Close the socket pool
      */
     public void close() {
+        isClosed = true;
+        maintenance.shutdownNow();
+        for(DestinationPool pool: pools.values())
+            pool.closeIdle();
+        pools.clear();
+    }
+
+    private DestinationPool getPool(SocketDestination destination) {
+        DestinationPool pool = pools.get(destination);
+        if(pool == null) {
+            pool = new DestinationPool(destination);
+            DestinationPool existing = pools.putIfAbsent(destination, pool);
+            if(existing != null)
+                pool = existing;
+        }
+        return pool;
+    }
+
+    /*
+     * Make room for a socket to a destination once the total limit is
+     * reached, by closing an idle socket to another destination
+     */
+    private boolean evictIdle(DestinationPool except) {
+        for(DestinationPool pool: pools.values()) {
+            if(pool != except && pool.closeOneIdle())
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * Wake the checkouts waiting for a socket, if any. Waiters count
+     * themselves before they last look for a socket, so a socket freed after
+     * that look always finds them counted.
+     */
+    private void signalFreed() {
+        if(numWaiting.get() == 0)
+            return;
+        freedLock.lock();
+        try {
+            freed.signalAll();
+        } finally {
+            freedLock.unlock();
+        }
+    }
+
+    private void maintain() {
         try {
-            pool.clear();
-            pool.close();
+            for(DestinationPool pool: pools.values())
+                pool.maintain();
+
+            // the counters only ever grow, so the averages are exact
+            long currentCheckouts = checkouts.get();
+            long currentWaitNs = waitNs.get();
+            if(currentCheckouts > lastCheckouts)
+                avgWaitNs = (currentWaitNs - lastWaitNs)
+                            / (double) (currentCheckouts - lastCheckouts);
+            lastCheckouts = currentCheckouts;
+            lastWaitNs = currentWaitNs;
         } catch(Exception e) {
-            throw new VoldemortException(e);
+            logger.error("Error during socket pool maintenance:", e);
         }
     }
 
@@ -146,17 +244,276 @@ public class SocketPool {
 
     @JmxGetter(name = "numberOfActiveConnections", description = "The number of active connections.")
     public int getNumberOfActiveConnections() {
-        return this.pool.getNumActive();
+        int active = 0;
+        for(DestinationPool pool: pools.values())
+            active += maxConnectionsPerNode - pool.permits.availablePermits();
+        return active;
     }
 
-    @JmxGetter(name = "numberOfIdleConnections", description = "The number of active connections.")
+    @JmxGetter(name = "numberOfIdleConnections", description = "The number of idle connections.")
     public int getNumberOfIdleConnections() {
-        return this.pool.getNumIdle();
+        int idle = 0;
+        for(DestinationPool pool: pools.values())
+            idle += pool.numIdle.get();
+        return idle;
+    }
+
+    @JmxGetter(name = "bufferPoolHitRate", description = "The fraction of stream buffers reused from the buffer pool.")
+    public double getBufferPoolHitRate() {
+        return this.objFactory.getBufferPool().getHitRate();
     }
 
     @JmxGetter(name = "avgWaitTimeMs", description = "The avg. ms of wait time to acquire a connection.")
     public double getAvgWaitTimeMs() {
-        return this.avgWaitNs.doubleValue() / Time.NS_PER_MS;
+        return this.avgWaitNs / Time.NS_PER_MS;
+    }
+
+    @JmxGetter(name = "q50WaitTimeMs", description = "The median ms of wait time to acquire a connection in the last minute.")
+    public double getQ50WaitTimeMs() {
+        return this.waitTimes.getQuantile(0.5) / (double) Time.NS_PER_MS;
+    }
+
+    @JmxGetter(name = "q99WaitTimeMs", description = "The 99th percentile ms of wait time to acquire a connection in the last minute.")
+    public double getQ99WaitTimeMs() {
+        return this.waitTimes.getQuantile(0.99) / (double) Time.NS_PER_MS;
     }
 
+    @JmxGetter(name = "maxWaitTimeMs", description = "The longest ms of wait time to acquire a connection in the last minute.")
+    public double getMaxWaitTimeMs() {
+        return this.waitTimes.getMax() / (double) Time.NS_PER_MS;
+    }
+
+    /*
+     * The sockets to one destination
+     */
+    private class DestinationPool {
+
+        private final SocketDestination destination;
+        private final ConcurrentLinkedQueue<SocketAndStreams> idle;
+        // the queue's size() is not constant time, so count separately
+        private final AtomicInteger numIdle;
+        // permits for sockets checked out
+        private final Semaphore permits;
+        // sockets open, idle or checked out or being opened
+        private final AtomicInteger numSockets;
+        // checkouts that found no idle socket since the last maintenance
+        private final AtomicInteger misses;
+        // the fewest idle sockets since the last maintenance
+        private final AtomicInteger minIdle;
+
+        public DestinationPool(SocketDestination destination) {
+            this.destination = destination;
+            this.idle = new ConcurrentLinkedQueue<SocketAndStreams>();
+            this.numIdle = new AtomicInteger(0);
+            this.permits = new Semaphore(maxConnectionsPerNode);
+            this.numSockets = new AtomicInteger(0);
+            this.misses = new AtomicInteger(0);
+            this.minIdle = new AtomicInteger(0);
+        }
+
+        public SocketAndStreams checkout(long startNs) {
+            if(!permits.tryAcquire()) {
+                misses.incrementAndGet();
+                boolean acquired = false;
+                try {
+                    acquired = permits.tryAcquire(connectionTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if(!acquired)
+                    throw new UnreachableStoreException("Failure while checking out socket for "
+                                                        + destination + ": timed out after "
+                                                        + connectionTimeoutMs + " ms.");
+            }
+            try {
+                boolean missed = false;
+                while(true) {
+                    SocketAndStreams sands = pollIdle();
+                    if(sands == null) {
+                        if(!missed) {
+                            misses.incrementAndGet();
+                            missed = true;
+                        }
+                        sands = open(startNs);
+                    }
+                    if(objFactory.validateObject(sands))
+                        return sands;
+                    destroy(sands);
+                }
+            } catch(RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        public void checkin(SocketAndStreams sands) {
+            try {
+                if(isClosed || !objFactory.validateObject(sands))
+                    destroy(sands);
+                else
+                    offerIdle(sands);
+            } finally {
+                permits.release();
+            }
+        }
+
+        /*
+         * Open a new socket, or if the limits are reached wait for one to be
+         * checked in or for room to open one
+         */
+        private SocketAndStreams open(long startNs) {
+            Reservation reservation = reserve();
+            if(reservation == Reservation.RESERVED)
+                return create();
+
+            long deadlineNs = startNs + connectionTimeoutMs * Time.NS_PER_MS;
+            numWaiting.incrementAndGet();
+            freedLock.lock();
+            try {
+                while(true) {
+                    SocketAndStreams sands = pollIdle();
+                    if(sands != null)
+                        return sands;
+                    reservation = reserve();
+                    if(reservation == Reservation.RESERVED)
+                        break;
+                    long remainingNs = deadlineNs - System.nanoTime();
+                    if(remainingNs <= 0)
+                        throw timedOut(reservation);
+                    try {
+                        freed.awaitNanos(remainingNs);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw timedOut(reservation);
+                    }
+                }
+            } finally {
+                freedLock.unlock();
+                numWaiting.decrementAndGet();
+            }
+            return create();
+        }
+
+        private RuntimeException timedOut(Reservation reservation) {
+            if(reservation == Reservation.POOL_FULL)
+                return new StoreOverloadedException("Failure while checking out socket for "
+                                                    + destination + ": all "
+                                                    + maxTotalConnections
+                                                    + " connections are in use.");
+            return new UnreachableStoreException("Failure while checking out socket for "
+                                                 + destination + ": timed out after "
+                                                 + connectionTimeoutMs + " ms.");
+        }
+
+        /*
+         * Reserve room for a new socket under both limits
+         */
+        private Reservation reserve() {
+            while(true) {
+                int current = numSockets.get();
+                if(current >= maxConnectionsPerNode)
+                    return Reservation.DESTINATION_FULL;
+                if(numSockets.compareAndSet(current, current + 1))
+                    break;
+            }
+            while(true) {
+                int total = totalSockets.get();
+                if(total >= maxTotalConnections && !evictIdle(this)) {
+                    numSockets.decrementAndGet();
+                    return Reservation.POOL_FULL;
+                }
+                if(totalSockets.compareAndSet(total, total + 1))
+                    return Reservation.RESERVED;
+            }
+        }
+
+        private SocketAndStreams create() {
+            try {
+                return objFactory.makeObject(destination);
+            } catch(Exception e) {
+                numSockets.decrementAndGet();
+                totalSockets.decrementAndGet();
+                signalFreed();
+                throw new UnreachableStoreException("Failure while checking out socket for "
+                                                    + destination + ": ", e);
+            }
+        }
+
+        private void destroy(SocketAndStreams sands) {
+            numSockets.decrementAndGet();
+            totalSockets.decrementAndGet();
+            signalFreed();
+            objFactory.destroyObject(destination, sands);
+        }
+
+        private SocketAndStreams pollIdle() {
+            SocketAndStreams sands = idle.poll();
+            if(sands != null) {
+                int remaining = numIdle.decrementAndGet();
+                int min = minIdle.get();
+                while(remaining < min && !minIdle.compareAndSet(min, remaining))
+                    min = minIdle.get();
+            }
+            return sands;
+        }
+
+        private void offerIdle(SocketAndStreams sands) {
+            idle.offer(sands);
+            numIdle.incrementAndGet();
+            signalFreed();
+        }
+
+        public boolean closeOneIdle() {
+            SocketAndStreams sands = pollIdle();
+            if(sands == null)
+                return false;
+            destroy(sands);
+            return true;
+        }
+
+        public void closeIdle() {
+            while(closeOneIdle()) {}
+        }
+
+        /*
+         * Check the idle sockets and size the pool to the load since the
+         * last maintenance
+         */
+        public void maintain() {
+            int surplus = minIdle.get();
+            int missed = misses.getAndSet(0);
+
+            // each idle socket is taken out, checked and put back once
+            for(int i = numIdle.get(); i > 0; i--) {
+                SocketAndStreams sands = pollIdle();
+                if(sands == null)
+                    break;
+                if(objFactory.isHealthy(sands))
+                    offerIdle(sands);
+                else
+                    destroy(sands);
+            }
+
+            if(missed > 0) {
+                for(int i = Math.min(missed, MAX_SOCKETS_OPENED_AHEAD); i > 0; i--) {
+                    if(isClosed || totalSockets.get() >= maxTotalConnections)
+                        break;
+                    try {
+                        if(reserve() != Reservation.RESERVED)
+                            break;
+                        offerIdle(create());
+                    } catch(UnreachableStoreException e) {
+                        logger.debug("Could not open socket ahead of demand to " + destination,
+                                     e);
+                        break;
+                    }
+                }
+            } else {
+                for(int i = (surplus + 1) / 2; i > 0; i--)
+                    if(!closeOneIdle())
+                        break;
+            }
+            minIdle.set(numIdle.get());
+        }
+    }
 }
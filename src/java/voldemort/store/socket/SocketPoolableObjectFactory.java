@@ -16,51 +16,74 @@
 
 package voldemort.store.socket;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.pool.KeyedPoolableObjectFactory;
 import org.apache.log4j.Logger;
 
+import voldemort.utils.BufferPool;
+
 /**
- * A Factory for creating sockets
+ * A Factory for creating, checking and closing the sockets of a
+ * {@link SocketPool}
  * 
  * @author jay
  * 
  */
-public class SocketPoolableObjectFactory implements KeyedPoolableObjectFactory {
+public class SocketPoolableObjectFactory {
 
     public static final Logger logger = Logger.getLogger(SocketPoolableObjectFactory.class);
 
+    /* Bounds on the size of the stream buffers of each connection */
+    private static final int MIN_STREAM_BUFFER_SIZE = 1024;
+    private static final int MAX_STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_POOLED_BUFFERS = 256;
+
     private final int soTimeoutMs;
     private final int socketBufferSize;
+    private final int streamBufferSize;
+    private final BufferPool bufferPool;
     public final AtomicInteger created;
     public final AtomicInteger destroyed;
 
     public SocketPoolableObjectFactory(int soTimeoutMs, int socketBufferSize) {
+        this(soTimeoutMs, socketBufferSize, DEFAULT_MAX_POOLED_BUFFERS);
+    }
+
+    /**
+     * Create a factory whose connections have stream buffers as large as the
+     * socket buffers (within bounds), so a value the socket can hold is read
+     * or written in one system call. Those buffers are large enough that
+     * connections churned by the pool (closed when idle or broken, reopened
+     * under load) pass them on through a buffer pool rather than reallocate
+     * them.
+     * 
+     * @param soTimeoutMs The socket timeout
+     * @param socketBufferSize The socket send and receive buffer size
+     * @param maxPooledBuffers The maximum number of free stream buffers kept
+     */
+    public SocketPoolableObjectFactory(int soTimeoutMs, int socketBufferSize, int maxPooledBuffers) {
         this.soTimeoutMs = soTimeoutMs;
         this.created = new AtomicInteger(0);
         this.destroyed = new AtomicInteger(0);
         this.socketBufferSize = socketBufferSize;
-    }
-
-    public void activateObject(Object key, Object value) throws Exception {
-    // nothing to see here
-    }
-
-    public void passivateObject(Object key, Object value) throws Exception {
-    // nothing to see here
+        this.streamBufferSize = Math.min(MAX_STREAM_BUFFER_SIZE,
+                                         Math.max(MIN_STREAM_BUFFER_SIZE, socketBufferSize));
+        this.bufferPool = new BufferPool(streamBufferSize, streamBufferSize, maxPooledBuffers, 2);
     }
 
     /**
      * Close the socket
      */
-    public void destroyObject(Object key, Object value) throws Exception {
-        SocketDestination dest = (SocketDestination) key;
-        SocketAndStreams sands = (SocketAndStreams) value;
-        sands.getSocket().close();
+    public void destroyObject(SocketDestination dest, SocketAndStreams sands) {
+        try {
+            sands.close();
+        } catch(IOException e) {
+            logger.debug("Error closing socket to " + dest.getHost() + ":" + dest.getPort(), e);
+        }
         int numDestroyed = destroyed.incrementAndGet();
         if(logger.isDebugEnabled())
             logger.debug("Destroyed socket " + numDestroyed + " connection to " + dest.getHost()
@@ -70,8 +93,7 @@ public class SocketPoolableObjectFactory implements KeyedPoolableObjectFactory {
     /**
      * Create a socket for the given host/port
      */
-    public Object makeObject(Object key) throws Exception {
-        SocketDestination dest = (SocketDestination) key;
+    public SocketAndStreams makeObject(SocketDestination dest) throws IOException {
         Socket socket = new Socket();
         socket.setReceiveBufferSize(this.socketBufferSize);
         socket.setSendBufferSize(this.socketBufferSize);
@@ -81,7 +103,7 @@ public class SocketPoolableObjectFactory implements KeyedPoolableObjectFactory {
 
         recordSocketCreation(dest, socket);
 
-        return new SocketAndStreams(socket);
+        return new SocketAndStreams(socket, bufferPool, streamBufferSize);
     }
 
     /* Log relevant socket creation details */
@@ -101,15 +123,33 @@ public class SocketPoolableObjectFactory implements KeyedPoolableObjectFactory {
                          + " bytes but actual size is " + sendBufferSize + " bytes.");
     }
 
-    public boolean validateObject(Object key, Object value) {
-        SocketAndStreams sands = (SocketAndStreams) value;
+    /**
+     * A cheap check, done on every checkout and checkin, that the socket has
+     * not been closed
+     */
+    public boolean validateObject(SocketAndStreams sands) {
         Socket s = sands.getSocket();
-        boolean isValid = !s.isClosed() && s.isBound() && s.isConnected();
+        boolean isValid = !s.isClosed() && s.isBound() && s.isConnected() && !s.isInputShutdown()
+                          && !s.isOutputShutdown();
         if(!isValid && logger.isDebugEnabled())
             logger.debug("Socket connection " + sands + " is no longer valid, closing.");
         return isValid;
     }
 
+    /**
+     * A fuller check of an idle socket: besides being open it must have no
+     * unread bytes, which could only be left over from a broken exchange
+     */
+    public boolean isHealthy(SocketAndStreams sands) {
+        if(!validateObject(sands))
+            return false;
+        try {
+            return sands.getInputStream().available() == 0;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
     public int getTimeout() {
         return this.soTimeoutMs;
     }
@@ -122,4 +162,8 @@ public class SocketPoolableObjectFactory implements KeyedPoolableObjectFactory {
         return this.destroyed.get();
     }
 
+    public BufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
 }
@@ -27,12 +27,16 @@ import voldemort.VoldemortException;
 import voldemort.client.protocol.RequestFormat;
 import voldemort.client.protocol.RequestFormatFactory;
 import voldemort.client.protocol.RequestFormatType;
+import voldemort.client.protocol.vold.VoldemortNativeClientRequestFormat;
 import voldemort.store.NoSuchCapabilityException;
+import voldemort.store.SpatialStore;
 import voldemort.store.Store;
 import voldemort.store.StoreCapabilityType;
 import voldemort.store.StoreUtils;
 import voldemort.store.UnreachableStoreException;
+import voldemort.store.stats.RequestTrace;
 import voldemort.utils.ByteArray;
+import voldemort.utils.Pair;
 import voldemort.utils.Utils;
 import voldemort.versioning.VectorClock;
 import voldemort.versioning.Version;
@@ -56,6 +60,9 @@ public class SocketStore implements Store<ByteArray, byte[]> {
     private final SocketDestination destination;
     private final RequestFormat requestFormat;
     private final boolean reroute;
+    private final String checkedOutStage;
+    private final String requestSentStage;
+    private final String responseReadStage;
 
     public SocketStore(String name,
                        String host,
@@ -63,11 +70,34 @@ public class SocketStore implements Store<ByteArray, byte[]> {
                        SocketPool socketPool,
                        RequestFormatType requestFormatType,
                        boolean reroute) {
+        this(name, host, port, socketPool, requestFormatType, reroute, false);
+    }
+
+    /**
+     * @param sendRequestTimeouts Send the socket timeout with each request so
+     *        the server can drop requests nobody waits for any more; servers
+     *        that predate the timeout prefix can't read such requests
+     */
+    public SocketStore(String name,
+                       String host,
+                       int port,
+                       SocketPool socketPool,
+                       RequestFormatType requestFormatType,
+                       boolean reroute,
+                       boolean sendRequestTimeouts) {
         this.name = Utils.notNull(name);
         this.pool = Utils.notNull(socketPool);
         this.destination = new SocketDestination(Utils.notNull(host), port);
-        this.requestFormat = requestFormatFactory.getRequestFormat(requestFormatType);
+        this.requestFormat = requestFormatFactory.getRequestFormat(requestFormatType,
+                                                                   sendRequestTimeouts ? socketPool.getSocketTimeoutMs()
+                                                                                      : 0);
         this.reroute = reroute;
+        this.checkedOutStage = "checked out connection to " + destination.getHost() + ":"
+                               + destination.getPort();
+        this.requestSentStage = "request sent to " + destination.getHost() + ":"
+                                + destination.getPort();
+        this.responseReadStage = "response read from " + destination.getHost() + ":"
+                                 + destination.getPort();
     }
 
     public void close() throws VoldemortException {
@@ -77,6 +107,7 @@ public class SocketStore implements Store<ByteArray, byte[]> {
     public boolean delete(ByteArray key, Version version) throws VoldemortException {
         StoreUtils.assertValidKey(key);
         SocketAndStreams sands = pool.checkout(destination);
+        RequestTrace.mark(checkedOutStage);
         try {
             requestFormat.writeDeleteRequest(sands.getOutputStream(),
                                           name,
@@ -84,7 +115,10 @@ public class SocketStore implements Store<ByteArray, byte[]> {
                                           (VectorClock) version,
                                           reroute);
             sands.getOutputStream().flush();
-            return requestFormat.readDeleteResponse(sands.getInputStream());
+            RequestTrace.mark(requestSentStage);
+            boolean deleted = requestFormat.readDeleteResponse(sands.getInputStream());
+            RequestTrace.mark(responseReadStage);
+            return deleted;
         } catch(IOException e) {
             close(sands.getSocket());
             throw new UnreachableStoreException("Failure in delete on " + destination + ": "
@@ -98,10 +132,14 @@ public class SocketStore implements Store<ByteArray, byte[]> {
             throws VoldemortException {
         StoreUtils.assertValidKeys(keys);
         SocketAndStreams sands = pool.checkout(destination);
+        RequestTrace.mark(checkedOutStage);
         try {
             requestFormat.writeGetAllRequest(sands.getOutputStream(), name, keys, reroute);
             sands.getOutputStream().flush();
-            return requestFormat.readGetAllResponse(sands.getInputStream());
+            RequestTrace.mark(requestSentStage);
+            Map<ByteArray, List<Versioned<byte[]>>> values = requestFormat.readGetAllResponse(sands.getInputStream());
+            RequestTrace.mark(responseReadStage);
+            return values;
         } catch(IOException e) {
             close(sands.getSocket());
             throw new VoldemortException(e);
@@ -113,10 +151,14 @@ public class SocketStore implements Store<ByteArray, byte[]> {
     public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
         StoreUtils.assertValidKey(key);
         SocketAndStreams sands = pool.checkout(destination);
+        RequestTrace.mark(checkedOutStage);
         try {
             requestFormat.writeGetRequest(sands.getOutputStream(), name, key, reroute);
             sands.getOutputStream().flush();
-            return requestFormat.readGetResponse(sands.getInputStream());
+            RequestTrace.mark(requestSentStage);
+            List<Versioned<byte[]>> values = requestFormat.readGetResponse(sands.getInputStream());
+            RequestTrace.mark(responseReadStage);
+            return values;
         } catch(IOException e) {
             close(sands.getSocket());
             throw new UnreachableStoreException("Failure in get on " + destination + ": "
@@ -129,6 +171,7 @@ public class SocketStore implements Store<ByteArray, byte[]> {
     public void put(ByteArray key, Versioned<byte[]> versioned) throws VoldemortException {
         StoreUtils.assertValidKey(key);
         SocketAndStreams sands = pool.checkout(destination);
+        RequestTrace.mark(checkedOutStage);
         try {
             requestFormat.writePutRequest(sands.getOutputStream(),
                                        name,
@@ -137,7 +180,9 @@ public class SocketStore implements Store<ByteArray, byte[]> {
                                        (VectorClock) versioned.getVersion(),
                                        reroute);
             sands.getOutputStream().flush();
+            RequestTrace.mark(requestSentStage);
             requestFormat.readPutResponse(sands.getInputStream());
+            RequestTrace.mark(responseReadStage);
         } catch(IOException e) {
             close(sands.getSocket());
             throw new UnreachableStoreException("Failure in put on " + destination + ": "
@@ -150,6 +195,9 @@ public class SocketStore implements Store<ByteArray, byte[]> {
     public Object getCapability(StoreCapabilityType capability) {
         if(StoreCapabilityType.SOCKET_POOL.equals(capability))
             return this.pool;
+        else if(StoreCapabilityType.SPATIAL_QUERIES.equals(capability)
+                && requestFormat instanceof VoldemortNativeClientRequestFormat)
+            return new SocketSpatialStore((VoldemortNativeClientRequestFormat) requestFormat);
         else
             throw new NoSuchCapabilityException(capability, getName());
     }
@@ -158,6 +206,72 @@ public class SocketStore implements Store<ByteArray, byte[]> {
         return name;
     }
 
+    /**
+     * Spatial queries over the native protocol, the only one that has them
+     */
+    private class SocketSpatialStore implements SpatialStore<ByteArray, byte[]> {
+
+        private final VoldemortNativeClientRequestFormat format;
+
+        public SocketSpatialStore(VoldemortNativeClientRequestFormat format) {
+            this.format = format;
+        }
+
+        public List<Pair<ByteArray, List<Versioned<byte[]>>>> getRange(double[] min,
+                                                                       double[] max,
+                                                                       ByteArray after,
+                                                                       int limit) {
+            SocketAndStreams sands = pool.checkout(destination);
+            RequestTrace.mark(checkedOutStage);
+            try {
+                format.writeGetRangeRequest(sands.getOutputStream(),
+                                            name,
+                                            min,
+                                            max,
+                                            after,
+                                            limit,
+                                            reroute);
+                sands.getOutputStream().flush();
+                RequestTrace.mark(requestSentStage);
+                List<Pair<ByteArray, List<Versioned<byte[]>>>> values = format.readSpatialResponse(sands.getInputStream());
+                RequestTrace.mark(responseReadStage);
+                return values;
+            } catch(IOException e) {
+                close(sands.getSocket());
+                throw new UnreachableStoreException("Failure in getRange on " + destination
+                                                    + ": " + e.getMessage(), e);
+            } finally {
+                pool.checkin(destination, sands);
+            }
+        }
+
+        public List<Pair<ByteArray, List<Versioned<byte[]>>>> getNearest(double[] point,
+                                                                         int count,
+                                                                         double maxDistance) {
+            SocketAndStreams sands = pool.checkout(destination);
+            RequestTrace.mark(checkedOutStage);
+            try {
+                format.writeGetNearestRequest(sands.getOutputStream(),
+                                              name,
+                                              point,
+                                              count,
+                                              maxDistance,
+                                              reroute);
+                sands.getOutputStream().flush();
+                RequestTrace.mark(requestSentStage);
+                List<Pair<ByteArray, List<Versioned<byte[]>>>> values = format.readSpatialResponse(sands.getInputStream());
+                RequestTrace.mark(responseReadStage);
+                return values;
+            } catch(IOException e) {
+                close(sands.getSocket());
+                throw new UnreachableStoreException("Failure in getNearest on " + destination
+                                                    + ": " + e.getMessage(), e);
+            } finally {
+                pool.checkin(destination, sands);
+            }
+        }
+    }
+
     private void close(Socket socket) {
         try {
             socket.close();
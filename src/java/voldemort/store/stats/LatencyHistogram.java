@@ -0,0 +1,189 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.utils.SystemTime;
+import voldemort.utils.Time;
+
+/**
+ * A lock-free histogram of request times over a sliding window.
+ * 
+ * Times are counted in logarithmic buckets: each power of two is split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so a reported percentile is
+ * within 12.5% of the true value. The window is divided into slices that are
+ * recycled as time moves on, so the percentiles cover between
+ * {@code windowMs - windowMs / numSlices} and {@code windowMs} of history.
+ * 
+ * Recording a time is a few atomic increments and does not allocate.
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final Time time;
+    private final long sliceMs;
+    private final Slice[] slices;
+
+    /**
+     * @param windowMs The length of the sliding window in milliseconds
+     * @param numSlices The number of pieces the window is recycled in
+     */
+    public LatencyHistogram(long windowMs, int numSlices) {
+        this(windowMs, numSlices, SystemTime.INSTANCE);
+    }
+
+    public LatencyHistogram(long windowMs, int numSlices, Time time) {
+        if(numSlices < 1 || windowMs < numSlices)
+            throw new IllegalArgumentException("Invalid window: " + windowMs + " ms in "
+                                               + numSlices + " slices.");
+        this.time = time;
+        this.sliceMs = windowMs / numSlices;
+        this.slices = new Slice[numSlices];
+        for(int i = 0; i < numSlices; i++)
+            this.slices[i] = new Slice();
+    }
+
+    /**
+     * Record a request time
+     * 
+     * @param timeNS The time taken, in nanoseconds
+     */
+    public void record(long timeNS) {
+        long value = Math.max(timeNS, 0);
+        long epoch = time.getMilliseconds() / sliceMs;
+        Slice slice = slices[(int) (epoch % slices.length)];
+        long sliceEpoch = slice.epoch.get();
+        // the first recorder in a new slice clears out what it held last time
+        // around; a recorder that read a stale clock just adds to the newer one
+        if(sliceEpoch < epoch && slice.epoch.compareAndSet(sliceEpoch, epoch))
+            slice.clear();
+
+        slice.counts.incrementAndGet(bucketFor(value));
+        long max = slice.max.get();
+        while(value > max && !slice.max.compareAndSet(max, value))
+            max = slice.max.get();
+    }
+
+    /**
+     * @return The number of times recorded in the window
+     */
+    public long getCount() {
+        long count = 0;
+        long[] counts = snapshot();
+        for(int i = 0; i < counts.length; i++)
+            count += counts[i];
+        return count;
+    }
+
+    /**
+     * The time below which the given fraction of requests in the window fall
+     * 
+     * @param quantile The fraction of requests, between 0 and 1
+     * @return The time in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getQuantile(double quantile) {
+        if(quantile < 0.0 || quantile > 1.0)
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+        long[] counts = snapshot();
+        long total = 0;
+        for(int i = 0; i < counts.length; i++)
+            total += counts[i];
+        if(total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank)
+                return Math.min(upperBoundOf(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * @return The longest time recorded in the window, in nanoseconds
+     */
+    public long getMax() {
+        long current = currentEpoch();
+        long max = 0;
+        for(Slice slice: slices)
+            if(isInWindow(slice, current))
+                max = Math.max(max, slice.max.get());
+        return max;
+    }
+
+    private long currentEpoch() {
+        return time.getMilliseconds() / sliceMs;
+    }
+
+    private boolean isInWindow(Slice slice, long currentEpoch) {
+        return slice.epoch.get() > currentEpoch - slices.length;
+    }
+
+    private long[] snapshot() {
+        long current = currentEpoch();
+        long[] counts = new long[NUM_BUCKETS];
+        for(Slice slice: slices) {
+            if(isInWindow(slice, current)) {
+                for(int i = 0; i < NUM_BUCKETS; i++)
+                    counts[i] += slice.counts.get(i);
+            }
+        }
+        return counts;
+    }
+
+    static int bucketFor(long value) {
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    private static class Slice {
+
+        final AtomicLong epoch = new AtomicLong(-1);
+        final AtomicLong max = new AtomicLong(0);
+        final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+        void clear() {
+            max.set(0);
+            for(int i = 0; i < NUM_BUCKETS; i++)
+                counts.set(i, 0);
+        }
+    }
+}
@@ -1,19 +1,37 @@
 package voldemort.store.stats;
 
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 
 import voldemort.utils.Time;
 
 /**
  * A thread-safe request counter that calculates throughput for a specified
- * duration of time.
+ * duration of time. Request time percentiles are kept over a window of the
+ * same duration that slides in tenths.
+ * 
+ * Requests are added to one of several cells picked by thread, each on its
+ * own cache line, so concurrent requests rarely touch the same memory. The
+ * cells only ever grow; a window is the difference between the current sums
+ * and the sums at the time the window started, so no request is ever lost
+ * when a window rolls over.
  * 
  * @author elias, gmj
  * 
  */
 public class RequestCounter {
 
-    private final AtomicReference<Accumulator> values;
+    private static final int HISTOGRAM_SLICES = 10;
+
+    /* longs per cell, spacing the cells a 64 byte cache line apart */
+    private static final int CELL_STRIDE = 8;
+    private static final int COUNT_OFFSET = 0;
+    private static final int TIME_OFFSET = 1;
+
+    private final AtomicLongArray cells;
+    private final int cellMask;
+    private final AtomicReference<Window> window;
+    private final LatencyHistogram histogram;
     private final int durationMS;
 
     /**
@@ -21,23 +39,29 @@ public class RequestCounter {
      *        counter (in milliseconds).
      */
     public RequestCounter(int durationMS) {
-        this.values = new AtomicReference<Accumulator>(new Accumulator());
+        int numCells = Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime()
+                                                                   .availableProcessors() - 1)) << 1;
+        this.cells = new AtomicLongArray(numCells * CELL_STRIDE);
+        this.cellMask = numCells - 1;
+        this.window = new AtomicReference<Window>(new Window(System.currentTimeMillis(), 0, 0));
+        this.histogram = new LatencyHistogram(durationMS, HISTOGRAM_SLICES);
         this.durationMS = durationMS;
     }
 
     public long getCount() {
-        return getValidAccumulator().count;
+        return sum(COUNT_OFFSET) - getValidWindow().startCount;
     }
 
     public long getTotalCount() {
-        return getValidAccumulator().total;
+        return sum(COUNT_OFFSET);
     }
 
     public float getThroughput() {
-        Accumulator oldv = getValidAccumulator();
-        float elapsed = (System.currentTimeMillis() - oldv.startTimeMS) / Time.MS_PER_SECOND;
+        Window current = getValidWindow();
+        long count = sum(COUNT_OFFSET) - current.startCount;
+        float elapsed = (System.currentTimeMillis() - current.startTimeMS) / Time.MS_PER_SECOND;
         if(elapsed > 0f) {
-            return oldv.count / elapsed;
+            return count / elapsed;
         } else {
             return -1f;
         }
@@ -48,75 +72,91 @@ public class RequestCounter {
     }
 
     public double getAverageTimeInMs() {
-        return getValidAccumulator().getAverageTimeNS() / Time.NS_PER_MS;
+        Window current = getValidWindow();
+        long count = sum(COUNT_OFFSET) - current.startCount;
+        long totalTimeNS = sum(TIME_OFFSET) - current.startTimeNS;
+        double averageTimeNS = count > 0 ? 1f * totalTimeNS / count : -0f;
+        return averageTimeNS / Time.NS_PER_MS;
     }
 
     public String getDisplayAverageTimeInMs() {
         return String.format("%.4f", getAverageTimeInMs());
     }
 
+    /**
+     * @param quantile The fraction of requests, between 0 and 1
+     * @return The time in ms below which that fraction of recent requests
+     *         completed
+     */
+    public double getQuantileTimeInMs(double quantile) {
+        return (double) histogram.getQuantile(quantile) / Time.NS_PER_MS;
+    }
+
+    public String getDisplayQuantileTimeInMs(double quantile) {
+        return String.format("%.4f", getQuantileTimeInMs(quantile));
+    }
+
+    public double getMaxTimeInMs() {
+        return (double) histogram.getMax() / Time.NS_PER_MS;
+    }
+
+    public String getDisplayMaxTimeInMs() {
+        return String.format("%.4f", getMaxTimeInMs());
+    }
+
     public int getDuration() {
         return durationMS;
     }
 
-    private Accumulator getValidAccumulator() {
-        Accumulator accum = values.get();
+    /*
+     * Returns the current window, starting a new one from the current sums if
+     * it has expired. If another thread starts it first, use that one.
+     */
+    private Window getValidWindow() {
+        Window current = window.get();
         long now = System.currentTimeMillis();
-        if(now - accum.startTimeMS > durationMS) {
-            return accum.newWithTotal();
+        if(now - current.startTimeMS > durationMS) {
+            Window next = new Window(now, sum(COUNT_OFFSET), sum(TIME_OFFSET));
+            if(window.compareAndSet(current, next))
+                return next;
+            return window.get();
         } else {
-            return accum;
+            return current;
         }
     }
 
+    private long sum(int offset) {
+        long sum = 0;
+        for(int i = offset; i < cells.length(); i += CELL_STRIDE)
+            sum += cells.get(i);
+        return sum;
+    }
+
     /*
-     * Updates the stats accumulator with another operation. We need to make
-     * sure that the request is only added to a non-expired pair. If so, start a
-     * new counter pair with recent time. We'll only try to do this 3 times - if
-     * other threads keep modifying while we're doing our own work, just bail.
+     * Adds an operation to the cell of the calling thread. Only the request
+     * that finds the window expired allocates a new one, and nothing is
+     * retried.
      * 
      * @param timeNS time of operation, in nanoseconds
      */
     public void addRequest(long timeNS) {
-
-        for(int i = 0; i < 3; i++) {
-            Accumulator oldv = getValidAccumulator();
-
-            long startTimeMS = oldv.startTimeMS;
-            long count = oldv.count + 1;
-            long totalTimeNS = oldv.totalTimeNS + timeNS;
-            long total = oldv.total + 1;
-
-            if(values.compareAndSet(oldv, new Accumulator(startTimeMS, count, totalTimeNS, total))) {
-                return;
-            }
-        }
+        getValidWindow();
+        histogram.record(timeNS);
+        int cell = ((int) Thread.currentThread().getId() & cellMask) * CELL_STRIDE;
+        cells.addAndGet(cell + TIME_OFFSET, timeNS);
+        cells.incrementAndGet(cell + COUNT_OFFSET);
     }
 
-    private static class Accumulator {
+    private static class Window {
 
         final long startTimeMS;
-        final long count;
-        final long totalTimeNS;
-        final long total;
+        final long startCount;
+        final long startTimeNS;
 
-        public Accumulator() {
-            this(System.currentTimeMillis(), 0, 0, 0);
-        }
-
-        public Accumulator newWithTotal() {
-            return new Accumulator(System.currentTimeMillis(), 0, 0, total);
-        }
-
-        public Accumulator(long startTimeMS, long count, long totalTimeNS, long total) {
+        public Window(long startTimeMS, long startCount, long startTimeNS) {
             this.startTimeMS = startTimeMS;
-            this.count = count;
-            this.totalTimeNS = totalTimeNS;
-            this.total = total;
-        }
-
-        public double getAverageTimeNS() {
-            return count > 0 ? 1f * totalTimeNS / count : -0f;
+            this.startCount = startCount;
+            this.startTimeNS = startTimeNS;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.stats;
+
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.utils.Time;
+
+/**
+ * The stages one sampled request went through, with the time each was
+ * reached.
+ * 
+ * The trace being recorded is attached to the thread doing the work, so any
+ * layer can add a stage with {@link #mark(String)} without the trace being
+ * passed down to it. When no trace is attached marking is a thread local
+ * lookup and nothing else. Work handed to another thread carries the trace
+ * along with it, so stages may be added from several threads at once.
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+public class RequestTrace {
+
+    private static final int MAX_STAGES = 64;
+
+    private static final ThreadLocal<RequestTrace> current = new ThreadLocal<RequestTrace>();
+
+    private final long id;
+    private final String storeName;
+    private final String operation;
+    private final long startTimeMs;
+    private final long startNs;
+    private final String[] stages;
+    private final String[] threads;
+    private final long[] stageNs;
+    private int numStages;
+    private int numDropped;
+
+    public RequestTrace(long id, String storeName, String operation) {
+        this.id = id;
+        this.storeName = storeName;
+        this.operation = operation;
+        this.startTimeMs = System.currentTimeMillis();
+        this.startNs = System.nanoTime();
+        this.stages = new String[MAX_STAGES];
+        this.threads = new String[MAX_STAGES];
+        this.stageNs = new long[MAX_STAGES];
+    }
+
+    /**
+     * @return The trace attached to this thread, or null if the current
+     *         request is not being traced
+     */
+    public static RequestTrace current() {
+        return current.get();
+    }
+
+    /**
+     * Attach a trace to this thread
+     * 
+     * @param trace The trace, or null to detach
+     * @return The trace that was attached before, to be given to
+     *         {@link #restore(RequestTrace)}
+     */
+    public static RequestTrace attach(RequestTrace trace) {
+        RequestTrace previous = current.get();
+        restore(trace);
+        return previous;
+    }
+
+    /**
+     * Put back the trace this thread had before {@link #attach(RequestTrace)}
+     */
+    public static void restore(RequestTrace previous) {
+        if(previous == null)
+            current.remove();
+        else
+            current.set(previous);
+    }
+
+    /**
+     * Add a stage to the trace of this thread, if there is one
+     * 
+     * @param stage What the request has just done
+     */
+    public static void mark(String stage) {
+        RequestTrace trace = current.get();
+        if(trace != null)
+            trace.addStage(stage);
+    }
+
+    public synchronized void addStage(String stage) {
+        if(numStages == MAX_STAGES) {
+            numDropped++;
+            return;
+        }
+        stages[numStages] = stage;
+        threads[numStages] = Thread.currentThread().getName();
+        stageNs[numStages] = System.nanoTime() - startNs;
+        numStages++;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getStartTimeMs() {
+        return startTimeMs;
+    }
+
+    public synchronized int getNumberOfStages() {
+        return numStages;
+    }
+
+    public synchronized String getStage(int index) {
+        return stages[index];
+    }
+
+    /**
+     * @return The time from the start of the trace to the given stage, in
+     *         nanoseconds
+     */
+    public synchronized long getStageTimeNs(int index) {
+        return stageNs[index];
+    }
+
+    /**
+     * @return The time from the start of the trace to its last stage, in
+     *         nanoseconds
+     */
+    public synchronized long getElapsedNs() {
+        return numStages == 0 ? 0 : stageNs[numStages - 1];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("trace ").append(Long.toHexString(id)).append(' ');
+        builder.append(storeName).append('.').append(operation);
+        builder.append(String.format(" at %tT.%<tL took %.3f ms",
+                                     startTimeMs,
+                                     getElapsedNs() / (double) Time.NS_PER_MS));
+        for(int i = 0; i < numStages; i++) {
+            builder.append(String.format("%n  +%.3f ms %s [%s]",
+                                         stageNs[i] / (double) Time.NS_PER_MS,
+                                         stages[i],
+                                         threads[i]));
+        }
+        if(numDropped > 0)
+            builder.append(String.format("%n  (%d more stages dropped)", numDropped));
+        return builder.toString();
+    }
+}
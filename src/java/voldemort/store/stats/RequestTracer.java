@@ -0,0 +1,136 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.stats;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxManaged;
+import voldemort.annotations.jmx.JmxOperation;
+import voldemort.annotations.jmx.JmxSetter;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Decides which requests to trace and keeps the most recent finished traces
+ * in a ring buffer.
+ * 
+ * One in every {@code sampleInterval} requests started here is traced; an
+ * interval of zero turns sampling off. Requests that arrive already carrying
+ * a trace id from a client are always traced, so both halves of a sampled
+ * request can be matched up by id.
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+@JmxManaged(description = "Traces a sample of requests.")
+public class RequestTracer {
+
+    private final AtomicReferenceArray<RequestTrace> traces;
+    private final AtomicLong nextSlot = new AtomicLong(0);
+    private final AtomicLong requests = new AtomicLong(0);
+    private final Random random = new Random();
+    private volatile int sampleInterval;
+
+    /**
+     * @param sampleInterval Trace one in this many requests, or none if 0
+     * @param maxTraces The number of recent traces to keep
+     */
+    public RequestTracer(int sampleInterval, int maxTraces) {
+        if(maxTraces < 1)
+            throw new IllegalArgumentException("Must keep at least one trace.");
+        setSampleInterval(sampleInterval);
+        this.traces = new AtomicReferenceArray<RequestTrace>(maxTraces);
+    }
+
+    /**
+     * Start a trace if this request is sampled
+     * 
+     * @return The new trace, or null if the request is not traced
+     */
+    public RequestTrace startTrace(String storeName, String operation) {
+        int interval = sampleInterval;
+        if(interval == 0 || requests.incrementAndGet() % interval != 0)
+            return null;
+        long id;
+        do {
+            id = random.nextLong();
+        } while(id == 0);
+        return new RequestTrace(id, storeName, operation);
+    }
+
+    /**
+     * Continue a trace started elsewhere, under the same id
+     */
+    public RequestTrace joinTrace(long id, String storeName, String operation) {
+        return new RequestTrace(id, storeName, operation);
+    }
+
+    /**
+     * Add a finished trace to the buffer, replacing the oldest one
+     */
+    public void finishTrace(RequestTrace trace) {
+        int slot = (int) (nextSlot.getAndIncrement() % traces.length());
+        traces.set(slot, trace);
+    }
+
+    /**
+     * @return The traces in the buffer, newest first
+     */
+    public List<RequestTrace> getRecentTraces() {
+        List<RequestTrace> recent = Lists.newArrayList();
+        long next = nextSlot.get();
+        for(long i = next - 1; i >= 0 && i >= next - traces.length(); i--) {
+            RequestTrace trace = traces.get((int) (i % traces.length()));
+            if(trace != null)
+                recent.add(trace);
+        }
+        return recent;
+    }
+
+    @JmxGetter(name = "recentTraces", description = "The most recent request traces, newest first.")
+    public String getRecentTracesAsString() {
+        StringBuilder builder = new StringBuilder();
+        for(RequestTrace trace: getRecentTraces())
+            builder.append(trace).append(String.format("%n"));
+        return builder.toString();
+    }
+
+    @JmxGetter(name = "sampleInterval", description = "One in this many requests is traced, none if 0.")
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    @JmxSetter(name = "sampleInterval", description = "Trace one in this many requests, none if 0.")
+    public void setSampleInterval(int sampleInterval) {
+        if(sampleInterval < 0)
+            throw new IllegalArgumentException("Sample interval cannot be negative.");
+        this.sampleInterval = sampleInterval;
+    }
+
+    @JmxOperation(description = "Discard the recorded traces.")
+    public void clearTraces() {
+        for(int i = 0; i < traces.length(); i++)
+            traces.set(i, null);
+    }
+}
@@ -46,6 +46,7 @@ public class StatTrackingStore<K, V> extends DelegatingStore<K, V> {
     @Override
     public boolean delete(K key, Version version) throws VoldemortException {
         long start = System.nanoTime();
+        RequestTrace.mark("store entered");
         try {
             return super.delete(key, version);
         } catch(VoldemortException e) {
@@ -53,12 +54,14 @@ public class StatTrackingStore<K, V> extends DelegatingStore<K, V> {
             throw e;
         } finally {
             stats.recordTime(Tracked.DELETE, System.nanoTime() - start);
+            RequestTrace.mark("store returned");
         }
     }
 
     @Override
     public List<Versioned<V>> get(K key) throws VoldemortException {
         long start = System.nanoTime();
+        RequestTrace.mark("store entered");
         try {
             return super.get(key);
         } catch(VoldemortException e) {
@@ -66,12 +69,14 @@ public class StatTrackingStore<K, V> extends DelegatingStore<K, V> {
             throw e;
         } finally {
             stats.recordTime(Tracked.GET, System.nanoTime() - start);
+            RequestTrace.mark("store returned");
         }
     }
 
     @Override
     public Map<K, List<Versioned<V>>> getAll(Iterable<K> keys) throws VoldemortException {
         long start = System.nanoTime();
+        RequestTrace.mark("store entered");
         try {
             return super.getAll(keys);
         } catch(VoldemortException e) {
@@ -79,12 +84,14 @@ public class StatTrackingStore<K, V> extends DelegatingStore<K, V> {
             throw e;
         } finally {
             stats.recordTime(Tracked.GET_ALL, System.nanoTime() - start);
+            RequestTrace.mark("store returned");
         }
     }
 
     @Override
     public void put(K key, Versioned<V> value) throws VoldemortException {
         long start = System.nanoTime();
+        RequestTrace.mark("store entered");
         try {
             super.put(key, value);
         } catch(VoldemortException e) {
@@ -92,6 +99,7 @@ public class StatTrackingStore<K, V> extends DelegatingStore<K, V> {
             throw e;
         } finally {
             stats.recordTime(Tracked.PUT, System.nanoTime() - start);
+            RequestTrace.mark("store returned");
         }
     }
 
@@ -114,6 +122,31 @@ public class StatTrackingStore<K, V> extends DelegatingStore<K, V> {
         return stats.getThroughput(Tracked.GET_ALL);
     }
 
+    @JmxGetter(name = "q50GetAllTimeInMs", description = "The median time in ms for recent GET_ALL calls.")
+    public double getQ50GetAllTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET_ALL, 0.5);
+    }
+
+    @JmxGetter(name = "q95GetAllTimeInMs", description = "The 95th percentile time in ms for recent GET_ALL calls.")
+    public double getQ95GetAllTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET_ALL, 0.95);
+    }
+
+    @JmxGetter(name = "q99GetAllTimeInMs", description = "The 99th percentile time in ms for recent GET_ALL calls.")
+    public double getQ99GetAllTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET_ALL, 0.99);
+    }
+
+    @JmxGetter(name = "q999GetAllTimeInMs", description = "The 99.9th percentile time in ms for recent GET_ALL calls.")
+    public double getQ999GetAllTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET_ALL, 0.999);
+    }
+
+    @JmxGetter(name = "maxGetAllTimeInMs", description = "The max. time in ms for recent GET_ALL calls.")
+    public double getMaxGetAllTimeInMs() {
+        return stats.getMaxTimeInMs(Tracked.GET_ALL);
+    }
+
     @JmxGetter(name = "numberOfCallsToGet", description = "The number of calls to GET since the last reset.")
     public long getNumberOfCallsToGet() {
         return stats.getCount(Tracked.GET);
@@ -129,6 +162,31 @@ public class StatTrackingStore<K, V> extends DelegatingStore<K, V> {
         return stats.getThroughput(Tracked.GET);
     }
 
+    @JmxGetter(name = "q50GetTimeInMs", description = "The median time in ms for recent GET calls.")
+    public double getQ50GetTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET, 0.5);
+    }
+
+    @JmxGetter(name = "q95GetTimeInMs", description = "The 95th percentile time in ms for recent GET calls.")
+    public double getQ95GetTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET, 0.95);
+    }
+
+    @JmxGetter(name = "q99GetTimeInMs", description = "The 99th percentile time in ms for recent GET calls.")
+    public double getQ99GetTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET, 0.99);
+    }
+
+    @JmxGetter(name = "q999GetTimeInMs", description = "The 99.9th percentile time in ms for recent GET calls.")
+    public double getQ999GetTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET, 0.999);
+    }
+
+    @JmxGetter(name = "maxGetTimeInMs", description = "The max. time in ms for recent GET calls.")
+    public double getMaxGetTimeInMs() {
+        return stats.getMaxTimeInMs(Tracked.GET);
+    }
+
     @JmxGetter(name = "numberOfCallsToPut", description = "The number of calls to PUT since the last reset.")
     public long getNumberOfCallsToPut() {
         return stats.getCount(Tracked.PUT);
@@ -144,6 +202,31 @@ public class StatTrackingStore<K, V> extends DelegatingStore<K, V> {
         return stats.getThroughput(Tracked.PUT);
     }
 
+    @JmxGetter(name = "q50PutTimeInMs", description = "The median time in ms for recent PUT calls.")
+    public double getQ50PutTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.PUT, 0.5);
+    }
+
+    @JmxGetter(name = "q95PutTimeInMs", description = "The 95th percentile time in ms for recent PUT calls.")
+    public double getQ95PutTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.PUT, 0.95);
+    }
+
+    @JmxGetter(name = "q99PutTimeInMs", description = "The 99th percentile time in ms for recent PUT calls.")
+    public double getQ99PutTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.PUT, 0.99);
+    }
+
+    @JmxGetter(name = "q999PutTimeInMs", description = "The 99.9th percentile time in ms for recent PUT calls.")
+    public double getQ999PutTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.PUT, 0.999);
+    }
+
+    @JmxGetter(name = "maxPutTimeInMs", description = "The max. time in ms for recent PUT calls.")
+    public double getMaxPutTimeInMs() {
+        return stats.getMaxTimeInMs(Tracked.PUT);
+    }
+
     @JmxGetter(name = "numberOfCallsToDelete", description = "The number of calls to DELETE since the last reset.")
     public long getNumberOfCallsToDelete() {
         return stats.getCount(Tracked.DELETE);
@@ -159,6 +242,31 @@ public class StatTrackingStore<K, V> extends DelegatingStore<K, V> {
         return stats.getThroughput(Tracked.DELETE);
     }
 
+    @JmxGetter(name = "q50DeleteTimeInMs", description = "The median time in ms for recent DELETE calls.")
+    public double getQ50DeleteTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.DELETE, 0.5);
+    }
+
+    @JmxGetter(name = "q95DeleteTimeInMs", description = "The 95th percentile time in ms for recent DELETE calls.")
+    public double getQ95DeleteTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.DELETE, 0.95);
+    }
+
+    @JmxGetter(name = "q99DeleteTimeInMs", description = "The 99th percentile time in ms for recent DELETE calls.")
+    public double getQ99DeleteTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.DELETE, 0.99);
+    }
+
+    @JmxGetter(name = "q999DeleteTimeInMs", description = "The 99.9th percentile time in ms for recent DELETE calls.")
+    public double getQ999DeleteTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.DELETE, 0.999);
+    }
+
+    @JmxGetter(name = "maxDeleteTimeInMs", description = "The max. time in ms for recent DELETE calls.")
+    public double getMaxDeleteTimeInMs() {
+        return stats.getMaxTimeInMs(Tracked.DELETE);
+    }
+
     @JmxGetter(name = "numberOfExceptions", description = "The number of exceptions since the last reset.")
     public long getNumberOfExceptions() {
         return stats.getCount(Tracked.EXCEPTION);
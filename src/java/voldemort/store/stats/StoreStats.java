@@ -34,6 +34,14 @@ public class StoreStats {
         return counters.get(op).getAverageTimeInMs();
     }
 
+    public double getQuantileTimeInMs(Tracked op, double quantile) {
+        return counters.get(op).getQuantileTimeInMs(quantile);
+    }
+
+    public double getMaxTimeInMs(Tracked op) {
+        return counters.get(op).getMaxTimeInMs();
+    }
+
     public void recordTime(Tracked op, long timeNS) {
         counters.get(op).addRequest(timeNS);
     }
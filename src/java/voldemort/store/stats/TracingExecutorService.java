@@ -0,0 +1,81 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.stats;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor that hands the trace of the submitting thread on to the thread
+ * that runs the task, marking when the task was queued and when it started.
+ * Tasks submitted without a trace are passed straight through.
+ * 
+ * @author jay
+ * 
+ */
+public class TracingExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService executor;
+
+    public TracingExecutorService(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void execute(final Runnable task) {
+        final RequestTrace trace = RequestTrace.current();
+        if(trace == null) {
+            executor.execute(task);
+            return;
+        }
+        trace.addStage("task queued");
+        executor.execute(new Runnable() {
+
+            public void run() {
+                RequestTrace previous = RequestTrace.attach(trace);
+                try {
+                    trace.addStage("task started");
+                    task.run();
+                } finally {
+                    RequestTrace.restore(previous);
+                }
+            }
+        });
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+}
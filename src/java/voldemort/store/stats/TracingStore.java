@@ -0,0 +1,105 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.stats;
+
+import java.util.List;
+import java.util.Map;
+
+import voldemort.VoldemortException;
+import voldemort.store.DelegatingStore;
+import voldemort.store.Store;
+import voldemort.versioning.Version;
+import voldemort.versioning.Versioned;
+
+/**
+ * A store wrapper that starts a trace for a sample of requests and attaches
+ * it to the calling thread while the request runs, so the layers below can
+ * record their stages.
+ * 
+ * @author jay
+ * 
+ */
+public class TracingStore<K, V> extends DelegatingStore<K, V> {
+
+    private final RequestTracer tracer;
+
+    public TracingStore(Store<K, V> innerStore, RequestTracer tracer) {
+        super(innerStore);
+        this.tracer = tracer;
+    }
+
+    @Override
+    public boolean delete(K key, Version version) throws VoldemortException {
+        RequestTrace trace = tracer.startTrace(getName(), Tracked.DELETE.toString());
+        if(trace == null)
+            return super.delete(key, version);
+        RequestTrace previous = RequestTrace.attach(trace);
+        try {
+            return super.delete(key, version);
+        } finally {
+            finish(trace, previous);
+        }
+    }
+
+    @Override
+    public List<Versioned<V>> get(K key) throws VoldemortException {
+        RequestTrace trace = tracer.startTrace(getName(), Tracked.GET.toString());
+        if(trace == null)
+            return super.get(key);
+        RequestTrace previous = RequestTrace.attach(trace);
+        try {
+            return super.get(key);
+        } finally {
+            finish(trace, previous);
+        }
+    }
+
+    @Override
+    public Map<K, List<Versioned<V>>> getAll(Iterable<K> keys) throws VoldemortException {
+        RequestTrace trace = tracer.startTrace(getName(), Tracked.GET_ALL.toString());
+        if(trace == null)
+            return super.getAll(keys);
+        RequestTrace previous = RequestTrace.attach(trace);
+        try {
+            return super.getAll(keys);
+        } finally {
+            finish(trace, previous);
+        }
+    }
+
+    @Override
+    public void put(K key, Versioned<V> value) throws VoldemortException {
+        RequestTrace trace = tracer.startTrace(getName(), Tracked.PUT.toString());
+        if(trace == null) {
+            super.put(key, value);
+            return;
+        }
+        RequestTrace previous = RequestTrace.attach(trace);
+        try {
+            super.put(key, value);
+        } finally {
+            finish(trace, previous);
+        }
+    }
+
+    private void finish(RequestTrace trace, RequestTrace previous) {
+        trace.addStage("done");
+        RequestTrace.restore(previous);
+        tracer.finishTrace(trace);
+    }
+}
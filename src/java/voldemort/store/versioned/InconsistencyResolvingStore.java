@@ -16,13 +16,16 @@
 
 package voldemort.store.versioned;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import voldemort.VoldemortException;
 import voldemort.store.DelegatingStore;
+import voldemort.store.SpatialStore;
 import voldemort.store.Store;
 import voldemort.store.StoreCapabilityType;
+import voldemort.utils.Pair;
 import voldemort.versioning.InconsistencyResolver;
 import voldemort.versioning.Versioned;
 
@@ -59,8 +62,40 @@ public class InconsistencyResolvingStore<K, V> extends DelegatingStore<K, V> {
     public Object getCapability(StoreCapabilityType capability) {
         if(capability == StoreCapabilityType.INCONSISTENCY_RESOLVER)
             return this.resolver;
+        else if(capability == StoreCapabilityType.SPATIAL_QUERIES)
+            return new ResolvingSpatialStore(super.getCapability(capability));
         else
             return super.getCapability(capability);
     }
 
+    private List<Pair<K, List<Versioned<V>>>> resolve(List<Pair<K, List<Versioned<V>>>> found) {
+        List<Pair<K, List<Versioned<V>>>> results = new ArrayList<Pair<K, List<Versioned<V>>>>(found.size());
+        for(Pair<K, List<Versioned<V>>> pair: found)
+            results.add(Pair.create(pair.getFirst(), resolver.resolveConflicts(pair.getSecond())));
+        return results;
+    }
+
+    private class ResolvingSpatialStore implements SpatialStore<K, V> {
+
+        private final SpatialStore<K, V> inner;
+
+        @SuppressWarnings("unchecked")
+        public ResolvingSpatialStore(Object inner) {
+            this.inner = (SpatialStore<K, V>) inner;
+        }
+
+        public List<Pair<K, List<Versioned<V>>>> getRange(double[] min,
+                                                          double[] max,
+                                                          K after,
+                                                          int limit) {
+            return resolve(inner.getRange(min, max, after, limit));
+        }
+
+        public List<Pair<K, List<Versioned<V>>>> getNearest(double[] point,
+                                                            int count,
+                                                            double maxDistance) {
+            return resolve(inner.getNearest(point, count, maxDistance));
+        }
+    }
+
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxManaged;
+
+/**
+ * A pool of reusable byte arrays.
+ * 
+ * Buffers come in power of two size classes between the minimum and maximum
+ * buffer size; a request is served from the smallest class that fits it.
+ * Each thread keeps a small cache of free buffers per class in front of a
+ * bounded shared free list, so a thread that releases a buffer and acquires
+ * another of the same class (a typical request or connection cycle) never
+ * touches shared state. Requests larger than the maximum size are simply
+ * allocated.
+ * 
+ * Buffers must not be used after they are released.
+ * 
+ * @author jay
+ * 
+ */
+@Threadsafe
+@JmxManaged(description = "A pool of reusable byte buffers.")
+public class BufferPool {
+
+    private final int minSizeShift;
+    private final int maxSizeShift;
+    private final int maxPooledPerClass;
+    private final int threadCacheSize;
+    private final ConcurrentLinkedQueue<byte[]>[] freeLists;
+    private final AtomicInteger[] freeListSizes;
+    private final ThreadLocal<byte[][][]> threadCaches = new ThreadLocal<byte[][][]>() {
+
+        @Override
+        protected byte[][][] initialValue() {
+            return new byte[freeLists.length][threadCacheSize][];
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong unpooled = new AtomicLong(0);
+    private final AtomicLong discards = new AtomicLong(0);
+
+    /**
+     * Create a buffer pool
+     * 
+     * @param minBufferSize The size of the smallest size class
+     * @param maxBufferSize The size of the largest size class
+     * @param maxPooledPerClass The maximum number of free buffers kept in the
+     *        shared free list of each size class
+     * @param threadCacheSize The maximum number of free buffers of each size
+     *        class kept by each thread
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int minBufferSize,
+                      int maxBufferSize,
+                      int maxPooledPerClass,
+                      int threadCacheSize) {
+        if(minBufferSize <= 0 || maxBufferSize < minBufferSize)
+            throw new IllegalArgumentException("Invalid buffer sizes: " + minBufferSize + ", "
+                                               + maxBufferSize);
+        if(maxPooledPerClass < 0 || threadCacheSize < 0)
+            throw new IllegalArgumentException("Pool sizes must be non-negative.");
+        this.minSizeShift = shiftFor(minBufferSize);
+        this.maxSizeShift = shiftFor(maxBufferSize);
+        this.maxPooledPerClass = maxPooledPerClass;
+        this.threadCacheSize = threadCacheSize;
+        int numClasses = maxSizeShift - minSizeShift + 1;
+        this.freeLists = (ConcurrentLinkedQueue<byte[]>[]) new ConcurrentLinkedQueue<?>[numClasses];
+        this.freeListSizes = new AtomicInteger[numClasses];
+        for(int i = 0; i < numClasses; i++) {
+            freeLists[i] = new ConcurrentLinkedQueue<byte[]>();
+            freeListSizes[i] = new AtomicInteger(0);
+        }
+    }
+
+    /* The log2 of the smallest power of two >= size */
+    private static int shiftFor(int size) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    }
+
+    /* The size class for a buffer of exactly the given length, or -1 */
+    private int classOfBuffer(int length) {
+        if(Integer.bitCount(length) != 1)
+            return -1;
+        int shift = Integer.numberOfTrailingZeros(length);
+        if(shift < minSizeShift || shift > maxSizeShift)
+            return -1;
+        return shift - minSizeShift;
+    }
+
+    /**
+     * Get a buffer of at least the given size. The buffer may be larger than
+     * requested and its contents are undefined.
+     * 
+     * @param size The minimum size of the buffer
+     * @return The buffer
+     */
+    public byte[] acquire(int size) {
+        int shift = Math.max(shiftFor(size), minSizeShift);
+        if(shift > maxSizeShift) {
+            unpooled.incrementAndGet();
+            return new byte[size];
+        }
+        int sizeClass = shift - minSizeShift;
+
+        byte[][] cache = threadCaches.get()[sizeClass];
+        for(int i = cache.length - 1; i >= 0; i--) {
+            if(cache[i] != null) {
+                byte[] buffer = cache[i];
+                cache[i] = null;
+                hits.incrementAndGet();
+                return buffer;
+            }
+        }
+
+        byte[] buffer = freeLists[sizeClass].poll();
+        if(buffer != null) {
+            freeListSizes[sizeClass].decrementAndGet();
+            hits.incrementAndGet();
+            return buffer;
+        }
+
+        misses.incrementAndGet();
+        return new byte[1 << shift];
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers that were not allocated by the pool
+     * or that do not fit in the pool are left to the garbage collector.
+     * 
+     * @param buffer The buffer to return
+     */
+    public void release(byte[] buffer) {
+        if(buffer == null)
+            return;
+        int sizeClass = classOfBuffer(buffer.length);
+        if(sizeClass < 0)
+            return;
+
+        byte[][] cache = threadCaches.get()[sizeClass];
+        for(int i = 0; i < cache.length; i++) {
+            if(cache[i] == null) {
+                cache[i] = buffer;
+                return;
+            }
+        }
+
+        if(freeListSizes[sizeClass].incrementAndGet() <= maxPooledPerClass) {
+            freeLists[sizeClass].offer(buffer);
+        } else {
+            freeListSizes[sizeClass].decrementAndGet();
+            discards.incrementAndGet();
+        }
+    }
+
+    @JmxGetter(name = "numberOfHits", description = "The number of buffers served from the pool.")
+    public long getNumberOfHits() {
+        return hits.get();
+    }
+
+    @JmxGetter(name = "numberOfMisses", description = "The number of buffers allocated because the pool had none free.")
+    public long getNumberOfMisses() {
+        return misses.get();
+    }
+
+    @JmxGetter(name = "numberOfUnpooledAllocations", description = "The number of buffers allocated because they are too large to pool.")
+    public long getNumberOfUnpooledAllocations() {
+        return unpooled.get();
+    }
+
+    @JmxGetter(name = "numberOfDiscards", description = "The number of released buffers dropped because the pool was full.")
+    public long getNumberOfDiscards() {
+        return discards.get();
+    }
+
+    @JmxGetter(name = "hitRate", description = "The fraction of buffer requests served from the pool.")
+    public double getHitRate() {
+        long served = hits.get();
+        long total = served + misses.get() + unpooled.get();
+        return total == 0 ? 0.0 : served / (double) total;
+    }
+
+}
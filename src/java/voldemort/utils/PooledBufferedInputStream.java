@@ -0,0 +1,59 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import voldemort.annotations.concurrency.NotThreadsafe;
+
+/**
+ * A BufferedInputStream whose buffer is taken from a {@link BufferPool} and
+ * given back when the stream is closed.
+ * 
+ * @author jay
+ * 
+ */
+@NotThreadsafe
+public class PooledBufferedInputStream extends BufferedInputStream {
+
+    private final BufferPool pool;
+    private byte[] pooled;
+
+    public PooledBufferedInputStream(InputStream in, BufferPool pool, int bufferSize) {
+        super(in, 1);
+        this.pool = pool;
+        this.pooled = pool.acquire(bufferSize);
+        this.buf = pooled;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            synchronized(this) {
+                if(pooled != null) {
+                    pool.release(pooled);
+                    pooled = null;
+                }
+            }
+        }
+    }
+
+}
@@ -16,6 +16,9 @@
 
 package voldemort.versioning;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -113,6 +116,73 @@ public class VectorClock implements Version, Serializable {
         this.timestamp = ByteUtils.readLong(bytes, index);
     }
 
+    /**
+     * Read a vector clock directly from the given stream. Exactly
+     * {@link #sizeInBytes()} bytes of the resulting clock are consumed.
+     * 
+     * @param input The stream to read from
+     * @return The vector clock read
+     */
+    public static VectorClock read(DataInputStream input) throws IOException {
+        int numEntries = input.readShort();
+        int versionSize = input.readByte();
+        List<ClockEntry> versions = new ArrayList<ClockEntry>(numEntries);
+        for(int i = 0; i < numEntries; i++) {
+            short nodeId = input.readShort();
+            long version = 0;
+            for(int j = 0; j < versionSize; j++)
+                version = (version << Byte.SIZE) | (input.readByte() & 0xFFL);
+            versions.add(new ClockEntry(nodeId, version));
+        }
+        return new VectorClock(versions, input.readLong());
+    }
+
+    /**
+     * Read a vector clock preceded by its size, as written by
+     * {@link #writeSizedTo(DataOutputStream)}
+     * 
+     * @param input The stream to read from
+     * @return The vector clock read
+     * @throws IOException If the clock read does not have the size given
+     */
+    public static VectorClock readSized(DataInputStream input) throws IOException {
+        int size = input.readUnsignedShort();
+        VectorClock clock = read(input);
+        if(clock.sizeInBytes() != size)
+            throw new IOException("Expected a vector clock of " + size + " bytes but read "
+                                  + clock.sizeInBytes() + " bytes.");
+        return clock;
+    }
+
+    /**
+     * Write the size of this clock as a short followed by the clock, to be
+     * read by {@link #readSized(DataInputStream)}
+     * 
+     * @param output The stream to write to
+     */
+    public void writeSizedTo(DataOutputStream output) throws IOException {
+        output.writeShort(sizeInBytes());
+        writeTo(output);
+    }
+
+    /**
+     * Write the serialized form of this clock, as given by {@link #toBytes()},
+     * directly to the given stream
+     * 
+     * @param output The stream to write to
+     */
+    public void writeTo(DataOutputStream output) throws IOException {
+        output.writeShort(versions.size());
+        byte versionSize = ByteUtils.numberOfBytesRequired(getMaxVersion());
+        output.writeByte(versionSize);
+        for(ClockEntry v: versions) {
+            output.writeShort(v.getNodeId());
+            for(int i = versionSize - 1; i >= 0; i--)
+                output.writeByte(ByteUtils.readNthByte(v.getVersion(), i));
+        }
+        output.writeLong(this.timestamp);
+    }
+
     public byte[] toBytes() {
         byte[] serialized = new byte[sizeInBytes()];
         // write the number of versions
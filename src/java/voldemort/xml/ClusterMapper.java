@@ -64,6 +64,8 @@ public class ClusterMapper {
     private static final String HTTP_PORT_ELMT = "http-port";
     private static final String SOCKET_PORT_ELMT = "socket-port";
     private static final String ADMIN_PORT_ELMT = "admin-port";
+    private static final String ZONE_ID_ELMT = "zone-id";
+    private static final String RACK_ID_ELMT = "rack-id";
 
     private final Schema schema;
 
@@ -125,8 +127,12 @@ public class ClusterMapper {
 
         int adminPort = (null != server.getChildText(ADMIN_PORT_ELMT)) ? Integer.parseInt(server.getChildText(ADMIN_PORT_ELMT))
                                                                       : VoldemortConfig.VOLDEMORT_DEFAULT_ADMIN_PORT;
+        int zoneId = (null != server.getChildText(ZONE_ID_ELMT)) ? Integer.parseInt(server.getChildText(ZONE_ID_ELMT))
+                                                                : Node.DEFAULT_ZONE_ID;
+        int rackId = (null != server.getChildText(RACK_ID_ELMT)) ? Integer.parseInt(server.getChildText(RACK_ID_ELMT))
+                                                                : Node.DEFAULT_RACK_ID;
 
-        return new Node(id, host, httpPort, socketPort, adminPort, partitions);
+        return new Node(id, host, httpPort, socketPort, adminPort, zoneId, rackId, partitions);
     }
 
     public String writeCluster(Cluster cluster) {
@@ -145,6 +151,10 @@ public class ClusterMapper {
         server.addContent(new Element(HTTP_PORT_ELMT).setText(Integer.toString(node.getHttpPort())));
         server.addContent(new Element(SOCKET_PORT_ELMT).setText(Integer.toString(node.getSocketPort())));
         server.addContent(new Element(ADMIN_PORT_ELMT).setText(Integer.toString(node.getAdminPort())));
+        if(node.getZoneId() != Node.DEFAULT_ZONE_ID)
+            server.addContent(new Element(ZONE_ID_ELMT).setText(Integer.toString(node.getZoneId())));
+        if(node.getRackId() != Node.DEFAULT_RACK_ID)
+            server.addContent(new Element(RACK_ID_ELMT).setText(Integer.toString(node.getRackId())));
         String serverPartitionsText = StringUtils.join(node.getPartitionIds().toArray(), ", ");
         server.addContent(new Element(SERVER_PARTITIONS_ELMT).setText(serverPartitionsText));
         return server;
@@ -43,6 +43,7 @@ import org.xml.sax.SAXException;
 
 import voldemort.client.RoutingTier;
 import voldemort.routing.RoutingStrategyType;
+import voldemort.serialization.Compression;
 import voldemort.serialization.SerializerDefinition;
 import voldemort.store.StoreDefinition;
 
@@ -62,6 +63,9 @@ public class StoreDefinitionsMapper {
     public final static String STORE_VALUE_SERIALIZER_ELMT = "value-serializer";
     public final static String STORE_SERIALIZATION_TYPE_ELMT = "type";
     public final static String STORE_SERIALIZATION_META_ELMT = "schema-info";
+    public final static String STORE_COMPRESSION_ELMT = "compression";
+    public final static String STORE_COMPRESSION_TYPE_ELMT = "type";
+    public final static String STORE_COMPRESSION_OPTIONS_ELMT = "options";
     public final static String STORE_ROUTING_TIER_ELMT = "routing";
     public final static String STORE_REPLICATION_FACTOR_ELMT = "replication-factor";
     public final static String STORE_REQUIRED_WRITES_ELMT = "required-writes";
@@ -149,6 +153,8 @@ public class StoreDefinitionsMapper {
         SerializerDefinition keySerializer = readSerializer(store.getChild(STORE_KEY_SERIALIZER_ELMT));
         if(keySerializer.getAllSchemaInfoVersions().size() > 1)
             throw new MappingException("Only a single schema is allowed for the store key.");
+        if(keySerializer.hasCompression())
+            throw new MappingException("Compression is only supported for the store value.");
         SerializerDefinition valueSerializer = readSerializer(store.getChild(STORE_VALUE_SERIALIZER_ELMT));
         RoutingTier routingTier = RoutingTier.fromDisplay(store.getChildText(STORE_ROUTING_TIER_ELMT));
 
@@ -199,7 +205,13 @@ public class StoreDefinitionsMapper {
         if(!hasVersion && schemaInfosByVersion.size() > 1)
             throw new IllegalArgumentException("Specified multiple schemas AND version=none, which is not permitted.");
 
-        return new SerializerDefinition(name, schemaInfosByVersion, hasVersion);
+        Compression compression = null;
+        Element compressionElmt = elmt.getChild(STORE_COMPRESSION_ELMT);
+        if(compressionElmt != null)
+            compression = new Compression(compressionElmt.getChildText(STORE_COMPRESSION_TYPE_ELMT),
+                                          compressionElmt.getChildText(STORE_COMPRESSION_OPTIONS_ELMT));
+
+        return new SerializerDefinition(name, schemaInfosByVersion, hasVersion, compression);
     }
 
     public String writeStoreList(List<StoreDefinition> stores) {
@@ -256,6 +268,14 @@ public class StoreDefinitionsMapper {
                 parent.addContent(schemaElmt);
             }
         }
+        if(def.hasCompression()) {
+            Compression compression = def.getCompression();
+            Element compressionElmt = new Element(STORE_COMPRESSION_ELMT);
+            compressionElmt.addContent(new Element(STORE_COMPRESSION_TYPE_ELMT).setText(compression.getType()));
+            if(compression.hasOptions())
+                compressionElmt.addContent(new Element(STORE_COMPRESSION_OPTIONS_ELMT).setText(compression.getOptions()));
+            parent.addContent(compressionElmt);
+        }
     }
 
 }
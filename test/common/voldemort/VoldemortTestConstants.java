@@ -50,6 +50,10 @@ public class VoldemortTestConstants {
         return readString("config/store-with-retention.xml");
     }
 
+    public static String getStoreDefinitionsWithCompressionXml() {
+        return readString("config/store-with-compression.xml");
+    }
+
     public static String getTwoNodeClusterXml() {
         return readString("config/two-node-cluster.xml");
     }
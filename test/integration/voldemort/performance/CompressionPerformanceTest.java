@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.performance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import voldemort.TestUtils;
+import voldemort.store.Store;
+import voldemort.store.compress.CompressingStore;
+import voldemort.store.compress.DeflateCompressionStrategy;
+import voldemort.store.gzip.GzipStore;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
+import voldemort.utils.Utils;
+import voldemort.versioning.ObsoleteVersionException;
+import voldemort.versioning.Versioned;
+
+/**
+ * Compares GzipStore to CompressingStore with a trained deflate dictionary on
+ * small JSON-like values
+ * 
+ * @author jay
+ * 
+ */
+public class CompressionPerformanceTest {
+
+    public static void main(String[] args) {
+        if(args.length != 3)
+            Utils.croak("USAGE: java " + CompressionPerformanceTest.class.getName()
+                        + " num-threads num-requests dictionary-size");
+        int numThreads = Integer.parseInt(args[0]);
+        int numRequests = Integer.parseInt(args[1]);
+        int dictionarySize = Integer.parseInt(args[2]);
+
+        final List<byte[]> values = new ArrayList<byte[]>();
+        for(int i = 0; i < 1000; i++)
+            values.add(ByteUtils.getBytes("{\"member_id\":" + i + ", \"first_name\":\""
+                                          + TestUtils.randomLetters(8) + "\", \"last_name\":\""
+                                          + TestUtils.randomLetters(10)
+                                          + "\", \"status\":\"active\", \"locale\":\"en_US\"}",
+                                          "UTF-8"));
+        byte[] dictionary = DeflateCompressionStrategy.trainDictionary(values.subList(0, 100),
+                                                                       dictionarySize);
+
+        InMemoryStorageEngine<ByteArray, byte[]> gzipInner = new InMemoryStorageEngine<ByteArray, byte[]>("gzip");
+        InMemoryStorageEngine<ByteArray, byte[]> deflateInner = new InMemoryStorageEngine<ByteArray, byte[]>("deflate");
+        run("GzipStore",
+            new GzipStore<ByteArray>(gzipInner),
+            values,
+            numThreads,
+            numRequests);
+        run("CompressingStore (deflate, " + dictionary.length + " byte dictionary)",
+            new CompressingStore<ByteArray>(deflateInner,
+                                            new DeflateCompressionStrategy(dictionary)),
+            values,
+            numThreads,
+            numRequests);
+        System.out.println("GzipStore stored bytes: " + storedBytes(gzipInner, values.size()));
+        System.out.println("CompressingStore stored bytes: "
+                           + storedBytes(deflateInner, values.size()));
+    }
+
+    private static void run(String name,
+                            final Store<ByteArray, byte[]> store,
+                            final List<byte[]> values,
+                            int numThreads,
+                            int numRequests) {
+        PerformanceTest readWriteTest = new PerformanceTest() {
+
+            @Override
+            public void doOperation(int index) throws Exception {
+                int i = index % values.size();
+                ByteArray key = new ByteArray(ByteUtils.getBytes(Integer.toString(i), "UTF-8"));
+                if(index % 2 == 0) {
+                    try {
+                        store.put(key, new Versioned<byte[]>(values.get(i)));
+                    } catch(ObsoleteVersionException e) {
+                        // fine, someone else wrote it
+                    }
+                } else {
+                    store.get(key);
+                }
+            }
+        };
+        readWriteTest.run(numRequests, numThreads);
+        System.out.println(name + " performance test results:");
+        readWriteTest.printStats();
+    }
+
+    private static long storedBytes(Store<ByteArray, byte[]> store, int numValues) {
+        long total = 0;
+        for(int i = 0; i < numValues; i++)
+            for(Versioned<byte[]> v: store.get(new ByteArray(ByteUtils.getBytes(Integer.toString(i),
+                                                                                "UTF-8"))))
+                total += v.getValue().length;
+        return total;
+    }
+
+}
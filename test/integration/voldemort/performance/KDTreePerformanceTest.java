@@ -0,0 +1,134 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.performance;
+
+import java.util.Random;
+
+import voldemort.store.kdtree.BalancedKDTree;
+import voldemort.store.kdtree.KDNode;
+import voldemort.store.kdtree.KDVector;
+import voldemort.utils.Utils;
+
+/**
+ * Compares the insertion order KDNode tree with the BalancedKDTree on uniform
+ * random points and on clustered points that arrive in order, as time series
+ * or geo data does.
+ *
+ * @author jay
+ *
+ */
+public class KDTreePerformanceTest {
+
+    public static void main(String[] args) {
+        if(args.length != 2)
+            Utils.croak("USAGE: java " + KDTreePerformanceTest.class.getName()
+                        + " numPoints dimensions");
+        int numPoints = Integer.parseInt(args[0]);
+        int dimensions = Integer.parseInt(args[1]);
+
+        // warm up
+        run("warmup", uniform(numPoints / 10, dimensions));
+
+        run("uniform", uniform(numPoints, dimensions));
+        run("clustered", clustered(numPoints, dimensions));
+    }
+
+    private static double[][] uniform(int numPoints, int dimensions) {
+        Random random = new Random(42);
+        double[][] points = new double[numPoints][dimensions];
+        for(double[] point: points)
+            for(int i = 0; i < dimensions; i++)
+                point[i] = random.nextDouble();
+        return points;
+    }
+
+    /*
+     * A few dense clusters, each filled along a path as a moving sensor or a
+     * clock would
+     */
+    private static double[][] clustered(int numPoints, int dimensions) {
+        Random random = new Random(42);
+        double[][] points = new double[numPoints][dimensions];
+        int clusters = 8;
+        for(int p = 0; p < numPoints; p++) {
+            int cluster = p * clusters / numPoints;
+            double t = (double) p / numPoints;
+            for(int i = 0; i < dimensions; i++)
+                points[p][i] = cluster * 10 + t + random.nextDouble() * 1e-6;
+        }
+        return points;
+    }
+
+    private static void run(String name, double[][] points) {
+        int dimensions = points[0].length;
+        double[] origin = new double[dimensions];
+
+        long start = System.nanoTime();
+        BalancedKDTree<Integer> balanced = new BalancedKDTree<Integer>(dimensions);
+        for(int i = 0; i < points.length; i++)
+            balanced.put(points[i], i);
+        long balancedInsert = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for(double[] point: points)
+            balanced.get(point);
+        long balancedGet = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for(int i = 0; i < 1000; i++)
+            balanced.nearest(points[i % points.length], 10, Double.MAX_VALUE);
+        long balancedNearest = System.nanoTime() - start;
+
+        System.out.println(name + " BalancedKDTree: depth " + balanced.getDepth() + ", "
+                           + perOp(balancedInsert, points.length) + " ns/insert, "
+                           + perOp(balancedGet, points.length) + " ns/get, "
+                           + perOp(balancedNearest, 1000) + " ns/10-nearest");
+
+        try {
+            start = System.nanoTime();
+            KDNode<Integer> root = new KDNode<Integer>(origin);
+            for(int i = 0; i < points.length; i++) {
+                KDNode<Integer> node = new KDNode<Integer>(points[i]);
+                node.setData(i);
+                root.add(node);
+            }
+            long nodeInsert = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(double[] point: points)
+                root.getNode(point);
+            long nodeGet = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(int i = 0; i < 1000; i++)
+                root.getNearestNodes(new KDVector(points[i % points.length]),
+                                     10,
+                                     Double.MAX_VALUE);
+            long nodeNearest = System.nanoTime() - start;
+
+            System.out.println(name + " KDNode:         " + perOp(nodeInsert, points.length)
+                               + " ns/insert, " + perOp(nodeGet, points.length) + " ns/get, "
+                               + perOp(nodeNearest, 1000) + " ns/10-nearest");
+        } catch(StackOverflowError e) {
+            System.out.println(name + " KDNode:         stack overflow, the tree is too deep");
+        }
+    }
+
+    private static long perOp(long nanos, int ops) {
+        return nanos / ops;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.performance;
+
+import java.util.concurrent.CountDownLatch;
+
+import voldemort.store.stats.RequestCounter;
+import voldemort.utils.Utils;
+
+/**
+ * Measures how RequestCounter scales as more threads record requests at
+ * once, and checks that none of the requests are lost.
+ * 
+ * @author jay
+ * 
+ */
+public class RequestCounterPerformanceTest {
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 2)
+            Utils.croak("USAGE: java " + RequestCounterPerformanceTest.class.getName()
+                        + " maxThreads requestsPerThread");
+
+        int maxThreads = Integer.parseInt(args[0]);
+        int requestsPerThread = Integer.parseInt(args[1]);
+
+        // warm up
+        run(maxThreads, requestsPerThread);
+
+        for(int numThreads = 1; numThreads <= maxThreads; numThreads *= 2)
+            run(numThreads, requestsPerThread);
+    }
+
+    private static void run(int numThreads, final int requestsPerThread) throws Exception {
+        final RequestCounter counter = new RequestCounter(300000);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(numThreads);
+        for(int i = 0; i < numThreads; i++) {
+            new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        start.await();
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                    for(int j = 0; j < requestsPerThread; j++)
+                        counter.addRequest(100000 + j % 1000);
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double elapsedSeconds = (System.nanoTime() - begin) / 1000000000.0;
+
+        long expected = (long) numThreads * requestsPerThread;
+        System.out.println(numThreads + " threads: "
+                           + String.format("%.0f", expected / elapsedSeconds)
+                           + " requests/second, " + (expected - counter.getTotalCount())
+                           + " of " + expected + " requests lost");
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.performance;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.management.ObjectName;
+
+import voldemort.ServerTestUtils;
+import voldemort.TestUtils;
+import voldemort.client.protocol.RequestFormat;
+import voldemort.client.protocol.RequestFormatFactory;
+import voldemort.client.protocol.RequestFormatType;
+import voldemort.server.StoreRepository;
+import voldemort.server.protocol.RequestHandlerFactory;
+import voldemort.server.socket.SocketServer;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.store.socket.SocketAndStreams;
+import voldemort.utils.ByteArray;
+import voldemort.utils.Utils;
+import voldemort.versioning.VectorClock;
+import voldemort.versioning.Versioned;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Measures the bytes the socket server allocates for each get request sent
+ * over long lived connections.
+ * 
+ * Only the threads that are alive both before and after the measured run are
+ * counted, which are the server's session threads (and the idle main thread)
+ * but not the client threads. Allocation is read through the platform MBean
+ * server, which not every JVM supports.
+ * 
+ * @author jay
+ * 
+ */
+public class SocketAllocationTest {
+
+    private static final String STORE_NAME = "test";
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 3)
+            Utils.croak("USAGE: java " + SocketAllocationTest.class.getName()
+                        + " numRequests numThreads valueSize");
+
+        int numRequests = Integer.parseInt(args[0]);
+        int numThreads = Integer.parseInt(args[1]);
+        int valueSize = Integer.parseInt(args[2]);
+
+        StoreRepository repository = new StoreRepository();
+        InMemoryStorageEngine<ByteArray, byte[]> engine = new InMemoryStorageEngine<ByteArray, byte[]>(STORE_NAME);
+        final ByteArray key = TestUtils.toByteArray("key");
+        engine.put(key, new Versioned<byte[]>(new byte[valueSize], new VectorClock()));
+        repository.addLocalStore(engine);
+        RequestHandlerFactory factory = new RequestHandlerFactory(repository, null, null);
+        int port = ServerTestUtils.findFreePort();
+        SocketServer socketServer = new SocketServer("Socket-Server",
+                                                     port,
+                                                     numThreads,
+                                                     numThreads,
+                                                     1000,
+                                                     factory.getRequestHandler(RequestFormatType.VOLDEMORT));
+        socketServer.start();
+        socketServer.awaitStartupCompletion();
+
+        final BlockingQueue<SocketAndStreams> connections = new ArrayBlockingQueue<SocketAndStreams>(numThreads);
+        for(int i = 0; i < numThreads; i++) {
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("localhost", port));
+            connections.add(new SocketAndStreams(socket));
+        }
+
+        final RequestFormat format = new RequestFormatFactory().getRequestFormat(RequestFormatType.VOLDEMORT);
+        PerformanceTest getTest = new PerformanceTest() {
+
+            @Override
+            public void doOperation(int i) throws Exception {
+                SocketAndStreams sands = connections.take();
+                try {
+                    format.writeGetRequest(sands.getOutputStream(), STORE_NAME, key, false);
+                    sands.getOutputStream().flush();
+                    format.readGetResponse(sands.getInputStream());
+                } finally {
+                    connections.put(sands);
+                }
+            }
+        };
+
+        // warm up, then measure
+        getTest.run(numRequests, numThreads);
+        Map<Long, Long> before = allocatedBytesByThread();
+        getTest.run(numRequests, numThreads);
+        Map<Long, Long> after = allocatedBytesByThread();
+
+        System.out.println("Performing get test.");
+        getTest.printStats();
+        if(before == null || after == null) {
+            System.out.println("Thread allocation is not measurable on this JVM.");
+        } else {
+            long allocated = 0;
+            for(Map.Entry<Long, Long> entry: after.entrySet()) {
+                Long previous = before.get(entry.getKey());
+                if(previous != null)
+                    allocated += entry.getValue() - previous;
+            }
+            System.out.println("Server bytes allocated per request: " + allocated / numRequests);
+        }
+
+        for(SocketAndStreams sands: connections)
+            sands.close();
+        socketServer.shutdown();
+    }
+
+    /*
+     * The bytes allocated so far by each live thread, or null if the JVM does
+     * not track them
+     */
+    private static Map<Long, Long> allocatedBytesByThread() {
+        long[] ids = ManagementFactory.getThreadMXBean().getAllThreadIds();
+        long[] allocated;
+        try {
+            allocated = (long[]) ManagementFactory.getPlatformMBeanServer()
+                                                  .invoke(new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME),
+                                                          "getThreadAllocatedBytes",
+                                                          new Object[] { ids },
+                                                          new String[] { long[].class.getName() });
+        } catch(Exception e) {
+            return null;
+        }
+        Map<Long, Long> byThread = Maps.newHashMap();
+        for(int i = 0; i < ids.length; i++)
+            if(allocated[i] >= 0)
+                byThread.put(ids[i], allocated[i]);
+        return byThread;
+    }
+}
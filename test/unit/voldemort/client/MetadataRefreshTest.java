@@ -0,0 +1,137 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.client;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import voldemort.ServerTestUtils;
+import voldemort.TestUtils;
+import voldemort.VoldemortTestConstants;
+import voldemort.client.protocol.RequestFormatType;
+import voldemort.cluster.Cluster;
+import voldemort.cluster.Node;
+import voldemort.server.StoreRepository;
+import voldemort.server.protocol.RequestHandlerFactory;
+import voldemort.server.socket.SocketServer;
+import voldemort.store.Store;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.store.metadata.MetadataStore;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
+import voldemort.utils.Utils;
+import voldemort.xml.ClusterMapper;
+
+/**
+ * Tests that a client factory picks up metadata changed on the servers
+ * 
+ * @author jay
+ * 
+ */
+public class MetadataRefreshTest extends TestCase {
+
+    private static final String STORE_NAME = "test";
+
+    private File metadataDir;
+    private Cluster twoNodes;
+    private Store<ByteArray, byte[]> secondStore;
+    private SocketServer first;
+    private SocketServer second;
+
+    @Override
+    public void setUp() throws Exception {
+        twoNodes = ServerTestUtils.getLocalCluster(2);
+        Node node0 = twoNodes.getNodeById(0);
+        // at first the only node owns both partitions
+        Cluster oneNode = new Cluster(twoNodes.getName(), Arrays.asList(new Node(0,
+                                                                                 node0.getHost(),
+                                                                                 node0.getHttpPort(),
+                                                                                 node0.getSocketPort(),
+                                                                                 node0.getAdminPort(),
+                                                                                 Arrays.asList(0,
+                                                                                               1))));
+
+        // the first node reads its metadata from plain files, as deployed
+        metadataDir = TestUtils.createTempDir();
+        FileUtils.writeStringToFile(new File(metadataDir, MetadataStore.CLUSTER_KEY),
+                                    new ClusterMapper().writeCluster(oneNode));
+        FileUtils.writeStringToFile(new File(metadataDir, MetadataStore.STORES_KEY),
+                                    VoldemortTestConstants.getSingleStoreDefinitionsXml());
+        StoreRepository repository = new StoreRepository();
+        repository.addLocalStore(new InMemoryStorageEngine<ByteArray, byte[]>(STORE_NAME));
+        repository.addLocalStore(MetadataStore.readFromDirectory(metadataDir));
+        first = startServer(repository, node0.getSocketPort());
+
+        StoreRepository secondRepository = ServerTestUtils.getStores(STORE_NAME,
+                                                                     new ClusterMapper().writeCluster(twoNodes),
+                                                                     VoldemortTestConstants.getSingleStoreDefinitionsXml());
+        secondStore = secondRepository.getLocalStore(STORE_NAME);
+        second = startServer(secondRepository, twoNodes.getNodeById(1).getSocketPort());
+    }
+
+    private SocketServer startServer(StoreRepository repository, int port) {
+        RequestHandlerFactory factory = new RequestHandlerFactory(repository, null, null);
+        SocketServer server = new SocketServer("Socket-Server-" + port,
+                                               port,
+                                               5,
+                                               10,
+                                               10000,
+                                               factory.getRequestHandler(RequestFormatType.VOLDEMORT));
+        server.start();
+        server.awaitStartupCompletion();
+        return server;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        first.shutdown();
+        second.shutdown();
+        Utils.rm(metadataDir);
+    }
+
+    public void testEditedClusterIsPickedUp() throws Exception {
+        String url = twoNodes.getNodeById(0).getSocketUrl().toString();
+        SocketStoreClientFactory factory = new SocketStoreClientFactory(new ClientConfig().setBootstrapUrls(url));
+        StoreClient<String, String> client = factory.getStoreClient(STORE_NAME);
+        for(int i = 0; i < 100; i++)
+            client.put("before-" + i, "value");
+        assertEquals(0, countKeys("before-"));
+
+        // a hand edit leaves the file with the same empty version
+        FileUtils.writeStringToFile(new File(metadataDir, MetadataStore.CLUSTER_KEY),
+                                    new ClusterMapper().writeCluster(twoNodes));
+        factory.refreshMetadata(factory.getMetadataGeneration());
+
+        for(int i = 0; i < 100; i++)
+            client.put("after-" + i, "value");
+        assertTrue("No key went to the added node.", countKeys("after-") > 0);
+        factory.close();
+    }
+
+    private int countKeys(String prefix) {
+        int found = 0;
+        for(int i = 0; i < 100; i++)
+            if(!secondStore.get(new ByteArray(ByteUtils.getBytes(prefix + i, "UTF-8"))).isEmpty())
+                found++;
+        return found;
+    }
+}
@@ -1,7 +1,24 @@
 package voldemort.protocol.vold;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+
+import voldemort.VoldemortException;
 import voldemort.client.protocol.RequestFormatType;
+import voldemort.client.protocol.vold.VoldemortNativeClientRequestFormat;
 import voldemort.protocol.AbstractRequestFormatTest;
+import voldemort.server.StoreRepository;
+import voldemort.server.protocol.RequestHandler;
+import voldemort.server.protocol.RequestHandlerFactory;
+import voldemort.store.kdtree.KDTreeStorageEngine;
+import voldemort.store.kdtree.KDUtil;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.utils.Pair;
+import voldemort.versioning.Versioned;
 
 public class VoldemortNativeRequestFormatTest extends AbstractRequestFormatTest {
 
@@ -9,4 +26,70 @@ public class VoldemortNativeRequestFormatTest extends AbstractRequestFormatTest
         super(RequestFormatType.VOLDEMORT);
     }
 
+    private static ByteArray point(double x, double y) {
+        return new ByteArray(KDUtil.getBytesForKey(new double[] { x, y }));
+    }
+
+    public void testSpatialRequests() throws Exception {
+        KDTreeStorageEngine points = new KDTreeStorageEngine("points", 2);
+        for(int i = 0; i < 10; i++)
+            points.put(point(i, i), new Versioned<byte[]>(new byte[] { (byte) i }));
+        StoreRepository repository = new StoreRepository();
+        repository.addLocalStore(points);
+        repository.addLocalStore(new InMemoryStorageEngine<ByteArray, byte[]>("bytes"));
+        RequestHandler handler = new RequestHandlerFactory(repository, null, null).getRequestHandler(RequestFormatType.VOLDEMORT);
+        VoldemortNativeClientRequestFormat format = new VoldemortNativeClientRequestFormat();
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        format.writeGetRangeRequest(new DataOutputStream(request),
+                                    "points",
+                                    new double[] { 2, 0 },
+                                    new double[] { 9, 9 },
+                                    point(3, 3),
+                                    3,
+                                    false);
+        List<Pair<ByteArray, List<Versioned<byte[]>>>> page = format.readSpatialResponse(handle(handler,
+                                                                                                request));
+        assertEquals(3, page.size());
+        for(int i = 0; i < 3; i++) {
+            assertEquals(point(i + 4, i + 4), page.get(i).getFirst());
+            assertEquals(i + 4, page.get(i).getSecond().get(0).getValue()[0]);
+        }
+
+        request = new ByteArrayOutputStream();
+        format.writeGetNearestRequest(new DataOutputStream(request),
+                                      "points",
+                                      new double[] { 6.9, 7.2 },
+                                      2,
+                                      Double.MAX_VALUE,
+                                      false);
+        List<Pair<ByteArray, List<Versioned<byte[]>>>> nearest = format.readSpatialResponse(handle(handler,
+                                                                                                   request));
+        assertEquals(2, nearest.size());
+        assertEquals(point(7, 7), nearest.get(0).getFirst());
+        assertEquals(point(8, 8), nearest.get(1).getFirst());
+
+        request = new ByteArrayOutputStream();
+        format.writeGetNearestRequest(new DataOutputStream(request),
+                                      "bytes",
+                                      new double[] { 0, 0 },
+                                      1,
+                                      1,
+                                      false);
+        try {
+            format.readSpatialResponse(handle(handler, request));
+            fail("Store without spatial queries answered one.");
+        } catch(VoldemortException e) {
+            // this is good
+        }
+    }
+
+    private DataInputStream handle(RequestHandler handler, ByteArrayOutputStream request)
+            throws Exception {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        handler.handleRequest(new DataInputStream(new ByteArrayInputStream(request.toByteArray())),
+                              new DataOutputStream(response));
+        return new DataInputStream(new ByteArrayInputStream(response.toByteArray()));
+    }
+
 }
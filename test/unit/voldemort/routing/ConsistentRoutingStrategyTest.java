@@ -18,6 +18,7 @@ package voldemort.routing;
 
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -76,6 +77,19 @@ public class ConsistentRoutingStrategyTest extends TestCase {
         assertNodeOrder(getRouter(16, 3).routeRequest(key), 3, 2, 1);
     }
 
+    public void testPreferenceListsArePrecomputed() {
+        ConsistentRoutingStrategy router = getRouter(14, 3);
+        assertSame(router.routeRequest(key), router.routeRequest(new byte[] { 1, 2, 3 }));
+        assertSame(router.getPartitionList(key), router.getPartitionList(new byte[] { 1, 2, 3 }));
+        assertEquals(Arrays.asList(14, 15, 16), router.getPartitionList(key));
+        try {
+            router.routeRequest(key).clear();
+            fail("Shared preference list should not be modifiable.");
+        } catch(UnsupportedOperationException e) {
+            // this is good
+        }
+    }
+
     public void testGetNodes() {
         getRouter(0, 3).getNodes().containsAll(getTestNodes());
     }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.routing;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import voldemort.ServerTestUtils;
+import voldemort.cluster.Cluster;
+import voldemort.cluster.Node;
+import voldemort.store.StoreDefinition;
+import voldemort.utils.ConstantHashFunction;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+public class ZoneRoutingStrategyTest extends TestCase {
+
+    private final byte[] key = new byte[0];
+
+    private Node node(int id, int zone, int rack, Integer... partitions) {
+        return new Node(id, "localhost", 8080, 6666, 6667, zone, rack, Arrays.asList(partitions));
+    }
+
+    /*
+     * Ring order is 0 1 2 3 4 5, nodes 0-2 are in zone 0 (0 and 1 share a
+     * rack) and nodes 3-5 in zone 1
+     */
+    private List<Node> getTestNodes() {
+        return ImmutableList.of(node(0, 0, 0, 0, 6),
+                                node(1, 0, 0, 1, 7),
+                                node(2, 0, 1, 2, 8),
+                                node(3, 1, 0, 3, 9),
+                                node(4, 1, 0, 4, 10),
+                                node(5, 1, 1, 5, 11));
+    }
+
+    private ZoneRoutingStrategy getRouter(int hashValue, int replicationFactor) {
+        return new ZoneRoutingStrategy(new ConstantHashFunction(hashValue),
+                                       getTestNodes(),
+                                       replicationFactor);
+    }
+
+    private void assertNodeOrder(List<Node> found, int... expected) {
+        assertEquals("Router produced unexpected number of nodes.", expected.length, found.size());
+        for(int i = 0; i < found.size(); i++)
+            assertEquals("Mismatch in position " + i + ".", expected[i], found.get(i).getId());
+    }
+
+    public void testReplicasSpreadOverZones() {
+        assertNodeOrder(getRouter(0, 2).routeRequest(key), 0, 3);
+        assertNodeOrder(getRouter(4, 2).routeRequest(key), 4, 0);
+        assertEquals(Arrays.asList(0, 3), getRouter(0, 2).getPartitionList(key));
+    }
+
+    public void testReplicasSpreadOverRacks() {
+        // the third replica avoids the rack shared by nodes 0 and 1
+        assertNodeOrder(getRouter(0, 3).routeRequest(key), 0, 3, 2);
+        assertNodeOrder(getRouter(3, 4).routeRequest(key), 3, 0, 5, 2);
+        assertNodeOrder(getRouter(0, 6).routeRequest(key), 0, 3, 2, 5, 1, 4);
+    }
+
+    public void testSingleZoneMatchesRackSpread() {
+        List<Node> nodes = ImmutableList.of(node(0, 0, 0, 0), node(1, 0, 0, 1), node(2, 0, 1, 2));
+        ZoneRoutingStrategy router = new ZoneRoutingStrategy(new ConstantHashFunction(0), nodes, 2);
+        assertNodeOrder(router.routeRequest(key), 0, 2);
+    }
+
+    public void testMasterMatchesConsistentRouting() {
+        ZoneRoutingStrategy zoned = new ZoneRoutingStrategy(getTestNodes(), 3);
+        ConsistentRoutingStrategy consistent = new ConsistentRoutingStrategy(getTestNodes(), 3);
+        Random random = new Random(1234);
+        byte[] randomKey = new byte[16];
+        for(int i = 0; i < 1000; i++) {
+            random.nextBytes(randomKey);
+            List<Node> routed = zoned.routeRequest(randomKey);
+            assertEquals(consistent.routeRequest(randomKey).get(0), routed.get(0));
+            Set<Integer> zones = Sets.newHashSet();
+            for(Node node: routed)
+                zones.add(node.getZoneId());
+            assertEquals(2, zones.size());
+        }
+    }
+
+    public void testFactoryCreatesZoneRouting() {
+        StoreDefinition storeDef = ServerTestUtils.getStoreDef("test",
+                                                               3,
+                                                               1,
+                                                               1,
+                                                               2,
+                                                               2,
+                                                               RoutingStrategyType.ZONE_STRATEGY);
+        RoutingStrategy strategy = new RoutingStrategyFactory(new Cluster("test", getTestNodes())).getRoutingStrategy(storeDef);
+        assertTrue(strategy instanceof ZoneRoutingStrategy);
+        assertEquals(3, strategy.routeRequest(key).size());
+    }
+}
@@ -20,7 +20,10 @@ import static java.util.Arrays.asList;
 import static voldemort.TestUtils.quote;
 import static voldemort.serialization.json.JsonTypeDefinition.fromJson;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Map;
 
@@ -165,6 +168,30 @@ public class JsonTypeSerializerTest extends TestCase {
         assertEquals(valueV1, v1.toObject(bytes1));
     }
 
+    public void testSerializedFormat() throws Exception {
+        // {"arms":["right"], "id":7, "name":null}, with version byte 3
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream expected = new DataOutputStream(bytes);
+        expected.writeByte(3);
+        expected.writeByte(1);
+        expected.writeShort(1);
+        expected.writeShort(5);
+        expected.write("right".getBytes("UTF-8"));
+        expected.writeLong(7L);
+        expected.writeShort(-1);
+        expected.flush();
+
+        Map<String, Object> m = Maps.newHashMap();
+        m.put("name", null);
+        m.put("id", 7);
+        m.put("arms", asList("right"));
+        JsonTypeSerializer serializer = getSerializer(3,
+                                                      "{\"name\":\"string\", \"id\":\"int64\", \"arms\":[\"string\"]}");
+        assertTrue(Arrays.equals(bytes.toByteArray(), serializer.toBytes(m)));
+        m.put("id", 7L);
+        assertEquals(m, serializer.toObject(bytes.toByteArray()));
+    }
+
     public void testBadToBytesInput() {
         assertToBytesFails("{\"name\":\"string\"}", Maps.newHashMap());
         assertToBytesFails("[\"string\"]", asList(123));
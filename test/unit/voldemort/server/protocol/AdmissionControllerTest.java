@@ -0,0 +1,138 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.server.protocol;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import voldemort.TestUtils;
+import voldemort.store.ErrorCodeMapper;
+import voldemort.store.SleepyStore;
+import voldemort.store.SpatialStore;
+import voldemort.store.Store;
+import voldemort.store.StoreCapabilityType;
+import voldemort.store.StoreOverloadedException;
+import voldemort.store.kdtree.KDTreeStorageEngine;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.Versioned;
+
+public class AdmissionControllerTest extends TestCase {
+
+    private final ByteArray key = TestUtils.toByteArray("key");
+
+    public void testConcurrencyLimitPerStore() {
+        AdmissionController controller = new AdmissionController(2, 5);
+        assertTrue(controller.acquire("a", false, AdmissionController.NO_DEADLINE));
+        assertTrue(controller.acquire("a", false, AdmissionController.NO_DEADLINE));
+        try {
+            controller.acquire("a", false, AdmissionController.NO_DEADLINE);
+            fail("Store should be full.");
+        } catch(StoreOverloadedException e) {
+            // expected
+        }
+        assertEquals(1, controller.getNumberRejectedBusy());
+
+        // other stores and requests routed from here are not affected
+        assertTrue(controller.acquire("b", false, AdmissionController.NO_DEADLINE));
+        assertTrue(controller.acquire("a", true, AdmissionController.NO_DEADLINE));
+        assertTrue(controller.acquire("a", true, AdmissionController.NO_DEADLINE));
+        try {
+            controller.acquire("a", true, AdmissionController.NO_DEADLINE);
+            fail("Routed requests should be limited too.");
+        } catch(StoreOverloadedException e) {
+            // expected
+        }
+
+        controller.release("a", false);
+        assertTrue(controller.acquire("a", false, AdmissionController.NO_DEADLINE));
+        controller.release("a", true);
+        assertTrue(controller.acquire("a", true, AdmissionController.NO_DEADLINE));
+    }
+
+    public void testExpiredRequestsAreRejected() {
+        AdmissionController controller = new AdmissionController(0, 5);
+        Store<ByteArray, byte[]> store = controller.admit(new InMemoryStorageEngine<ByteArray, byte[]>("test"),
+                                                          false,
+                                                          System.nanoTime() - 1);
+        try {
+            store.get(key);
+            fail("Request should have expired.");
+        } catch(StoreOverloadedException e) {
+            // expected
+        }
+        assertEquals(1, controller.getNumberRejectedExpired());
+
+        store = controller.admit(new InMemoryStorageEngine<ByteArray, byte[]>("test"),
+                                 false,
+                                 System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+        store.put(key, new Versioned<byte[]>(new byte[1]));
+        assertEquals(1, store.get(key).size());
+    }
+
+    public void testWaitingRequestIsAdmittedWhenSlotFrees() throws Exception {
+        final AdmissionController controller = new AdmissionController(1, 10000);
+        final Store<ByteArray, byte[]> store = controller.admit(new SleepyStore<ByteArray, byte[]>(200,
+                                                                                                   new InMemoryStorageEngine<ByteArray, byte[]>("test")),
+                                                                false,
+                                                                AdmissionController.NO_DEADLINE);
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread first = new Thread(new Runnable() {
+
+            public void run() {
+                started.countDown();
+                store.get(key);
+            }
+        });
+        first.start();
+        started.await();
+        // waits for the first request rather than being rejected
+        store.get(key);
+        first.join();
+        assertEquals(0, controller.getNumberRejectedBusy());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testSpatialQueriesAreAdmitted() {
+        AdmissionController controller = new AdmissionController(0, 5);
+        Store<ByteArray, byte[]> store = controller.admit(new KDTreeStorageEngine("test", 2),
+                                                          false,
+                                                          System.nanoTime() - 1);
+        SpatialStore<ByteArray, byte[]> spatial = (SpatialStore<ByteArray, byte[]>) store.getCapability(StoreCapabilityType.SPATIAL_QUERIES);
+        try {
+            spatial.getNearest(new double[] { 0, 0 }, 10, 1);
+            fail("Request should have expired.");
+        } catch(StoreOverloadedException e) {
+            // expected
+        }
+        try {
+            spatial.getRange(new double[] { 0, 0 }, new double[] { 1, 1 }, null, 10);
+            fail("Request should have expired.");
+        } catch(StoreOverloadedException e) {
+            // expected
+        }
+        assertEquals(2, controller.getNumberRejectedExpired());
+    }
+
+    public void testOverloadIsMappedToItsOwnCode() {
+        ErrorCodeMapper mapper = new ErrorCodeMapper();
+        short code = mapper.getCode(new StoreOverloadedException("busy"));
+        assertTrue(mapper.getError(code, "busy") instanceof StoreOverloadedException);
+    }
+}
@@ -21,6 +21,8 @@ import voldemort.ServerTestUtils;
 import voldemort.server.StoreRepository;
 import voldemort.server.protocol.vold.VoldemortNativeRequestHandler;
 import voldemort.store.ErrorCodeMapper;
+import voldemort.store.StoreOverloadedException;
+import voldemort.store.UnreachableStoreException;
 import voldemort.store.socket.SocketAndStreams;
 import voldemort.store.socket.SocketDestination;
 import voldemort.store.socket.SocketPool;
@@ -90,4 +92,94 @@ public class SocketPoolTest extends TestCase {
         assertTrue(sas1 != sas2);
     }
 
+    public void testCheckoutWaitsForCheckinAtLimit() throws Exception {
+        final SocketAndStreams[] sockets = new SocketAndStreams[maxConnectionsPerNode];
+        for(int i = 0; i < maxConnectionsPerNode; i++)
+            sockets[i] = pool.checkout(dest1);
+        assertEquals(maxConnectionsPerNode, pool.getNumberOfActiveConnections());
+        assertEquals(0, pool.getNumberOfIdleConnections());
+
+        Thread returner = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch(InterruptedException e) {
+                    return;
+                }
+                pool.checkin(dest1, sockets[0]);
+            }
+        });
+        returner.start();
+        SocketAndStreams sas = pool.checkout(dest1);
+        returner.join();
+        assertTrue(sas == sockets[0]);
+        assertEquals(maxConnectionsPerNode, pool.getNumberSocketsCreated());
+
+        for(int i = 1; i < maxConnectionsPerNode; i++)
+            pool.checkin(dest1, sockets[i]);
+        pool.checkin(dest1, sas);
+        assertEquals(0, pool.getNumberOfActiveConnections());
+        assertEquals(maxConnectionsPerNode, pool.getNumberOfIdleConnections());
+    }
+
+    public void testCheckoutTimesOutAtLimit() throws Exception {
+        for(int i = 0; i < maxConnectionsPerNode; i++)
+            pool.checkout(dest1);
+        long start = System.currentTimeMillis();
+        try {
+            pool.checkout(dest1);
+            fail("Checkout should time out.");
+        } catch(UnreachableStoreException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 900);
+    }
+
+    public void testCheckoutWaitsForRoomAtTotalLimit() throws Exception {
+        // the total limit leaves room for a single socket to a second node
+        final SocketPool small = new SocketPool(maxConnectionsPerNode,
+                                                maxConnectionsPerNode + 1,
+                                                1000,
+                                                1000,
+                                                32 * 1024);
+        try {
+            final SocketAndStreams[] sockets = new SocketAndStreams[maxConnectionsPerNode];
+            for(int i = 0; i < maxConnectionsPerNode; i++)
+                sockets[i] = small.checkout(dest1);
+            SocketDestination dest2 = new SocketDestination("127.0.0.1", port);
+            SocketAndStreams other = small.checkout(dest2);
+
+            long start = System.currentTimeMillis();
+            try {
+                small.checkout(dest2);
+                fail("Checkout should time out.");
+            } catch(StoreOverloadedException e) {
+                // expected, the destination is not at fault
+            }
+            assertTrue(System.currentTimeMillis() - start >= 900);
+
+            Thread returner = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                    small.checkin(dest1, sockets[0]);
+                }
+            });
+            returner.start();
+            // the idle socket to the first node is closed to make room
+            SocketAndStreams sas = small.checkout(dest2);
+            returner.join();
+            assertTrue(sas != other);
+            assertEquals(maxConnectionsPerNode + 2, small.getNumberSocketsCreated());
+            assertEquals(1, small.getNumberSocketsDestroyed());
+        } finally {
+            small.close();
+        }
+    }
+
 }
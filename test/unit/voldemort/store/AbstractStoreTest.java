@@ -266,6 +266,22 @@ public abstract class AbstractStoreTest<K, V> extends TestCase {
         }
     }
 
+    public void testGetAllWithDuplicateKeys() {
+        Store<K, V> store = getStore();
+        List<K> keys = getKeys(3);
+        List<V> values = getValues(3);
+        for(int i = 0; i < keys.size(); i++)
+            store.put(keys.get(i), new Versioned<V>(values.get(i)));
+
+        List<K> keysForGet = new ArrayList<K>(keys);
+        keysForGet.addAll(keys);
+        keysForGet.add(keys.get(0));
+        Map<K, List<Versioned<V>>> result = store.getAll(keysForGet);
+        assertEquals(keys.size(), result.size());
+        for(int i = 0; i < keys.size(); i++)
+            assertGetAllValues(values.get(i), result.get(keys.get(i)));
+    }
+
     public void testGetAllWithAbsentKeys() {
         Store<K, V> store = getStore();
         Map<K, List<Versioned<V>>> result = store.getAll(getKeys(3));
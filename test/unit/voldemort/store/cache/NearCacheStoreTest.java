@@ -0,0 +1,164 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.cache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import voldemort.MockTime;
+import voldemort.TestUtils;
+import voldemort.VoldemortException;
+import voldemort.store.AbstractByteArrayStoreTest;
+import voldemort.store.DelegatingStore;
+import voldemort.store.Store;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.VectorClock;
+import voldemort.versioning.Versioned;
+
+public class NearCacheStoreTest extends AbstractByteArrayStoreTest {
+
+    private final ByteArray key = TestUtils.toByteArray("key");
+    private MockTime time;
+    private CountingStore inner;
+    private NearCacheStore cache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        time = new MockTime();
+        inner = new CountingStore(new InMemoryStorageEngine<ByteArray, byte[]>("test"));
+        cache = new NearCacheStore(inner, 100, 1000, time);
+    }
+
+    @Override
+    public Store<ByteArray, byte[]> getStore() {
+        return new NearCacheStore(new InMemoryStorageEngine<ByteArray, byte[]>("test"),
+                                  100,
+                                  1000,
+                                  new MockTime());
+    }
+
+    private VectorClock clock(int... nodes) {
+        VectorClock clock = new VectorClock();
+        for(int node: nodes)
+            clock.incrementVersion(node, 0);
+        return clock;
+    }
+
+    public void testReadsAreServedUntilExpired() {
+        inner.put(key, new Versioned<byte[]>(new byte[] { 1 }, clock(1)));
+        assertEquals(1, cache.get(key).size());
+        assertEquals(1, cache.get(key).size());
+        assertEquals(1, inner.gets);
+        assertEquals(1, cache.getNumberOfHits());
+
+        // another client writes, the cache still serves the old value
+        inner.put(key, new Versioned<byte[]>(new byte[] { 2 }, clock(1, 1)));
+        assertEquals(1, cache.get(key).get(0).getValue()[0]);
+
+        time.addMilliseconds(1000);
+        assertEquals(2, cache.get(key).get(0).getValue()[0]);
+        assertEquals(2, inner.gets);
+        assertEquals(1, cache.getNumberOfStaleRefreshes());
+    }
+
+    public void testOwnWritesAreNeverLost() {
+        cache.put(key, new Versioned<byte[]>(new byte[] { 1 }, clock(1)));
+        // the write is cached without a read
+        assertEquals(1, cache.get(key).get(0).getValue()[0]);
+        assertEquals(0, inner.gets);
+
+        // the next write does not reach the replica that is read
+        inner.dropPuts = true;
+        cache.put(key, new Versioned<byte[]>(new byte[] { 2 }, clock(1, 1)));
+        time.addMilliseconds(1000);
+        List<Versioned<byte[]>> found = cache.get(key);
+        assertEquals(1, inner.gets);
+        assertEquals(1, found.size());
+        assertEquals(2, found.get(0).getValue()[0]);
+    }
+
+    public void testReturnedClocksAreCopies() {
+        cache.put(key, new Versioned<byte[]>(new byte[] { 1 }, clock(1)));
+        Versioned<byte[]> found = cache.get(key).get(0);
+        ((VectorClock) found.getVersion()).incrementVersion(2, 0);
+        assertEquals(clock(1), cache.get(key).get(0).getVersion());
+    }
+
+    public void testDeleteInvalidates() {
+        cache.put(key, new Versioned<byte[]>(new byte[] { 1 }, clock(1)));
+        cache.delete(key, clock(1));
+        assertEquals(0, cache.get(key).size());
+        assertEquals(1, inner.gets);
+    }
+
+    public void testGetAllMixesHitsAndMisses() {
+        ByteArray other = TestUtils.toByteArray("other");
+        ByteArray absent = TestUtils.toByteArray("absent");
+        inner.put(key, new Versioned<byte[]>(new byte[] { 1 }, clock(1)));
+        inner.put(other, new Versioned<byte[]>(new byte[] { 2 }, clock(1)));
+        cache.get(key);
+        Map<ByteArray, List<Versioned<byte[]>>> found = cache.getAll(Arrays.asList(key,
+                                                                                     other,
+                                                                                     absent));
+        assertEquals(2, found.size());
+        assertEquals(1, inner.getAlls);
+        // all three are cached now, including the absent key
+        cache.getAll(Arrays.asList(key, other, absent));
+        assertEquals(1, inner.getAlls);
+    }
+
+    public void testCapacityIsBounded() {
+        for(int i = 0; i < 250; i++)
+            cache.get(TestUtils.toByteArray("key" + i));
+        assertTrue(cache.getSize() <= 100);
+        assertTrue(cache.getNumberOfEvictions() >= 150);
+    }
+
+    private static class CountingStore extends DelegatingStore<ByteArray, byte[]> {
+
+        private volatile int gets;
+        private volatile int getAlls;
+        private volatile boolean dropPuts;
+
+        public CountingStore(Store<ByteArray, byte[]> innerStore) {
+            super(innerStore);
+        }
+
+        @Override
+        public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
+            gets++;
+            return super.get(key);
+        }
+
+        @Override
+        public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
+                throws VoldemortException {
+            getAlls++;
+            return super.getAll(keys);
+        }
+
+        @Override
+        public void put(ByteArray key, Versioned<byte[]> value) throws VoldemortException {
+            if(!dropPuts)
+                super.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.compress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import voldemort.TestUtils;
+import voldemort.store.AbstractByteArrayStoreTest;
+import voldemort.store.Store;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
+import voldemort.versioning.Versioned;
+
+/**
+ * @author jay
+ * 
+ */
+public class CompressingStoreTest extends AbstractByteArrayStoreTest {
+
+    private List<byte[]> jsonValues(int numValues) {
+        List<byte[]> values = new ArrayList<byte[]>(numValues);
+        for(int i = 0; i < numValues; i++)
+            values.add(ByteUtils.getBytes("{\"member_id\":" + i + ", \"first_name\":\""
+                                          + TestUtils.randomLetters(6)
+                                          + "\", \"status\":\"active\"}", "UTF-8"));
+        return values;
+    }
+
+    @Override
+    public Store<ByteArray, byte[]> getStore() {
+        byte[] dictionary = DeflateCompressionStrategy.trainDictionary(jsonValues(100), 1024);
+        return new CompressingStore<ByteArray>(new InMemoryStorageEngine<ByteArray, byte[]>("test"),
+                                               new DeflateCompressionStrategy(dictionary));
+    }
+
+    public void testStrategiesRoundTrip() throws Exception {
+        List<CompressionStrategy> strategies = Arrays.asList(new GzipCompressionStrategy(),
+                                                             new DeflateCompressionStrategy(),
+                                                             new DeflateCompressionStrategy(ByteUtils.getBytes("hello",
+                                                                                                               "UTF-8")));
+        for(CompressionStrategy strategy: strategies) {
+            for(int size: new int[] { 0, 1, 100, 100000 }) {
+                byte[] value = TestUtils.randomLetters(size).getBytes("UTF-8");
+                assertTrue(strategy.getType() + " does not round trip " + size + " bytes.",
+                           Arrays.equals(value, strategy.inflate(strategy.deflate(value))));
+            }
+        }
+    }
+
+    public void testLargeValuesAndClose() throws Exception {
+        DeflateCompressionStrategy strategy = new DeflateCompressionStrategy();
+        for(int size: new int[] { 4 * DeflateCompressionStrategy.MAX_KEPT_BUFFER_SIZE, 10 }) {
+            byte[] value = TestUtils.randomBytes(size);
+            assertTrue(Arrays.equals(value, strategy.inflate(strategy.deflate(value))));
+        }
+        strategy.close();
+        // codecs used after close are ended as soon as they are returned
+        byte[] value = TestUtils.randomBytes(100);
+        assertTrue(Arrays.equals(value, strategy.inflate(strategy.deflate(value))));
+    }
+
+    public void testDictionaryImprovesSmallValues() throws Exception {
+        byte[] dictionary = DeflateCompressionStrategy.trainDictionary(jsonValues(100), 1024);
+        assertTrue("Dictionary should not be empty.", dictionary.length > 0);
+        assertTrue("Dictionary is larger than requested.", dictionary.length <= 1024);
+        DeflateCompressionStrategy plain = new DeflateCompressionStrategy();
+        DeflateCompressionStrategy trained = new DeflateCompressionStrategy(dictionary);
+        int plainSize = 0;
+        int trainedSize = 0;
+        for(byte[] value: jsonValues(100)) {
+            plainSize += plain.deflate(value).length;
+            trainedSize += trained.deflate(value).length;
+        }
+        assertTrue("Dictionary did not help: " + trainedSize + " >= " + plainSize,
+                   trainedSize < plainSize);
+    }
+
+    public void testDictionaryFromStoreDefinition() throws Exception {
+        byte[] dictionary = DeflateCompressionStrategy.trainDictionary(jsonValues(100), 1024);
+        CompressionStrategy strategy = new CompressionStrategyFactory().get(CompressionStrategyFactory.deflate(dictionary));
+        assertTrue(Arrays.equals(dictionary,
+                                 ((DeflateCompressionStrategy) strategy).getDictionary()));
+        byte[] value = jsonValues(1).get(0);
+        assertTrue(Arrays.equals(value,
+                                 new DeflateCompressionStrategy(dictionary).inflate(strategy.deflate(value))));
+    }
+
+    public void testStatistics() {
+        CompressingStore<ByteArray> store = (CompressingStore<ByteArray>) getStore();
+        byte[] value = new byte[1000];
+        store.put(new ByteArray(new byte[] { 1 }), new Versioned<byte[]>(value));
+        store.get(new ByteArray(new byte[] { 1 }));
+        assertEquals(1, store.getNumberOfCompressions());
+        assertEquals(1, store.getNumberOfDecompressions());
+        assertTrue(store.getCompressionRatio() < 0.1);
+        store.resetStatistics();
+        assertEquals(0, store.getNumberOfCompressions());
+        assertEquals(1.0, store.getCompressionRatio());
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.hotkeys;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.VectorClock;
+import voldemort.versioning.Versioned;
+
+public class HotKeyTrackingStoreTest extends TestCase {
+
+    private HotKeyTrackingStore store;
+
+    @Override
+    public void setUp() {
+        store = new HotKeyTrackingStore(new InMemoryStorageEngine<ByteArray, byte[]>("test"),
+                                        10,
+                                        1);
+    }
+
+    private ByteArray key(int i) {
+        return new ByteArray((byte) i);
+    }
+
+    public void testHotKeysAndLargestValues() {
+        for(int i = 0; i < 5; i++)
+            store.put(key(i), new Versioned<byte[]>(new byte[i * 10], new VectorClock()));
+        for(int i = 0; i < 20; i++)
+            store.get(key(2));
+        store.getAll(Arrays.asList(key(3), key(3), key(4)));
+
+        List<SpaceSavingSketch.Counter<ByteArray>> hot = store.getHotKeys(1);
+        assertEquals(key(2), hot.get(0).getItem());
+        assertEquals(21, hot.get(0).getCount());
+
+        List<Map.Entry<ByteArray, Integer>> largest = store.getLargestValues(2);
+        assertEquals(key(4), largest.get(0).getKey());
+        assertEquals(40, largest.get(0).getValue().intValue());
+        assertEquals(key(3), largest.get(1).getKey());
+        assertTrue(store.getHotKeysAsString().startsWith("02 21"));
+
+        store.resetStatistics();
+        assertEquals(0, store.getHotKeys(10).size());
+        assertEquals(0, store.getLargestValues(10).size());
+    }
+
+    public void testSampling() {
+        HotKeyTrackingStore sampled = new HotKeyTrackingStore(new InMemoryStorageEngine<ByteArray, byte[]>("test"),
+                                                              10,
+                                                              5);
+        for(int i = 0; i < 100; i++)
+            sampled.get(key(1));
+        assertEquals(20, sampled.getHotKeys(1).get(0).getCount());
+    }
+}
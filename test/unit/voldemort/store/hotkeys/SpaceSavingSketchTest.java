@@ -0,0 +1,105 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.hotkeys;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SpaceSavingSketchTest extends TestCase {
+
+    public void testExactBelowCapacity() {
+        SpaceSavingSketch<String> sketch = new SpaceSavingSketch<String>(10);
+        for(int i = 0; i < 5; i++)
+            for(int j = 0; j <= i; j++)
+                sketch.offer("key" + i);
+        List<SpaceSavingSketch.Counter<String>> top = sketch.getTop(3);
+        assertEquals(3, top.size());
+        assertEquals("key4", top.get(0).getItem());
+        assertEquals(5, top.get(0).getCount());
+        assertEquals(0, top.get(0).getError());
+        assertEquals("key3", top.get(1).getItem());
+        assertEquals("key2", top.get(2).getItem());
+    }
+
+    public void testFindsHeavyHittersInLongTail() {
+        SpaceSavingSketch<Integer> sketch = new SpaceSavingSketch<Integer>(20);
+        Random random = new Random(17);
+        for(int i = 0; i < 100000; i++) {
+            if(i % 10 == 0)
+                sketch.offer(-1);
+            else if(i % 20 == 1)
+                sketch.offer(-2);
+            else
+                sketch.offer(random.nextInt(100000));
+        }
+        List<SpaceSavingSketch.Counter<Integer>> top = sketch.getTop(2);
+        assertEquals(-1, top.get(0).getItem().intValue());
+        assertEquals(-2, top.get(1).getItem().intValue());
+        SpaceSavingSketch.Counter<Integer> first = top.get(0);
+        assertTrue(first.getCount() - first.getError() <= 10000);
+        assertTrue(first.getCount() >= 10000);
+    }
+
+    public void testWeightsAndClear() {
+        SpaceSavingSketch<String> sketch = new SpaceSavingSketch<String>(2);
+        sketch.offer("a", 10);
+        sketch.offer("b", 1);
+        sketch.offer("c", 3);
+        List<SpaceSavingSketch.Counter<String>> top = sketch.getTop(5);
+        assertEquals(2, top.size());
+        assertEquals("a", top.get(0).getItem());
+        assertEquals("c", top.get(1).getItem());
+        assertEquals(4, top.get(1).getCount());
+        assertEquals(1, top.get(1).getError());
+        sketch.clear();
+        assertEquals(0, sketch.getTop(5).size());
+    }
+
+    public void testCountsStayConsistentUnderEviction() {
+        SpaceSavingSketch<Integer> sketch = new SpaceSavingSketch<Integer>(8);
+        Map<Integer, Long> actual = new HashMap<Integer, Long>();
+        Random random = new Random(5);
+        long total = 0;
+        for(int i = 0; i < 20000; i++) {
+            int item = random.nextInt(30);
+            long weight = 1 + random.nextInt(3);
+            sketch.offer(item, weight);
+            total += weight;
+            Long count = actual.get(item);
+            actual.put(item, count == null ? weight : count + weight);
+        }
+        List<SpaceSavingSketch.Counter<Integer>> top = sketch.getTop(8);
+        assertEquals(8, top.size());
+        long sum = 0;
+        for(int i = 0; i < top.size(); i++) {
+            SpaceSavingSketch.Counter<Integer> counter = top.get(i);
+            sum += counter.getCount();
+            if(i > 0)
+                assertTrue(top.get(i - 1).getCount() >= counter.getCount());
+            long trueCount = actual.get(counter.getItem());
+            assertTrue(counter.getCount() >= trueCount);
+            assertTrue(counter.getCount() - counter.getError() <= trueCount);
+        }
+        // the counters always account for every offer
+        assertEquals(total, sum);
+    }
+}
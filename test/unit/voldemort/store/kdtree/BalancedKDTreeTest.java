@@ -0,0 +1,195 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.kdtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.Maps;
+
+public class BalancedKDTreeTest extends TestCase {
+
+    private final Random random = new Random(1234);
+
+    private static List<Double> key(double[] point) {
+        List<Double> key = new ArrayList<Double>(point.length);
+        for(double d: point)
+            key.add(d);
+        return key;
+    }
+
+    private double[] randomPoint(int dimensions) {
+        double[] point = new double[dimensions];
+        for(int i = 0; i < dimensions; i++)
+            point[i] = random.nextInt(1000) / 10.0;
+        return point;
+    }
+
+    private static double squaredDistance(double[] a, double[] b) {
+        double distance = 0;
+        for(int i = 0; i < a.length; i++)
+            distance += (a[i] - b[i]) * (a[i] - b[i]);
+        return distance;
+    }
+
+    public void testPutGetRemoveMatchesMap() {
+        BalancedKDTree<Integer> tree = new BalancedKDTree<Integer>(3, 4);
+        Map<List<Double>, Integer> expected = Maps.newHashMap();
+        for(int i = 0; i < 20000; i++) {
+            double[] point = randomPoint(3);
+            if(random.nextInt(3) == 0)
+                assertEquals(expected.remove(key(point)), tree.remove(point));
+            else
+                assertEquals(expected.put(key(point), i), tree.put(point, i));
+            assertEquals(expected.size(), tree.size());
+        }
+        for(Map.Entry<List<Double>, Integer> entry: expected.entrySet()) {
+            double[] point = new double[3];
+            for(int i = 0; i < 3; i++)
+                point[i] = entry.getKey().get(i);
+            assertEquals(entry.getValue(), tree.get(point));
+        }
+        assertEquals(expected.size(), tree.entries().size());
+    }
+
+    public void testSequentialInsertsStayBalanced() {
+        BalancedKDTree<Integer> tree = new BalancedKDTree<Integer>(2, 8);
+        int n = 100000;
+        for(int i = 0; i < n; i++)
+            tree.put(new double[] { i, i }, i);
+        assertEquals(n, tree.size());
+        // a perfectly balanced tree of 8 point buckets has depth 15
+        assertTrue("Tree too deep: " + tree.getDepth(), tree.getDepth() <= 30);
+        for(int i = 0; i < n; i += 2)
+            assertEquals(Integer.valueOf(i), tree.remove(new double[] { i, i }));
+        assertTrue("Tree too deep: " + tree.getDepth(), tree.getDepth() <= 30);
+        assertEquals(Integer.valueOf(1), tree.get(new double[] { 1, 1 }));
+        assertNull(tree.get(new double[] { 2, 2 }));
+    }
+
+    public void testDuplicateCoordinatesInOneDimension() {
+        BalancedKDTree<Integer> tree = new BalancedKDTree<Integer>(2, 2);
+        for(int i = 0; i < 1000; i++)
+            tree.put(new double[] { 0, i }, i);
+        for(int i = 0; i < 1000; i++)
+            assertEquals(Integer.valueOf(i), tree.get(new double[] { 0, i }));
+    }
+
+    public void testNearestMatchesBruteForce() {
+        List<double[]> points = new ArrayList<double[]>();
+        List<Integer> values = new ArrayList<Integer>();
+        Map<List<Double>, double[]> distinct = Maps.newHashMap();
+        for(int i = 0; i < 5000; i++) {
+            double[] point = randomPoint(2);
+            if(distinct.put(key(point), point) == null) {
+                points.add(point);
+                values.add(i);
+            }
+        }
+        BalancedKDTree<Integer> tree = BalancedKDTree.bulkLoad(2, 16, points, values);
+        for(int i = 0; i < 100; i++) {
+            double[] target = randomPoint(2);
+            List<BalancedKDTree.Entry<Integer>> found = tree.nearest(target, 10, 400);
+            List<Double> distances = new ArrayList<Double>();
+            for(double[] point: points)
+                if(squaredDistance(point, target) <= 400)
+                    distances.add(squaredDistance(point, target));
+            Collections.sort(distances);
+            assertEquals(Math.min(10, distances.size()), found.size());
+            for(int j = 0; j < found.size(); j++)
+                assertEquals(distances.get(j), squaredDistance(found.get(j).getPoint(), target));
+        }
+    }
+
+    public void testRangeMatchesBruteForce() {
+        BalancedKDTree<Integer> tree = new BalancedKDTree<Integer>(3);
+        Map<List<Double>, double[]> points = Maps.newHashMap();
+        for(int i = 0; i < 5000; i++) {
+            double[] point = randomPoint(3);
+            points.put(key(point), point);
+            tree.put(point, i);
+        }
+        double[] min = { 10, 20, 30 };
+        double[] max = { 50, 60, 70 };
+        int expected = 0;
+        for(double[] point: points.values()) {
+            boolean inside = true;
+            for(int i = 0; i < 3; i++)
+                inside &= point[i] >= min[i] && point[i] <= max[i];
+            if(inside)
+                expected++;
+        }
+        List<BalancedKDTree.Entry<Integer>> found = tree.range(min, max, Integer.MAX_VALUE);
+        assertEquals(expected, found.size());
+        for(BalancedKDTree.Entry<Integer> entry: found)
+            for(int i = 0; i < 3; i++)
+                assertTrue(Arrays.toString(entry.getPoint()),
+                           entry.getPoint()[i] >= min[i] && entry.getPoint()[i] <= max[i]);
+        assertEquals(5, tree.range(min, max, 5).size());
+    }
+
+    public void testRangeInOrderPagesThroughBox() {
+        BalancedKDTree<Integer> tree = new BalancedKDTree<Integer>(2, 4);
+        List<double[]> expected = new ArrayList<double[]>();
+        double[] min = { 10, 20 };
+        double[] max = { 60, 70 };
+        for(int i = 0; i < 3000; i++) {
+            double[] point = randomPoint(2);
+            if(tree.put(point, i) == null && point[0] >= min[0] && point[0] <= max[0]
+               && point[1] >= min[1] && point[1] <= max[1])
+                expected.add(point);
+        }
+        Collections.sort(expected, new Comparator<double[]>() {
+
+            public int compare(double[] a, double[] b) {
+                return KDUtil.compare(a, b);
+            }
+        });
+
+        List<double[]> paged = new ArrayList<double[]>();
+        double[] after = null;
+        while(true) {
+            List<BalancedKDTree.Entry<Integer>> page = tree.rangeInOrder(min, max, after, 37);
+            for(BalancedKDTree.Entry<Integer> entry: page)
+                paged.add(entry.getPoint());
+            if(page.size() < 37)
+                break;
+            after = page.get(page.size() - 1).getPoint();
+        }
+        assertEquals(expected.size(), paged.size());
+        for(int i = 0; i < expected.size(); i++)
+            assertTrue(Arrays.equals(expected.get(i), paged.get(i)));
+        assertEquals(0, tree.rangeInOrder(min, max, null, 0).size());
+    }
+
+    public void testWrongDimensionsRejected() {
+        BalancedKDTree<Integer> tree = new BalancedKDTree<Integer>(3);
+        try {
+            tree.put(new double[2], 1);
+            fail("Point of the wrong dimensions should be rejected.");
+        } catch(IllegalArgumentException e) {
+            // this is good
+        }
+    }
+}
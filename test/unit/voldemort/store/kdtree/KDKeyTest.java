@@ -0,0 +1,48 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.kdtree;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class KDKeyTest extends TestCase {
+
+    public void testReadsCoordinatesFromKey() {
+        double[] point = { 1.5, -2.25, 1e10 };
+        KDKey key = new KDKey(3).wrap(KDUtil.getBytesForKey(point));
+        assertTrue(Arrays.equals(point, key.toPoint()));
+    }
+
+    public void testRewrapReusesPoint() {
+        KDKey key = new KDKey(2);
+        double[] first = key.wrap(KDUtil.getBytesForKey(new double[] { 1, 2 })).toPoint();
+        double[] second = key.wrap(KDUtil.getBytesForKey(new double[] { 3, 4 })).toPoint();
+        assertSame(first, second);
+        assertTrue(Arrays.equals(new double[] { 3, 4 }, second));
+    }
+
+    public void testWrongLengthRejected() {
+        try {
+            new KDKey(2).wrap(new byte[12]);
+            fail("Key of the wrong length should be rejected.");
+        } catch(IllegalArgumentException e) {
+            // this is good
+        }
+    }
+}
@@ -22,7 +22,10 @@ import java.util.List;
 import voldemort.TestUtils;
 import voldemort.store.AbstractStorageEngineTest;
 import voldemort.store.StorageEngine;
+import voldemort.store.StoreCapabilityType;
+import voldemort.store.StoreUtils;
 import voldemort.utils.ByteArray;
+import voldemort.utils.Pair;
 import voldemort.versioning.Versioned;
 
 public class KDTreeStorageEngineTest extends AbstractStorageEngineTest {
@@ -37,7 +40,11 @@ public class KDTreeStorageEngineTest extends AbstractStorageEngineTest {
     @Override
     public void setUp() throws Exception {
         super.setUp();
-        this.store = new KDTreeStorageEngine("test", 6);
+        this.store = createStorageEngine();
+    }
+
+    protected KDTreeStorageEngine createStorageEngine() {
+        return new KDTreeStorageEngine("test", 6);
     }
 
     @Override
@@ -70,4 +77,56 @@ public class KDTreeStorageEngineTest extends AbstractStorageEngineTest {
         assertEquals(1, engine.get(key).size());
     }
 
+    private static ByteArray point(double x, double y) {
+        return new ByteArray(KDUtil.getBytesForKey(new double[] { x, y }));
+    }
+
+    private static KDTreeStorageEngine grid(int size) {
+        KDTreeStorageEngine engine = new KDTreeStorageEngine("test", 2);
+        for(int x = 0; x < size; x++)
+            for(int y = 0; y < size; y++)
+                engine.put(point(x, y), new Versioned<byte[]>(new byte[] { (byte) x, (byte) y }));
+        return engine;
+    }
+
+    public void testRangePages() {
+        KDTreeStorageEngine engine = grid(20);
+        assertSame(engine, engine.getCapability(StoreCapabilityType.SPATIAL_QUERIES));
+        double[] min = { 5, 3 };
+        double[] max = { 9, 12 };
+        List<ByteArray> keys = new ArrayList<ByteArray>();
+        ByteArray after = null;
+        while(true) {
+            List<Pair<ByteArray, List<Versioned<byte[]>>>> page = engine.getRange(min, max, after, 7);
+            for(Pair<ByteArray, List<Versioned<byte[]>>> entry: page) {
+                assertEquals(1, entry.getSecond().size());
+                keys.add(entry.getFirst());
+            }
+            if(page.size() < 7)
+                break;
+            after = page.get(page.size() - 1).getFirst();
+        }
+        assertEquals(5 * 10, keys.size());
+        for(int i = 0; i < keys.size(); i++) {
+            double[] p = KDUtil.getDimensionsForKey(keys.get(i).get());
+            assertTrue(p[0] >= 5 && p[0] <= 9 && p[1] >= 3 && p[1] <= 12);
+            if(i > 0)
+                assertTrue("Keys out of order.",
+                           StoreUtils.comparePointKeys(keys.get(i - 1).get(), keys.get(i).get()) < 0);
+        }
+    }
+
+    public void testNearest() {
+        KDTreeStorageEngine engine = grid(20);
+        List<Pair<ByteArray, List<Versioned<byte[]>>>> nearest = engine.getNearest(new double[] {
+                10.2, 10.2 }, 5, 1.0);
+        assertEquals(3, nearest.size());
+        assertEquals(point(10, 10), nearest.get(0).getFirst());
+        // at the same distance, in key order
+        assertEquals(point(10, 11), nearest.get(1).getFirst());
+        assertEquals(point(11, 10), nearest.get(2).getFirst());
+        assertEquals(1, engine.getNearest(new double[] { 10.2, 10.2 }, 1, Double.MAX_VALUE)
+                              .size());
+    }
+
 }
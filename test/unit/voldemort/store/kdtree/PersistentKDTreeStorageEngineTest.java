@@ -0,0 +1,169 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.kdtree;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import org.apache.commons.io.FileDeleteStrategy;
+
+import voldemort.TestUtils;
+import voldemort.store.StorageInitializationException;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.Versioned;
+
+/**
+ * Runs the kdtree engine tests on a persistent engine, and checks what it
+ * recovers on reopening
+ */
+public class PersistentKDTreeStorageEngineTest extends KDTreeStorageEngineTest {
+
+    private File tempDir;
+    private KDTreeStorageEngine engine;
+
+    @Override
+    public void setUp() throws Exception {
+        this.tempDir = TestUtils.createTempDir();
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        try {
+            engine.close();
+        } finally {
+            FileDeleteStrategy.FORCE.delete(tempDir);
+        }
+    }
+
+    @Override
+    protected KDTreeStorageEngine createStorageEngine() {
+        // a small interval so the tests also cross snapshots
+        this.engine = new KDTreeStorageEngine("test", 6, tempDir, false, 4096);
+        return engine;
+    }
+
+    private KDTreeStorageEngine reopen() {
+        return new KDTreeStorageEngine("test", 6, tempDir, false, 4096);
+    }
+
+    private static ByteArray key(int i) {
+        return new ByteArray(KDUtil.getBytesForKey(new double[] { i, -i, i / 2.0, 0, 1, i }));
+    }
+
+    private void assertContents(KDTreeStorageEngine store, int count, int deleted) {
+        for(int i = 0; i < count; i++) {
+            List<Versioned<byte[]>> found = store.get(key(i));
+            if(i == deleted) {
+                assertEquals(0, found.size());
+            } else {
+                assertEquals(1, found.size());
+                assertEquals(TestUtils.getClock(i % 3), found.get(0).getVersion());
+                assertEquals((byte) i, found.get(0).getValue()[0]);
+            }
+        }
+    }
+
+    private void write(KDTreeStorageEngine store, int count, int deleted) {
+        for(int i = 0; i < count; i++)
+            store.put(key(i), new Versioned<byte[]>(new byte[] { (byte) i },
+                                                    TestUtils.getClock(i % 3)));
+        assertTrue(store.delete(key(deleted), null));
+    }
+
+    public void testReopenReplaysLog() {
+        write(engine, 1000, 17);
+        // reopen without closing, as after a crash, which also stops any
+        // snapshot being written
+        engine.awaitCheckpoint();
+        KDTreeStorageEngine reopened = reopen();
+        assertContents(reopened, 1000, 17);
+        reopened.close();
+    }
+
+    public void testReopenFromSnapshot() {
+        write(engine, 1000, 17);
+        engine.close();
+        assertEquals(0, new File(tempDir, "log").length());
+        KDTreeStorageEngine reopened = reopen();
+        assertContents(reopened, 1000, 17);
+        reopened.close();
+    }
+
+    public void testReopenAfterUnfinishedCheckpoint() {
+        write(engine, 1000, 17);
+        engine.awaitCheckpoint();
+        // as if the log had been rotated and the snapshot never written
+        assertTrue(new File(tempDir, "log").renameTo(new File(tempDir, "log.old")));
+        KDTreeStorageEngine reopened = reopen();
+        assertContents(reopened, 1000, 17);
+        reopened.checkpoint();
+        assertFalse(new File(tempDir, "log.old").exists());
+        reopened.close();
+        reopened = reopen();
+        assertContents(reopened, 1000, 17);
+        reopened.close();
+    }
+
+    public void testWritesContinueDuringCheckpoints() throws Exception {
+        final int count = 3000;
+        Thread writer = new Thread(new Runnable() {
+
+            public void run() {
+                write(engine, count, 17);
+            }
+        });
+        writer.start();
+        while(writer.isAlive())
+            engine.checkpoint();
+        writer.join();
+        engine.awaitCheckpoint();
+        KDTreeStorageEngine reopened = reopen();
+        assertContents(reopened, count, 17);
+        reopened.close();
+    }
+
+    public void testTornLogTailIsDropped() throws Exception {
+        engine.checkpoint();
+        write(engine, 10, 3);
+        FileOutputStream log = new FileOutputStream(new File(tempDir, "log"), true);
+        log.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+        log.close();
+
+        KDTreeStorageEngine reopened = reopen();
+        assertContents(reopened, 10, 3);
+        reopened.put(key(3), new Versioned<byte[]>(new byte[] { 3 }, TestUtils.getClock(0)));
+        reopened.close();
+        reopened = reopen();
+        assertContents(reopened, 10, -1);
+        reopened.close();
+    }
+
+    public void testDimensionsMustMatch() {
+        write(engine, 10, 3);
+        engine.close();
+        try {
+            new KDTreeStorageEngine("test", 3, tempDir, false, 4096);
+            fail("Snapshot of 6 dimensions opened with 3.");
+        } catch(StorageInitializationException e) {
+            // this is good
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.logging;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import voldemort.MockTime;
+import voldemort.VoldemortException;
+import voldemort.store.DelegatingStore;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.VectorClock;
+import voldemort.versioning.Versioned;
+
+public class SlowOperationLoggingStoreTest extends TestCase {
+
+    private MockTime time;
+    private SlowOperationLoggingStore store;
+    private volatile long delayMs;
+
+    @Override
+    public void setUp() {
+        time = new MockTime(1000000);
+        delayMs = 0;
+        DelegatingStore<ByteArray, byte[]> slowStore = new DelegatingStore<ByteArray, byte[]>(new InMemoryStorageEngine<ByteArray, byte[]>("test")) {
+
+            @Override
+            public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
+                time.addMilliseconds(delayMs);
+                return super.get(key);
+            }
+
+            @Override
+            public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
+                    throws VoldemortException {
+                time.addMilliseconds(delayMs);
+                return super.getAll(keys);
+            }
+        };
+        store = new SlowOperationLoggingStore(slowStore, 0, 100, 2, time);
+        store.put(new ByteArray((byte) 1), new Versioned<byte[]>(new byte[10], new VectorClock()));
+    }
+
+    public void testOnlySlowOperationsAreCounted() {
+        ByteArray key = new ByteArray((byte) 1);
+        delayMs = 99;
+        store.get(key);
+        assertEquals(0, store.getNumberOfSlowOperations());
+        delayMs = 100;
+        store.get(key);
+        store.getAll(Arrays.asList(key));
+        assertEquals(2, store.getNumberOfSlowOperations());
+
+        store.setThresholdMs(0);
+        store.get(key);
+        assertEquals(2, store.getNumberOfSlowOperations());
+    }
+
+    public void testLoggingIsRateLimited() {
+        ByteArray key = new ByteArray((byte) 1);
+        delayMs = 200;
+        for(int i = 0; i < 4; i++)
+            store.get(key);
+        assertEquals(4, store.getNumberOfSlowOperations());
+        /* all four fall in the same second, only two may be logged */
+        assertEquals(2, store.getNumberOfSuppressedMessages());
+        time.addMilliseconds(1000);
+        store.get(key);
+        assertEquals(2, store.getNumberOfSuppressedMessages());
+    }
+}
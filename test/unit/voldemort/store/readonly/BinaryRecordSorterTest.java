@@ -0,0 +1,83 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import voldemort.utils.ByteUtils;
+
+public class BinaryRecordSorterTest extends TestCase {
+
+    private static final int RECORD_SIZE = 12;
+
+    private final Random random = new Random(4321);
+
+    private List<String> sort(int numRecords, int bufferRecords) {
+        BinaryRecordSorter sorter = new BinaryRecordSorter(RECORD_SIZE, bufferRecords);
+        List<String> expected = new ArrayList<String>(numRecords);
+        byte[] record = new byte[RECORD_SIZE + 3];
+        for(int i = 0; i < numRecords; i++) {
+            random.nextBytes(record);
+            // plenty of duplicates and of bytes with the sign bit set
+            record[3] = (byte) random.nextInt(4);
+            record[4] = (byte) 0x80;
+            sorter.add(record, 3);
+            expected.add(ByteUtils.toHexString(ByteUtils.copy(record, 3, 3 + RECORD_SIZE)));
+        }
+        Collections.sort(expected);
+
+        List<String> found = new ArrayList<String>(numRecords);
+        BinaryRecordSorter.SortedRecords sorted = sorter.sorted();
+        byte[] next = new byte[RECORD_SIZE];
+        while(sorted.next(next))
+            found.add(ByteUtils.toHexString(next));
+        sorted.close();
+        assertEquals(expected, found);
+        return found;
+    }
+
+    public void testSortInMemory() {
+        sort(5000, 5000);
+        sort(1, 10);
+    }
+
+    public void testSortWithSpills() {
+        sort(5000, 100);
+        sort(5000, 1);
+        sort(5001, 1000);
+    }
+
+    public void testEmpty() {
+        assertEquals(0, sort(0, 10).size());
+    }
+
+    public void testAddAfterSortFails() {
+        BinaryRecordSorter sorter = new BinaryRecordSorter(RECORD_SIZE, 10);
+        sorter.sorted().close();
+        try {
+            sorter.add(new byte[RECORD_SIZE], 0);
+            fail("Records can't be added after sorting.");
+        } catch(IllegalStateException e) {
+            // this is good
+        }
+    }
+}
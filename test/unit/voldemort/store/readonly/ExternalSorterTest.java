@@ -52,4 +52,9 @@ public class ExternalSorterTest extends TestCase {
         assertEquals(expected, sorted);
     }
 
+    public void testSortingNothing() {
+        ExternalSorter<String> sorter = new ExternalSorter<String>(new StringSerializer(), 10, 1);
+        assertFalse(sorter.sorted(new ArrayList<String>().iterator()).iterator().hasNext());
+    }
+
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileDeleteStrategy;
+import org.apache.commons.io.FileUtils;
+
+import voldemort.TestUtils;
+import voldemort.client.RoutingTier;
+import voldemort.cluster.Cluster;
+import voldemort.cluster.Node;
+import voldemort.routing.RoutingStrategy;
+import voldemort.routing.RoutingStrategyFactory;
+import voldemort.routing.RoutingStrategyType;
+import voldemort.serialization.SerializerDefinition;
+import voldemort.serialization.json.JsonReader;
+import voldemort.store.StoreDefinition;
+import voldemort.utils.ByteUtils;
+
+public class JsonStoreBuilderTest extends TestCase {
+
+    private static final int NUM_ITEMS = 2000;
+    private static final int NUM_NODES = 3;
+    private static final int NUM_CHUNKS = 3;
+    private static final int REPLICATION_FACTOR = 2;
+
+    private File baseDir;
+    private File inputFile;
+    private Cluster cluster;
+    private StoreDefinition storeDef;
+    private RoutingStrategy router;
+
+    @Override
+    public void setUp() throws Exception {
+        baseDir = TestUtils.createTempDir();
+        inputFile = new File(baseDir, "input.txt");
+        writeInput(inputFile, NUM_ITEMS);
+
+        List<Node> nodes = new ArrayList<Node>();
+        for(int i = 0; i < NUM_NODES; i++)
+            nodes.add(new Node(i,
+                               "localhost",
+                               8080 + i,
+                               6666 + i,
+                               7777 + i,
+                               Arrays.asList(2 * i, 2 * i + 1)));
+        cluster = new Cluster("test", nodes);
+        SerializerDefinition serDef = new SerializerDefinition("json", "'string'");
+        storeDef = new StoreDefinition("test",
+                                       ReadOnlyStorageConfiguration.TYPE_NAME,
+                                       serDef,
+                                       serDef,
+                                       RoutingTier.CLIENT,
+                                       RoutingStrategyType.CONSISTENT_STRATEGY,
+                                       REPLICATION_FACTOR,
+                                       1,
+                                       1,
+                                       1,
+                                       1,
+                                       1);
+        router = new RoutingStrategyFactory(cluster).getRoutingStrategy(storeDef);
+    }
+
+    private void writeInput(File file, int numItems) throws Exception {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        for(int i = 0; i < numItems; i++)
+            writer.write("\"key-" + i + "\"\t\"" + TestUtils.randomLetters(20) + "\"\n");
+        writer.close();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileDeleteStrategy.FORCE.delete(baseDir);
+    }
+
+    private File build(String name, int numThreads) throws Exception {
+        File outputDir = new File(baseDir, name);
+        builder(inputFile, outputDir, numThreads).build();
+        return outputDir;
+    }
+
+    private JsonStoreBuilder builder(File input, File outputDir, int numThreads)
+            throws Exception {
+        outputDir.mkdirs();
+        JsonReader reader = new JsonReader(new BufferedReader(new FileReader(input)));
+        // a small sort buffer so that every chunk spills to disk
+        return new JsonStoreBuilder(reader,
+                                    cluster,
+                                    storeDef,
+                                    router,
+                                    outputDir,
+                                    50,
+                                    numThreads,
+                                    NUM_CHUNKS);
+    }
+
+    /*
+     * Read the values of one chunk file by the hex of their key md5
+     */
+    private Map<String, String> readChunk(File outputDir, int node, int chunk) throws Exception {
+        String prefix = "node-" + node + File.separator + chunk;
+        byte[] index = FileUtils.readFileToByteArray(new File(outputDir, prefix + ".index"));
+        byte[] data = FileUtils.readFileToByteArray(new File(outputDir, prefix + ".data"));
+        Map<String, String> values = new HashMap<String, String>();
+        for(int offset = 0; offset < index.length; offset += 20) {
+            int position = ByteUtils.readInt(index, offset + 16);
+            int size = ByteUtils.readInt(data, position);
+            values.put(ByteUtils.toHexString(ByteUtils.copy(index, offset, offset + 16)),
+                       ByteUtils.toHexString(ByteUtils.copy(data, position + 4, position + 4
+                                                                                + size)));
+        }
+        return values;
+    }
+
+    public void testOutputDoesNotDependOnThreads() throws Exception {
+        // enough batches that the threads finish them out of order
+        writeInput(inputFile, 10 * NUM_ITEMS);
+        File single = build("single", 1);
+        File parallel = build("parallel", 4);
+        for(int node = 0; node < NUM_NODES; node++) {
+            for(int chunk = 0; chunk < NUM_CHUNKS; chunk++) {
+                for(String suffix: new String[] { ".index", ".data" }) {
+                    String file = "node-" + node + File.separator + chunk + suffix;
+                    assertTrue(file + " differs.",
+                               FileUtils.contentEquals(new File(single, file), new File(parallel,
+                                                                                        file)));
+                }
+            }
+            // so the versions named after the files match too
+            String nodeDir = "node-" + node;
+            assertEquals(StoreVersion.read(new File(single, nodeDir)).getName(),
+                         StoreVersion.read(new File(parallel, nodeDir)).getName());
+        }
+    }
+
+    public void testIndexesAreSortedAndComplete() throws Exception {
+        File outputDir = build("output", 4);
+        int entries = 0;
+        for(int node = 0; node < NUM_NODES; node++) {
+            for(int chunk = 0; chunk < NUM_CHUNKS; chunk++) {
+                byte[] index = FileUtils.readFileToByteArray(new File(outputDir, "node-" + node
+                                                                                 + File.separator
+                                                                                 + chunk + ".index"));
+                assertEquals(0, index.length % 20);
+                byte[] previous = null;
+                for(int offset = 0; offset < index.length; offset += 20) {
+                    byte[] md5 = ByteUtils.copy(index, offset, offset + 16);
+                    assertEquals(chunk, ReadOnlyUtils.chunk(md5, NUM_CHUNKS));
+                    if(previous != null)
+                        assertTrue(ByteUtils.compare(previous, md5) < 0);
+                    previous = md5;
+                    entries++;
+                }
+            }
+        }
+        assertEquals(NUM_ITEMS * REPLICATION_FACTOR, entries);
+
+        // the manifest written along the way matches the files
+        for(int node = 0; node < NUM_NODES; node++) {
+            File nodeDir = new File(outputDir, "node-" + node);
+            FileManifest written = FileManifest.read(new File(nodeDir, FileManifest.FILE_NAME));
+            FileManifest expected = FileManifest.create(nodeDir);
+            // the chunk files and the version
+            assertEquals(2 * NUM_CHUNKS + 1, written.getFileNames().size());
+            assertEquals(expected.getFileNames(), written.getFileNames());
+            for(String name: expected.getFileNames()) {
+                assertEquals(expected.get(name).getLength(), written.get(name).getLength());
+                assertEquals(expected.get(name).getChecksum(), written.get(name).getChecksum());
+            }
+        }
+    }
+
+    public void testDeltaLeadsToNewBuild() throws Exception {
+        File base = build("base", 2);
+
+        // change a tenth of the values, delete a tenth of the keys and add some
+        File newInput = new File(baseDir, "new-input.txt");
+        BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+        BufferedWriter writer = new BufferedWriter(new FileWriter(newInput));
+        int i = 0;
+        for(String line = reader.readLine(); line != null; line = reader.readLine(), i++) {
+            if(i % 10 == 0)
+                writer.write("\"key-" + i + "\"\t\"changed\"\n");
+            else if(i % 10 != 1)
+                writer.write(line + "\n");
+        }
+        for(i = 0; i < NUM_ITEMS / 10; i++)
+            writer.write("\"new-key-" + i + "\"\t\"added\"\n");
+        reader.close();
+        writer.close();
+
+        File updated = new File(baseDir, "updated");
+        File delta = new File(baseDir, "delta");
+        JsonStoreBuilder builder = builder(newInput, updated, 2);
+        builder.build();
+        builder.buildDelta(base, delta);
+
+        int deltaEntries = 0;
+        for(int node = 0; node < NUM_NODES; node++) {
+            String nodeDir = "node-" + node;
+            StoreVersion version = StoreVersion.read(new File(delta, nodeDir));
+            assertEquals(StoreVersion.read(new File(base, nodeDir)).getName(), version.getBase());
+            assertEquals(StoreVersion.read(new File(updated, nodeDir)).getName(),
+                         version.getName());
+            DeltaBuilder.merge(new File(base, nodeDir),
+                               new File(delta, nodeDir),
+                               new File(new File(baseDir, "merged"), nodeDir));
+            for(int chunk = 0; chunk < NUM_CHUNKS; chunk++) {
+                File index = new File(delta, nodeDir + File.separator + chunk + ".index");
+                deltaEntries += index.length() / 20;
+                assertEquals(readChunk(updated, node, chunk),
+                             readChunk(new File(baseDir, "merged"), node, chunk));
+            }
+        }
+        assertEquals(3 * NUM_ITEMS / 10 * REPLICATION_FACTOR, deltaEntries);
+    }
+}
@@ -1,19 +1,34 @@
 package voldemort.store.readonly;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
 import voldemort.TestUtils;
 import voldemort.VoldemortException;
 import voldemort.cluster.Node;
 import voldemort.store.Store;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
 import voldemort.utils.Utils;
 import voldemort.versioning.Versioned;
 
@@ -157,6 +172,244 @@ public class ReadOnlyStorageEngineTest extends TestCase {
         assertVersionsExist(dir, 0);
     }
 
+    /*
+     * Write a single chunk store of the given keys, all with the same value
+     */
+    private void createStore(File dir, int numKeys, String value) throws IOException {
+        List<byte[]> md5s = new ArrayList<byte[]>(numKeys);
+        for(int i = 0; i < numKeys; i++)
+            md5s.add(ByteUtils.md5(ByteUtils.getBytes("key" + i, "UTF-8")));
+        Collections.sort(md5s, new Comparator<byte[]>() {
+
+            public int compare(byte[] a, byte[] b) {
+                return ByteUtils.compare(a, b);
+            }
+        });
+        dir.mkdirs();
+        DataOutputStream index = new DataOutputStream(new FileOutputStream(new File(dir,
+                                                                                    "0.index")));
+        DataOutputStream data = new DataOutputStream(new FileOutputStream(new File(dir, "0.data")));
+        byte[] valueBytes = ByteUtils.getBytes(value, "UTF-8");
+        for(byte[] md5: md5s) {
+            index.write(md5);
+            index.writeInt(data.size());
+            data.writeInt(valueBytes.length);
+            data.write(valueBytes);
+        }
+        index.close();
+        data.close();
+    }
+
+    public void testReadsContinueDuringSwaps() throws Exception {
+        final int numKeys = 100;
+        createStore(new File(dir, "version-0"), numKeys, "v0");
+        final ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test", dir, 1, 2, 1000);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger reads = new AtomicInteger(0);
+        Thread[] readers = new Thread[4];
+        for(int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        for(int i = 0; !done.get(); i++) {
+                            ByteArray key = new ByteArray(ByteUtils.getBytes("key" + (i % numKeys),
+                                                                             "UTF-8"));
+                            List<Versioned<byte[]>> found = engine.get(key);
+                            assertEquals(1, found.size());
+                            assertTrue(new String(found.get(0).getValue(), "UTF-8").startsWith("v"));
+                            reads.incrementAndGet();
+                        }
+                    } catch(Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        int swaps = 10;
+        for(int i = 1; i <= swaps; i++) {
+            File newDir = TestUtils.createTempDir();
+            createStore(newDir, numKeys, "v" + i);
+            engine.swapFiles(newDir.getAbsolutePath());
+        }
+        done.set(true);
+        for(Thread reader: readers)
+            reader.join();
+        if(failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertTrue(reads.get() > 0);
+        ByteArray key = new ByteArray(ByteUtils.getBytes("key1", "UTF-8"));
+        assertEquals("v" + swaps, new String(engine.get(key).get(0).getValue(), "UTF-8"));
+        assertVersionsExist(dir, 0, 1);
+        engine.close();
+    }
+
+    public void testFileSetIsUnmappedAfterLastReader() throws Exception {
+        createStoreFiles(dir, ReadOnlyStorageEngine.INDEX_ENTRY_SIZE * 5, 4 * 5 * 10, 1);
+        ChunkedFileSet fileSet = new ChunkedFileSet(dir, 2, 1000);
+        assertTrue(fileSet.acquire());
+        fileSet.close();
+        assertTrue("A reader still holds the files.", fileSet.acquire());
+        fileSet.release();
+        fileSet.checkinIndexFile(fileSet.checkoutIndexFile(0), 0);
+        fileSet.release();
+        assertFalse("The files should be unmapped.", fileSet.acquire());
+    }
+
+    public void testFailedSwapKeepsCurrentFiles() throws Exception {
+        createStore(new File(dir, "version-0"), 10, "v0");
+        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test", dir, 1, 2, 1000);
+        File badDir = TestUtils.createTempDir();
+        createStoreFiles(badDir, 7, 0, 1);
+        try {
+            engine.swapFiles(badDir.getAbsolutePath());
+            fail("Swapping in invalid files should fail.");
+        } catch(VoldemortException e) {
+            // this is good
+        }
+        assertVersionsExist(dir, 0);
+        ByteArray key = new ByteArray(ByteUtils.getBytes("key1", "UTF-8"));
+        assertEquals("v0", new String(engine.get(key).get(0).getValue(), "UTF-8"));
+        engine.close();
+    }
+
+    public void testWarmedStoreServesReads() throws Exception {
+        int numKeys = 50;
+        long indexSize = numKeys * ReadOnlyStorageEngine.INDEX_ENTRY_SIZE;
+        for(boolean pin: new boolean[] { false, true }) {
+            File storeDir = TestUtils.createTempDir();
+            createStore(new File(storeDir, "version-0"), numKeys, "v0");
+            ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                     storeDir,
+                                                                     1,
+                                                                     2,
+                                                                     1000,
+                                                                     1024 * 1024,
+                                                                     pin);
+            assertEquals(indexSize, engine.getWarmedBytes());
+            assertFalse(engine.isWarmingUp());
+            File newDir = TestUtils.createTempDir();
+            createStore(newDir, numKeys, "v1");
+            engine.swapFiles(newDir.getAbsolutePath());
+            assertEquals(indexSize, engine.getWarmedBytes());
+            for(int i = 0; i < numKeys; i++) {
+                ByteArray key = new ByteArray(ByteUtils.getBytes("key" + i, "UTF-8"));
+                assertEquals("v1", new String(engine.get(key).get(0).getValue(), "UTF-8"));
+            }
+            engine.rollback();
+            ByteArray key = new ByteArray(ByteUtils.getBytes("key1", "UTF-8"));
+            assertEquals("v0", new String(engine.get(key).get(0).getValue(), "UTF-8"));
+            engine.close();
+            Utils.rm(storeDir);
+        }
+    }
+
+    public void testWarmupStaysWithinBudget() throws Exception {
+        createStoreFiles(dir, ReadOnlyStorageEngine.INDEX_ENTRY_SIZE * 5, 4 * 5 * 10, 3);
+        ChunkedFileSet fileSet = new ChunkedFileSet(dir, 2, 1000);
+        AtomicLong progress = new AtomicLong(0);
+        long budget = ReadOnlyStorageEngine.INDEX_ENTRY_SIZE * 12;
+        assertEquals(ReadOnlyStorageEngine.INDEX_ENTRY_SIZE * 10,
+                     fileSet.warmIndexes(budget, true, progress));
+        assertEquals(ReadOnlyStorageEngine.INDEX_ENTRY_SIZE * 10, progress.get());
+        assertTrue(fileSet.isPinned(0));
+        assertTrue(fileSet.isPinned(1));
+        assertFalse("Chunks over the budget should stay mapped.", fileSet.isPinned(2));
+        ByteBuffer index = fileSet.checkoutIndexFile(1);
+        for(int i = 0; i < ReadOnlyStorageEngine.INDEX_ENTRY_SIZE * 5; i++)
+            assertEquals((byte) i, index.get(i));
+        fileSet.checkinIndexFile(index, 1);
+        fileSet.close();
+    }
+
+    private String getValue(ReadOnlyStorageEngine engine, String key) throws Exception {
+        List<Versioned<byte[]>> found = engine.get(new ByteArray(ByteUtils.getBytes(key, "UTF-8")));
+        return found.isEmpty() ? null : new String(found.get(0).getValue(), "UTF-8");
+    }
+
+    public void testDeltaSwap() throws Exception {
+        createStore(new File(dir, "version-0"), 100, "v0");
+        new StoreVersion("a").write(new File(dir, "version-0"));
+        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test", dir, 1, 2, 1000);
+
+        // the delta changes every value and deletes the last ten keys
+        File base = TestUtils.createTempDir();
+        createStore(base, 100, "v0");
+        new StoreVersion("a").write(base);
+        File updated = TestUtils.createTempDir();
+        createStore(updated, 90, "v1");
+        new StoreVersion("b").write(updated);
+        File delta = TestUtils.createTempDir();
+        DeltaBuilder.diff(base, updated, delta);
+        engine.swapFiles(delta.getAbsolutePath());
+        assertEquals("v1", getValue(engine, "key1"));
+        assertNull(getValue(engine, "key95"));
+        List<ByteArray> keys = new ArrayList<ByteArray>();
+        for(int i = 0; i < 100; i++)
+            keys.add(new ByteArray(ByteUtils.getBytes("key" + i, "UTF-8")));
+        assertEquals(90, engine.getAll(keys).size());
+
+        // the delta is merged into its base in the background
+        for(int i = 0; i < 100 && engine.isCompacting(); i++)
+            Thread.sleep(50);
+        assertFalse(engine.isCompacting());
+        assertEquals("b", engine.getVersion());
+        assertVersionsExist(dir, 0, 1);
+        assertEquals("v1", getValue(engine, "key1"));
+        assertNull(getValue(engine, "key95"));
+        assertEquals(90, engine.getAll(keys).size());
+
+        engine.rollback();
+        assertEquals("a", engine.getVersion());
+        assertEquals("v0", getValue(engine, "key95"));
+        engine.close();
+        Utils.rm(base);
+        Utils.rm(updated);
+    }
+
+    public void testDeltaRoundTripsValuesAcrossReadAhead() throws Exception {
+        // values larger than and straddling the read ahead of the delta reader
+        File base = TestUtils.createTempDir();
+        createStore(base, 10, TestUtils.randomLetters(100 * 1024));
+        new StoreVersion("a").write(base);
+        File updated = TestUtils.createTempDir();
+        createStore(updated, 20, TestUtils.randomLetters(40 * 1024));
+        new StoreVersion("b").write(updated);
+        File delta = TestUtils.createTempDir();
+        DeltaBuilder.diff(base, updated, delta);
+        File merged = TestUtils.createTempDir();
+        DeltaBuilder.merge(base, delta, merged);
+        for(String name: new String[] { "0.index", "0.data" })
+            assertTrue(name + " differs after merging the delta.",
+                       Arrays.equals(FileUtils.readFileToByteArray(new File(updated, name)),
+                                     FileUtils.readFileToByteArray(new File(merged, name))));
+        Utils.rm(base);
+        Utils.rm(updated);
+        Utils.rm(delta);
+        Utils.rm(merged);
+    }
+
+    public void testDeltaOnOtherVersionIsRejected() throws Exception {
+        createStore(new File(dir, "version-0"), 10, "v0");
+        new StoreVersion("a").write(new File(dir, "version-0"));
+        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test", dir, 1, 2, 1000);
+        File delta = TestUtils.createTempDir();
+        createStore(delta, 1, "v1");
+        new StoreVersion("c", "b").write(delta);
+        try {
+            engine.swapFiles(delta.getAbsolutePath());
+            fail("A delta built against another version should be rejected.");
+        } catch(VoldemortException e) {
+            // this is good
+        }
+        assertVersionsExist(dir, 0);
+        assertEquals("v0", getValue(engine, "key1"));
+        engine.close();
+        Utils.rm(delta);
+    }
+
     private void assertVersionsExist(File dir, int... versions) {
         for(int i = 0; i < versions.length; i++) {
             File versionDir = new File(dir, "version-" + versions[i]);
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.readonly.fetcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileDeleteStrategy;
+import org.apache.commons.io.FileUtils;
+
+import voldemort.TestUtils;
+import voldemort.store.readonly.FileManifest;
+
+import com.google.common.collect.Lists;
+
+public class LocalFetcherTest extends TestCase {
+
+    private final Random random = new Random(987);
+
+    private File source;
+    private File tempDir;
+
+    @Override
+    public void setUp() throws Exception {
+        File base = TestUtils.createTempDir();
+        source = new File(base, "node-0");
+        source.mkdirs();
+        tempDir = TestUtils.createTempDir();
+        for(int chunk = 0; chunk < 4; chunk++) {
+            writeRandom(new File(source, chunk + ".index"), 2000 + chunk);
+            writeRandom(new File(source, chunk + ".data"), 300000 + chunk);
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileDeleteStrategy.FORCE.delete(source.getParentFile());
+        FileDeleteStrategy.FORCE.delete(tempDir);
+    }
+
+    private void writeRandom(File file, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        FileUtils.writeByteArrayToFile(file, bytes);
+    }
+
+    private void assertSameFiles(File expected, File found) throws IOException {
+        List<String> names = Lists.newArrayList(expected.list());
+        List<String> foundNames = Lists.newArrayList(found.list());
+        names.remove(FileManifest.FILE_NAME);
+        foundNames.remove(FileManifest.FILE_NAME);
+        assertEquals(names.size(), foundNames.size());
+        for(String name: names)
+            assertTrue(name + " differs.", FileUtils.contentEquals(new File(expected, name),
+                                                                   new File(found, name)));
+    }
+
+    public void testFetchWithManifest() throws Exception {
+        FileManifest.create(source).write(source);
+        File dest = new File(tempDir, source.getName());
+        dest.mkdirs();
+        writeRandom(new File(dest, "7.index"), 20);
+
+        File fetched = new LocalFetcher(tempDir, 3, 1, null).fetch(source.getAbsolutePath());
+        assertEquals(dest, fetched);
+        assertSameFiles(source, fetched);
+        assertFalse("Stale files should be removed.", new File(fetched, "7.index").exists());
+        assertTrue(new File(fetched, FileManifest.FILE_NAME).exists());
+    }
+
+    public void testFetchWithoutManifest() throws Exception {
+        LocalFetcher fetcher = new LocalFetcher(tempDir, 2, 1, 100L * 1024 * 1024);
+        File fetched = fetcher.fetch(source.getAbsolutePath());
+        assertSameFiles(source, fetched);
+    }
+
+    public void testPartialFileIsResumed() throws Exception {
+        FileManifest.create(source).write(source);
+        File dest = new File(tempDir, source.getName());
+        dest.mkdirs();
+        byte[] data = FileUtils.readFileToByteArray(new File(source, "2.data"));
+        // keep only the first half
+        byte[] half = new byte[data.length / 2];
+        System.arraycopy(data, 0, half, 0, half.length);
+        FileUtils.writeByteArrayToFile(new File(dest, "2.data"), half);
+
+        final Map<String, Long> offsets = new ConcurrentHashMap<String, Long>();
+        File fetched = new LocalFetcher(tempDir, 2, 1, null) {
+
+            @Override
+            protected InputStream open(String url, long offset) throws IOException {
+                offsets.put(new File(url).getName(), offset);
+                return super.open(url, offset);
+            }
+        }.fetch(source.getAbsolutePath());
+        assertSameFiles(source, fetched);
+        assertEquals(Long.valueOf(half.length), offsets.get("2.data"));
+        assertEquals(Long.valueOf(0), offsets.get("2.index"));
+    }
+
+    public void testFailedCopyIsRetried() throws Exception {
+        FileManifest.create(source).write(source);
+        final Map<String, Integer> opens = new ConcurrentHashMap<String, Integer>();
+        LocalFetcher fetcher = new LocalFetcher(tempDir, 2, 2, null) {
+
+            @Override
+            protected InputStream open(String url, long offset) throws IOException {
+                String name = new File(url).getName();
+                Integer count = opens.get(name);
+                opens.put(name, count == null ? 1 : count + 1);
+                if(name.equals("1.data") && count == null)
+                    throw new IOException("Simulated network failure.");
+                return super.open(url, offset);
+            }
+        };
+        assertSameFiles(source, fetcher.fetch(source.getAbsolutePath()));
+        assertEquals(Integer.valueOf(2), opens.get("1.data"));
+    }
+
+    public void testCorruptFileIsRejected() throws Exception {
+        FileManifest manifest = FileManifest.create(source);
+        FileManifest.Entry entry = manifest.get("3.data");
+        manifest.add("3.data", entry.getLength(), entry.getChecksum() ^ 1);
+        manifest.write(source);
+        try {
+            new LocalFetcher(tempDir, 2, 2, null).fetch(source.getAbsolutePath());
+            fail("A file that does not match its checksum should fail the fetch.");
+        } catch(IOException e) {
+            // this is good
+        }
+        assertFalse(new File(new File(tempDir, source.getName()), "3.data").exists());
+    }
+}
@@ -21,6 +21,7 @@ import static voldemort.VoldemortTestConstants.getNineNodeCluster;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
 
 import voldemort.ServerTestUtils;
 import voldemort.TestUtils;
@@ -28,18 +29,26 @@ import voldemort.VoldemortException;
 import voldemort.VoldemortTestConstants;
 import voldemort.cluster.Cluster;
 import voldemort.cluster.Node;
+import voldemort.routing.RoutingStrategy;
 import voldemort.routing.RoutingStrategyType;
 import voldemort.store.AbstractByteArrayStoreTest;
 import voldemort.store.FailingReadsStore;
 import voldemort.store.FailingStore;
 import voldemort.store.InsufficientOperationalNodesException;
 import voldemort.store.SleepyStore;
+import voldemort.store.SpatialStore;
 import voldemort.store.Store;
+import voldemort.store.StoreCapabilityType;
 import voldemort.store.StoreDefinition;
+import voldemort.store.StoreOverloadedException;
 import voldemort.store.UnreachableStoreException;
+import voldemort.store.kdtree.KDTreeStorageEngine;
+import voldemort.store.kdtree.KDUtil;
 import voldemort.store.memory.InMemoryStorageEngine;
 import voldemort.store.versioned.InconsistencyResolvingStore;
 import voldemort.utils.ByteArray;
+import voldemort.utils.Pair;
+import voldemort.utils.SystemTime;
 import voldemort.utils.Utils;
 import voldemort.versioning.Occured;
 import voldemort.versioning.VectorClock;
@@ -47,6 +56,7 @@ import voldemort.versioning.VectorClockInconsistencyResolver;
 import voldemort.versioning.Versioned;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 /**
@@ -340,6 +350,150 @@ public class RoutedStoreTest extends AbstractByteArrayStoreTest {
         assertOperationalNodes(cluster, 0);
     }
 
+    /**
+     * Tests that a get moves past nodes too busy to serve it without marking
+     * them unavailable.
+     */
+    public void testGetFailsOverFromOverloadedNodes() {
+        Cluster cluster = getNineNodeCluster();
+        RoutedStore routedStore = getStore(cluster,
+                                           2,
+                                           7,
+                                           9,
+                                           3,
+                                           0,
+                                           RoutingStrategyType.TO_ALL_STRATEGY,
+                                           new StoreOverloadedException("busy"));
+        for(Store<ByteArray, byte[]> store: routedStore.getInnerStores().values()) {
+            try {
+                store.put(aKey, new Versioned<byte[]>(aValue));
+            } catch(StoreOverloadedException e) { /* expected */}
+        }
+        List<Versioned<byte[]>> found = routedStore.get(aKey);
+        assertEquals(2, found.size());
+        assertOperationalNodes(cluster, 9);
+    }
+
+    public void testUpdateClusterRoutesToNewNodes() {
+        RoutedStore routedStore = getStore(VoldemortTestConstants.getTwoNodeCluster(), 1, 2, 1, 0);
+        Store<ByteArray, byte[]> nodeZero = routedStore.getInnerStores().get(0);
+        Map<Integer, Store<ByteArray, byte[]>> nodeStores = Maps.newHashMap();
+        for(Node node: cluster.getNodes())
+            nodeStores.put(node.getId(), new InMemoryStorageEngine<ByteArray, byte[]>("test"));
+        routedStore.updateCluster(cluster, nodeStores);
+
+        assertEquals(cluster.getNumberOfNodes(), routedStore.getInnerStores().size());
+        assertSame("Existing node stores must be kept.",
+                   nodeZero,
+                   routedStore.getInnerStores().get(0));
+        assertSame("A node at a new address must get a new store.",
+                   nodeStores.get(1),
+                   routedStore.getInnerStores().get(1));
+        RoutingStrategy routing = (RoutingStrategy) routedStore.getCapability(StoreCapabilityType.ROUTING_STRATEGY);
+        assertEquals(cluster.getNumberOfNodes(), routing.routeRequest(aKey.get()).size());
+        Versioned<byte[]> versioned = new Versioned<byte[]>(aValue, getClock(1));
+        routedStore.put(aKey, versioned);
+        assertNOrMoreEqual(routedStore, 2, aKey, versioned);
+    }
+
+    public void testReadsPreferLocalZone() {
+        Cluster cluster = new Cluster("zoned", Lists.newArrayList(new Node(0,
+                                                                           "localhost",
+                                                                           8080,
+                                                                           6666,
+                                                                           6667,
+                                                                           0,
+                                                                           0,
+                                                                           Lists.newArrayList(0)),
+                                                                  new Node(1,
+                                                                           "localhost",
+                                                                           8081,
+                                                                           6668,
+                                                                           6669,
+                                                                           1,
+                                                                           0,
+                                                                           Lists.newArrayList(1))));
+        Map<Integer, Store<ByteArray, byte[]>> subStores = Maps.newHashMap();
+        subStores.put(0, new FailingStore<ByteArray, byte[]>("test"));
+        subStores.put(1, new InMemoryStorageEngine<ByteArray, byte[]>("test"));
+        subStores.get(1).put(aKey, new Versioned<byte[]>(aValue));
+        RoutedStore routedStore = new RoutedStore("test",
+                                                  subStores,
+                                                  cluster,
+                                                  ServerTestUtils.getStoreDef("test",
+                                                                              2,
+                                                                              1,
+                                                                              1,
+                                                                              1,
+                                                                              1,
+                                                                              RoutingStrategyType.TO_ALL_STRATEGY),
+                                                  true,
+                                                  Executors.newFixedThreadPool(1),
+                                                  1000L,
+                                                  10000L,
+                                                  1,
+                                                  SystemTime.INSTANCE);
+        assertEquals(1, routedStore.get(aKey).size());
+        assertEquals(1, routedStore.getAll(Lists.newArrayList(aKey)).get(aKey).size());
+        // the failing node in the other zone was never asked
+        assertOperationalNodes(cluster, 2);
+    }
+
+    public void testSpatialQueriesScatterToAllNodes() {
+        Cluster cluster = ServerTestUtils.getLocalCluster(4, new int[12]);
+        Map<Integer, Store<ByteArray, byte[]>> subStores = Maps.newHashMap();
+        for(Node node: cluster.getNodes())
+            subStores.put(node.getId(), new KDTreeStorageEngine("test", 2));
+        RoutedStore routedStore = new RoutedStore("test",
+                                                  subStores,
+                                                  cluster,
+                                                  ServerTestUtils.getStoreDef("test",
+                                                                              2,
+                                                                              2,
+                                                                              2,
+                                                                              2,
+                                                                              2,
+                                                                              RoutingStrategyType.CONSISTENT_STRATEGY),
+                                                  4,
+                                                  true,
+                                                  1000L);
+        for(int i = 0; i < 100; i++)
+            routedStore.put(new ByteArray(KDUtil.getBytesForKey(new double[] { i % 10, i / 10 })),
+                            new Versioned<byte[]>(new byte[] { (byte) i }));
+
+        @SuppressWarnings("unchecked")
+        SpatialStore<ByteArray, byte[]> spatial = (SpatialStore<ByteArray, byte[]>) routedStore.getCapability(StoreCapabilityType.SPATIAL_QUERIES);
+        List<Pair<ByteArray, List<Versioned<byte[]>>>> page = spatial.getRange(new double[] { 0, 0 },
+                                                                               new double[] { 9, 9 },
+                                                                               null,
+                                                                               30);
+        assertEquals(30, page.size());
+        for(int i = 0; i < page.size(); i++) {
+            // replicas are merged into one entry
+            assertEquals(1, page.get(i).getSecond().size());
+            double[] point = KDUtil.getDimensionsForKey(page.get(i).getFirst().get());
+            assertEquals(i / 10, (int) point[0]);
+            assertEquals(i % 10, (int) point[1]);
+        }
+
+        List<Pair<ByteArray, List<Versioned<byte[]>>>> nearest = spatial.getNearest(new double[] {
+                4.1, 4.1 }, 3, Double.MAX_VALUE);
+        assertEquals(3, nearest.size());
+        assertEquals(44, nearest.get(0).getSecond().get(0).getValue()[0]);
+
+        // with replication factor 2 one node may be down
+        cluster.getNodeById(0).getStatus().setUnavailable();
+        assertEquals(100, spatial.getRange(new double[] { 0, 0 }, new double[] { 9, 9 }, null, 1000)
+                                 .size());
+        cluster.getNodeById(1).getStatus().setUnavailable();
+        try {
+            spatial.getNearest(new double[] { 0, 0 }, 1, 1);
+            fail("Query should fail with two nodes down.");
+        } catch(InsufficientOperationalNodesException e) {
+            // this is good
+        }
+    }
+
     /**
      * Tests that getAll works correctly with a node down in a two node cluster.
      */
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.stats;
+
+import junit.framework.TestCase;
+import voldemort.MockTime;
+
+public class LatencyHistogramTest extends TestCase {
+
+    private MockTime time;
+    private LatencyHistogram histogram;
+
+    @Override
+    public void setUp() {
+        time = new MockTime(0);
+        histogram = new LatencyHistogram(1000, 10, time);
+    }
+
+    public void testBucketsCoverAllValues() {
+        long previousUpperBound = -1;
+        for(int bucket = 0; bucket <= LatencyHistogram.bucketFor(Long.MAX_VALUE); bucket++) {
+            long upperBound = LatencyHistogram.upperBoundOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketFor(previousUpperBound + 1));
+            assertEquals(bucket, LatencyHistogram.bucketFor(upperBound));
+            previousUpperBound = upperBound;
+        }
+        assertEquals(Long.MAX_VALUE, previousUpperBound);
+    }
+
+    public void testEmpty() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getQuantile(0.99));
+        assertEquals(0, histogram.getMax());
+    }
+
+    public void testQuantiles() {
+        for(int i = 1; i <= 10000; i++)
+            histogram.record(i * 1000L);
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000 * 1000L, histogram.getMax());
+        assertWithinError(5000 * 1000L, histogram.getQuantile(0.5));
+        assertWithinError(9500 * 1000L, histogram.getQuantile(0.95));
+        assertWithinError(9990 * 1000L, histogram.getQuantile(0.999));
+        assertEquals(10000 * 1000L, histogram.getQuantile(1.0));
+    }
+
+    public void testTailIsVisible() {
+        for(int i = 0; i < 990; i++)
+            histogram.record(1000);
+        for(int i = 0; i < 10; i++)
+            histogram.record(5000000);
+        assertWithinError(1000, histogram.getQuantile(0.5));
+        assertWithinError(1000, histogram.getQuantile(0.99));
+        assertWithinError(5000000, histogram.getQuantile(0.995));
+        assertEquals(5000000, histogram.getMax());
+    }
+
+    public void testWindowSlides() {
+        histogram.record(5000000);
+        time.addMilliseconds(500);
+        histogram.record(1000);
+        assertEquals(2, histogram.getCount());
+        assertEquals(5000000, histogram.getMax());
+
+        // the first slice falls out of the window, the second is still in it
+        time.addMilliseconds(600);
+        assertEquals(1, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+
+        // recording into a recycled slice starts it over
+        time.addMilliseconds(400);
+        histogram.record(2000);
+        assertEquals(1, histogram.getCount());
+        assertEquals(2000, histogram.getMax());
+    }
+
+    private void assertWithinError(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but got " + actual,
+                   Math.abs(actual - expected) <= expected / 8);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.stats;
+
+import junit.framework.TestCase;
+import voldemort.utils.Time;
+
+public class RequestCounterTest extends TestCase {
+
+    public void testCountsAndAverage() {
+        RequestCounter counter = new RequestCounter(100000);
+        counter.addRequest(1 * Time.NS_PER_MS);
+        counter.addRequest(3 * Time.NS_PER_MS);
+        assertEquals(2, counter.getCount());
+        assertEquals(2, counter.getTotalCount());
+        assertEquals(2.0, counter.getAverageTimeInMs(), 0.0001);
+        assertEquals(3.0, counter.getMaxTimeInMs(), 0.0001);
+    }
+
+    public void testConcurrentRequestsAreNotLost() throws Exception {
+        final RequestCounter counter = new RequestCounter(100000);
+        final int numThreads = 8;
+        final int requestsPerThread = 10000;
+        Thread[] threads = new Thread[numThreads];
+        for(int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread(new Runnable() {
+
+                public void run() {
+                    for(int j = 0; j < requestsPerThread; j++)
+                        counter.addRequest(1000);
+                }
+            });
+            threads[i].start();
+        }
+        for(Thread thread: threads)
+            thread.join();
+        assertEquals(numThreads * requestsPerThread, counter.getCount());
+        assertEquals(numThreads * requestsPerThread, counter.getTotalCount());
+    }
+
+    public void testWindowRollsOver() throws Exception {
+        RequestCounter counter = new RequestCounter(50);
+        for(int i = 0; i < 10; i++)
+            counter.addRequest(1000);
+        Thread.sleep(100);
+        assertEquals(0, counter.getCount());
+        assertEquals(10, counter.getTotalCount());
+        counter.addRequest(1000);
+        assertEquals(1, counter.getCount());
+        assertEquals(11, counter.getTotalCount());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.store.stats;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import voldemort.ServerTestUtils;
+import voldemort.TestUtils;
+import voldemort.server.StoreRepository;
+import voldemort.server.socket.SocketServer;
+import voldemort.server.protocol.vold.VoldemortNativeRequestHandler;
+import voldemort.store.ErrorCodeMapper;
+import voldemort.store.Store;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.store.socket.SocketStore;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.Versioned;
+
+public class RequestTracerTest extends TestCase {
+
+    public void testSampling() {
+        RequestTracer tracer = new RequestTracer(0, 10);
+        for(int i = 0; i < 100; i++)
+            assertNull(tracer.startTrace("test", "get"));
+
+        tracer.setSampleInterval(10);
+        int traced = 0;
+        for(int i = 0; i < 100; i++)
+            if(tracer.startTrace("test", "get") != null)
+                traced++;
+        assertEquals(10, traced);
+    }
+
+    public void testRingBufferKeepsNewest() {
+        RequestTracer tracer = new RequestTracer(1, 3);
+        for(int i = 1; i <= 5; i++)
+            tracer.finishTrace(tracer.joinTrace(i, "test", "get"));
+        List<RequestTrace> traces = tracer.getRecentTraces();
+        assertEquals(3, traces.size());
+        assertEquals(5, traces.get(0).getId());
+        assertEquals(4, traces.get(1).getId());
+        assertEquals(3, traces.get(2).getId());
+
+        tracer.clearTraces();
+        assertEquals(0, tracer.getRecentTraces().size());
+    }
+
+    public void testMarkOnlyRecordsAttachedTrace() {
+        RequestTrace.mark("ignored");
+        RequestTrace trace = new RequestTrace(1, "test", "get");
+        RequestTrace previous = RequestTrace.attach(trace);
+        try {
+            RequestTrace.mark("first");
+            RequestTrace.mark("second");
+        } finally {
+            RequestTrace.restore(previous);
+        }
+        RequestTrace.mark("ignored");
+        assertNull(RequestTrace.current());
+        assertEquals(2, trace.getNumberOfStages());
+        assertEquals("first", trace.getStage(0));
+        assertEquals("second", trace.getStage(1));
+        assertTrue(trace.getStageTimeNs(0) <= trace.getStageTimeNs(1));
+    }
+
+    public void testTraceIdCrossesTheWire() throws Exception {
+        String storeName = "test";
+        StoreRepository repository = new StoreRepository();
+        repository.addLocalStore(new StatTrackingStore<ByteArray, byte[]>(new InMemoryStorageEngine<ByteArray, byte[]>(storeName)));
+        RequestTracer serverTracer = new RequestTracer(0, 10);
+        int port = ServerTestUtils.findFreePort();
+        SocketServer server = new SocketServer("test-socket",
+                                               port,
+                                               2,
+                                               5,
+                                               10000,
+                                               new VoldemortNativeRequestHandler(new ErrorCodeMapper(),
+                                                                                 repository,
+                                                                                 serverTracer));
+        server.start();
+        server.awaitStartupCompletion();
+        SocketStore socketStore = ServerTestUtils.getSocketStore(storeName, port);
+        try {
+            RequestTracer clientTracer = new RequestTracer(1, 10);
+            Store<ByteArray, byte[]> store = new TracingStore<ByteArray, byte[]>(socketStore,
+                                                                                 clientTracer);
+            ByteArray key = TestUtils.toByteArray("key");
+            store.put(key, new Versioned<byte[]>("value".getBytes()));
+            assertEquals(1, store.get(key).size());
+
+            // untraced requests carry no id and are not sampled by the server
+            socketStore.get(key);
+
+            // the server finishes its trace just after sending the response
+            List<RequestTrace> clientTraces = clientTracer.getRecentTraces();
+            List<RequestTrace> serverTraces = serverTracer.getRecentTraces();
+            for(int i = 0; i < 100 && serverTraces.size() < 2; i++) {
+                Thread.sleep(10);
+                serverTraces = serverTracer.getRecentTraces();
+            }
+            assertEquals(2, clientTraces.size());
+            assertEquals(2, serverTraces.size());
+            for(int i = 0; i < 2; i++) {
+                assertEquals(clientTraces.get(i).getId(), serverTraces.get(i).getId());
+                assertEquals(clientTraces.get(i).getOperation(), serverTraces.get(i)
+                                                                             .getOperation());
+            }
+            assertEquals("get", serverTraces.get(0).getOperation());
+            assertStages(clientTraces.get(0), "checked out connection to localhost:" + port,
+                         "request sent to localhost:" + port, "response read from localhost:"
+                                                              + port, "done");
+            assertStages(serverTraces.get(0),
+                         "request header read",
+                         "store entered",
+                         "store returned",
+                         "response written");
+        } finally {
+            socketStore.close();
+            server.shutdown();
+        }
+    }
+
+    private void assertStages(RequestTrace trace, String... stages) {
+        assertEquals(trace.toString(), stages.length, trace.getNumberOfStages());
+        for(int i = 0; i < stages.length; i++)
+            assertEquals(stages[i], trace.getStage(i));
+    }
+}
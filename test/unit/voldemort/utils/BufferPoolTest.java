@@ -0,0 +1,118 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package voldemort.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+import voldemort.TestUtils;
+
+public class BufferPoolTest extends TestCase {
+
+    public void testSizeClasses() {
+        BufferPool pool = new BufferPool(1024, 64 * 1024, 10, 2);
+        assertEquals(1024, pool.acquire(1).length);
+        assertEquals(1024, pool.acquire(1024).length);
+        assertEquals(2048, pool.acquire(1025).length);
+        assertEquals(64 * 1024, pool.acquire(64000).length);
+        assertEquals(100 * 1024, pool.acquire(100 * 1024).length);
+        assertEquals(4, pool.getNumberOfMisses());
+        assertEquals(1, pool.getNumberOfUnpooledAllocations());
+        assertEquals(0, pool.getNumberOfHits());
+    }
+
+    public void testReuse() {
+        BufferPool pool = new BufferPool(1024, 64 * 1024, 10, 2);
+        byte[] buffer = pool.acquire(3000);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(4096));
+        assertNotSame(buffer, pool.acquire(4096));
+        assertEquals(1, pool.getNumberOfHits());
+        assertEquals(2, pool.getNumberOfMisses());
+        assertEquals(1.0 / 3.0, pool.getHitRate(), 0.0001);
+    }
+
+    public void testForeignBuffersAreIgnored() {
+        BufferPool pool = new BufferPool(1024, 4096, 10, 2);
+        pool.release(null);
+        pool.release(new byte[1000]);
+        pool.release(new byte[8192]);
+        assertEquals(1024, pool.acquire(10).length);
+        assertEquals(0, pool.getNumberOfHits());
+    }
+
+    public void testSharedFreeListIsBounded() throws Exception {
+        final BufferPool pool = new BufferPool(1024, 1024, 3, 1);
+        final byte[][] buffers = new byte[5][];
+        for(int i = 0; i < buffers.length; i++)
+            buffers[i] = pool.acquire(1024);
+        // one buffer fills this thread's cache, three go to the shared list
+        for(byte[] buffer: buffers)
+            pool.release(buffer);
+        assertEquals(1, pool.getNumberOfDiscards());
+
+        // another thread can only see the shared list
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+
+            public void run() {
+                for(int i = 0; i < 4; i++)
+                    pool.acquire(1024);
+                done.countDown();
+            }
+        }).start();
+        done.await();
+        assertEquals(3, pool.getNumberOfHits());
+        assertEquals(6, pool.getNumberOfMisses());
+    }
+
+    public void testEmptyPoolNeverReuses() {
+        BufferPool pool = new BufferPool(1024, 1024, 0, 0);
+        byte[] buffer = pool.acquire(1024);
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire(1024));
+        assertEquals(1, pool.getNumberOfDiscards());
+        assertEquals(0.0, pool.getHitRate());
+    }
+
+    public void testPooledStreamsReturnBuffers() throws Exception {
+        BufferPool pool = new BufferPool(1024, 1024, 10, 2);
+        byte[] data = TestUtils.randomBytes(5000);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PooledBufferedOutputStream output = new PooledBufferedOutputStream(bytes, pool, 1000);
+        output.write(data);
+        output.close();
+        assertTrue(ByteUtils.compare(data, bytes.toByteArray()) == 0);
+
+        PooledBufferedInputStream input = new PooledBufferedInputStream(new ByteArrayInputStream(data),
+                                                                        pool,
+                                                                        1000);
+        byte[] read = new byte[data.length];
+        int offset = 0;
+        while(offset < read.length)
+            offset += input.read(read, offset, read.length - offset);
+        input.close();
+        assertTrue(ByteUtils.compare(data, read) == 0);
+
+        assertEquals(1, pool.getNumberOfHits());
+        assertEquals(1, pool.getNumberOfMisses());
+    }
+}
@@ -17,8 +17,16 @@
 package voldemort.versioning;
 
 import static voldemort.TestUtils.getClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
 import junit.framework.TestCase;
 import voldemort.TestUtils;
+import voldemort.utils.ByteUtils;
 
 /**
  * VectorClock tests
@@ -86,6 +94,24 @@ public class VectorClockTest extends TestCase {
         assertEquals("Clock does not serialize to itself.", clock, new VectorClock(clock.toBytes()));
     }
 
+    public void testStreamSerialization() throws Exception {
+        VectorClock clock = getClock(1, 1, 2, 3, 3, 6);
+        for(int i = 0; i < 300; i++)
+            clock.incrementVersion(2, System.currentTimeMillis());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        clock.writeTo(output);
+        output.writeByte(42);
+        output.flush();
+        byte[] written = bytes.toByteArray();
+        assertTrue("Streamed bytes differ from toBytes().",
+                   Arrays.equals(clock.toBytes(), ByteUtils.copy(written, 0, written.length - 1)));
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(written));
+        assertEquals("Clock does not stream to itself.", clock, VectorClock.read(input));
+        assertEquals("Too many bytes consumed.", 42, input.readByte());
+    }
+
     public void testIncrementOrderDoesntMatter() {
         // Clocks should have the property that no matter what order the
         // increment operations are done in the resulting clocks are equal
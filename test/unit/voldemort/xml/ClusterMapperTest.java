@@ -17,6 +17,7 @@
 package voldemort.xml;
 
 import java.io.StringReader;
+import java.util.Arrays;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -39,6 +40,33 @@ public class ClusterMapperTest extends TestCase {
         assertTrue("Tag not found.", tags.contains(1));
     }
 
+    public void testZoneAndRackRoundTrip() {
+        ClusterMapper mapper = new ClusterMapper();
+        Cluster cluster = new Cluster("zoned", Arrays.asList(new Node(0,
+                                                                      "host0",
+                                                                      8080,
+                                                                      6666,
+                                                                      6667,
+                                                                      1,
+                                                                      2,
+                                                                      Arrays.asList(0, 1))));
+        Cluster read = mapper.readCluster(new StringReader(mapper.writeCluster(cluster)));
+        assertEquals(cluster, read);
+        assertEquals(1, read.getNodeById(0).getZoneId());
+        assertEquals(2, read.getNodeById(0).getRackId());
+
+        // nodes without topology fall in the default zone and rack
+        Node node = mapper.readCluster(new StringReader(VoldemortTestConstants.getOneNodeClusterXml()))
+                          .getNodeById(0);
+        assertEquals(Node.DEFAULT_ZONE_ID, node.getZoneId());
+        assertEquals(Node.DEFAULT_RACK_ID, node.getRackId());
+
+        // and are written without it, so older readers still accept the xml
+        String xml = mapper.writeCluster(new Cluster("plain", Arrays.asList(node)));
+        assertFalse(xml.contains("zone-id"));
+        assertFalse(xml.contains("rack-id"));
+    }
+
     public void testOtherClusters() {
         ClusterMapper mapper = new ClusterMapper();
         mapper.readCluster(new StringReader(VoldemortTestConstants.getNineNodeClusterXml()));
@@ -23,6 +23,7 @@ import java.util.List;
 
 import junit.framework.TestCase;
 import voldemort.VoldemortTestConstants;
+import voldemort.serialization.Compression;
 import voldemort.store.StoreDefinition;
 
 public class StoreDefinitionMapperTest extends TestCase {
@@ -71,6 +72,30 @@ public class StoreDefinitionMapperTest extends TestCase {
         assertEquals(storeDefs, mapper.readStoreList(new StringReader(written)));
     }
 
+    public void testCompressionStore() {
+        StoreDefinitionsMapper mapper = new StoreDefinitionsMapper();
+        List<StoreDefinition> storeDefs = mapper.readStoreList(new StringReader(VoldemortTestConstants.getStoreDefinitionsWithCompressionXml()));
+        Compression compression = storeDefs.get(0).getValueSerializer().getCompression();
+        assertEquals("deflate", compression.getType());
+        assertEquals("ImNvbG9yIjoi", compression.getOptions());
+        assertFalse(storeDefs.get(0).getKeySerializer().hasCompression());
+        String written = mapper.writeStoreList(storeDefs);
+        assertEquals(storeDefs, mapper.readStoreList(new StringReader(written)));
+    }
+
+    public void testCompressionOnKeyFails() {
+        StoreDefinitionsMapper mapper = new StoreDefinitionsMapper();
+        String xml = VoldemortTestConstants.getStoreDefinitionsWithCompressionXml()
+                                           .replace("</schema-info>\n    </key-serializer>",
+                                                    "</schema-info>\n      <compression><type>gzip</type></compression>\n    </key-serializer>");
+        try {
+            mapper.readStoreList(new StringReader(xml));
+            fail("Compression on the key serializer should not be allowed.");
+        } catch(MappingException e) {
+            // this is good
+        }
+    }
+
     private void assertEqual(List<StoreDefinition> l1, List<StoreDefinition> l2) {
         assertEquals(l1.size(), l2.size());
         for(int i = 0; i < l1.size(); i++) {